@@ -36,6 +36,8 @@ public class FileSystemStoreFactory implements ObjectFactory {
 
   public static final String REPROXY_BASE_URL = "reproxyBaseUrl";
 
+  public static final String ZERO_COPY_PARAM = "zeroCopy";
+
   public Object getObjectInstance(Object o, Name name, Context context, Hashtable<?, ?> hashtable) throws Exception {
     String dataDirectory = (String) ((Reference) o).get(DATA_DIR_PARAM).getContent();
     String reproxyBaseUrl = null;
@@ -44,7 +46,13 @@ public class FileSystemStoreFactory implements ObjectFactory {
       reproxyBaseUrl = (String) ((Reference) o).get(REPROXY_BASE_URL).getContent();
     }
 
-    return new FileSystemStoreService(dataDirectory, reproxyBaseUrl);
+    boolean zeroCopy = true;
+
+    if (((Reference) o).get(ZERO_COPY_PARAM) != null) {
+      zeroCopy = Boolean.parseBoolean((String) ((Reference) o).get(ZERO_COPY_PARAM).getContent());
+    }
+
+    return new FileSystemStoreService(dataDirectory, reproxyBaseUrl, zeroCopy);
   }
 
 }
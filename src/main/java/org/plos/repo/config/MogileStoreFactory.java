@@ -22,6 +22,8 @@
 
 package org.plos.repo.config;
 
+import org.plos.repo.service.MogileStoreService;
+
 import javax.naming.Context;
 import javax.naming.Name;
 import javax.naming.Reference;
@@ -30,14 +32,27 @@ import java.util.Hashtable;
 
 public class MogileStoreFactory implements ObjectFactory {
 
+  public static final String PATH_CACHE_TTL_SECONDS_PARAM = "pathCacheTtlSeconds";
+
+  public static final String PATH_CACHE_MAX_SIZE_PARAM = "pathCacheMaxSize";
+
   public Object getObjectInstance(Object o, Name name, Context context, Hashtable<?, ?> hashtable) throws Exception {
-    return new org.plos.repo.service.MogileStoreService(
+    return new MogileStoreService(
         ((Reference) o).get("domain").getContent().toString(),
         ((Reference) o).get("trackers").getContent().toString().split(","),
         Integer.parseInt(((Reference) o).get("maxTrackerConnections").getContent().toString()),
         Integer.parseInt(((Reference) o).get("maxIdleConnections").getContent().toString()),
-        Long.parseLong(((Reference) o).get("maxIdleTimeMillis").getContent().toString())
+        Long.parseLong(((Reference) o).get("maxIdleTimeMillis").getContent().toString()),
+        getLong((Reference) o, PATH_CACHE_TTL_SECONDS_PARAM, MogileStoreService.DEFAULT_PATH_CACHE_TTL_SECONDS),
+        getLong((Reference) o, PATH_CACHE_MAX_SIZE_PARAM, MogileStoreService.DEFAULT_PATH_CACHE_MAX_SIZE)
     );
   }
 
+  private static long getLong(Reference reference, String param, long defaultValue) {
+    if (reference.get(param) == null) {
+      return defaultValue;
+    }
+    return Long.parseLong(reference.get(param).getContent().toString());
+  }
+
 }
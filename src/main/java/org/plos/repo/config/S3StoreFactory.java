@@ -22,6 +22,7 @@
 
 package org.plos.repo.config;
 
+import org.plos.repo.service.S3StoreService;
 
 import javax.naming.Context;
 import javax.naming.Name;
@@ -31,11 +32,34 @@ import java.util.Hashtable;
 
 public class S3StoreFactory implements ObjectFactory {
 
+  public static final String MULTIPART_THRESHOLD_PARAM = "multipartThreshold";
+
+  public static final String PART_SIZE_PARAM = "partSize";
+
+  public static final String UPLOAD_THREADS_PARAM = "uploadThreads";
+
+  public static final String MAX_ATTEMPTS_PARAM = "maxAttempts";
+
+  public static final String EXISTS_CACHE_TTL_SECONDS_PARAM = "existsCacheTtlSeconds";
+
   public Object getObjectInstance(Object o, Name name, Context context, Hashtable<?, ?> hashtable) throws Exception {
-    return new org.plos.repo.service.S3StoreService(
+    return new S3StoreService(
         ((Reference) o).get("awsAccessKey").getContent().toString(),
-        ((Reference) o).get("awsSecretKey").getContent().toString()
+        ((Reference) o).get("awsSecretKey").getContent().toString(),
+        getLong((Reference) o, MULTIPART_THRESHOLD_PARAM, S3StoreService.DEFAULT_MULTIPART_THRESHOLD),
+        Math.max(S3StoreService.MIN_PART_SIZE,
+            getLong((Reference) o, PART_SIZE_PARAM, S3StoreService.DEFAULT_PART_SIZE)),
+        (int) getLong((Reference) o, UPLOAD_THREADS_PARAM, S3StoreService.DEFAULT_UPLOAD_THREADS),
+        (int) getLong((Reference) o, MAX_ATTEMPTS_PARAM, S3StoreService.DEFAULT_MAX_ATTEMPTS),
+        getLong((Reference) o, EXISTS_CACHE_TTL_SECONDS_PARAM, S3StoreService.DEFAULT_EXISTS_CACHE_TTL_SECONDS)
     );
   }
 
+  private static long getLong(Reference reference, String param, long defaultValue) {
+    if (reference.get(param) == null) {
+      return defaultValue;
+    }
+    return Long.parseLong(reference.get(param).getContent().toString());
+  }
+
 }
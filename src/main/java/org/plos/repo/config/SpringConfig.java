@@ -27,6 +27,7 @@ import org.plos.repo.models.validator.InputRepoObjectValidator;
 import org.plos.repo.models.validator.TimestampInputValidator;
 import org.plos.repo.service.*;
 import org.plos.repo.util.ChecksumGenerator;
+import org.plos.repo.util.UploadSpooler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Bean;
@@ -38,10 +39,14 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
+import javax.naming.NamingException;
 import javax.sql.DataSource;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.sql.Connection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @Configuration
 @EnableTransactionManagement
@@ -49,6 +54,36 @@ public class SpringConfig {
 
   private static final Logger log = LoggerFactory.getLogger(SpringConfig.class);
 
+  /**
+   * Look up an optional tuning value, declared in the context as an Environment entry. For example:
+   * <pre>
+   *   &lt;Environment name="repo/objectCacheMaxBytes" value="67108864" type="java.lang.Long" /&gt;
+   * </pre>
+   *
+   * @return the configured value, or <code>defaultValue</code> if the entry is not declared
+   */
+  private static long lookupEnvironment(String name, long defaultValue) {
+    try {
+      Context envContext = (Context) new InitialContext().lookup("java:/comp/env");
+      long value = Long.parseLong(envContext.lookup(name).toString());
+      log.info(name + ": " + value);
+      return value;
+    } catch (NamingException e) {
+      return defaultValue;
+    }
+  }
+
+  private static String lookupEnvironment(String name, String defaultValue) {
+    try {
+      Context envContext = (Context) new InitialContext().lookup("java:/comp/env");
+      String value = envContext.lookup(name).toString();
+      log.info(name + ": " + value);
+      return value;
+    } catch (NamingException e) {
+      return defaultValue;
+    }
+  }
+
   @Bean
   public RepoInfoService repoInfoService() {
     return new RepoInfoService();
@@ -59,6 +94,67 @@ public class SpringConfig {
     return new RepoService();
   }
 
+  @Bean
+  public RepoObjectCache repoObjectCache() {
+    return new RepoObjectCache(
+        lookupEnvironment("repo/objectCacheMaxBytes", RepoObjectCache.DISABLED),
+        lookupEnvironment("repo/objectCacheTtlSeconds", RepoObjectCache.DEFAULT_TTL_SECONDS));
+  }
+
+  @Bean
+  public ObjectKeyFilter objectKeyFilter() {
+    return new ObjectKeyFilter(
+        lookupEnvironment("repo/keyFilterRebuildSeconds", ObjectKeyFilter.DISABLED),
+        ObjectKeyFilter.DEFAULT_FALSE_POSITIVE_RATE);
+  }
+
+  @Bean
+  public RequestExecutors requestExecutors() {
+    return new RequestExecutors(
+        (int) lookupEnvironment("repo/sqlExecutorThreads", RequestExecutors.DEFAULT_SQL_THREADS),
+        (int) lookupEnvironment("repo/sqlExecutorQueue", RequestExecutors.DEFAULT_SQL_QUEUE),
+        (int) lookupEnvironment("repo/storeExecutorThreads", RequestExecutors.DEFAULT_STORE_THREADS),
+        (int) lookupEnvironment("repo/storeExecutorQueue", RequestExecutors.DEFAULT_STORE_QUEUE),
+        (int) lookupEnvironment("repo/prefetchExecutorThreads", RequestExecutors.DEFAULT_PREFETCH_THREADS));
+  }
+
+  @Bean
+  public AdmissionController admissionController() {
+    return new AdmissionController(
+        (int) lookupEnvironment("repo/maxConcurrentWrites", AdmissionController.DEFAULT_MAX_WRITES),
+        lookupEnvironment("repo/maxUploadBytes", AdmissionController.DEFAULT_MAX_BYTES),
+        (int) lookupEnvironment("repo/maxBucketWrites", AdmissionController.DEFAULT_MAX_BUCKET_WRITES),
+        lookupEnvironment("repo/maxBucketUploadBytes", AdmissionController.DEFAULT_MAX_BUCKET_BYTES),
+        lookupEnvironment("repo/writeQueueMillis", AdmissionController.DEFAULT_QUEUE_MILLIS),
+        lookupEnvironment("repo/unknownUploadBytes", AdmissionController.DEFAULT_UNKNOWN_LENGTH_BYTES));
+  }
+
+  @Bean
+  public ReplicaRouter replicaRouter() throws Exception {
+    Context envContext = (Context) new InitialContext().lookup("java:/comp/env");
+    Map<String, DataSource> replicas = new LinkedHashMap<>();
+
+    for (String name : lookupEnvironment("repo/replicaDataSources", "").split(",")) {
+      if (!name.trim().isEmpty()) {
+        replicas.put(name.trim(), (DataSource) envContext.lookup(name.trim()));
+      }
+    }
+
+    log.info("Database replicas: " + replicas.keySet());
+
+    return new ReplicaRouter(replicas,
+        lookupEnvironment("repo/replicaMaxLagMillis", ReplicaRouter.DEFAULT_MAX_LAG_MILLIS),
+        lookupEnvironment("repo/replicaCheckMillis", ReplicaRouter.DEFAULT_CHECK_MILLIS),
+        lookupEnvironment("repo/replicaReadYourWrites", 1) != 0);
+  }
+
+  @Bean
+  public AuditWriter auditWriter() {
+    return new AuditWriter(
+        lookupEnvironment("repo/auditFlushMillis", AuditWriter.DEFAULT_FLUSH_MILLIS),
+        (int) lookupEnvironment("repo/auditBatchSize", AuditWriter.DEFAULT_BATCH_SIZE));
+  }
+
   @Bean
   public CollectionRepoService collectionRepoService() {
     return new CollectionRepoService();
@@ -84,7 +180,16 @@ public class SpringConfig {
 
   @Bean
   public ChecksumGenerator versionChecksumGenerator() {
-    return new ChecksumGenerator();
+    return new ChecksumGenerator(lookupEnvironment("repo/bucketDigests", ""));
+  }
+
+  @Bean
+  public UploadSpooler uploadSpooler() {
+    String directory = lookupEnvironment("repo/uploadSpoolDirectory", "");
+    return new UploadSpooler(directory.isEmpty() ? null : new File(directory),
+        (int) lookupEnvironment("repo/uploadBufferBytes", UploadSpooler.DEFAULT_BUFFER_BYTES),
+        (int) lookupEnvironment("repo/uploadPooledBuffers", UploadSpooler.DEFAULT_POOLED_BUFFERS),
+        (int) lookupEnvironment("repo/uploadMaxBuffers", UploadSpooler.DEFAULT_MAX_BUFFERS));
   }
 
   @Bean
@@ -95,6 +200,12 @@ public class SpringConfig {
 
     log.info("ObjectStore: " + objStore.getClass().toString());
 
+    long contentCacheMaxBytes = lookupEnvironment("repo/contentCacheMaxBytes", CachingObjectStore.DEFAULT_MAX_BYTES);
+    if (contentCacheMaxBytes > 0) {
+      objStore = new CachingObjectStore(objStore, contentCacheMaxBytes,
+          lookupEnvironment("repo/contentCacheMaxObjectBytes", CachingObjectStore.DEFAULT_MAX_OBJECT_BYTES));
+    }
+
     return objStore;
   }
 
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.models.input;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * One entry of a batch ingest. The fields are those of a single object creation, except for the content, which is
+ * sent in the part of the request named by <code>file</code>.
+ */
+@XmlRootElement
+public class InputBatchObject {
+
+  private String key;
+  private String create;
+  private String contentType;
+  private String downloadName;
+  private String timestamp;
+  private String creationDateTime;
+  private String tag;
+  private String userMetadata;
+  private String checksum;
+  private Long size;
+  private String file;
+
+  // empty constructor required for JAXB mapping
+  public InputBatchObject() {
+  }
+
+  public InputBatchObject(String key, String create, String file) {
+    this.key = key;
+    this.create = create;
+    this.file = file;
+  }
+
+  /**
+   * @return the fields of the entry as the input of a single object creation, without its content
+   */
+  public InputRepoObject toInputRepoObject(String bucketName) {
+    InputRepoObject inputRepoObject = new InputRepoObject();
+    inputRepoObject.setBucketName(bucketName);
+    inputRepoObject.setKey(key);
+    inputRepoObject.setCreate(create);
+    inputRepoObject.setContentType(contentType);
+    inputRepoObject.setDownloadName(downloadName);
+    inputRepoObject.setTimestamp(timestamp);
+    inputRepoObject.setCreationDateTime(creationDateTime);
+    inputRepoObject.setTag(tag);
+    inputRepoObject.setUserMetadata(userMetadata);
+    inputRepoObject.setChecksum(checksum);
+    inputRepoObject.setSize(size);
+    return inputRepoObject;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public void setKey(String key) {
+    this.key = key;
+  }
+
+  public String getCreate() {
+    return create;
+  }
+
+  public void setCreate(String create) {
+    this.create = create;
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  public void setContentType(String contentType) {
+    this.contentType = contentType;
+  }
+
+  public String getDownloadName() {
+    return downloadName;
+  }
+
+  public void setDownloadName(String downloadName) {
+    this.downloadName = downloadName;
+  }
+
+  public String getTimestamp() {
+    return timestamp;
+  }
+
+  public void setTimestamp(String timestamp) {
+    this.timestamp = timestamp;
+  }
+
+  public String getCreationDateTime() {
+    return creationDateTime;
+  }
+
+  public void setCreationDateTime(String creationDateTime) {
+    this.creationDateTime = creationDateTime;
+  }
+
+  public String getTag() {
+    return tag;
+  }
+
+  public void setTag(String tag) {
+    this.tag = tag;
+  }
+
+  public String getUserMetadata() {
+    return userMetadata;
+  }
+
+  public void setUserMetadata(String userMetadata) {
+    this.userMetadata = userMetadata;
+  }
+
+  public String getChecksum() {
+    return checksum;
+  }
+
+  public void setChecksum(String checksum) {
+    this.checksum = checksum;
+  }
+
+  public Long getSize() {
+    return size;
+  }
+
+  public void setSize(Long size) {
+    this.size = size;
+  }
+
+  public String getFile() {
+    return file;
+  }
+
+  public void setFile(String file) {
+    this.file = file;
+  }
+
+}
@@ -23,6 +23,7 @@
 package org.plos.repo.models.input;
 
 import com.wordnik.swagger.annotations.ApiParam;
+import org.glassfish.jersey.media.multipart.FormDataContentDisposition;
 import org.glassfish.jersey.media.multipart.FormDataParam;
 
 import javax.xml.bind.annotation.XmlRootElement;
@@ -75,6 +76,17 @@ public class InputRepoObject {
   @FormDataParam("file")
   private InputStream uploadedInputStream;
 
+  @ApiParam(value = "SHA-1 checksum of the file, in hex. If the bucket already stores content with this checksum the file may be left out", required = false)
+  @FormDataParam("checksum")
+  private String checksum;
+
+  @ApiParam(value = "size of the file in bytes", required = false)
+  @FormDataParam("size")
+  private Long size;
+
+  @FormDataParam("file")
+  private FormDataContentDisposition uploadedFileDisposition;
+
   public String getKey() {
     return key;
   }
@@ -115,6 +127,28 @@ public class InputRepoObject {
     return uploadedInputStream;
   }
 
+  public String getChecksum() {
+    return checksum;
+  }
+
+  public Long getSize() {
+    return size;
+  }
+
+  /**
+   * @return the size of the uploaded file declared in the size field, or else in the size parameter of the file's
+   * Content-Disposition header. Null if the client did not declare it.
+   */
+  public Long getUploadedSize() {
+    if (size != null) {
+      return size;
+    }
+    if (uploadedFileDisposition == null || uploadedFileDisposition.getSize() < 0) {
+      return null;
+    }
+    return uploadedFileDisposition.getSize();
+  }
+
   public void setKey(String key) {
     this.key = key;
   }
@@ -155,4 +189,12 @@ public class InputRepoObject {
     this.uploadedInputStream = uploadedInputStream;
   }
 
+  public void setChecksum(String checksum) {
+    this.checksum = checksum;
+  }
+
+  public void setSize(Long size) {
+    this.size = size;
+  }
+
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.models.output;
+
+import org.plos.repo.models.RepoError;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Result of one entry of a batch metadata lookup or batch ingest. Exactly one of object and error is set.
+ */
+@XmlRootElement
+public class RepoObjectLookupOutput {
+
+  private String key;
+  private RepoObjectOutput object;
+  private RepoError error;
+
+  // empty constructor required for JAXB mapping
+  private RepoObjectLookupOutput() {
+  }
+
+  public RepoObjectLookupOutput(String key, RepoObjectOutput object) {
+    this.key = key;
+    this.object = object;
+  }
+
+  public RepoObjectLookupOutput(String key, RepoError error) {
+    this.key = key;
+    this.error = error;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public void setKey(String key) {
+    this.key = key;
+  }
+
+  public RepoObjectOutput getObject() {
+    return object;
+  }
+
+  public void setObject(RepoObjectOutput object) {
+    this.object = object;
+  }
+
+  public RepoError getError() {
+    return error;
+  }
+
+  public void setError(RepoError error) {
+    this.error = error;
+  }
+
+}
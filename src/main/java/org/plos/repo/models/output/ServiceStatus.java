@@ -32,6 +32,14 @@ public class ServiceStatus {
 
   public int bucketCount;
   public String serviceStarted;
+  public CacheStatus objectCache;
+  public CacheStatus contentCache;
+  public KeyFilterStatus keyFilter;
+  public ExecutorStatus sqlExecutor;
+  public ExecutorStatus storeExecutor;
+  public ExecutorStatus prefetchExecutor;
+  public AdmissionStatus writeAdmission;
+  public ReplicaStatus replicas;
 
   @XmlTransient
   public AtomicLong readsSinceStart;
@@ -26,12 +26,15 @@ import org.plos.repo.models.input.InputRepoObject;
 import org.plos.repo.service.RepoException;
 
 import javax.inject.Inject;
+import java.util.regex.Pattern;
 
 /**
  * Input Collection Validator. It validates the required fields.
  */
 public class InputRepoObjectValidator {
 
+  private static final Pattern CHECKSUM_PATTERN = Pattern.compile("[0-9a-fA-F]{40}");
+
   @Inject
   private TimestampInputValidator timestampValidator;
 
@@ -45,6 +48,10 @@ public class InputRepoObjectValidator {
       throw new RepoException(RepoException.Type.NoBucketEntered);
     }
 
+    if (repoObject.getChecksum() != null && !CHECKSUM_PATTERN.matcher(repoObject.getChecksum()).matches()) {
+      throw new RepoException(RepoException.Type.InvalidChecksum);
+    }
+
     timestampValidator.validate(repoObject.getTimestamp(), RepoException.Type.CouldNotParseTimestamp);
     timestampValidator.validate(repoObject.getCreationDateTime(), RepoException.Type.CouldNotParseCreationDate);
   }
@@ -29,7 +29,9 @@ import org.apache.http.HttpStatus;
 import org.plos.repo.models.Audit;
 import org.plos.repo.models.output.RepoAuditOutput;
 import org.plos.repo.service.AuditRepoService;
+import org.plos.repo.service.BaseRepoService;
 import org.plos.repo.service.RepoException;
+import org.plos.repo.util.ListCursor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -63,16 +65,30 @@ public class AuditController {
   @Produces({MediaType.APPLICATION_JSON})
   public Response listAuditRecords(
       @ApiParam(required = false) @QueryParam("offset") Integer offset,
-      @ApiParam(required = false) @QueryParam("limit") Integer limit) {
+      @ApiParam(required = false) @QueryParam("limit") Integer limit,
+      @ApiParam(value = "continuation token returned in the " + ObjectController.NEXT_CURSOR_HEADER + " header of the previous page",
+          required = false) @QueryParam("after") String after) {
     try {
 
-      List<Audit> auditRecords = auditRepoService.listAuditRecords(offset, limit);
+      Integer afterId = ListCursor.decode(after);
+      if (afterId != null && offset != null) {
+        throw new RepoException(RepoException.Type.InvalidOffset);
+      }
+
+      List<Audit> auditRecords = offset != null ?
+          auditRepoService.listAuditRecords(offset, limit) :
+          auditRepoService.listAuditRecordsAfter(afterId, limit);
 
       List<RepoAuditOutput> outputAuditRecords = Lists.newArrayList(Iterables.transform(auditRecords, RepoAuditOutput.typeFunction()));
 
-      return Response.status(Response.Status.OK)
+      Response.ResponseBuilder response = Response.status(Response.Status.OK)
           .entity(new GenericEntity<List<RepoAuditOutput>>(outputAuditRecords) {
-          }).build();
+          });
+      if (offset == null && auditRecords.size() == (limit == null ? BaseRepoService.DEFAULT_PAGE_SIZE : limit)) {
+        response.header(ObjectController.NEXT_CURSOR_HEADER,
+            ListCursor.encode(auditRecords.get(auditRecords.size() - 1).getId()));
+      }
+      return response.build();
 
     } catch (RepoException e) {
       return ObjectController.handleError(e);
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.rest;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import org.apache.commons.io.IOUtils;
+import org.plos.repo.models.RepoObject;
+import org.plos.repo.models.Status;
+import org.plos.repo.service.RepoException;
+import org.plos.repo.service.RepoService;
+import org.plos.repo.service.RequestExecutors;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the content of the objects of a collection to the response as a zip archive, one entry per object named
+ * after its key. While an object is copied the content of the next few is already being opened on the prefetch pool,
+ * so that the archive is not held up by the latency of each object store request. When the prefetch pool is full the
+ * content is opened by the writing thread itself.
+ * <p/>
+ * Purged objects have no content and are left out of the archive.
+ */
+public class CollectionArchiveOutput implements StreamingOutput {
+
+  public static final String MEDIA_TYPE = "application/zip";
+
+  /**
+   * Number of objects whose content is opened ahead of the one being written.
+   */
+  public static final int PREFETCH_WINDOW = 4;
+
+  private static final Splitter KEY_SPLITTER = Splitter.on('/').omitEmptyStrings();
+
+  private static final Joiner PATH_JOINER = Joiner.on('/');
+
+  private final RepoService repoService;
+  private final RequestExecutors.Pool prefetchPool;
+  private final List<RepoObject> repoObjects;
+  private final Deque<PendingContent> pending = new ArrayDeque<>();
+  private int nextObject = 0;
+
+  public CollectionArchiveOutput(RepoService repoService, RequestExecutors.Pool prefetchPool,
+                                 List<RepoObject> repoObjects) {
+    this.repoService = repoService;
+    this.prefetchPool = prefetchPool;
+    this.repoObjects = Lists.newArrayList();
+
+    for (RepoObject repoObject : repoObjects) {
+      if (repoObject.getStatus() != Status.PURGED) {
+        this.repoObjects.add(repoObject);
+      }
+    }
+  }
+
+  /**
+   * Starts opening the content of the first objects and waits for the first one, so that an object store that can not
+   * serve the collection is reported with an error response instead of an empty or truncated archive.
+   *
+   * @throws RepoException if the content of the first object can not be opened
+   */
+  public void open() throws RepoException {
+    prefetch();
+
+    if (!pending.isEmpty()) {
+      try {
+        pending.peekFirst().get();
+      } catch (RepoException e) {
+        closePending();
+        throw e;
+      }
+    }
+  }
+
+  @Override
+  public void write(OutputStream output) throws IOException {
+    ZipOutputStream zip = new ZipOutputStream(output);
+    zip.setLevel(Deflater.BEST_SPEED);
+    Set<String> entryNames = new HashSet<>();
+
+    try {
+      prefetch();
+
+      while (!pending.isEmpty()) {
+        PendingContent member = pending.pollFirst();
+        prefetch();
+
+        try (InputStream content = member.get()) {
+          ZipEntry entry = new ZipEntry(getEntryName(member.repoObject, entryNames));
+          if (member.repoObject.getTimestamp() != null) {
+            entry.setTime(member.repoObject.getTimestamp().getTime());
+          }
+
+          zip.putNextEntry(entry);
+          IOUtils.copyLarge(content, zip);
+          zip.closeEntry();
+        }
+      }
+
+      zip.finish();
+    } catch (RepoException e) {
+      throw new IOException("Could not read the content of a collection object", e);
+    } finally {
+      closePending();
+    }
+  }
+
+  /**
+   * Fills the prefetch window with the objects that follow the ones already pending.
+   */
+  private void prefetch() {
+    while (pending.size() < PREFETCH_WINDOW && nextObject < repoObjects.size()) {
+      final RepoObject repoObject = repoObjects.get(nextObject++);
+      Future<InputStream> future = null;
+
+      try {
+        future = prefetchPool.submit(new Callable<InputStream>() {
+          @Override
+          public InputStream call() throws RepoException {
+            return repoService.getObjectInputStream(repoObject);
+          }
+        });
+      } catch (RepoException e) {
+        // the pool is full, the content is opened when it is needed
+      }
+
+      pending.addLast(new PendingContent(repoObject, future));
+    }
+  }
+
+  private void closePending() {
+    while (!pending.isEmpty()) {
+      pending.pollFirst().close();
+    }
+  }
+
+  /**
+   * Returns a unique entry name for the object. Keys are used as relative paths, with the segments that would lead
+   * out of the directory the archive is extracted to replaced.
+   */
+  static String getEntryName(RepoObject repoObject, Set<String> entryNames) {
+    List<String> segments = Lists.newArrayList();
+    for (String segment : KEY_SPLITTER.split(repoObject.getKey().replace('\\', '/'))) {
+      segments.add(segment.equals(".") || segment.equals("..") ? "_" : segment);
+    }
+
+    String name = segments.isEmpty() ? "_" : PATH_JOINER.join(segments);
+
+    if (!entryNames.add(name)) {
+      name = name + "~" + repoObject.getUuid();
+      entryNames.add(name);
+    }
+
+    return name;
+  }
+
+  /**
+   * The content of an object, opened either by a prefetch task or, if it could not be submitted, on demand.
+   */
+  private class PendingContent {
+
+    private final RepoObject repoObject;
+    private final Future<InputStream> future;
+    private InputStream content;
+
+    private PendingContent(RepoObject repoObject, Future<InputStream> future) {
+      this.repoObject = repoObject;
+      this.future = future;
+    }
+
+    private InputStream get() throws RepoException {
+      if (content == null) {
+        if (future == null) {
+          content = repoService.getObjectInputStream(repoObject);
+        } else {
+          try {
+            content = future.get();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepoException(e);
+          } catch (ExecutionException e) {
+            throw (e.getCause() instanceof RepoException) ?
+                (RepoException) e.getCause() : new RepoException(e);
+          }
+        }
+      }
+      return content;
+    }
+
+    /**
+     * Closes the content once its prefetch task is done, without opening it if it was never submitted.
+     */
+    private void close() {
+      if (future != null) {
+        try {
+          IOUtils.closeQuietly(get());
+        } catch (RepoException e) {
+          // nothing was opened
+        }
+      } else {
+        IOUtils.closeQuietly(content);
+      }
+    }
+
+  }
+
+}
@@ -31,13 +31,17 @@ import com.wordnik.swagger.annotations.ApiResponse;
 import com.wordnik.swagger.annotations.ApiResponses;
 import org.apache.http.HttpStatus;
 import org.plos.repo.models.RepoCollection;
+import org.plos.repo.models.RepoObject;
 import org.plos.repo.models.input.ElementFilter;
 import org.plos.repo.models.input.InputCollection;
 import org.plos.repo.models.output.RepoCollectionOutput;
+import org.plos.repo.service.BaseRepoService;
 import org.plos.repo.service.CollectionRepoService;
 import org.plos.repo.service.RepoException;
 import org.plos.repo.service.RepoInfoService;
 import org.plos.repo.service.RepoService;
+import org.plos.repo.service.RequestExecutors;
+import org.plos.repo.util.ListCursor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,10 +55,16 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 
 @Path("/collections")
@@ -69,6 +79,12 @@ public class CollectionController {
   @Inject
   private RepoInfoService repoInfoService;
 
+  @Inject
+  private RepoService repoService;
+
+  @Inject
+  private RequestExecutors requestExecutors;
+
 
   @GET
   @ApiOperation(value = "List collections", response = RepoCollectionOutput.class, responseContainer = "List")
@@ -84,15 +100,28 @@ public class CollectionController {
       @ApiParam(required = false) @QueryParam("offset") Integer offset,
       @ApiParam(required = false) @QueryParam("limit") Integer limit,
       @ApiParam(required = false) @DefaultValue("false") @QueryParam("includeDeleted") boolean includeDeleted,
-      @ApiParam(required = false) @QueryParam("tag") String tag) {
+      @ApiParam(required = false) @QueryParam("tag") String tag,
+      @ApiParam(value = "continuation token returned in the " + ObjectController.NEXT_CURSOR_HEADER + " header of the previous page",
+          required = false) @QueryParam("after") String after) {
     try {
-      List<RepoCollection> repoCollections = collectionRepoService.listCollections(bucketName, offset, limit, includeDeleted, tag);
+      Integer afterId = ListCursor.decode(after);
+      if (afterId != null && offset != null) {
+        throw new RepoException(RepoException.Type.InvalidOffset);
+      }
+
+      List<RepoCollection> repoCollections = offset != null ?
+          collectionRepoService.listCollections(bucketName, offset, limit, includeDeleted, tag) :
+          collectionRepoService.listCollectionsAfter(bucketName, afterId, limit, includeDeleted, tag);
       List<RepoCollectionOutput> outputCollections = Lists.newArrayList(Iterables.transform(repoCollections, RepoCollectionOutput.typeFunction()));
 
-      return Response.status(Response.Status.OK)
+      Response.ResponseBuilder response = Response.status(Response.Status.OK)
           .entity(new GenericEntity<List<RepoCollectionOutput>>(outputCollections) {
-          })
-          .build();
+          });
+      if (offset == null && repoCollections.size() == (limit == null ? BaseRepoService.DEFAULT_PAGE_SIZE : limit)) {
+        response.header(ObjectController.NEXT_CURSOR_HEADER,
+            ListCursor.encode(repoCollections.get(repoCollections.size() - 1).getId()));
+      }
+      return response.build();
     } catch (RepoException e) {
       return ObjectController.handleError(e);
     }
@@ -125,6 +154,66 @@ public class CollectionController {
     }
   }
 
+  @GET
+  @Path("/{bucketName}/archive")
+  @ApiOperation(value = "Fetch the content of all the objects of a collection as a zip archive")
+  @ApiResponses(value = {
+      @ApiResponse(code = HttpStatus.SC_OK, message = "Success"),
+      @ApiResponse(code = HttpStatus.SC_NOT_FOUND, message = "Bucket not found / Collection not found"),
+      @ApiResponse(code = HttpStatus.SC_BAD_REQUEST, message = "Bad request (see message)"),
+      @ApiResponse(code = HttpStatus.SC_INTERNAL_SERVER_ERROR, message = "Server error"),
+      @ApiResponse(code = HttpStatus.SC_SERVICE_UNAVAILABLE, message = "Server busy")
+  })
+  @Produces({CollectionArchiveOutput.MEDIA_TYPE, MediaType.APPLICATION_JSON})
+  public void getCollectionArchive(
+      @ApiParam(required = true) @PathParam("bucketName") final String bucketName,
+      @ApiParam(required = true) @QueryParam("key") final String key,
+      @ApiParam("collectionFilter") @BeanParam final ElementFilter elementFilter,
+      @Suspended final AsyncResponse asyncResponse) {
+    // the collection and its objects are looked up on the database pool, and the archive written on the object store pool
+    ObjectController.submit(requestExecutors.getSqlPool(), asyncResponse, new Callable<Response>() {
+      @Override
+      public Response call() {
+        final RepoCollection repoCollection;
+        try {
+          repoCollection = collectionRepoService.getCollection(bucketName, key, elementFilter);
+        } catch (RepoException e) {
+          return ObjectController.handleError(e);
+        }
+
+        repoInfoService.incrementReadCount();
+
+        ObjectController.submit(requestExecutors.getStorePool(), asyncResponse, new Callable<Response>() {
+          @Override
+          public Response call() {
+            return archiveResponse(repoCollection);
+          }
+        });
+        return null;
+      }
+    });
+  }
+
+  private Response archiveResponse(RepoCollection repoCollection) {
+    try {
+      List<RepoObject> repoObjects = repoCollection.getRepoObjects() == null ?
+          Lists.<RepoObject>newArrayList() : repoCollection.getRepoObjects();
+      CollectionArchiveOutput output = new CollectionArchiveOutput(repoService, requestExecutors.getPrefetchPool(),
+          repoObjects);
+      output.open();
+
+      return Response.ok(output, CollectionArchiveOutput.MEDIA_TYPE)
+          .lastModified(repoCollection.getTimestamp())
+          .header(HttpHeaders.CONTENT_DISPOSITION,
+              "attachment; filename=" + URLEncoder.encode(repoCollection.getKey() + ".zip", "UTF-8"))
+          .build();
+    } catch (UnsupportedEncodingException e) {
+      return ObjectController.handleError(new RepoException(e));
+    } catch (RepoException e) {
+      return ObjectController.handleError(e);
+    }
+  }
+
   @GET
   @Path("/versions/{bucketName}")
   @ApiOperation(value = "Fetch all the collection versions", response = RepoCollectionOutput.class, responseContainer = "List")
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.rest;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes a region of a file to the response. If the response stream is backed by a channel the region is sent with
+ * {@link FileChannel#transferTo}, which lets the kernel move the data without copying it through the heap. A servlet
+ * response stream is not, and transferring to a wrapping channel degrades to small chunked copies, so the region is
+ * instead read with positioned reads into a single large buffer. Either way is cheaper than streaming a
+ * {@link java.io.FileInputStream} through the container's small copy buffer.
+ */
+public class FileChannelOutput implements StreamingOutput {
+
+  private static final int BUFFER_SIZE = 256 * 1024;
+
+  private final File file;
+  private final long offset;
+  private final long length;
+
+  public FileChannelOutput(File file, long offset, long length) {
+    this.file = file;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  @Override
+  public void write(OutputStream output) throws IOException {
+    try (FileInputStream in = new FileInputStream(file)) {
+      FileChannel channel = in.getChannel();
+
+      if (output instanceof WritableByteChannel || output instanceof FileOutputStream) {
+        transfer(channel, output);
+      } else {
+        copy(channel, output);
+      }
+    }
+  }
+
+  private void transfer(FileChannel channel, OutputStream output) throws IOException {
+    WritableByteChannel target = (output instanceof FileOutputStream) ?
+        ((FileOutputStream) output).getChannel() : (WritableByteChannel) output;
+
+    long position = offset;
+    long remaining = length;
+
+    while (remaining > 0) {
+      long transferred = channel.transferTo(position, remaining, target);
+
+      if (transferred <= 0) {
+        throw new EOFException("File " + file + " ended before byte " + (offset + length));
+      }
+
+      position += transferred;
+      remaining -= transferred;
+    }
+  }
+
+  private void copy(FileChannel channel, OutputStream output) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(length, 1)));
+
+    long position = offset;
+    long remaining = length;
+
+    while (remaining > 0) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), remaining));
+
+      int read = channel.read(buffer, position);
+
+      if (read <= 0) {
+        throw new EOFException("File " + file + " ended before byte " + (offset + length));
+      }
+
+      output.write(buffer.array(), 0, read);
+      position += read;
+      remaining -= read;
+    }
+  }
+
+}
@@ -22,6 +22,7 @@
 
 package org.plos.repo.rest;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -30,15 +31,29 @@ import com.wordnik.swagger.annotations.ApiOperation;
 import com.wordnik.swagger.annotations.ApiParam;
 import com.wordnik.swagger.annotations.ApiResponse;
 import com.wordnik.swagger.annotations.ApiResponses;
+import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpStatus;
+import org.glassfish.jersey.media.multipart.FormDataBodyPart;
+import org.glassfish.jersey.media.multipart.FormDataMultiPart;
+import org.glassfish.jersey.server.ContainerRequest;
 import org.plos.repo.models.RepoError;
 import org.plos.repo.models.RepoObject;
 import org.plos.repo.models.input.ElementFilter;
+import org.plos.repo.models.input.InputBatchCreate;
+import org.plos.repo.models.input.InputBatchLookup;
+import org.plos.repo.models.input.InputBatchObject;
+import org.plos.repo.models.input.InputObjectLookup;
 import org.plos.repo.models.input.InputRepoObject;
+import org.plos.repo.models.output.RepoObjectLookupOutput;
 import org.plos.repo.models.output.RepoObjectOutput;
+import org.plos.repo.service.AdmissionController;
 import org.plos.repo.service.RepoException;
 import org.plos.repo.service.RepoInfoService;
 import org.plos.repo.service.RepoService;
+import org.plos.repo.service.RequestExecutors;
+import org.plos.repo.util.ByteRange;
+import org.plos.repo.util.ListCursor;
+import org.plos.repo.util.SimpleDateFormatThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,20 +65,33 @@ import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.sql.Timestamp;
+import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.Callable;
 
 
 @Path("/objects")
@@ -83,16 +111,50 @@ public class ObjectController {
 
   private static final String REPROXY_HEADER_CACHE_FOR = "X-Reproxy-Cache-For";
 
+  // continuation token of a listing, to be passed back as the after= parameter to fetch the next page
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
   private static final String REPROXY_HEADER_FILE = "reproxy-file";
 
+  // seconds a client is asked to wait before retrying a request rejected by a full pool or by admission control
+  private static final int RETRY_AFTER_SECONDS = 1;
+
+  // Too Many Requests, which Response.Status does not define
+  private static final int STATUS_TOO_MANY_REQUESTS = 429;
+
   private static final String RFC1123_DATE_TIME_FORMAT = "EEE, dd MMM yyyy HH:mm:ss z";
 
+  private static final DateFormat RFC1123_DATE_FORMAT =
+      new SimpleDateFormatThreadSafe(RFC1123_DATE_TIME_FORMAT, Locale.US);
+
+  private static final String ACCEPT_RANGES_HEADER = "Accept-Ranges";
+
+  private static final String CONTENT_RANGE_HEADER = "Content-Range";
+
+  // more ranges than this are answered with the whole object, which RFC 7233 permits
+  private static final int MAX_BYTE_RANGES = 16;
+
+  // request attributes through which Tomcat's NIO and APR connectors send a file with sendfile(2)
+  private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+
+  private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+
+  private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+
+  private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
   @Inject
   private RepoService repoService;
 
   @Inject
   private RepoInfoService repoInfoService;
 
+  @Inject
+  private RequestExecutors requestExecutors;
+
+  @Inject
+  private AdmissionController admissionController;
+
 
   public static Response handleError(RepoException e) {
     Response.Status status = Response.Status.BAD_REQUEST;
@@ -102,6 +164,7 @@ public class ObjectController {
       case ObjectNotFound:
       case CollectionNotFound:
       case ObjectCollectionNotFound:
+      case ContentNotStored:
         status = Response.Status.NOT_FOUND;
         break;
 
@@ -110,11 +173,93 @@ public class ObjectController {
         status = Response.Status.INTERNAL_SERVER_ERROR;
         log.error(e.getType().toString(), e);
         break;
+
+      case ServerBusy:
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+            .entity(new RepoError(e)).build();
+
+      case TooManyRequests:
+        return Response.status(STATUS_TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+            .entity(new RepoError(e)).build();
     }
 
     return Response.status(status).entity(new RepoError(e)).build();
   }
 
+  /**
+   * Resumes <code>asyncResponse</code> with the response of <code>task</code>, run on a thread of <code>pool</code>.
+   * A task that hands the request over to another pool returns null instead. If the pool is full the request is
+   * answered right away with a 503, rather than waiting behind a slow backend.
+   *
+   * @return whether the pool took the task
+   */
+  static boolean submit(RequestExecutors.Pool pool, final AsyncResponse asyncResponse,
+                        final Callable<Response> task) {
+    try {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            Response response = task.call();
+            if (response != null) {
+              asyncResponse.resume(response);
+            }
+          } catch (Exception e) {
+            asyncResponse.resume(e);
+          }
+        }
+      });
+      return true;
+    } catch (RepoException e) {
+      asyncResponse.resume(handleError(e));
+      return false;
+    }
+  }
+
+  /**
+   * Submits a write to the object store pool once admission control lets it in. The write was admitted by the {@link
+   * WriteAdmissionFilter} before its body was read, and is admitted to its bucket here, on the request thread, so that
+   * writes waiting for room do not hold the threads that downloads need, and so that the pool does not cap the writes
+   * in flight below the limits of admission control. The permit is given back when the write is done, or right away if
+   * the pool turns the write down.
+   */
+  private void submitWrite(String bucketName, ContainerRequest request, AsyncResponse asyncResponse,
+                           final Callable<Response> task) {
+    final AdmissionController.Permit permit;
+
+    try {
+      Object admitted = request == null ? null : request.getProperty(WriteAdmissionFilter.PERMIT_PROPERTY);
+
+      if (admitted instanceof AdmissionController.Permit) {
+        permit = (AdmissionController.Permit) admitted;
+        permit.admitTo(bucketName);
+      } else {
+        permit = admissionController.admit(bucketName,
+            admissionController.getUploadBytes(request == null ? -1 : request.getLength()));
+      }
+    } catch (RepoException e) {
+      asyncResponse.resume(handleError(e));
+      return;
+    }
+
+    boolean submitted = submit(requestExecutors.getStorePool(), asyncResponse, new Callable<Response>() {
+      @Override
+      public Response call() throws Exception {
+        try {
+          return task.call();
+        } finally {
+          permit.close();
+        }
+      }
+    });
+
+    if (!submitted) {
+      permit.close();
+    }
+  }
+
 
   @GET
   @ApiOperation(value = "List objects", response = RepoObjectOutput.class, responseContainer = "List")
@@ -131,16 +276,32 @@ public class ObjectController {
       @ApiParam(required = false) @QueryParam("limit") Integer limit,
       @ApiParam(required = false) @DefaultValue("false") @QueryParam("includeDeleted") boolean includeDeleted,
       @ApiParam(required = false) @DefaultValue("false") @QueryParam("includePurged") boolean includePurged,
-      @ApiParam(required = false) @QueryParam("tag") String tag) {
+      @ApiParam(required = false) @QueryParam("tag") String tag,
+      @ApiParam(value = "continuation token returned in the " + NEXT_CURSOR_HEADER + " header of the previous page",
+          required = false) @QueryParam("after") String after) {
     try {
-      List<RepoObject> repoObjects = repoService.listObjects(bucketName, offset, limit, includeDeleted, includePurged, tag);
-      List<RepoObjectOutput> outputObjects = Lists.newArrayList(Iterables.transform(repoObjects, RepoObjectOutput.typeFunction()));
+      Integer afterId = ListCursor.decode(after);
+      if (afterId != null && offset != null) {
+        throw new RepoException(RepoException.Type.InvalidOffset);
+      }
 
-      return Response.status(Response.Status.OK).entity(
-          new GenericEntity<List<RepoObjectOutput>>(
-              outputObjects
-          ) {
-          }).build();
+      repoService.validateListObjects(bucketName, offset, limit);
+
+      if (offset != null) {
+        return Response.status(Response.Status.OK).type(MediaType.APPLICATION_JSON_TYPE).entity(
+            new RepoObjectListOutput(repoService, bucketName, offset, limit, includeDeleted, includePurged, tag))
+            .build();
+      }
+
+      RepoService.ObjectPage page = repoService.getObjectPage(bucketName, afterId == null ? 0 : afterId, limit,
+          includeDeleted, includePurged, tag);
+
+      Response.ResponseBuilder response = Response.status(Response.Status.OK).type(MediaType.APPLICATION_JSON_TYPE)
+          .entity(new RepoObjectListOutput(page));
+      if (page.getLastId() != null) {
+        response.header(NEXT_CURSOR_HEADER, ListCursor.encode(page.getLastId()));
+      }
+      return response.build();
     } catch (RepoException e) {
       return handleError(e);
     }
@@ -150,44 +311,178 @@ public class ObjectController {
   @Path("/meta/{bucketName}")
   @ApiOperation(value = "Fetch info about an object and its versions", response = RepoObjectOutput.class)
   @Produces({MediaType.APPLICATION_JSON})
-  public Response readMetadata(
-      @ApiParam(required = true) @PathParam("bucketName") String bucketName,
-      @ApiParam(required = true) @QueryParam("key") String key,
-      @ApiParam("elementFilter") @BeanParam ElementFilter elementFilter) {
-    try {
-      RepoObject repoObject = repoService.getObject(bucketName, key, elementFilter);
+  public void readMetadata(
+      @ApiParam(required = true) @PathParam("bucketName") final String bucketName,
+      @ApiParam(required = true) @QueryParam("key") final String key,
+      @ApiParam("elementFilter") @BeanParam final ElementFilter elementFilter,
+      @HeaderParam(HttpHeaders.IF_NONE_MATCH) final String ifNoneMatch,
+      @Suspended final AsyncResponse asyncResponse) {
+    submit(requestExecutors.getSqlPool(), asyncResponse, new Callable<Response>() {
+      @Override
+      public Response call() {
+        try {
+          RepoObject repoObject = repoService.getObject(bucketName, key, elementFilter);
+          String entityTag = getMetadataEntityTag(repoObject);
+
+          if (matchesAny(ifNoneMatch, entityTag)) {
+            return Response.notModified().lastModified(repoObject.getTimestamp())
+                .header(HttpHeaders.ETAG, entityTag).build();
+          }
+
+          submitMetadata(repoObject, entityTag, asyncResponse);
+          return null;
+        } catch (RepoException e) {
+          return handleError(e);
+        }
+      }
+    });
+  }
 
-      RepoObjectOutput outputObject = new RepoObjectOutput(repoObject);
+  /**
+   * Hands the metadata response of an object over to the object store pool, since resolving its reproxy URLs may ask
+   * the MogileFS trackers, which must not hold a thread of the database pool.
+   */
+  private void submitMetadata(final RepoObject repoObject, final String entityTag, AsyncResponse asyncResponse) {
+    submit(requestExecutors.getStorePool(), asyncResponse, new Callable<Response>() {
+      @Override
+      public Response call() {
+        try {
+          RepoObjectOutput outputObject = new RepoObjectOutput(repoService.addProxyData(repoObject));
+
+          return Response.status(Response.Status.OK)
+              .lastModified(repoObject.getTimestamp())
+              .header(HttpHeaders.ETAG, entityTag)
+              .entity(outputObject).build();
+        } catch (RepoException e) {
+          return handleError(e);
+        }
+      }
+    });
+  }
 
-      return Response.status(Response.Status.OK)
-          .lastModified(repoObject.getTimestamp())
-          .entity(outputObject).build();
-    } catch (RepoException e) {
-      return handleError(e);
-    }
+  @POST
+  @Path("/meta/{bucketName}/batch")
+  @ApiOperation(value = "Fetch info about many objects at once",
+      notes = "Each entry of objects is resolved like a single metadata request. The results are returned in the order " +
+          "of the request, and entries that do not match an object carry an error instead of the object.",
+      response = RepoObjectLookupOutput.class, responseContainer = "List")
+  @ApiResponses(value = {
+      @ApiResponse(code = HttpStatus.SC_OK, message = "Success"),
+      @ApiResponse(code = HttpStatus.SC_NOT_FOUND, message = "Bucket not found"),
+      @ApiResponse(code = HttpStatus.SC_BAD_REQUEST, message = "Bad request (see message)"),
+      @ApiResponse(code = HttpStatus.SC_INTERNAL_SERVER_ERROR, message = "Server error")
+  })
+  @Consumes({MediaType.APPLICATION_JSON})
+  @Produces({MediaType.APPLICATION_JSON})
+  public void readMetadataBatch(
+      @ApiParam(required = true) @PathParam("bucketName") final String bucketName,
+      @ApiParam(required = true) final InputBatchLookup batchLookup,
+      @Suspended final AsyncResponse asyncResponse) {
+    submit(requestExecutors.getSqlPool(), asyncResponse, new Callable<Response>() {
+      @Override
+      public Response call() {
+        try {
+          List<InputObjectLookup> lookups = batchLookup == null ? null : batchLookup.getObjects();
+          List<RepoObject> repoObjects = repoService.getObjects(bucketName, lookups);
+
+          submitMetadataBatch(lookups, repoObjects, asyncResponse);
+          return null;
+        } catch (RepoException e) {
+          return handleError(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Hands the metadata response of a batch over to the object store pool, like {@link #submitMetadata}.
+   */
+  private void submitMetadataBatch(final List<InputObjectLookup> lookups, final List<RepoObject> repoObjects,
+                                   AsyncResponse asyncResponse) {
+    submit(requestExecutors.getStorePool(), asyncResponse, new Callable<Response>() {
+      @Override
+      public Response call() {
+        try {
+          repoService.addProxyData(repoObjects);
+
+          RepoError notFound = new RepoError(new RepoException(RepoException.Type.ObjectNotFound));
+          List<RepoObjectLookupOutput> outputObjects = new ArrayList<>(repoObjects.size());
+
+          for (int i = 0; i < repoObjects.size(); i++) {
+            String key = lookups.get(i).getKey();
+            RepoObject repoObject = repoObjects.get(i);
+
+            if (repoObject == null) {
+              outputObjects.add(new RepoObjectLookupOutput(key, notFound));
+            } else {
+              outputObjects.add(new RepoObjectLookupOutput(key, new RepoObjectOutput(repoObject)));
+            }
+          }
+
+          return Response.status(Response.Status.OK).entity(
+              new GenericEntity<List<RepoObjectLookupOutput>>(
+                  outputObjects
+              ) {
+              }).build();
+        } catch (RepoException e) {
+          return handleError(e);
+        }
+      }
+    });
   }
 
   @GET
   @Path("/{bucketName}")
   @ApiOperation(value = "Fetch an object or its metadata", response = RepoObjectOutput.class)
   @Produces({MediaType.APPLICATION_JSON})
-  public Response read(@ApiParam(required = true) @PathParam("bucketName") String bucketName,
-                       @ApiParam(required = true) @QueryParam("key") String key,
-                       @ApiParam("elementFilter") @BeanParam ElementFilter elementFilter,
-                       @QueryParam("fetchMetadata") boolean fetchMetadata,  // TODO: deprecate this somehow
-                       @ApiParam(value = "If set to 'reproxy-file' then it will attempt to return a header representing a redirected object URL")
-                       @HeaderParam("X-Proxy-Capabilities") String requestXProxy,
-                       @HeaderParam("If-Modified-Since") String ifModifiedSinceStr
+  public void read(@ApiParam(required = true) @PathParam("bucketName") final String bucketName,
+                   @ApiParam(required = true) @QueryParam("key") final String key,
+                   @ApiParam("elementFilter") @BeanParam final ElementFilter elementFilter,
+                   @QueryParam("fetchMetadata") final boolean fetchMetadata,  // TODO: deprecate this somehow
+                   @ApiParam(value = "If set to 'reproxy-file' then it will attempt to return a header representing a redirected object URL")
+                   @HeaderParam("X-Proxy-Capabilities") final String requestXProxy,
+                   @HeaderParam("If-Modified-Since") final String ifModifiedSinceStr,
+                   @HeaderParam(HttpHeaders.IF_NONE_MATCH) final String ifNoneMatch,
+                   @ApiParam(value = "Byte ranges of the object to return, for example 'bytes=0-1023'")
+                   @HeaderParam("Range") final String rangeStr,
+                   @HeaderParam("If-Range") final String ifRangeStr,
+                   @Context final ContainerRequest request,
+                   @Suspended final AsyncResponse asyncResponse
   ) {
-    RepoObject repoObject;
+    // the lookup runs on the database pool, and only the transfer of the content on the object store pool
+    submit(requestExecutors.getSqlPool(), asyncResponse, new Callable<Response>() {
+      @Override
+      public Response call() {
+        return readObject(bucketName, key, elementFilter, fetchMetadata, requestXProxy, ifModifiedSinceStr, ifNoneMatch,
+            rangeStr, ifRangeStr, request, asyncResponse);
+      }
+    });
+  }
+
+  /**
+   * Looks the object up and answers the requests that involve neither its content nor the object store. Content
+   * reads, reproxy URLs and metadata, whose reproxy URLs are resolved by the object store, are handed over to the
+   * object store pool, in which case null is returned.
+   */
+  private Response readObject(String bucketName, String key, ElementFilter elementFilter, boolean fetchMetadata,
+                              String requestXProxy, String ifModifiedSinceStr, String ifNoneMatch,
+                              final String rangeStr, final String ifRangeStr, final ContainerRequest request,
+                              AsyncResponse asyncResponse) {
+    final RepoObject repoObject;
+    final String entityTag;
 
     boolean notModifiedSince = false;
 
     try {
       repoObject = repoService.getObject(bucketName, key, elementFilter);
-
-      if (ifModifiedSinceStr != null) {
-        Date ifModifiedSince = new SimpleDateFormat(RFC1123_DATE_TIME_FORMAT).parse(ifModifiedSinceStr);
+      entityTag = fetchMetadata ? getMetadataEntityTag(repoObject) : getContentEntityTag(repoObject);
+
+      // the validators are checked before the object store is involved, so that revalidations only cost a lookup.
+      // If-None-Match takes precedence over If-Modified-Since (RFC 7232)
+      if (ifNoneMatch != null) {
+        notModifiedSince = matchesAny(ifNoneMatch, entityTag);
+      } else if (ifModifiedSinceStr != null) {
+        Date ifModifiedSince = RFC1123_DATE_FORMAT.parse(ifModifiedSinceStr);
         notModifiedSince = repoObject.getTimestamp().compareTo(ifModifiedSince) <= 0;
       }
     } catch (ParseException e) {
@@ -198,50 +493,120 @@ public class ObjectController {
 
     repoInfoService.incrementReadCount();
 
+    // a revalidation is answered from the metadata alone, whatever was asked for
+
+    if (notModifiedSince) {
+      return Response.notModified().lastModified(repoObject.getTimestamp())
+          .header(HttpHeaders.ETAG, entityTag).build();
+    }
+
+
     // if they want the metadata
 
     if (fetchMetadata) {
-      RepoObjectOutput outputObject = new RepoObjectOutput(repoObject);
-      return Response.status(Response.Status.OK)
-          .lastModified(repoObject.getTimestamp())
-          .entity(outputObject).build();
+      submitMetadata(repoObject, entityTag, asyncResponse);
+      return null;
     }
 
 
-    // if they want redirect URLs
+    // if they want redirect URLs, which are resolved on the object store pool like the content
 
     if (requestXProxy != null && requestXProxy.equals(REPROXY_HEADER_FILE) && repoService.serverSupportsReproxy()) {
-      try {
-        Response.Status status = Response.Status.OK;
-
-        if (notModifiedSince) {
-          status = Response.Status.NOT_MODIFIED;
+      submit(requestExecutors.getStorePool(), asyncResponse, new Callable<Response>() {
+        @Override
+        public Response call() {
+          try {
+            return Response.status(Response.Status.OK)
+                .lastModified(repoObject.getTimestamp())
+                .header(HttpHeaders.ETAG, entityTag)
+                .header(REPROXY_HEADER_URL,
+                    REPROXY_URL_JOINER.join(repoService.getObjectReproxy(repoObject, isNoCache(request))))
+                .header(REPROXY_HEADER_CACHE_FOR, REPROXY_CACHE_FOR_HEADER)
+                .build();
+          } catch (RepoException e) {
+            return handleError(e);
+          }
         }
+      });
 
-        return Response.status(status)
-            .lastModified(repoObject.getTimestamp())
-            .header(REPROXY_HEADER_URL, REPROXY_URL_JOINER.join(repoService.getObjectReproxy(repoObject)))
-            .header(REPROXY_HEADER_CACHE_FOR, REPROXY_CACHE_FOR_HEADER)
-            .build();
-      } catch (RepoException e) {
-        return handleError(e);
-      }
+      return null;
     }
 
 
     // else assume they want the binary data
 
-    try {
-      if (notModifiedSince) {
-        return Response.notModified().lastModified(repoObject.getTimestamp()).build();
+    submit(requestExecutors.getStorePool(), asyncResponse, new Callable<Response>() {
+      @Override
+      public Response call() {
+        return readContent(repoObject, entityTag, rangeStr, ifRangeStr, request);
       }
+    });
 
+    return null;
+  }
+
+  /**
+   * Builds the response of a content read. The response is written by the thread that builds it, so the transfer
+   * from the object store holds a thread of the object store pool rather than a container thread.
+   */
+  private Response readContent(RepoObject repoObject, String entityTag, String rangeStr, String ifRangeStr,
+                               ContainerRequest request) {
+    try {
       String exportFileName = repoService.getObjectExportFileName(repoObject);
       String contentType = repoService.getObjectContentType(repoObject);
-      InputStream is = repoService.getObjectInputStream(repoObject);
 
-      return Response.ok(is, contentType)
+      // a local file is sent as it is, so its own length, rather than the recorded size, bounds the ranges and sets
+      // the Content-Length
+      File localFile = repoService.getObjectLocalFile(repoObject);
+      Long size = (localFile != null) ? Long.valueOf(localFile.length()) : repoObject.getSize();
+
+      List<ByteRange> ranges = null;
+
+      if (rangeStr != null && size != null && isRangeCurrent(ifRangeStr, repoObject, entityTag)) {
+        ranges = ByteRange.parse(rangeStr, size);
+      }
+
+      if (ranges != null && ranges.isEmpty()) {
+        return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+            .lastModified(repoObject.getTimestamp())
+            .header(HttpHeaders.ETAG, entityTag)
+            .header(CONTENT_RANGE_HEADER, "bytes */" + size).build();
+      }
+
+      Response.ResponseBuilder response;
+
+      if (ranges == null || ranges.size() > MAX_BYTE_RANGES) {
+        if (localFile != null) {
+          response = fileResponse(request, Response.Status.OK, localFile, 0, size).type(contentType);
+        } else {
+          InputStream is = repoService.getObjectInputStream(repoObject);
+          response = Response.ok(is, contentType);
+        }
+      } else if (ranges.size() == 1) {
+        ByteRange range = ranges.get(0);
+        if (localFile != null) {
+          response = fileResponse(request, Response.Status.PARTIAL_CONTENT, localFile, range.getFirst(),
+              range.getLength());
+        } else {
+          InputStream is = repoService.getObjectInputStream(repoObject, range.getFirst(), range.getLength());
+          response = Response.status(Response.Status.PARTIAL_CONTENT).entity(is)
+              .header(HttpHeaders.CONTENT_LENGTH, range.getLength());
+        }
+        response.type(contentType).header(CONTENT_RANGE_HEADER, range.toContentRange(size));
+      } else {
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        // open the first part now so that missing content is reported before the response is committed
+        InputStream firstPart = repoService.getObjectInputStream(repoObject, ranges.get(0).getFirst(),
+            ranges.get(0).getLength());
+        response = Response.status(Response.Status.PARTIAL_CONTENT)
+            .entity(new ByteRangesOutput(repoService, repoObject, contentType, boundary, ranges, firstPart))
+            .type("multipart/byteranges; boundary=" + boundary);
+      }
+
+      return response
           .lastModified(repoObject.getTimestamp())
+          .header(HttpHeaders.ETAG, entityTag)
+          .header(ACCEPT_RANGES_HEADER, "bytes")
           .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=" + exportFileName).build();
 
       // the container closes this input stream
@@ -250,6 +615,160 @@ public class ObjectController {
     }
   }
 
+  /**
+   * Builds a response that sends a region of a local file. When the container supports it the file is handed to the
+   * container, which sends it with sendfile(2) once the headers are written; otherwise it is written through a
+   * {@link FileChannelOutput}.
+   */
+  private static Response.ResponseBuilder fileResponse(ContainerRequest request, Response.Status status, File file,
+                                                       long offset, long length) {
+    Response.ResponseBuilder response = Response.status(status).header(HttpHeaders.CONTENT_LENGTH, length);
+
+    if (request != null && Boolean.TRUE.equals(request.getProperty(SENDFILE_SUPPORT_ATTRIBUTE))) {
+      // in a servlet container the request properties are the servlet request attributes
+      request.setProperty(SENDFILE_FILENAME_ATTRIBUTE, file.getAbsolutePath());
+      request.setProperty(SENDFILE_START_ATTRIBUTE, offset);
+      request.setProperty(SENDFILE_END_ATTRIBUTE, offset + length);
+      return response;
+    }
+
+    return response.entity(new FileChannelOutput(file, offset, length));
+  }
+
+  /**
+   * The content of an object is addressed by its checksum, so the checksum is a strong entity tag of the content. It
+   * is also the entity tag of the reproxy response, which redirects to that content.
+   */
+  private static String getContentEntityTag(RepoObject repoObject) {
+    return "\"" + repoObject.getChecksum() + "\"";
+  }
+
+  /**
+   * Objects that share their content still differ in their metadata, so the metadata entity tag adds the uuid of the
+   * object version.
+   */
+  private static String getMetadataEntityTag(RepoObject repoObject) {
+    return "\"" + repoObject.getChecksum() + "-" + repoObject.getUuid() + "\"";
+  }
+
+  /**
+   * A request with <code>Cache-Control: no-cache</code>, or <code>Pragma: no-cache</code>, asks the server to
+   * revalidate what it would otherwise answer from a cache.
+   */
+  private static boolean isNoCache(ContainerRequest request) {
+    if (request == null) {
+      return false;
+    }
+
+    String cacheControl = request.getHeaderString(HttpHeaders.CACHE_CONTROL);
+    String pragma = request.getHeaderString("Pragma");
+
+    return (cacheControl != null && cacheControl.toLowerCase().contains("no-cache"))
+        || (pragma != null && pragma.toLowerCase().contains("no-cache"));
+  }
+
+  /**
+   * Evaluates an <code>If-None-Match</code> header, which uses the weak comparison.
+   *
+   * @return true if the header is present and matches the entity tag
+   */
+  private static boolean matchesAny(String ifNoneMatch, String entityTag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+
+    if (ifNoneMatch.trim().equals("*")) {
+      return true;
+    }
+
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+
+      if (candidate.equals(entityTag)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * A range request is only served if the <code>If-Range</code> validator, when present, still matches the object.
+   * The validator is either the entity tag, which must match strongly, or the last modification date.
+   */
+  private static boolean isRangeCurrent(String ifRangeStr, RepoObject repoObject, String entityTag) {
+    if (ifRangeStr == null) {
+      return true;
+    }
+
+    ifRangeStr = ifRangeStr.trim();
+
+    if (ifRangeStr.startsWith("\"") || ifRangeStr.startsWith("W/")) {
+      return ifRangeStr.equals(entityTag);
+    }
+
+    try {
+      Date ifRange = RFC1123_DATE_FORMAT.parse(ifRangeStr);
+      // HTTP dates have a precision of one second
+      return repoObject.getTimestamp().getTime() / 1000 == ifRange.getTime() / 1000;
+    } catch (ParseException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Writes a <code>multipart/byteranges</code> body, reading each part from the object store as it is written.
+   */
+  private static class ByteRangesOutput implements StreamingOutput {
+
+    private final RepoService repoService;
+    private final RepoObject repoObject;
+    private final String contentType;
+    private final String boundary;
+    private final List<ByteRange> ranges;
+    private final InputStream firstPart;
+
+    private ByteRangesOutput(RepoService repoService, RepoObject repoObject, String contentType, String boundary,
+                             List<ByteRange> ranges, InputStream firstPart) {
+      this.repoService = repoService;
+      this.repoObject = repoObject;
+      this.contentType = contentType;
+      this.boundary = boundary;
+      this.ranges = ranges;
+      this.firstPart = firstPart;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+      try {
+        for (int i = 0; i < ranges.size(); i++) {
+          ByteRange range = ranges.get(i);
+
+          String partHeader = "\r\n--" + boundary + "\r\n"
+              + "Content-Type: " + contentType + "\r\n"
+              + CONTENT_RANGE_HEADER + ": " + range.toContentRange(repoObject.getSize()) + "\r\n\r\n";
+          output.write(partHeader.getBytes(Charsets.US_ASCII));
+
+          try (InputStream part = (i == 0) ? firstPart :
+              repoService.getObjectInputStream(repoObject, range.getFirst(), range.getLength())) {
+            IOUtils.copyLarge(part, output);
+          }
+        }
+
+        output.write(("\r\n--" + boundary + "--\r\n").getBytes(Charsets.US_ASCII));
+      } catch (RepoException e) {
+        throw new IOException(e);
+      } finally {
+        IOUtils.closeQuietly(firstPart);
+      }
+    }
+
+  }
+
   @GET
   @Path("/versions/{bucketName}")
   @ApiOperation(value = "Fetch all the object versions", response = RepoObjectOutput.class, responseContainer = "List")
@@ -280,18 +799,27 @@ public class ObjectController {
       @ApiResponse(code = HttpStatus.SC_BAD_REQUEST, message = "The object was unable to be deleted (see response text for more details)"),
       @ApiResponse(code = HttpStatus.SC_INTERNAL_SERVER_ERROR, message = "Server error")
   })
-  public Response delete(
-      @ApiParam(required = true) @PathParam("bucketName") String bucketName,
-      @ApiParam(required = true) @QueryParam("key") String key,
-      @ApiParam(required = false) @DefaultValue("false") @QueryParam("purge") boolean purge,
-      @ApiParam("elementFilter") @BeanParam ElementFilter elementFilter
+  public void delete(
+      @ApiParam(required = true) @PathParam("bucketName") final String bucketName,
+      @ApiParam(required = true) @QueryParam("key") final String key,
+      @ApiParam(required = false) @DefaultValue("false") @QueryParam("purge") final boolean purge,
+      @ApiParam("elementFilter") @BeanParam final ElementFilter elementFilter,
+      @Suspended AsyncResponse asyncResponse
   ) {
-    try {
-      repoService.deleteObject(bucketName, key, purge, elementFilter);
-      return Response.status(Response.Status.OK).build();
-    } catch (RepoException e) {
-      return handleError(e);
-    }
+    // purging also removes the content from the object store
+    RequestExecutors.Pool pool = purge ? requestExecutors.getStorePool() : requestExecutors.getSqlPool();
+
+    submit(pool, asyncResponse, new Callable<Response>() {
+      @Override
+      public Response call() {
+        try {
+          repoService.deleteObject(bucketName, key, purge, elementFilter);
+          return Response.status(Response.Status.OK).build();
+        } catch (RepoException e) {
+          return handleError(e);
+        }
+      }
+    });
   }
 
   @POST
@@ -301,7 +829,9 @@ public class ObjectController {
           "new version of an existing object set create to 'version'. Setting create to 'auto' automagically determines if the object " +
           "should be new or versioned. However 'auto' should only be used by the ambra-file-store. In addition you may optionally specify " +
           "a timestamp for object creation time. This feature is for migrating from an existing content store. Note that the timestamp must " +
-          "conform to this format: yyyy-[m]m-[d]d hh:mm:ss[.f...]")
+          "conform to this format: yyyy-[m]m-[d]d hh:mm:ss[.f...]. Content that is already stored in the bucket does not need " +
+          "to be sent again: set the checksum field to its SHA-1 checksum and leave the file out. If the content is not stored the " +
+          "request fails with a 404, and must be repeated with the file. A file sent along with a checksum or size is checked against them.")
   @Produces({MediaType.APPLICATION_JSON})
   @ApiResponses(value = {
       @ApiResponse(code = HttpStatus.SC_CREATED, message = "Object successfully created", response = RepoObjectOutput.class),
@@ -309,10 +839,12 @@ public class ObjectController {
       @ApiResponse(code = HttpStatus.SC_BAD_REQUEST, message = "The object was unable to be created (see response text for more details)"),
       @ApiResponse(code = HttpStatus.SC_INTERNAL_SERVER_ERROR, message = "Server error")
   })
-  public Response createOrUpdate(@BeanParam InputRepoObject inputRepoObject) {
-    try {
-      RepoService.CreateMethod method;
+  public void createOrUpdate(@BeanParam final InputRepoObject inputRepoObject,
+                             @Context ContainerRequest request,
+                             @Suspended AsyncResponse asyncResponse) {
+    final RepoService.CreateMethod method;
 
+    try {
       if (inputRepoObject.getCreate() == null) {
         throw new RepoException(RepoException.Type.NoCreationMethodEntered);
       }
@@ -322,17 +854,131 @@ public class ObjectController {
       } catch (IllegalArgumentException e) {
         throw new RepoException(RepoException.Type.InvalidCreationMethod);
       }
+    } catch (RepoException e) {
+      asyncResponse.resume(handleError(e));
+      return;
+    }
 
-      repoInfoService.incrementWriteCount();
+    submitWrite(inputRepoObject.getBucketName(), request, asyncResponse, new Callable<Response>() {
+      @Override
+      public Response call() {
+        try {
+          repoInfoService.incrementWriteCount();
 
-      RepoObject repoObject = repoService.createObject(method, inputRepoObject);
-      RepoObjectOutput outputObject = new RepoObjectOutput(repoObject);
+          RepoObject repoObject = repoService.createObject(method, inputRepoObject);
+          RepoObjectOutput outputObject = new RepoObjectOutput(repoObject);
 
-      return Response.status(Response.Status.CREATED).entity(
-          outputObject).build();
+          return Response.status(Response.Status.CREATED).entity(
+              outputObject).build();
+        } catch (RepoException e) {
+          return handleError(e);
+        }
+      }
+    });
+  }
+
+  @POST
+  @Path("/batch/{bucketName}")
+  @Consumes(MediaType.MULTIPART_FORM_DATA)
+  @ApiOperation(value = "Create many objects at once",
+      notes = "The objects part is a JSON document listing the objects to create, with the fields of a single object " +
+          "creation. The content of each object is sent in the part named by its file field, unless the content is " +
+          "already stored in the bucket and referenced by its checksum, or a new version keeps the content of the " +
+          "previous one. The contents are stored first, then all the objects are created in a single transaction. The " +
+          "results are returned in the order of the request, and objects that could not be created carry an error " +
+          "instead of the object.",
+      response = RepoObjectLookupOutput.class, responseContainer = "List")
+  @Produces({MediaType.APPLICATION_JSON})
+  @ApiResponses(value = {
+      @ApiResponse(code = HttpStatus.SC_OK, message = "Success"),
+      @ApiResponse(code = HttpStatus.SC_NOT_FOUND, message = "Bucket not found"),
+      @ApiResponse(code = HttpStatus.SC_BAD_REQUEST, message = "Bad request (see message)"),
+      @ApiResponse(code = HttpStatus.SC_INTERNAL_SERVER_ERROR, message = "Server error")
+  })
+  public void createBatch(@ApiParam(required = true) @PathParam("bucketName") final String bucketName,
+                          final FormDataMultiPart multiPart,
+                          @Context ContainerRequest request,
+                          @Suspended AsyncResponse asyncResponse) {
+    final List<InputRepoObject> inputRepoObjects;
+
+    try {
+      inputRepoObjects = getBatchInput(bucketName, multiPart);
     } catch (RepoException e) {
-      return handleError(e);
+      asyncResponse.resume(handleError(e));
+      return;
+    }
+
+    submitWrite(bucketName, request, asyncResponse, new Callable<Response>() {
+      @Override
+      public Response call() {
+        try {
+          List<RepoService.BatchResult> results = repoService.createObjects(bucketName, inputRepoObjects);
+          List<RepoObjectLookupOutput> outputObjects = new ArrayList<>(results.size());
+
+          for (int i = 0; i < results.size(); i++) {
+            String key = inputRepoObjects.get(i).getKey();
+            RepoService.BatchResult result = results.get(i);
+
+            if (result.getError() == null) {
+              repoInfoService.incrementWriteCount();
+              outputObjects.add(new RepoObjectLookupOutput(key, new RepoObjectOutput(result.getRepoObject())));
+            } else {
+              outputObjects.add(new RepoObjectLookupOutput(key, new RepoError(result.getError())));
+            }
+          }
+
+          return Response.status(Response.Status.OK).entity(
+              new GenericEntity<List<RepoObjectLookupOutput>>(
+                  outputObjects
+              ) {
+              }).build();
+        } catch (RepoException e) {
+          return handleError(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Reads the objects of a batch ingest from the objects part of the request, each with the content of the part named
+   * by its file field.
+   */
+  private static List<InputRepoObject> getBatchInput(String bucketName, FormDataMultiPart multiPart)
+      throws RepoException {
+    FormDataBodyPart objectsPart = multiPart == null ? null : multiPart.getField("objects");
+
+    if (objectsPart == null) {
+      throw new RepoException(RepoException.Type.NoKeyEntered);
+    }
+
+    InputBatchCreate batchCreate;
+
+    try {
+      // the part is read as JSON whatever its declared media type
+      objectsPart.setMediaType(MediaType.APPLICATION_JSON_TYPE);
+      batchCreate = objectsPart.getValueAs(InputBatchCreate.class);
+    } catch (ProcessingException | WebApplicationException e) {
+      throw new RepoException(RepoException.Type.InvalidBatch);
+    }
+
+    if (batchCreate == null || batchCreate.getObjects() == null) {
+      throw new RepoException(RepoException.Type.NoKeyEntered);
+    }
+
+    List<InputRepoObject> inputRepoObjects = new ArrayList<>(batchCreate.getObjects().size());
+
+    for (InputBatchObject batchObject : batchCreate.getObjects()) {
+      InputRepoObject inputRepoObject = batchObject.toInputRepoObject(bucketName);
+
+      FormDataBodyPart filePart = batchObject.getFile() == null ? null : multiPart.getField(batchObject.getFile());
+      if (filePart != null) {
+        inputRepoObject.setUploadedInputStream(filePart.getValueAs(InputStream.class));
+      }
+
+      inputRepoObjects.add(inputRepoObject);
     }
+
+    return inputRepoObjects;
   }
 
   private Timestamp getValidateTimestamp(String timestampString, RepoException.Type errorType, Timestamp defaultTimestamp) throws RepoException {
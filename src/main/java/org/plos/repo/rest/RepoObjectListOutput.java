@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.rest;
+
+import com.google.common.base.Charsets;
+import org.eclipse.persistence.jaxb.JAXBContextFactory;
+import org.eclipse.persistence.jaxb.MarshallerProperties;
+import org.plos.repo.models.RepoObject;
+import org.plos.repo.models.output.RepoObjectOutput;
+import org.plos.repo.service.RepoException;
+import org.plos.repo.service.RepoService;
+import org.plos.repo.service.SqlService;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes an object listing as a JSON array while the rows are read from the database, so that the memory used by a
+ * listing does not grow with its size. Each object is marshalled as MOXy marshals it in a non streamed response.
+ * <p/>
+ * The arguments are expected to have been checked with {@link RepoService#validateListObjects} beforehand, since
+ * errors can no longer be reported once the response has started.
+ */
+public class RepoObjectListOutput implements StreamingOutput {
+
+  private static final JAXBContext JAXB_CONTEXT;
+
+  static {
+    try {
+      JAXB_CONTEXT = JAXBContextFactory.createContext(new Class<?>[]{RepoObjectOutput.class}, null);
+    } catch (JAXBException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final RepoService repoService;
+  private final String bucketName;
+  private final Integer offset;
+  private final RepoService.ObjectPage page;
+  private final Integer limit;
+  private final boolean includeDeleted;
+  private final boolean includePurged;
+  private final String tag;
+
+  public RepoObjectListOutput(RepoService repoService, String bucketName, Integer offset, Integer limit,
+                              boolean includeDeleted, boolean includePurged, String tag) {
+    this.repoService = repoService;
+    this.bucketName = bucketName;
+    this.offset = offset;
+    this.page = null;
+    this.limit = limit;
+    this.includeDeleted = includeDeleted;
+    this.includePurged = includePurged;
+    this.tag = tag;
+  }
+
+  /**
+   * Lists a page returned by {@link RepoService#getObjectPage}.
+   */
+  public RepoObjectListOutput(RepoService.ObjectPage page) {
+    this.repoService = null;
+    this.bucketName = null;
+    this.offset = null;
+    this.page = page;
+    this.limit = null;
+    this.includeDeleted = false;
+    this.includePurged = false;
+    this.tag = null;
+  }
+
+  @Override
+  public void write(OutputStream output) throws IOException {
+    final Writer writer = new BufferedWriter(new OutputStreamWriter(output, Charsets.UTF_8));
+    final Marshaller marshaller = createMarshaller();
+
+    writer.write('[');
+
+    SqlService.RowHandler<RepoObject> handler = new SqlService.RowHandler<RepoObject>() {
+      private boolean first = true;
+
+      @Override
+      public void handle(RepoObject repoObject) throws IOException {
+        if (!first) {
+          writer.write(',');
+        }
+        first = false;
+
+        try {
+          marshaller.marshal(new RepoObjectOutput(repoObject), writer);
+        } catch (JAXBException e) {
+          throw new IOException(e);
+        }
+      }
+    };
+
+    try {
+      if (page != null) {
+        page.list(handler);
+      } else {
+        repoService.listObjects(bucketName, offset, limit, includeDeleted, includePurged, tag, handler);
+      }
+    } catch (RepoException e) {
+      // the status has already been sent, so the truncated response is all the client gets
+      throw new IOException(e);
+    }
+
+    writer.write(']');
+    writer.flush();
+  }
+
+  private static Marshaller createMarshaller() throws IOException {
+    try {
+      Marshaller marshaller = JAXB_CONTEXT.createMarshaller();
+      marshaller.setProperty(MarshallerProperties.MEDIA_TYPE, MediaType.APPLICATION_JSON);
+      marshaller.setProperty(MarshallerProperties.JSON_INCLUDE_ROOT, false);
+      marshaller.setProperty(MarshallerProperties.JSON_MARSHAL_EMPTY_COLLECTIONS, true);
+      marshaller.setProperty(Marshaller.JAXB_ENCODING, Charsets.UTF_8.name());
+      return marshaller;
+    } catch (JAXBException e) {
+      throw new IOException(e);
+    }
+  }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.plos.repo.rest;
+
+import org.plos.repo.service.AdmissionController;
+import org.plos.repo.service.RepoException;
+
+import javax.inject.Inject;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.PathSegment;
+import javax.ws.rs.ext.Provider;
+import java.util.List;
+
+/**
+ * Admits the object writes (POST /objects and POST /objects/batch/{bucketName}) on the length of their request, before
+ * their body is read, so that admission control bounds the uploads being received and not only the ones being stored.
+ * A request of unknown length, as with a chunked upload, is charged a fixed number of bytes. A batch is admitted to
+ * its bucket right away; a single object names its bucket in its body, so it is admitted to the global limits here and
+ * to its bucket once the body is read. The permit is kept in the {@value #PERMIT_PROPERTY} property of the request and
+ * given back when the response is sent.
+ */
+@Provider
+@PreMatching
+public class WriteAdmissionFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+  public static final String PERMIT_PROPERTY = "org.plos.repo.admission.permit";
+
+  @Inject
+  private AdmissionController admissionController;
+
+  @Override
+  public void filter(ContainerRequestContext request) {
+    if (!HttpMethod.POST.equals(request.getMethod())) {
+      return;
+    }
+
+    List<PathSegment> segments = request.getUriInfo().getPathSegments();
+    String bucketName;
+
+    if (isPath(segments, "objects")) {
+      bucketName = null;
+    } else if (isPath(segments, "objects", "batch", null)) {
+      bucketName = segments.get(2).getPath();
+    } else {
+      return;
+    }
+
+    try {
+      long uploadBytes = admissionController.getUploadBytes(request.getLength());
+      request.setProperty(PERMIT_PROPERTY, admissionController.admit(bucketName, uploadBytes));
+    } catch (RepoException e) {
+      request.abortWith(ObjectController.handleError(e));
+    }
+  }
+
+  @Override
+  public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+    Object permit = request.getProperty(PERMIT_PROPERTY);
+
+    if (permit instanceof AdmissionController.Permit) {
+      ((AdmissionController.Permit) permit).close();
+    }
+  }
+
+  /**
+   * @return whether the segments of a path, ignoring a trailing slash, are <code>names</code>, where a null name
+   * matches any segment
+   */
+  private static boolean isPath(List<PathSegment> segments, String... names) {
+    int size = segments.size();
+    if (size > 0 && segments.get(size - 1).getPath().isEmpty()) {
+      size--;
+    }
+
+    if (size != names.length) {
+      return false;
+    }
+
+    for (int i = 0; i < size; i++) {
+      if (names[i] == null ? segments.get(i).getPath().isEmpty() : !names[i].equals(segments.get(i).getPath())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.plos.repo.rest;
+
+import org.plos.repo.service.ReplicaRouter;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Scopes read-your-writes to the requests that follow a write. A successful write is answered with the time it was
+ * committed by, in the {@value #WRITE_TIME_HEADER} header; a client that must read its writes sends the time of its
+ * last write back in the same header, and the reads of that request are routed by the {@link ReplicaRouter} to the
+ * replicas that have applied it.
+ */
+@Provider
+public class WriteTimeFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+  public static final String WRITE_TIME_HEADER = "X-Repo-Write-Time";
+
+  @Override
+  public void filter(ContainerRequestContext request) {
+    // the thread may have served another request, so the time is always reset
+    ReplicaRouter.setReadAfter(parseWriteTime(request.getHeaderString(WRITE_TIME_HEADER)));
+  }
+
+  @Override
+  public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+    String method = request.getMethod();
+
+    if (!HttpMethod.GET.equals(method) && !HttpMethod.HEAD.equals(method) && !HttpMethod.OPTIONS.equals(method)
+        && response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL) {
+      // the response is filtered once the write is committed
+      response.getHeaders().putSingle(WRITE_TIME_HEADER, Long.toString(System.currentTimeMillis()));
+    }
+  }
+
+  private static Long parseWriteTime(String writeTime) {
+    try {
+      return writeTime == null ? null : Long.valueOf(writeTime.trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+}
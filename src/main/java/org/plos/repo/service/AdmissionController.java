@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+import org.plos.repo.models.output.AdmissionStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control of the object writes. A write is admitted while the number of writes in flight and the number of
+ * upload bytes they hold stay within global limits and within the limits of its bucket; otherwise it waits for room
+ * until a short deadline. A write that is still not admitted by then is rejected, with {@link
+ * RepoException.Type#TooManyRequests} if the limits of its bucket held it back and with {@link
+ * RepoException.Type#ServerBusy} if the global limits did, so that a burst of uploads to one bucket is pushed back on
+ * its clients without starving the other buckets.
+ * <p/>
+ * A single write larger than a byte limit is admitted when nothing else holds bytes, so that it is not locked out. A
+ * limit of 0 disables it.
+ * <p/>
+ * A write may be admitted before its bucket is known, under the global limits only, and be counted against the limits
+ * of its bucket later with {@link Permit#admitTo}. This lets a write be admitted on the length of its request before
+ * the body that names its bucket is read.
+ */
+public class AdmissionController {
+
+  public static final int DEFAULT_MAX_WRITES = 64;
+
+  public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+  public static final int DEFAULT_MAX_BUCKET_WRITES = 32;
+
+  public static final long DEFAULT_MAX_BUCKET_BYTES = 512L * 1024 * 1024;
+
+  public static final long DEFAULT_QUEUE_MILLIS = 500;
+
+  public static final long DEFAULT_UNKNOWN_LENGTH_BYTES = 64L * 1024 * 1024;
+
+  private static final Logger log = LoggerFactory.getLogger(AdmissionController.class);
+
+  private final int maxWrites;
+
+  private final long maxBytes;
+
+  private final int maxBucketWrites;
+
+  private final long maxBucketBytes;
+
+  private final long queueMillis;
+
+  private final long unknownLengthBytes;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition released = lock.newCondition();
+
+  // all the fields below are guarded by the lock
+
+  private final Usage total = new Usage();
+
+  // usage of the buckets that have writes in flight
+  private final Map<String, Usage> bucketUsage = new HashMap<>();
+
+  private int queueSize;
+
+  private int maxQueueSize;
+
+  private long admittedCount;
+
+  private long queuedCount;
+
+  private long throttledCount;
+
+  private long rejectedCount;
+
+  public AdmissionController() {
+    this(DEFAULT_MAX_WRITES, DEFAULT_MAX_BYTES, DEFAULT_MAX_BUCKET_WRITES, DEFAULT_MAX_BUCKET_BYTES,
+        DEFAULT_QUEUE_MILLIS, DEFAULT_UNKNOWN_LENGTH_BYTES);
+  }
+
+  /**
+   * @param maxWrites       number of writes in flight
+   * @param maxBytes        number of upload bytes held by the writes in flight
+   * @param maxBucketWrites number of writes in flight to a bucket
+   * @param maxBucketBytes  number of upload bytes held by the writes in flight to a bucket
+   * @param queueMillis     time a write may wait to be admitted. 0 rejects a write as soon as it does not fit.
+   */
+  public AdmissionController(int maxWrites, long maxBytes, int maxBucketWrites, long maxBucketBytes,
+                             long queueMillis) {
+    this(maxWrites, maxBytes, maxBucketWrites, maxBucketBytes, queueMillis, DEFAULT_UNKNOWN_LENGTH_BYTES);
+  }
+
+  /**
+   * @param maxWrites          number of writes in flight
+   * @param maxBytes           number of upload bytes held by the writes in flight
+   * @param maxBucketWrites    number of writes in flight to a bucket
+   * @param maxBucketBytes     number of upload bytes held by the writes in flight to a bucket
+   * @param queueMillis        time a write may wait to be admitted. 0 rejects a write as soon as it does not fit.
+   * @param unknownLengthBytes number of upload bytes a write of unknown length is charged
+   */
+  public AdmissionController(int maxWrites, long maxBytes, int maxBucketWrites, long maxBucketBytes,
+                             long queueMillis, long unknownLengthBytes) {
+    this.maxWrites = maxWrites;
+    this.maxBytes = maxBytes;
+    this.maxBucketWrites = maxBucketWrites;
+    this.maxBucketBytes = maxBucketBytes;
+    this.queueMillis = queueMillis;
+    this.unknownLengthBytes = unknownLengthBytes;
+  }
+
+  /**
+   * @param contentLength the length of a request, or -1 if it is not known
+   * @return the number of upload bytes a write of that length is charged
+   */
+  public long getUploadBytes(long contentLength) {
+    return contentLength < 0 ? unknownLengthBytes : contentLength;
+  }
+
+  /**
+   * Admits a write of <code>bytes</code> upload bytes to <code>bucketName</code>, waiting for room if needed. The
+   * returned permit must be closed once the write is done.
+   *
+   * @param bucketName the bucket written to, or null if it is not known yet
+   * @param bytes      the size of the upload
+   * @throws RepoException of type TooManyRequests or ServerBusy if the write was not admitted in time
+   */
+  public Permit admit(String bucketName, long bytes) throws RepoException {
+    acquire(bucketName, bytes, true);
+    return new Permit(bucketName, bytes);
+  }
+
+  /**
+   * Waits for room for a write, in total if <code>global</code> and in its bucket if <code>bucketName</code> is not
+   * null, and takes it.
+   */
+  private void acquire(String bucketName, long bytes, boolean global) throws RepoException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueMillis);
+    boolean queued = false;
+
+    lock.lock();
+    try {
+      while (true) {
+        Usage bucket = bucketName == null ? null : bucketUsage.get(bucketName);
+
+        boolean fitsTotal = !global || fits(total, bytes, maxWrites, maxBytes);
+
+        if (fitsTotal && fits(bucket, bytes, maxBucketWrites, maxBucketBytes)) {
+          if (queued) {
+            queueSize--;
+          }
+
+          if (global) {
+            total.add(bytes);
+            admittedCount++;
+          }
+
+          if (bucketName != null) {
+            if (bucket == null) {
+              bucket = new Usage();
+              bucketUsage.put(bucketName, bucket);
+            }
+            bucket.add(bytes);
+          }
+
+          return;
+        }
+
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          throw rejected(bucketName, bytes, bucket, queued);
+        }
+
+        if (!queued) {
+          queued = true;
+          queueSize++;
+          maxQueueSize = Math.max(maxQueueSize, queueSize);
+          queuedCount++;
+        }
+
+        try {
+          released.awaitNanos(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw rejected(bucketName, bytes, bucket, queued);
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static boolean fits(Usage usage, long bytes, int maxWrites, long maxBytes) {
+    if (usage == null) {
+      return true;
+    }
+
+    return (maxWrites <= 0 || usage.writes < maxWrites) &&
+        (maxBytes <= 0 || usage.bytes == 0 || usage.bytes + bytes <= maxBytes);
+  }
+
+  /**
+   * Counts a write that was not admitted. Must be called with the lock held.
+   */
+  private RepoException rejected(String bucketName, long bytes, Usage bucket, boolean queued) {
+    if (queued) {
+      queueSize--;
+    }
+
+    if (bucketName != null && !fits(bucket, bytes, maxBucketWrites, maxBucketBytes)) {
+      throttledCount++;
+      log.debug("Write to bucket " + bucketName + " throttled, " + bucket.writes + " writes of the bucket in flight");
+      return new RepoException(RepoException.Type.TooManyRequests);
+    }
+
+    rejectedCount++;
+    log.debug("Write to bucket " + bucketName + " rejected, " + total.writes + " writes in flight");
+    return new RepoException(RepoException.Type.ServerBusy);
+  }
+
+  private void release(String bucketName, long bytes) {
+    lock.lock();
+    try {
+      total.remove(bytes);
+      releaseBucket(bucketName, bytes);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void releaseBucket(String bucketName, long bytes) {
+    lock.lock();
+    try {
+      if (bucketName != null) {
+        Usage bucket = bucketUsage.get(bucketName);
+        bucket.remove(bytes);
+        if (bucket.writes == 0) {
+          bucketUsage.remove(bucketName);
+        }
+      }
+
+      released.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public AdmissionStatus getStatus() {
+    lock.lock();
+    try {
+      AdmissionStatus status = new AdmissionStatus();
+      status.maxWrites = maxWrites;
+      status.maxBytes = maxBytes;
+      status.maxBucketWrites = maxBucketWrites;
+      status.maxBucketBytes = maxBucketBytes;
+      status.activeWrites = total.writes;
+      status.activeBytes = total.bytes;
+      status.activeBuckets = bucketUsage.size();
+      status.queueSize = queueSize;
+      status.maxQueueSize = maxQueueSize;
+      status.admittedCount = admittedCount;
+      status.queuedCount = queuedCount;
+      status.throttledCount = throttledCount;
+      status.rejectedCount = rejectedCount;
+      return status;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static class Usage {
+
+    private int writes;
+
+    private long bytes;
+
+    private void add(long bytes) {
+      this.writes++;
+      this.bytes += bytes;
+    }
+
+    private void remove(long bytes) {
+      this.writes--;
+      this.bytes -= bytes;
+    }
+  }
+
+  /**
+   * The admission of a write, which gives its room back when it is closed. A permit may be closed from any thread, and
+   * more than once.
+   */
+  public class Permit implements AutoCloseable {
+
+    private String bucketName;
+
+    private final long bytes;
+
+    private boolean closed;
+
+    private Permit(String bucketName, long bytes) {
+      this.bucketName = bucketName;
+      this.bytes = bytes;
+    }
+
+    /**
+     * Counts a write admitted before its bucket was known against the limits of <code>bucketName</code>, waiting for
+     * room if needed. Does nothing if the permit already belongs to a bucket.
+     *
+     * @throws RepoException of type TooManyRequests if the bucket had no room in time
+     */
+    public void admitTo(String bucketName) throws RepoException {
+      synchronized (this) {
+        if (closed || this.bucketName != null || bucketName == null) {
+          return;
+        }
+      }
+
+      acquire(bucketName, bytes, false);
+
+      boolean release;
+      synchronized (this) {
+        release = closed;
+        if (!closed) {
+          this.bucketName = bucketName;
+        }
+      }
+
+      // the permit was closed while the write waited for its bucket
+      if (release) {
+        releaseBucket(bucketName, bytes);
+      }
+    }
+
+    @Override
+    public void close() {
+      String releasedBucketName;
+
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        releasedBucketName = bucketName;
+      }
+
+      release(releasedBucketName, bytes);
+    }
+  }
+
+}
@@ -60,6 +60,9 @@ public class AuditRepoService extends BaseRepoService {
     try {
       validatePagination(offset, limit);
 
+      auditWriter.flush();
+
+      // read from the primary, which the flush has just written to
       sqlService.getReadOnlyConnection();
 
       return sqlService.listAuditRecords(offset, limit);
@@ -71,6 +74,41 @@ public class AuditRepoService extends BaseRepoService {
     }
   }
 
+  /**
+   * List the audit records that follow the record <code>afterId</code>, ordered by id. Unlike an offset, the records of
+   * the previous pages are not read.
+   * @param afterId        the id of the last record of the previous page, null or 0 for the first page
+   * @param limit          a single number used to paginate the response, indicating the limit of rows returned
+
+   * @return a list of audit records {@link org.plos.repo.models.Audit}
+   * @throws org.plos.repo.service.RepoException if a server error occurs
+   */
+  public List<Audit> listAuditRecordsAfter(Integer afterId, Integer limit) throws RepoException {
+
+    if (afterId == null) {
+      afterId = 0;
+    }
+    if (limit == null) {
+      limit = DEFAULT_PAGE_SIZE;
+    }
+
+    try {
+      validatePagination(0, limit);
+
+      auditWriter.flush();
+
+      // read from the primary, which the flush has just written to
+      sqlService.getReadOnlyConnection();
+
+      return sqlService.listAuditRecordsAfter(afterId, limit);
+
+    } catch (SQLException e) {
+      throw new RepoException(e);
+    } finally {
+      sqlReleaseConnection();
+    }
+  }
+
   @Override
   public Logger getLog() {
     return log;
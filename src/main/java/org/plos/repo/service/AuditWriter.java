@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.plos.repo.service;
+
+import org.plos.repo.models.Audit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the audit rows of the operations. In synchronous mode each row is inserted into the audit table by the
+ * transaction of its operation. In asynchronous mode the row is inserted into the narrow <code>auditOutbox</code>
+ * table instead, still in the transaction of its operation, and a background thread moves the outbox to the audit
+ * table in batches.
+ * <p/>
+ * A row is durable once its operation is committed, and is lost with it if the transaction rolls back, in both modes.
+ * Rows are moved in the order of their outbox ids, so the rows of a key keep the order of its operations, which are
+ * serialized by the write lock of the key. Rows of different keys may be reordered when their transactions commit in
+ * a different order than they inserted their rows, as in synchronous mode.
+ * <p/>
+ * A row reaches the audit table at most one flush interval after its operation is committed, or when the audit
+ * records are listed, which moves the outbox first.
+ */
+public class AuditWriter {
+
+  public static final long DEFAULT_FLUSH_MILLIS = 1000;
+
+  public static final int DEFAULT_BATCH_SIZE = 500;
+
+  private static final Logger log = LoggerFactory.getLogger(AuditWriter.class);
+
+  @Inject
+  private SqlService sqlService;
+
+  private final long flushMillis;
+
+  private final int batchSize;
+
+  private ScheduledExecutorService flushExecutor;
+
+  public AuditWriter() {
+    this(DEFAULT_FLUSH_MILLIS, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * @param flushMillis interval between two moves of the outbox to the audit table. 0 writes the audit rows
+   *                    synchronously.
+   * @param batchSize   number of rows moved by each statement batch
+   */
+  public AuditWriter(long flushMillis, int batchSize) {
+    this.flushMillis = flushMillis;
+    this.batchSize = batchSize;
+  }
+
+  @PostConstruct
+  public void start() {
+    if (flushMillis <= 0) {
+      return;
+    }
+
+    flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "audit-writer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    flushExecutor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          flush();
+        } catch (Exception e) {
+          log.error("Error moving the audit outbox", e);
+        }
+      }
+    }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the background thread, then moves what is left in the outbox. Rows that can not be moved stay in the outbox
+   * for the next start.
+   */
+  @PreDestroy
+  public void stop() {
+    if (flushExecutor == null) {
+      return;
+    }
+
+    flushExecutor.shutdownNow();
+
+    try {
+      flushExecutor.awaitTermination(flushMillis, TimeUnit.MILLISECONDS);
+      flush();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RepoException e) {
+      log.error("Error moving the audit outbox", e);
+    }
+  }
+
+  public boolean isAsynchronous() {
+    return flushMillis > 0;
+  }
+
+  /**
+   * Writes an audit row with the connection of the current transaction.
+   *
+   * @return true if the row was inserted
+   */
+  public boolean write(Audit audit) throws SQLException {
+    return isAsynchronous() ? sqlService.insertOutboxAudits(Collections.singletonList(audit))
+        : sqlService.insertAudit(audit);
+  }
+
+  /**
+   * Writes audit rows with a single batch statement and the connection of the current transaction.
+   *
+   * @return true if every row was inserted
+   */
+  public boolean write(List<Audit> audits) throws SQLException {
+    return isAsynchronous() ? sqlService.insertOutboxAudits(audits) : sqlService.insertAudits(audits);
+  }
+
+  /**
+   * Moves the whole outbox to the audit table, one transaction per batch. Does nothing in synchronous mode. It must
+   * not be called by a thread that holds a connection.
+   */
+  public synchronized void flush() throws RepoException {
+    if (!isAsynchronous()) {
+      return;
+    }
+
+    int moved;
+
+    do {
+      boolean rollback = false;
+
+      try {
+        sqlService.getConnection();
+        rollback = true;
+
+        moved = sqlService.moveOutboxAudits(batchSize);
+
+        // an empty outbox leaves nothing to commit
+        if (moved > 0) {
+          sqlService.transactionCommit();
+          rollback = false;
+        }
+      } catch (SQLException e) {
+        throw new RepoException(e);
+      } finally {
+        try {
+          if (rollback) {
+            sqlService.transactionRollback();
+          }
+          sqlService.releaseConnection();
+        } catch (SQLException e) {
+          log.error("Error releasing the connection of the audit writer", e);
+        }
+      }
+    } while (moved == batchSize);
+  }
+
+}
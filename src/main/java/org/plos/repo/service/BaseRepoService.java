@@ -35,7 +35,7 @@ import java.sql.SQLException;
 public abstract class BaseRepoService {
 
   // default page size = number of objects returned when no limit= parameter supplied.
-  protected static final Integer DEFAULT_PAGE_SIZE = 1000;
+  public static final Integer DEFAULT_PAGE_SIZE = 1000;
 
   // maximum allowed value of page size, i.e., limit= parameter
   protected static final Integer MAX_PAGE_SIZE = 10000;
@@ -47,6 +47,9 @@ public abstract class BaseRepoService {
   @Inject
   protected SqlService sqlService;
 
+  @Inject
+  protected AuditWriter auditWriter;
+
   protected void sqlReleaseConnection() throws RepoException {
     try {
       sqlService.releaseConnection();
@@ -86,7 +89,7 @@ public abstract class BaseRepoService {
   protected void auditOperation(Audit audit) throws RepoException {
 
     try {
-      boolean result = sqlService.insertAudit(audit);
+      boolean result = auditWriter.write(audit);
 
       if (!result) {
         throw new RepoException("Error saving audit operation to database " + audit);
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import org.apache.commons.io.IOUtils;
+import org.plos.repo.models.Bucket;
+import org.plos.repo.models.RepoObject;
+import org.plos.repo.models.output.CacheStatus;
+import org.plos.repo.util.UploadSpooler;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Object store decorator that keeps the content of small objects in memory outside of the heap, so that the most read
+ * objects are not fetched from the underlying store again. Content is addressed by bucket and checksum and never
+ * changes, so entries are only removed when they are evicted to make room, or when the content is purged.
+ * <p/>
+ * The cache is bounded by the total size of the cached content. Evicted buffers are released by the garbage collector
+ * once no request is reading them anymore.
+ */
+public class CachingObjectStore extends ObjectStore {
+
+  public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+  public static final long DEFAULT_MAX_OBJECT_BYTES = 1024 * 1024;
+
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+  private final ObjectStore objectStore;
+
+  private final long maxBytes;
+
+  private final long maxObjectBytes;
+
+  private final Cache<String, ByteBuffer> cache;
+
+  /**
+   * @param objectStore    the store holding the content
+   * @param maxBytes       upper bound of the total size of the cached content
+   * @param maxObjectBytes size of the largest object whose content is cached
+   */
+  public CachingObjectStore(ObjectStore objectStore, long maxBytes, long maxObjectBytes) {
+    this.objectStore = objectStore;
+    this.maxBytes = maxBytes;
+    this.maxObjectBytes = Math.min(maxObjectBytes, Integer.MAX_VALUE);
+    this.cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher(new Weigher<String, ByteBuffer>() {
+          @Override
+          public int weigh(String key, ByteBuffer value) {
+            return value.capacity();
+          }
+        })
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * The decorated store is not a bean, so it gets the checksum generator and upload spooler injected here.
+   */
+  @PostConstruct
+  public void init() {
+    if (objectStore.checksumGenerator == null) {
+      objectStore.checksumGenerator = checksumGenerator;
+    }
+    if (objectStore.uploadSpooler == null) {
+      objectStore.uploadSpooler = uploadSpooler;
+    }
+  }
+
+  public ObjectStore getObjectStore() {
+    return objectStore;
+  }
+
+  @Override
+  public InputStream getInputStream(RepoObject repoObject) throws RepoException {
+    if (!isCacheable(repoObject)) {
+      return objectStore.getInputStream(repoObject);
+    }
+
+    ByteBuffer content = cache.getIfPresent(getCacheKey(repoObject));
+
+    if (content != null) {
+      return new ByteBufferInputStream(content.duplicate());
+    }
+
+    InputStream inputStream = objectStore.getInputStream(repoObject);
+
+    if (inputStream == null) {
+      return null;
+    }
+
+    return load(repoObject, inputStream);
+  }
+
+  @Override
+  public InputStream getInputStream(RepoObject repoObject, long offset, long length) throws RepoException {
+    ByteBuffer content = isCacheable(repoObject) ? cache.getIfPresent(getCacheKey(repoObject)) : null;
+
+    if (content == null) {
+      return objectStore.getInputStream(repoObject, offset, length);
+    }
+
+    ByteBuffer slice = content.duplicate();
+    slice.position((int) Math.min(offset, slice.limit()));
+    slice.limit((int) Math.min(slice.limit(), slice.position() + length));
+    return new ByteBufferInputStream(slice);
+  }
+
+  /**
+   * Copy the content into a direct buffer and cache it, unless its length is not the one recorded for the object, in
+   * which case it is handed out as read.
+   */
+  private InputStream load(RepoObject repoObject, InputStream inputStream) throws RepoException {
+    int size = repoObject.getSize().intValue();
+    ByteBuffer content = ByteBuffer.allocateDirect(size);
+    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+
+    try {
+      int read;
+      while (content.hasRemaining()
+          && (read = inputStream.read(buffer, 0, Math.min(buffer.length, content.remaining()))) != -1) {
+        content.put(buffer, 0, read);
+      }
+
+      content.flip();
+
+      int next = content.limit() < size ? -1 : inputStream.read();
+
+      if (content.limit() < size || next != -1) {
+        byte[] head = new byte[content.limit()];
+        content.get(head);
+        InputStream rest = next == -1 ? inputStream :
+            new SequenceInputStream(new ByteArrayInputStream(new byte[]{(byte) next}), inputStream);
+        return new SequenceInputStream(new ByteArrayInputStream(head), rest);
+      }
+
+      inputStream.close();
+    } catch (IOException e) {
+      IOUtils.closeQuietly(inputStream);
+      throw new RepoException(e);
+    }
+
+    cache.put(getCacheKey(repoObject), content);
+    return new ByteBufferInputStream(content.duplicate());
+  }
+
+  private boolean isCacheable(RepoObject repoObject) {
+    return repoObject.getChecksum() != null && repoObject.getSize() != null
+        && repoObject.getSize() > 0 && repoObject.getSize() <= maxObjectBytes;
+  }
+
+  private static String getCacheKey(RepoObject repoObject) {
+    // bucket names can not contain a slash
+    return repoObject.getBucketName() + "/" + repoObject.getChecksum();
+  }
+
+  @Override
+  public boolean deleteObject(RepoObject repoObject) {
+    boolean deleted = objectStore.deleteObject(repoObject);
+    cache.invalidate(getCacheKey(repoObject));
+    return deleted;
+  }
+
+  @Override
+  public Optional<Boolean> deleteBucket(Bucket bucket) {
+    Optional<Boolean> deleted = objectStore.deleteBucket(bucket);
+
+    String prefix = bucket.getBucketName() + "/";
+    for (String key : cache.asMap().keySet()) {
+      if (key.startsWith(prefix)) {
+        cache.invalidate(key);
+      }
+    }
+
+    return deleted;
+  }
+
+  public CacheStatus getStatus() {
+    CacheStats stats = cache.stats();
+
+    CacheStatus status = new CacheStatus();
+    status.size = cache.size();
+    status.maxWeight = maxBytes;
+    status.hitCount = stats.hitCount();
+    status.missCount = stats.missCount();
+    status.evictionCount = stats.evictionCount();
+    return status;
+  }
+
+  @Override
+  public boolean hasXReproxy() {
+    return objectStore.hasXReproxy();
+  }
+
+  @Override
+  protected void invalidateFilePaths(RepoObject repoObject) {
+    objectStore.invalidateFilePaths(repoObject);
+  }
+
+  @Override
+  public String[] getFilePaths(RepoObject repoObject) throws RepoException {
+    return objectStore.getFilePaths(repoObject);
+  }
+
+  @Override
+  public boolean objectExists(RepoObject repoObject) {
+    return cache.getIfPresent(getCacheKey(repoObject)) != null || objectStore.objectExists(repoObject);
+  }
+
+  @Override
+  public boolean probeObjectExists(RepoObject repoObject) {
+    if (objectStore.probeObjectExists(repoObject)) {
+      return true;
+    }
+
+    cache.invalidate(getCacheKey(repoObject));
+    return false;
+  }
+
+  @Override
+  public Optional<Boolean> bucketExists(Bucket bucket) {
+    return objectStore.bucketExists(bucket);
+  }
+
+  @Override
+  public Optional<Boolean> createBucket(Bucket bucket) {
+    return objectStore.createBucket(bucket);
+  }
+
+  @Override
+  public UploadInfo uploadTempObject(Bucket bucket, InputStream uploadedInputStream, Long size) throws RepoException {
+    return objectStore.uploadTempObject(bucket, uploadedInputStream, size);
+  }
+
+  @Override
+  public boolean saveUploadedObject(Bucket bucket, UploadInfo uploadInfo, RepoObject repoObject) {
+    return objectStore.saveUploadedObject(bucket, uploadInfo, repoObject);
+  }
+
+  @Override
+  public boolean deleteTempUpload(UploadInfo uploadInfo) {
+    return objectStore.deleteTempUpload(uploadInfo);
+  }
+
+  @Override
+  public File getLocalFile(RepoObject repoObject) {
+    return objectStore.getLocalFile(repoObject);
+  }
+
+  /**
+   * Stream over a private view of a cached buffer.
+   */
+  private static class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+
+      int count = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, count);
+      return count;
+    }
+
+    @Override
+    public long skip(long n) {
+      int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+
+  }
+
+}
@@ -80,7 +80,7 @@ public class CollectionRepoService extends BaseRepoService {
     try {
       validatePagination(offset, limit);
 
-      sqlService.getReadOnlyConnection();
+      sqlService.getReplicaConnection();
 
       if (StringUtil.isEmpty(bucketName)) {
         throw new RepoException(RepoException.Type.NoBucketEntered);
@@ -98,6 +98,48 @@ public class CollectionRepoService extends BaseRepoService {
     }
   }
 
+  /**
+   * Returns a list of collections meta data for the given bucket name <code>bucketName</code> that follow the
+   * collection <code>afterId</code>, ordered by id. It is used for keyset pagination, where the rows of the previous
+   * pages are not read.
+   *
+   * @param bucketName     a single String representing the bucket name in where to look the collection
+   * @param afterId        the id of the last collection of the previous page, null or 0 for the first page
+   * @param limit          an Integer used to determine the limit of the response
+   * @param includeDeleted a boolean value that defines whether to include deleted collections or not
+   * @param tag            a single String used to filter the response when collection's tag matches the given param
+   * @return a list of {@link org.plos.repo.models.RepoCollection}
+   * @throws org.plos.repo.service.RepoException
+   */
+  public List<RepoCollection> listCollectionsAfter(String bucketName, Integer afterId, Integer limit, boolean includeDeleted, String tag) throws RepoException {
+    if (afterId == null) {
+      afterId = 0;
+    }
+    if (limit == null) {
+      limit = DEFAULT_PAGE_SIZE;
+    }
+
+    try {
+      validatePagination(0, limit);
+
+      sqlService.getReplicaConnection();
+
+      if (StringUtil.isEmpty(bucketName)) {
+        throw new RepoException(RepoException.Type.NoBucketEntered);
+      }
+
+      if (sqlService.getBucket(bucketName) == null) {
+        throw new RepoException(RepoException.Type.BucketNotFound);
+      }
+
+      return sqlService.listCollectionsMetaDataAfter(bucketName, afterId, limit, includeDeleted, tag);
+    } catch (SQLException e) {
+      throw new RepoException(e);
+    } finally {
+      sqlReleaseConnection();
+    }
+  }
+
   /**
    * Returns a collection identified by <code>bucketName</code> and <code>key</code>. If no filer
    * <code>collectionFilter</code> is specified, it returns the latest version available. If only tag filter is
@@ -113,7 +155,7 @@ public class CollectionRepoService extends BaseRepoService {
     RepoCollection repoCollection;
 
     try {
-      sqlService.getReadOnlyConnection();
+      sqlService.getReplicaConnection();
 
       if (StringUtil.isEmpty(key)) {
         throw new RepoException(RepoException.Type.NoCollectionKeyEntered);
@@ -149,7 +191,7 @@ public class CollectionRepoService extends BaseRepoService {
    */
   public List<RepoCollection> getCollectionVersions(String bucketName, String key) throws RepoException {
     try {
-      sqlService.getReadOnlyConnection();
+      sqlService.getReplicaConnection();
 
       if (StringUtil.isEmpty(bucketName)) {
         throw new RepoException(RepoException.Type.NoBucketEntered);
@@ -23,22 +23,21 @@
 package org.plos.repo.service;
 
 import com.google.common.base.Optional;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.plos.repo.models.Bucket;
 import org.plos.repo.models.RepoObject;
+import org.plos.repo.util.ContentHasher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
+import java.io.RandomAccessFile;
 import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
-import java.security.DigestOutputStream;
-import java.security.MessageDigest;
+import java.nio.channels.FileChannel;
 import java.util.UUID;
 
 public class FileSystemStoreService extends ObjectStore {
@@ -49,9 +48,20 @@ public class FileSystemStoreService extends ObjectStore {
 
   private String reproxyBaseUrl;
 
+  private boolean zeroCopy;
+
   public FileSystemStoreService(String dataDirectory, String reproxyBaseUrl) {
+    this(dataDirectory, reproxyBaseUrl, true);
+  }
+
+  /**
+   * @param zeroCopy whether downloads may be sent straight from the data files, instead of being streamed through the
+   *                 heap. See {@link #getLocalFile(org.plos.repo.models.RepoObject)}.
+   */
+  public FileSystemStoreService(String dataDirectory, String reproxyBaseUrl, boolean zeroCopy) {
     this.dataDirectory = dataDirectory;
     this.reproxyBaseUrl = reproxyBaseUrl;
+    this.zeroCopy = zeroCopy;
 
     File dir = new File(dataDirectory);
     dir.mkdir();
@@ -84,6 +94,44 @@ public class FileSystemStoreService extends ObjectStore {
     }
   }
 
+  @Override
+  public File getLocalFile(RepoObject repoObject) {
+    if (!zeroCopy) {
+      return null;
+    }
+
+    File file = new File(getObjectLocationString(repoObject.getBucketName(), repoObject.getChecksum()));
+    return file.isFile() ? file : null;
+  }
+
+  @Override
+  public InputStream getInputStream(RepoObject repoObject, long offset, long length) throws RepoException {
+    RandomAccessFile file;
+    try {
+      file = new RandomAccessFile(getObjectLocationString(repoObject.getBucketName(), repoObject.getChecksum()), "r");
+    } catch (FileNotFoundException e) {
+      log.debug("The content for the object was not found. Object --> key {} , bucket name: {} , content checksum: {} , version number: {} ",
+          repoObject.getKey(),
+          repoObject.getBucketName(),
+          repoObject.getChecksum(),
+          repoObject.getVersionNumber());
+      return null;
+    }
+
+    try {
+      // closing the stream closes the channel and the file
+      FileChannel channel = file.getChannel().position(offset);
+      return new BoundedInputStream(Channels.newInputStream(channel), length);
+    } catch (IOException e) {
+      try {
+        file.close();
+      } catch (IOException e2) {
+        log.error("Error closing file", e2);
+      }
+      throw new RepoException(e);
+    }
+  }
+
   @Override
   public Optional<Boolean> bucketExists(Bucket bucket) {
     return Optional.of(new File(getBucketLocationString(bucket.getBucketName())).isDirectory());
@@ -172,7 +220,7 @@ public class FileSystemStoreService extends ObjectStore {
   }
 
   @Override
-  public UploadInfo uploadTempObject(InputStream uploadedInputStream) throws RepoException {
+  public UploadInfo uploadTempObject(Bucket bucket, InputStream uploadedInputStream, Long size) throws RepoException {
     final String tempFileLocation = dataDirectory + "/" + UUID.randomUUID().toString() + ".tmp";
 
     try {
@@ -180,45 +228,17 @@ public class FileSystemStoreService extends ObjectStore {
        throw new RepoException(RepoException.Type.NoFileEntered);
      }
 
-      FileOutputStream fos = new FileOutputStream(tempFileLocation);
-
-      ReadableByteChannel in = Channels.newChannel(uploadedInputStream);
-      MessageDigest digest = checksumGenerator.getDigestMessage();
-      WritableByteChannel out = Channels.newChannel(new DigestOutputStream(fos, digest));
-      ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+      ContentHasher hasher = newHasher(bucket);
+      long finalSize;
 
-      long size = 0;
-
-      while (in.read(buffer) != -1) {
-        buffer.flip();
-        size += out.write(buffer);
-        buffer.clear();
+      // the temporary file is in the data directory, so that saving it is a rename on the same filesystem
+      try {
+        finalSize = uploadSpooler.copy(uploadedInputStream, new File(tempFileLocation), hasher);
+      } finally {
+        uploadedInputStream.close();
       }
 
-      fos.flush();
-
-      final String checksum = checksumGenerator.checksumToString(digest.digest());
-      final long finalSize = size;
-
-      in.close();
-      out.close();
-
-      return new UploadInfo() {
-        @Override
-        public Long getSize() {
-          return finalSize;
-        }
-
-        @Override
-        public String getTempLocation() {
-          return tempFileLocation;
-        }
-
-        @Override
-        public String getChecksum() {
-          return checksum;
-        }
-      };
+      return newUploadInfo(tempFileLocation, finalSize, hasher);
     } catch (Exception e) {
       throw new RepoException(e);
     }
@@ -70,4 +70,12 @@ public class HsqlService extends SqlService {
     connection.close();
   }
 
+  /**
+   * HSQLDB does not replicate, so a replica can only be another database kept in sync outside of the service.
+   */
+  @Override
+  public Long getReplicationLagMillis(Connection connection) throws SQLException {
+    return 0L;
+  }
+
 }
@@ -26,12 +26,13 @@ import com.google.common.base.Optional;
 import org.apache.commons.io.IOUtils;
 import org.plos.repo.models.Bucket;
 import org.plos.repo.models.RepoObject;
+import org.plos.repo.util.ContentHasher;
+import org.plos.repo.util.UploadSpooler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -71,6 +72,19 @@ public class InMemoryFileStoreService extends ObjectStore {
     return null;
   }
 
+  @Override
+  public InputStream getInputStream(RepoObject repoObject, long offset, long length) {
+    Map<String, byte[]> bucket = data.get(repoObject.getBucketName());
+    if (bucket != null) {
+      byte[] content = bucket.get(repoObject.getChecksum());
+      if (content != null) {
+        int from = (int) Math.min(offset, content.length);
+        return new ByteArrayInputStream(content, from, (int) Math.min(length, content.length - from));
+      }
+    }
+    return null;
+  }
+
   @Override
   public Optional<Boolean> bucketExists(Bucket bucket) {
     return Optional.of(data.containsKey(bucket.getBucketName()));
@@ -123,35 +137,21 @@ public class InMemoryFileStoreService extends ObjectStore {
   }
 
   @Override
-  public UploadInfo uploadTempObject(InputStream uploadedInputStream) throws RepoException {
+  public UploadInfo uploadTempObject(Bucket bucket, InputStream uploadedInputStream, Long size) throws RepoException {
     try {
-      MessageDigest digest = checksumGenerator.getDigestMessage();
+      ContentHasher hasher = newHasher(bucket);
 
       final String tempFileLocation = UUID.randomUUID().toString() + ".tmp";
 
-      byte[] bytes = IOUtils.toByteArray(uploadedInputStream);
+      byte[] bytes;
+      try (UploadSpooler.Spool spool = uploadSpooler.spool(uploadedInputStream, hasher);
+           InputStream spooled = spool.openStream()) {
+        bytes = IOUtils.toByteArray(spooled, spool.getSize());
+      }
 
       tempdata.put(tempFileLocation, bytes);
 
-      final String checksum = checksumGenerator.checksumToString(digest.digest(bytes));
-      final long finalSize = bytes.length;
-
-      return new UploadInfo() {
-        @Override
-        public Long getSize() {
-          return finalSize;
-        }
-
-        @Override
-        public String getTempLocation() {
-          return tempFileLocation;
-        }
-
-        @Override
-        public String getChecksum() {
-          return checksum;
-        }
-      };
+      return newUploadInfo(tempFileLocation, bytes.length, hasher);
     } catch (Exception e) {
       throw new RepoException(e);
     }
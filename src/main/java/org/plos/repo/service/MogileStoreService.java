@@ -24,19 +24,22 @@ package org.plos.repo.service;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.guba.mogilefs.MogileFS;
 import com.guba.mogilefs.PooledMogileFSImpl;
 import org.apache.commons.io.IOUtils;
 import org.plos.repo.models.Bucket;
 import org.plos.repo.models.RepoObject;
+import org.plos.repo.util.ContentHasher;
+import org.plos.repo.util.UploadSpooler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.security.MessageDigest;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 public class MogileStoreService extends ObjectStore {
 
@@ -44,41 +47,68 @@ public class MogileStoreService extends ObjectStore {
 
   public static final String mogileFileClass = "";
 
+  public static final long DEFAULT_PATH_CACHE_TTL_SECONDS = 60;
+
+  public static final long DEFAULT_PATH_CACHE_MAX_SIZE = 10000;
+
+  private static final int UPLOAD_BUFFER_SIZE = 64 * 1024;
+
   private MogileFS mfs = null;
 
+  // file key -> storage node paths. The content under a key never changes, so the paths only go stale if the
+  // trackers move or lose a replica, or if another node deletes the file. A failed read of the file, or a request for
+  // fresh paths, discards them before the time to live does.
+  private final Cache<String, String[]> pathCache;
+
   public MogileStoreService(String domain, String[] trackerStrings, int maxTrackerConnections, int maxIdleConnections, long maxIdleTimeMillis) throws Exception {
-    mfs = new PooledMogileFSImpl(domain, trackerStrings, maxTrackerConnections, maxIdleConnections, maxIdleTimeMillis);
+    this(domain, trackerStrings, maxTrackerConnections, maxIdleConnections, maxIdleTimeMillis,
+        DEFAULT_PATH_CACHE_TTL_SECONDS, DEFAULT_PATH_CACHE_MAX_SIZE);
   }
 
-  private static byte[] readStreamInput(InputStream input) throws IOException {
-    Preconditions.checkNotNull(input);
-    try {
-      return IOUtils.toByteArray(input);
-    } finally {
-      input.close();
-    }
+  public MogileStoreService(String domain, String[] trackerStrings, int maxTrackerConnections, int maxIdleConnections, long maxIdleTimeMillis,
+                            long pathCacheTtlSeconds, long pathCacheMaxSize) throws Exception {
+    this(new PooledMogileFSImpl(domain, trackerStrings, maxTrackerConnections, maxIdleConnections, maxIdleTimeMillis),
+        pathCacheTtlSeconds, pathCacheMaxSize);
+  }
+
+  /**
+   * @param pathCacheTtlSeconds time for which the resolved paths of a file are reused. 0 disables the cache.
+   * @param pathCacheMaxSize    maximum number of files whose paths are cached
+   */
+  public MogileStoreService(MogileFS mfs, long pathCacheTtlSeconds, long pathCacheMaxSize) {
+    this.mfs = mfs;
+    this.pathCache = CacheBuilder.newBuilder()
+        .expireAfterWrite(pathCacheTtlSeconds, TimeUnit.SECONDS)
+        .maximumSize(pathCacheTtlSeconds > 0 ? pathCacheMaxSize : 0)
+        .build();
   }
 
   private String getObjectLocationString(String bucketName, String checksum) {
     return checksum + "-" + bucketName;
   }
 
+  /**
+   * Asks the trackers for the paths of the file instead of opening it, so that no storage node is involved. Paths
+   * found are cached, which makes the path cache a cache of the files known to exist as well.
+   */
   @Override
   public boolean objectExists(RepoObject repoObject) {
     try {
-      InputStream in = mfs.getFileStream(getObjectLocationString(repoObject.getBucketName(), repoObject.getChecksum()));
-
-      if (in == null) {
-        return false;
-      }
-
-      in.close();
-      return true;
-    } catch (Exception e) {
+      return getFilePaths(repoObject).length > 0;
+    } catch (RepoException e) {
       return false;
     }
   }
 
+  /**
+   * Discards the cached paths of the file and asks the trackers again.
+   */
+  @Override
+  public boolean probeObjectExists(RepoObject repoObject) {
+    invalidateFilePaths(repoObject);
+    return objectExists(repoObject);
+  }
+
   @Override
   public boolean hasXReproxy() {
     return true;
@@ -86,9 +116,15 @@ public class MogileStoreService extends ObjectStore {
 
   @Override
   public String[] getFilePaths(RepoObject repoObject) throws RepoException {
-    String[] paths = null;
+    String location = getObjectLocationString(repoObject.getBucketName(), repoObject.getChecksum());
+    String[] paths = pathCache.getIfPresent(location);
+
+    if (paths != null) {
+      return paths.clone();
+    }
+
     try {
-      paths = mfs.getPaths(getObjectLocationString(repoObject.getBucketName(), repoObject.getChecksum()), true);
+      paths = mfs.getPaths(location, true);
 
       if (paths == null) {
         throw new RepoException(RepoException.Type.ObjectFilePathMissing);
@@ -97,14 +133,25 @@ public class MogileStoreService extends ObjectStore {
       throw new RepoException(e);
     }
 
+    if (paths.length > 0) {
+      pathCache.put(location, paths.clone());
+    }
+
     return paths;
   }
 
+  @Override
+  protected void invalidateFilePaths(RepoObject repoObject) {
+    pathCache.invalidate(getObjectLocationString(repoObject.getBucketName(), repoObject.getChecksum()));
+  }
+
   @Override
   public InputStream getInputStream(RepoObject repoObject) throws RepoException {
     try {
       return mfs.getFileStream(getObjectLocationString(repoObject.getBucketName(), repoObject.getChecksum()));
     } catch (Exception e) {
+      // the trackers could not serve the file, so its cached paths can not be trusted either
+      invalidateFilePaths(repoObject);
       throw new RepoException(e);
     }
   }
@@ -125,44 +172,81 @@ public class MogileStoreService extends ObjectStore {
     return Optional.absent();
   }
 
+  /**
+   * Writes the content to a temporary MogileFS file. The MogileFS client must be given the size of a file when it is
+   * created, so content of unknown size is first spooled, in memory if it is small and to a local file otherwise.
+   * Either way the content is copied through a fixed size buffer, and the memory used by an upload does not grow with
+   * its size.
+   */
   @Override
-  public UploadInfo uploadTempObject(InputStream uploadedInputStream) throws RepoException {
+  public UploadInfo uploadTempObject(Bucket bucket, InputStream uploadedInputStream, Long size) throws RepoException {
     final String tempFileLocation = UUID.randomUUID().toString() + ".tmp";
 
-    // NOTE: in the future we can avoid having to read to memory by using a
-    //   different MogileFS library that does not require size at creation time.
-
     try {
-      byte[] objectData = readStreamInput(uploadedInputStream);
+      Preconditions.checkNotNull(uploadedInputStream);
+      ContentHasher hasher = newHasher(bucket);
 
-      MessageDigest digest = checksumGenerator.getDigestMessage();
+      long finalSize = (size != null) ?
+          writeFile(tempFileLocation, hasher.wrap(uploadedInputStream), size) :
+          spoolAndWriteFile(tempFileLocation, uploadedInputStream, hasher);
 
-      OutputStream fos = mfs.newFile(tempFileLocation, mogileFileClass, objectData.length);
+      return newUploadInfo(tempFileLocation, finalSize, hasher);
+    } catch (RepoException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RepoException(e);
+    } finally {
+      IOUtils.closeQuietly(uploadedInputStream);
+    }
+  }
 
-      IOUtils.write(objectData, fos);
-      fos.close();
+  /**
+   * Streams <code>size</code> bytes of <code>input</code> into a new MogileFS file.
+   *
+   * @throws RepoException of type ObjectDataSizeMismatch if <code>input</code> does not hold exactly
+   *                       <code>size</code> bytes. The partially written file is deleted.
+   */
+  private long writeFile(String location, InputStream input, long size) throws Exception {
+    long copied;
+    boolean complete = false;
 
-      final String checksum = checksumGenerator.checksumToString(digest.digest(objectData));
-      final long finalSize = objectData.length;
+    try {
+      try (OutputStream output = mfs.newFile(location, mogileFileClass, size)) {
+        copied = IOUtils.copyLarge(input, output, 0, size, new byte[UPLOAD_BUFFER_SIZE]);
+        complete = copied == size && input.read() == -1;
+      }
+    } finally {
+      if (!complete) {
+        deleteQuietly(location);
+      }
+    }
+
+    if (!complete) {
+      throw new RepoException(RepoException.Type.ObjectDataSizeMismatch);
+    }
 
-      return new UploadInfo() {
-        @Override
-        public Long getSize() {
-          return finalSize;
-        }
+    return copied;
+  }
 
-        @Override
-        public String getTempLocation() {
-          return tempFileLocation;
-        }
+  /**
+   * Spools <code>input</code> to learn its size, then streams it into a new MogileFS file.
+   */
+  private long spoolAndWriteFile(String location, InputStream input, ContentHasher hasher) throws Exception {
+    try (UploadSpooler.Spool spool = uploadSpooler.spool(input, hasher)) {
+      try (InputStream spooled = spool.openStream();
+           OutputStream output = mfs.newFile(location, mogileFileClass, spool.getSize())) {
+        IOUtils.copyLarge(spooled, output, new byte[UPLOAD_BUFFER_SIZE]);
+      }
 
-        @Override
-        public String getChecksum() {
-          return checksum;
-        }
-      };
+      return spool.getSize();
+    }
+  }
+
+  private void deleteQuietly(String location) {
+    try {
+      mfs.delete(location);
     } catch (Exception e) {
-      throw new RepoException(e);
+      log.debug("Could not delete the incomplete upload " + location, e);
     }
   }
 
@@ -188,6 +272,8 @@ public class MogileStoreService extends ObjectStore {
 
   @Override
   public boolean deleteObject(RepoObject repoObject) {
+    invalidateFilePaths(repoObject);
+
     try {
       mfs.delete(getObjectLocationString(repoObject.getBucketName(), repoObject.getChecksum()));
       return true;
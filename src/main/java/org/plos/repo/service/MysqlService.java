@@ -22,6 +22,11 @@
 
 package org.plos.repo.service;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
 public class MysqlService extends SqlService {
 
   // TODO: complain if DB does not exist, or try to create it
@@ -29,4 +34,30 @@ public class MysqlService extends SqlService {
   public void postDbInit() {
   }
 
+  /**
+   * Connector/J reads the whole result set into memory unless the fetch size is Integer.MIN_VALUE, which makes it
+   * stream the rows one at a time.
+   */
+  @Override
+  protected int getStreamingFetchSize() {
+    return Integer.MIN_VALUE;
+  }
+
+  /**
+   * Reads the lag of the replica from its slave status. MySQL reports it in whole seconds, so it is rounded up.
+   */
+  @Override
+  public Long getReplicationLagMillis(Connection connection) throws SQLException {
+    try (PreparedStatement p = connection.prepareStatement("SHOW SLAVE STATUS");
+         ResultSet result = p.executeQuery()) {
+
+      if (!result.next()) {
+        return null;
+      }
+
+      long seconds = result.getLong("Seconds_Behind_Master");
+      return result.wasNull() ? null : (seconds + 1) * 1000;
+    }
+  }
+
 }
@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.plos.repo.models.Bucket;
+import org.plos.repo.models.output.KeyFilterStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per bucket Bloom filter of the keys that have a used object version. A key the filter has never seen does not
+ * exist, so lookups of it can be answered without querying the database. Keys are never removed: deleted objects
+ * only make the filter less selective until the next rebuild.
+ * <p/>
+ * The filters are built in the background at startup and rebuilt periodically, which resizes them to the number of
+ * keys. Keys created through this node are added by {@link org.plos.repo.service.RepoService} once their row is
+ * committed, while it still holds the write lock of the key, so a reader can never miss a key it could read from the
+ * database. Keys created through other nodes of a cluster are only picked up by the next rebuild, so the filter must
+ * only be enabled when a single node writes to the database, and is disabled by default.
+ */
+public class ObjectKeyFilter {
+
+  public static final long DEFAULT_REBUILD_SECONDS = 300;
+
+  // rebuild interval that disables the filter, the default of a deployment
+  public static final long DISABLED = 0;
+
+  public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+  // capacity of the filter of a new or small bucket
+  private static final int MIN_EXPECTED_KEYS = 1024;
+
+  private static final Logger log = LoggerFactory.getLogger(ObjectKeyFilter.class);
+
+  @Inject
+  private SqlService sqlService;
+
+  private final ConcurrentMap<String, KeyFilter> filters = new ConcurrentHashMap<>();
+
+  private final long rebuildSeconds;
+
+  private final double falsePositiveRate;
+
+  private final AtomicLong rejectedCount = new AtomicLong(0);
+
+  private ScheduledExecutorService rebuildExecutor;
+
+  public ObjectKeyFilter() {
+    this(DEFAULT_REBUILD_SECONDS, DEFAULT_FALSE_POSITIVE_RATE);
+  }
+
+  /**
+   * @param rebuildSeconds    interval between two rebuilds of the filters from the database. 0 disables the filter.
+   * @param falsePositiveRate false positive probability the filters are sized for
+   */
+  public ObjectKeyFilter(long rebuildSeconds, double falsePositiveRate) {
+    this.rebuildSeconds = rebuildSeconds;
+    this.falsePositiveRate = falsePositiveRate;
+  }
+
+  @PostConstruct
+  public void start() {
+    if (rebuildSeconds <= 0) {
+      return;
+    }
+
+    rebuildExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "object-key-filter");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    rebuildExecutor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          rebuildAll();
+        } catch (Exception e) {
+          log.error("Error rebuilding the object key filters", e);
+        }
+      }
+    }, 0, rebuildSeconds, TimeUnit.SECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (rebuildExecutor != null) {
+      rebuildExecutor.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns false only if the bucket is known to have no used object with the given key. Buckets whose filter has not
+   * been built yet might contain any key.
+   */
+  public boolean mightContain(String bucketName, String key) {
+    KeyFilter keyFilter = filters.get(bucketName);
+    BloomFilter<CharSequence> bloomFilter = keyFilter == null ? null : keyFilter.current;
+
+    if (bloomFilter == null || bloomFilter.mightContain(key)) {
+      return true;
+    }
+
+    rejectedCount.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Records a key that has been committed to the database.
+   */
+  public void put(String bucketName, String key) {
+    KeyFilter keyFilter = filters.get(bucketName);
+
+    if (keyFilter != null) {
+      keyFilter.put(key);
+    }
+  }
+
+  /**
+   * Starts an empty filter for a bucket that has just been created.
+   */
+  public void addBucket(String bucketName) {
+    if (rebuildSeconds > 0) {
+      filters.put(bucketName, new KeyFilter(newBloomFilter(0), MIN_EXPECTED_KEYS));
+    }
+  }
+
+  public void removeBucket(String bucketName) {
+    filters.remove(bucketName);
+  }
+
+  /**
+   * Drops every filter, so that all lookups go to the database until the next rebuild.
+   */
+  public void clear() {
+    filters.clear();
+  }
+
+  /**
+   * Rebuilds the filters of all the buckets from the database.
+   */
+  public void rebuildAll() throws RepoException {
+    List<Bucket> buckets;
+
+    try {
+      sqlService.getReadOnlyConnection();
+      buckets = sqlService.listBuckets();
+    } catch (SQLException e) {
+      throw new RepoException(e);
+    } finally {
+      releaseConnection();
+    }
+
+    for (Bucket bucket : buckets) {
+      rebuild(bucket.getBucketName());
+    }
+  }
+
+  /**
+   * Rebuilds the filter of a bucket from the database. Keys committed while the keys are read are recorded apart and
+   * added to the new filter before it replaces the current one.
+   */
+  public synchronized void rebuild(String bucketName) throws RepoException {
+    KeyFilter keyFilter = new KeyFilter(null, 0);
+    KeyFilter existing = filters.putIfAbsent(bucketName, keyFilter);
+    if (existing != null) {
+      keyFilter = existing;
+    }
+
+    keyFilter.beginRebuild();
+
+    List<String> keys;
+
+    try {
+      sqlService.getReadOnlyConnection();
+      keys = sqlService.listObjectKeys(bucketName);
+    } catch (SQLException e) {
+      keyFilter.abortRebuild();
+      throw new RepoException(e);
+    } finally {
+      releaseConnection();
+    }
+
+    // twice the current number of keys leaves room for the keys created until the next rebuild
+    int expectedKeys = (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_EXPECTED_KEYS, 2L * keys.size()));
+    BloomFilter<CharSequence> bloomFilter = newBloomFilter(expectedKeys);
+
+    for (String key : keys) {
+      bloomFilter.put(key);
+    }
+
+    keyFilter.finishRebuild(bloomFilter, expectedKeys);
+  }
+
+  public KeyFilterStatus getStatus() {
+    KeyFilterStatus status = new KeyFilterStatus();
+
+    for (KeyFilter keyFilter : filters.values()) {
+      synchronized (keyFilter) {
+        if (keyFilter.current == null) {
+          continue;
+        }
+
+        status.bucketCount++;
+        status.sizeBytes += estimateSizeBytes(keyFilter.expectedKeys, falsePositiveRate);
+        status.falsePositiveRate = Math.max(status.falsePositiveRate, keyFilter.current.expectedFpp());
+      }
+    }
+
+    status.rejectedCount = rejectedCount.get();
+    return status;
+  }
+
+  private BloomFilter<CharSequence> newBloomFilter(int expectedKeys) {
+    return BloomFilter.create(Funnels.stringFunnel(), Math.max(MIN_EXPECTED_KEYS, expectedKeys), falsePositiveRate);
+  }
+
+  private void releaseConnection() throws RepoException {
+    try {
+      sqlService.releaseConnection();
+    } catch (SQLException e) {
+      throw new RepoException(e);
+    }
+  }
+
+  // optimal number of bits of a Bloom filter: -n ln(p) / ln(2)^2
+  private static long estimateSizeBytes(int expectedKeys, double falsePositiveRate) {
+    return (long) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)) / 8);
+  }
+
+  /**
+   * Filter of one bucket. Bloom filters are not safe for concurrent writes, so all writes are synchronized on the
+   * holder; reads only depend on the volatile reference and the key locks of the caller.
+   */
+  private static class KeyFilter {
+
+    private volatile BloomFilter<CharSequence> current;
+
+    private int expectedKeys;
+
+    // keys committed while a rebuild reads the database
+    private List<String> pendingKeys;
+
+    private KeyFilter(BloomFilter<CharSequence> current, int expectedKeys) {
+      this.current = current;
+      this.expectedKeys = expectedKeys;
+    }
+
+    private synchronized void put(String key) {
+      if (current != null) {
+        current.put(key);
+      }
+      if (pendingKeys != null) {
+        pendingKeys.add(key);
+      }
+    }
+
+    private synchronized void beginRebuild() {
+      pendingKeys = new ArrayList<>();
+    }
+
+    private synchronized void abortRebuild() {
+      pendingKeys = null;
+    }
+
+    private synchronized void finishRebuild(BloomFilter<CharSequence> bloomFilter, int expectedKeys) {
+      for (String key : pendingKeys) {
+        bloomFilter.put(key);
+      }
+      pendingKeys = null;
+      this.expectedKeys = expectedKeys;
+      current = bloomFilter;
+    }
+
+  }
+
+}
@@ -23,17 +23,24 @@
 package org.plos.repo.service;
 
 import com.google.common.base.Optional;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.plos.repo.models.Bucket;
 import org.plos.repo.models.RepoObject;
 import org.plos.repo.models.Status;
 import org.plos.repo.util.ChecksumGenerator;
+import org.plos.repo.util.ContentHasher;
+import org.plos.repo.util.UploadSpooler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 public abstract class ObjectStore {
@@ -43,12 +50,70 @@ public abstract class ObjectStore {
   @Inject
   protected ChecksumGenerator checksumGenerator;
 
+  @Inject
+  protected UploadSpooler uploadSpooler;
+
   public static interface UploadInfo {
     Long getSize();
 
     String getTempLocation();
 
     String getChecksum();
+
+    /**
+     * @return the digests of the content in hexadecimal, which are the SHA-1 checksum and, if the store saves them,
+     * the digests asked for by the policy of its bucket
+     */
+    Map<ChecksumGenerator.Algorithm, String> getDigests();
+  }
+
+  /**
+   * @return a hasher of the digests asked for by the policy of <code>bucket</code> if the store saves them, or of the
+   * checksum only
+   */
+  protected ContentHasher newHasher(Bucket bucket) throws RepoException {
+    if (!storesDigests()) {
+      return checksumGenerator.newChecksumHasher();
+    }
+
+    return checksumGenerator.newHasher(bucket == null ? null : bucket.getBucketName());
+  }
+
+  /**
+   * @return whether the store saves the digests asked for by the bucket policies along with the content, so that they
+   * are worth computing
+   */
+  protected boolean storesDigests() {
+    return false;
+  }
+
+  /**
+   * @return the upload info of content hashed by <code>hasher</code>
+   */
+  protected static UploadInfo newUploadInfo(final String tempLocation, final long size, final ContentHasher hasher) {
+    final Map<ChecksumGenerator.Algorithm, String> digests = hasher.getDigests();
+
+    return new UploadInfo() {
+      @Override
+      public Long getSize() {
+        return size;
+      }
+
+      @Override
+      public String getTempLocation() {
+        return tempLocation;
+      }
+
+      @Override
+      public String getChecksum() {
+        return digests.get(ChecksumGenerator.Algorithm.SHA1);
+      }
+
+      @Override
+      public Map<ChecksumGenerator.Algorithm, String> getDigests() {
+        return digests;
+      }
+    };
   }
 
   public static boolean isValidFileName(String name) {
@@ -83,6 +148,7 @@ public abstract class ObjectStore {
       }
     } catch (RepoException e) {
       if (RepoException.Type.ObjectFilePathMissing.equals(e.getType())) {
+        invalidateFilePaths(repoObject);
         repoObject.setStatus(Status.MISSING_DATA);
         log.error(" Missing Data when trying to fetch reproxy url, key: {} , bucket name: {} , content checksum: {} , version number: {} ",
             repoObject.getKey(),
@@ -102,6 +168,15 @@ public abstract class ObjectStore {
 
   abstract public boolean hasXReproxy();
 
+  /**
+   * Discard any file paths of the given repo object <code>repoObject</code> that the implementation cached, since its
+   * data was found to be missing or was deleted. Does nothing by default.
+   *
+   * @param repoObject a single {@link org.plos.repo.models.RepoObject} whose paths are no longer valid.
+   */
+  protected void invalidateFilePaths(RepoObject repoObject) {
+  }
+
   /**
    * Retrieve the file paths of the given repo object <code>repoObject</code>. Throw a {@link
    * org.plos.repo.service.RepoException} if the path is null or an error occurs.
@@ -112,8 +187,21 @@ public abstract class ObjectStore {
    */
   abstract public String[] getFilePaths(RepoObject repoObject) throws RepoException;
 
+  /**
+   * Checks that the content of the object is stored. Implementations may answer from caches of this node, which miss
+   * content purged through other nodes until they expire, so the answer is only good enough to read the content.
+   */
   abstract public boolean objectExists(RepoObject repoObject);
 
+  /**
+   * Checks that the content of the object is stored, like {@link #objectExists(RepoObject)}, but asks the store itself
+   * rather than trusting a positive answer cached by this node. Writes use it to decide whether content they reference
+   * or would save is already stored. The caches are refreshed with the answer.
+   */
+  public boolean probeObjectExists(RepoObject repoObject) {
+    return objectExists(repoObject);
+  }
+
   /**
    * @return true if the bucket exists; false if it does not exist; absent if the implementation does not persist
    * buckets
@@ -132,7 +220,27 @@ public abstract class ObjectStore {
    */
   abstract public Optional<Boolean> deleteBucket(Bucket bucket);
 
-  abstract public UploadInfo uploadTempObject(InputStream uploadedInputStream) throws RepoException;
+  public UploadInfo uploadTempObject(InputStream uploadedInputStream) throws RepoException {
+    return uploadTempObject(uploadedInputStream, null);
+  }
+
+  public UploadInfo uploadTempObject(InputStream uploadedInputStream, Long size) throws RepoException {
+    return uploadTempObject(null, uploadedInputStream, size);
+  }
+
+  /**
+   * Upload content for an object of <code>bucket</code>. The digests asked for by the policy of the bucket are computed
+   * in the same pass as the checksum. Stores which must know the size of a file before writing it can use the size the
+   * client declared beforehand to stream the content instead of first reading it all; other stores ignore it.
+   *
+   * @param bucket              the bucket of the object, or null to compute only the checksum
+   * @param uploadedInputStream the content to upload
+   * @param size                the declared size of the content, or null if it is not known
+   * @return the location, size, checksum and digests of the uploaded content
+   * @throws RepoException of type ObjectDataSizeMismatch if the content does not have the declared size
+   */
+  abstract public UploadInfo uploadTempObject(Bucket bucket, InputStream uploadedInputStream, Long size)
+      throws RepoException;
 
   abstract public boolean saveUploadedObject(Bucket bucket, UploadInfo uploadInfo, RepoObject repoObject);
 
@@ -150,4 +258,47 @@ public abstract class ObjectStore {
    */
   abstract public InputStream getInputStream(RepoObject repoObject) throws RepoException;
 
+  /**
+   * Retrieve the local file holding the data of the given repo object <code>repoObject</code>, so that it can be sent
+   * to the client without being copied through the heap. Return null if the store does not keep its data on a local
+   * filesystem, or if the data does not exist.
+   *
+   * @param repoObject a single {@link org.plos.repo.models.RepoObject} that represents the object to be searched.
+   * @return the file with the data of the given repoObject, or null
+   */
+  public File getLocalFile(RepoObject repoObject) {
+    return null;
+  }
+
+  /**
+   * Retrieve <code>length</code> bytes of the data of the given repo object <code>repoObject</code>, starting at
+   * <code>offset</code>. Return null if the data does not exist, or throw a {@link org.plos.repo.service.RepoException}
+   * if an error occurs.
+   * <p/>
+   * This implementation skips over the leading bytes of the whole content. Stores which support positioned reads
+   * should override it so that only the requested bytes are read.
+   *
+   * @param repoObject a single {@link org.plos.repo.models.RepoObject} that represents the object to be searched.
+   * @param offset     the position of the first byte to read
+   * @param length     the number of bytes to read
+   * @return an inputStream object wih the requested data of the given repoObject
+   * @throws RepoException
+   */
+  public InputStream getInputStream(RepoObject repoObject, long offset, long length) throws RepoException {
+    InputStream content = getInputStream(repoObject);
+
+    if (content == null) {
+      return null;
+    }
+
+    try {
+      IOUtils.skipFully(content, offset);
+    } catch (IOException e) {
+      IOUtils.closeQuietly(content);
+      throw new RepoException(e);
+    }
+
+    return new BoundedInputStream(content, length);
+  }
+
 }
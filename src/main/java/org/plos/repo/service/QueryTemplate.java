@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+/**
+ * The text of a statement with optional conditions, built once for every combination of the conditions. A call picks
+ * the variant of the conditions it uses instead of building the text again, and since the same text is prepared every
+ * time, a statement cache of the driver or of the connection pool can reuse the prepared statement.
+ */
+class QueryTemplate {
+
+  private final int conditionCount;
+
+  private final String[] variants;
+
+  /**
+   * @param head       the text before the conditions
+   * @param tail       the text after the conditions
+   * @param conditions the optional conditions, each appended as it is when it is used
+   */
+  QueryTemplate(String head, String tail, String... conditions) {
+    this(head, tail, false, conditions);
+  }
+
+  private QueryTemplate(String head, String tail, boolean whereClause, String[] conditions) {
+    this.conditionCount = conditions.length;
+    this.variants = new String[1 << conditions.length];
+
+    for (int used = 0; used < variants.length; used++) {
+      StringBuilder text = new StringBuilder(head);
+      boolean first = true;
+
+      for (int i = 0; i < conditions.length; i++) {
+        if ((used & (1 << i)) != 0) {
+          if (whereClause) {
+            text.append(first ? " WHERE " : " AND ");
+          }
+          text.append(conditions[i]);
+          first = false;
+        }
+      }
+
+      variants[used] = text.append(tail).toString();
+    }
+  }
+
+  /**
+   * Returns a template whose conditions are predicates joined into a WHERE clause, which is left out when no predicate
+   * is used.
+   */
+  static QueryTemplate where(String head, String tail, String... predicates) {
+    return new QueryTemplate(head, tail, true, predicates);
+  }
+
+  /**
+   * @param used whether each condition is used, in the order of the conditions of the template
+   * @return the text of the statement with the used conditions
+   */
+  String get(boolean... used) {
+    if (used.length != conditionCount) {
+      throw new IllegalArgumentException("Expected " + conditionCount + " conditions, got " + used.length);
+    }
+
+    int index = 0;
+    for (int i = 0; i < used.length; i++) {
+      if (used[i]) {
+        index |= 1 << i;
+      }
+    }
+
+    return variants[index];
+  }
+
+}
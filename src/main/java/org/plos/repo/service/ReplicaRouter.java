@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+import org.plos.repo.models.output.ReplicaStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes the read-only queries of {@link SqlService#getReplicaConnection()} to a pool of database replicas. A
+ * background thread checks every replica at a fixed interval, measuring its replication lag; the reads go round robin
+ * to the replicas whose last check succeeded recently and found them within the lag threshold, and fall back to the
+ * primary when there is none. A replica whose connection fails is left out until its next successful check.
+ * <p/>
+ * With read-your-writes, a request that follows a write names the time of that write, which the write response
+ * handed out, and is only routed to a replica once a check shows that it has applied every transaction committed by
+ * then, so that the read sees the write. The time is bound to the thread serving the request with {@link
+ * #setReadAfter}; requests that name no write are not held back, whatever the other requests write. The clocks of the
+ * instances of the service are expected to be synchronized, so that a write made through one instance can be named
+ * to another.
+ */
+public class ReplicaRouter {
+
+  public static final long DEFAULT_MAX_LAG_MILLIS = 5000;
+
+  public static final long DEFAULT_CHECK_MILLIS = 1000;
+
+  private static final Logger log = LoggerFactory.getLogger(ReplicaRouter.class);
+
+  // time of the write that the request served by the thread must see, or null
+  private static final ThreadLocal<Long> readAfterLocal = new ThreadLocal<>();
+
+  @Inject
+  private SqlService sqlService;
+
+  private final List<Replica> replicas;
+
+  private final long maxLagMillis;
+
+  private final long checkMillis;
+
+  private final boolean readYourWrites;
+
+  private final AtomicInteger next = new AtomicInteger();
+
+  private final AtomicLong replicaReads = new AtomicLong();
+
+  private final AtomicLong primaryReads = new AtomicLong();
+
+  private final AtomicLong failedConnections = new AtomicLong();
+
+  private final AtomicLong failedChecks = new AtomicLong();
+
+  private ScheduledExecutorService checkExecutor;
+
+  public ReplicaRouter() {
+    this(Collections.<String, DataSource>emptyMap(), DEFAULT_MAX_LAG_MILLIS, DEFAULT_CHECK_MILLIS, true);
+  }
+
+  /**
+   * @param replicas       the data sources of the replicas, by name
+   * @param maxLagMillis   replication lag over which a replica is not read from
+   * @param checkMillis    interval between two checks of the replicas
+   * @param readYourWrites whether a request that names a write is read from the primary until a replica has applied
+   *                       it
+   */
+  public ReplicaRouter(Map<String, DataSource> replicas, long maxLagMillis, long checkMillis,
+                       boolean readYourWrites) {
+    this.replicas = new ArrayList<>(replicas.size());
+    for (Map.Entry<String, DataSource> entry : replicas.entrySet()) {
+      this.replicas.add(new Replica(entry.getKey(), entry.getValue()));
+    }
+
+    this.maxLagMillis = maxLagMillis;
+    this.checkMillis = checkMillis;
+    this.readYourWrites = readYourWrites;
+  }
+
+  /**
+   * Registers the router with the SQL service, then checks the replicas once and starts checking them in the
+   * background.
+   */
+  @PostConstruct
+  public void start() {
+    sqlService.setReplicaRouter(this);
+
+    if (replicas.isEmpty()) {
+      return;
+    }
+
+    check();
+
+    checkExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "replica-check");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    checkExecutor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          check();
+        } catch (Exception e) {
+          log.error("Error checking the database replicas", e);
+        }
+      }
+    }, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (checkExecutor != null) {
+      checkExecutor.shutdownNow();
+    }
+  }
+
+  /**
+   * Checks the health and the replication lag of every replica.
+   */
+  public void check() {
+    for (Replica replica : replicas) {
+      long started = System.currentTimeMillis();
+
+      try (Connection connection = replica.dataSource.getConnection()) {
+        Long lagMillis = sqlService.getReplicationLagMillis(connection);
+
+        if (lagMillis == null) {
+          failedChecks.incrementAndGet();
+          replica.down("replication is not running");
+        } else {
+          replica.up(started, lagMillis);
+        }
+      } catch (SQLException e) {
+        failedChecks.incrementAndGet();
+        replica.down(e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Binds to the current thread the time of the write that the request it serves must see, as set by {@link
+   * #setReadAfter}, or clears it.
+   *
+   * @param millis the time of the write, or null if the request follows no write
+   */
+  public static void setReadAfter(Long millis) {
+    if (millis == null) {
+      readAfterLocal.remove();
+    } else {
+      readAfterLocal.set(millis);
+    }
+  }
+
+  /**
+   * @return the time of the write bound to the current thread, or null
+   */
+  public static Long getReadAfter() {
+    return readAfterLocal.get();
+  }
+
+  /**
+   * Picks the replica to read from, for the request served by the current thread.
+   *
+   * @return the data source of the replica, or null to read from the primary
+   */
+  public DataSource choose() {
+    long now = System.currentTimeMillis();
+    Long readAfter = readYourWrites ? readAfterLocal.get() : null;
+    int count = replicas.size();
+
+    if (count > 0) {
+      int first = Math.floorMod(next.getAndIncrement(), count);
+
+      for (int i = 0; i < count; i++) {
+        Replica replica = replicas.get((first + i) % count);
+
+        if (replica.isEligible(now) && (readAfter == null || replica.hasApplied(readAfter))) {
+          replicaReads.incrementAndGet();
+          return replica.dataSource;
+        }
+      }
+    }
+
+    primaryReads.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Leaves out a replica whose connection failed until its next successful check.
+   */
+  public void failed(DataSource dataSource, SQLException e) {
+    failedConnections.incrementAndGet();
+
+    for (Replica replica : replicas) {
+      if (replica.dataSource == dataSource) {
+        replica.down(e.getMessage());
+      }
+    }
+  }
+
+  public ReplicaStatus getStatus() {
+    long now = System.currentTimeMillis();
+
+    ReplicaStatus status = new ReplicaStatus();
+    status.replicas = replicas.size();
+    status.maxLagMillis = maxLagMillis;
+    status.readYourWrites = readYourWrites;
+    status.replicaReads = replicaReads.get();
+    status.primaryReads = primaryReads.get();
+    status.failedConnections = failedConnections.get();
+    status.failedChecks = failedChecks.get();
+
+    for (Replica replica : replicas) {
+      synchronized (replica) {
+        if (replica.healthy) {
+          status.healthyReplicas++;
+          status.worstLagMillis = Math.max(status.worstLagMillis, replica.lagMillis);
+        }
+      }
+      if (replica.isEligible(now)) {
+        status.eligibleReplicas++;
+      }
+    }
+
+    return status;
+  }
+
+  private class Replica {
+
+    private final String name;
+
+    private final DataSource dataSource;
+
+    // all the fields below are guarded by the replica
+
+    private boolean healthy;
+
+    private long lagMillis;
+
+    // time the last successful check started
+    private long checkedMillis;
+
+    private Replica(String name, DataSource dataSource) {
+      this.name = name;
+      this.dataSource = dataSource;
+    }
+
+    private synchronized void up(long checkedMillis, long lagMillis) {
+      if (!healthy) {
+        log.info("Database replica " + name + " is up, lag " + lagMillis + " ms");
+      }
+
+      this.healthy = true;
+      this.checkedMillis = checkedMillis;
+      this.lagMillis = lagMillis;
+    }
+
+    private synchronized void down(String reason) {
+      if (healthy) {
+        log.warn("Database replica " + name + " is down: " + reason);
+      }
+
+      this.healthy = false;
+    }
+
+    private synchronized boolean isEligible(long now) {
+      return healthy && lagMillis <= maxLagMillis && now - checkedMillis <= checkMillis + maxLagMillis;
+    }
+
+    private synchronized boolean hasApplied(long writeMillis) {
+      // the replica had applied every transaction committed before the start of its check, less its lag
+      return writeMillis < checkedMillis - lagMillis;
+    }
+
+  }
+
+}
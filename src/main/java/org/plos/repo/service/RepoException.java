@@ -56,6 +56,8 @@ public class RepoException extends Exception {
     MoreThanOneTaggedObject(25, "There are more than one object with that tag. Please specify version or versionNumber. "),
     InvalidUserMetadataFormat(26, "The user metadata must be a valid json. "),
     InvalidUuid(27, "The uuid format is invalid. "),
+    TooManyObjectsRequested(28, "Too many objects requested at once. "),
+    InvalidCursor(29, "The continuation token is invalid. "),
 
 
     // user errors for system state
@@ -68,7 +70,15 @@ public class RepoException extends Exception {
     CantCreateCollectionWithNoObjects(36, "Can not create a collection that does not have objects"),
     ObjectFilePathMissing(37, "The file path object is missing"),
     // user error for missing file
-    NoFileEntered(38, "No file data entered");
+    NoFileEntered(38, "No file data entered"),
+    ServerBusy(39, "The server is too busy to handle the request. Please retry later. "),
+    ObjectDataSizeMismatch(40, "The size of the object data does not match its declared size. "),
+    InvalidChecksum(41, "The checksum must be a hex encoded SHA-1 digest. "),
+    ObjectDataChecksumMismatch(42, "The checksum of the object data does not match its declared checksum. "),
+    ContentNotStored(43, "No content with the declared checksum is stored in the bucket. Please send the file. "),
+    ObjectKeyRepeated(44, "An object key can only appear once in a batch. "),
+    InvalidBatch(45, "The objects of the batch could not be read. "),
+    TooManyRequests(46, "Too many writes to the bucket are in progress. Please retry later. ");
 
     private final int value;
     private final String message;
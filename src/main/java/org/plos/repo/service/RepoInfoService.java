@@ -51,6 +51,21 @@ public class RepoInfoService {
   @Inject
   private RepoService repoService;
 
+  @Inject
+  private RepoObjectCache objectCache;
+
+  @Inject
+  private ObjectKeyFilter objectKeyFilter;
+
+  @Inject
+  private RequestExecutors requestExecutors;
+
+  @Inject
+  private AdmissionController admissionController;
+
+  @Inject
+  private ReplicaRouter replicaRouter;
+
   private String projectVersion = "unknown";
 
   private Date startTime;
@@ -91,8 +106,11 @@ public class RepoInfoService {
 
   public ServiceConfigInfo getConfig() {
     ServiceConfigInfo config = new ServiceConfigInfo();
+    ObjectStore backend = objectStore instanceof CachingObjectStore ?
+        ((CachingObjectStore) objectStore).getObjectStore() : objectStore;
+
     config.version = projectVersion;
-    config.objectStoreBackend = objectStore.getClass().toString();
+    config.objectStoreBackend = backend.getClass().toString();
     config.sqlServiceBackend = sqlService.getClass().toString();
     config.hasXReproxy = objectStore.hasXReproxy();
     return config;
@@ -107,13 +125,24 @@ public class RepoInfoService {
     status.serviceStarted = startTime.toString();
     status.readsSinceStart = readCount;
     status.writesSinceStart = writeCount;
+    status.objectCache = objectCache.getStatus();
+    status.keyFilter = objectKeyFilter.getStatus();
+    status.sqlExecutor = requestExecutors.getSqlPool().getStatus();
+    status.storeExecutor = requestExecutors.getStorePool().getStatus();
+    status.prefetchExecutor = requestExecutors.getPrefetchPool().getStatus();
+    status.writeAdmission = admissionController.getStatus();
+    status.replicas = replicaRouter.getStatus();
+
+    if (objectStore instanceof CachingObjectStore) {
+      status.contentCache = ((CachingObjectStore) objectStore).getStatus();
+    }
 
     return status;
   }
 
   public Bucket bucketInfo(String bucketName) throws RepoException {
     try {
-      sqlService.getReadOnlyConnection();
+      sqlService.getReplicaConnection();
 
       Bucket bucket = sqlService.getBucket(bucketName);
 
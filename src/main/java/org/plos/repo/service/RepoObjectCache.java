@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableMap;
+import org.plos.repo.models.RepoObject;
+import org.plos.repo.models.output.CacheStatus;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of resolved object metadata. Entries are grouped by (bucket, key) so that every cached lookup for
+ * a key, whether it asked for the latest version or filtered by version, uuid or tag, can be dropped at once when the
+ * key is written. Callers are expected to populate and invalidate an entry while holding the corresponding striped
+ * read or write lock in {@link org.plos.repo.service.RepoService}, which keeps readers from caching stale rows.
+ * <p/>
+ * The cache is bounded by the estimated heap footprint of the cached objects. Every lookup expires after a time to
+ * live, which bounds how long a row written through another node of the cluster can be served stale. Nothing else
+ * invalidates entries across nodes, so a deployment only enables the cache when a single node writes to the database,
+ * or with a time to live of a few seconds.
+ */
+public class RepoObjectCache {
+
+  public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+  // size that disables the cache, the default of a deployment
+  public static final long DISABLED = 0;
+
+  public static final long DEFAULT_TTL_SECONDS = 300;
+
+  // rough per-object overhead of the RepoObject, its boxed fields, timestamps and map entry
+  private static final int OBJECT_OVERHEAD_BYTES = 256;
+
+  private final Cache<ObjectKey, Map<FilterKey, CachedObject>> cache;
+
+  private final long maxBytes;
+
+  private final long ttlNanos;
+
+  private final AtomicLong hitCount = new AtomicLong(0);
+
+  private final AtomicLong missCount = new AtomicLong(0);
+
+  public RepoObjectCache() {
+    this(DEFAULT_MAX_BYTES, DEFAULT_TTL_SECONDS);
+  }
+
+  /**
+   * @param maxBytes   upper bound of the estimated size of the cached metadata. 0 disables caching.
+   * @param ttlSeconds time after which an entry is reloaded from the database
+   */
+  public RepoObjectCache(long maxBytes, long ttlSeconds) {
+    this.maxBytes = maxBytes;
+    this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    this.cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher(new Weigher<ObjectKey, Map<FilterKey, CachedObject>>() {
+          @Override
+          public int weigh(ObjectKey key, Map<FilterKey, CachedObject> value) {
+            int weight = 0;
+            for (CachedObject cachedObject : value.values()) {
+              weight += estimateSize(cachedObject.repoObject);
+            }
+            return weight;
+          }
+        })
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Returns a copy of the cached object resolved for the given lookup, or null if it is not cached.
+   *
+   * @param bucketName the bucket of the object
+   * @param key        the object key
+   * @param version    the version filter, or null
+   * @param uuid       the uuid filter, or null
+   * @param tag        the tag filter, or null. When all filters are null the entry refers to the latest version.
+   */
+  public RepoObject get(String bucketName, String key, Integer version, UUID uuid, String tag) {
+    Map<FilterKey, CachedObject> entries = cache.getIfPresent(new ObjectKey(bucketName, key));
+    CachedObject cachedObject = entries == null ? null : entries.get(new FilterKey(version, uuid, tag));
+
+    if (cachedObject == null || System.nanoTime() - cachedObject.loadTime > ttlNanos) {
+      missCount.incrementAndGet();
+      return null;
+    }
+
+    hitCount.incrementAndGet();
+    return new RepoObject(cachedObject.repoObject);
+  }
+
+  /**
+   * Caches a copy of the object resolved for the given lookup. See {@link #get}.
+   */
+  public void put(String bucketName, String key, Integer version, UUID uuid, String tag, RepoObject repoObject) {
+    ObjectKey objectKey = new ObjectKey(bucketName, key);
+    FilterKey filterKey = new FilterKey(version, uuid, tag);
+
+    // entries are immutable so that their weight stays accurate; adding a lookup replaces the entry
+    Map<FilterKey, CachedObject> entries = cache.getIfPresent(objectKey);
+    ImmutableMap.Builder<FilterKey, CachedObject> builder = ImmutableMap.builder();
+
+    if (entries != null) {
+      for (Map.Entry<FilterKey, CachedObject> entry : entries.entrySet()) {
+        if (!entry.getKey().equals(filterKey)) {
+          builder.put(entry);
+        }
+      }
+    }
+
+    builder.put(filterKey, new CachedObject(new RepoObject(repoObject), System.nanoTime()));
+    cache.put(objectKey, builder.build());
+  }
+
+  /**
+   * Drops every cached lookup of the given key.
+   */
+  public void invalidate(String bucketName, String key) {
+    cache.invalidate(new ObjectKey(bucketName, key));
+  }
+
+  /**
+   * Drops every cached lookup of the objects contained in the given bucket.
+   */
+  public void invalidateBucket(String bucketName) {
+    for (ObjectKey objectKey : cache.asMap().keySet()) {
+      if (objectKey.bucketName.equals(bucketName)) {
+        cache.invalidate(objectKey);
+      }
+    }
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  public CacheStatus getStatus() {
+    CacheStats stats = cache.stats();
+
+    CacheStatus status = new CacheStatus();
+    status.size = cache.size();
+    status.maxWeight = maxBytes;
+    status.hitCount = hitCount.get();
+    status.missCount = missCount.get();
+    status.evictionCount = stats.evictionCount();
+    return status;
+  }
+
+  private static int estimateSize(RepoObject repoObject) {
+    return OBJECT_OVERHEAD_BYTES
+        + estimateSize(repoObject.getKey())
+        + estimateSize(repoObject.getBucketName())
+        + estimateSize(repoObject.getChecksum())
+        + estimateSize(repoObject.getDownloadName())
+        + estimateSize(repoObject.getContentType())
+        + estimateSize(repoObject.getTag())
+        + estimateSize(repoObject.getUserMetadata());
+  }
+
+  private static int estimateSize(String value) {
+    return value == null ? 0 : 40 + 2 * value.length();
+  }
+
+  private static class CachedObject {
+
+    private final RepoObject repoObject;
+    private final long loadTime;
+
+    private CachedObject(RepoObject repoObject, long loadTime) {
+      this.repoObject = repoObject;
+      this.loadTime = loadTime;
+    }
+
+  }
+
+  private static class ObjectKey {
+
+    private final String bucketName;
+    private final String key;
+
+    private ObjectKey(String bucketName, String key) {
+      this.bucketName = bucketName;
+      this.key = key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ObjectKey)) {
+        return false;
+      }
+      ObjectKey that = (ObjectKey) o;
+      return Objects.equal(bucketName, that.bucketName) && Objects.equal(key, that.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(bucketName, key);
+    }
+
+  }
+
+  private static class FilterKey {
+
+    private final Integer version;
+    private final UUID uuid;
+    private final String tag;
+
+    private FilterKey(Integer version, UUID uuid, String tag) {
+      this.version = version;
+      this.uuid = uuid;
+      this.tag = tag;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof FilterKey)) {
+        return false;
+      }
+      FilterKey that = (FilterKey) o;
+      return Objects.equal(version, that.version) && Objects.equal(uuid, that.uuid) && Objects.equal(tag, that.tag);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(version, uuid, tag);
+    }
+
+  }
+
+}
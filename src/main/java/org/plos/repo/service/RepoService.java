@@ -23,7 +23,9 @@
 package org.plos.repo.service;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Striped;
+import org.apache.commons.io.IOUtils;
 import org.hsqldb.lib.StringUtil;
 import org.plos.repo.models.Audit;
 import org.plos.repo.models.Bucket;
@@ -31,6 +33,7 @@ import org.plos.repo.models.Operation;
 import org.plos.repo.models.RepoObject;
 import org.plos.repo.models.Status;
 import org.plos.repo.models.input.ElementFilter;
+import org.plos.repo.models.input.InputObjectLookup;
 import org.plos.repo.models.input.InputRepoObject;
 import org.plos.repo.models.validator.InputRepoObjectValidator;
 import org.plos.repo.models.validator.TimestampInputValidator;
@@ -39,7 +42,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import javax.sql.DataSource;
 import javax.ws.rs.core.MediaType;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
@@ -47,9 +52,20 @@ import java.net.URL;
 import java.net.URLEncoder;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 
@@ -58,10 +74,15 @@ import java.util.concurrent.locks.ReadWriteLock;
  */
 public class RepoService extends BaseRepoService {
 
-  private Striped<ReadWriteLock> rwLocks = Striped.lazyWeakReadWriteLock(32);
+  // the stripes are strongly held: a weakly referenced lock can be collected while one of its views is locked, which
+  // would let two writers of the same key run at once and readers cache a row that is being replaced
+  private Striped<ReadWriteLock> rwLocks = Striped.readWriteLock(32);
 
   private static final Logger log = LoggerFactory.getLogger(RepoService.class);
 
+  // maximum number of objects that can be looked up with a single batch request
+  public static final int MAX_BATCH_SIZE = 1000;
+
   @Inject
   private ObjectStore objectStore;
 
@@ -71,10 +92,19 @@ public class RepoService extends BaseRepoService {
   @Inject
   private TimestampInputValidator timestampValidator;
 
+  @Inject
+  private RepoObjectCache objectCache;
+
+  @Inject
+  private ObjectKeyFilter objectKeyFilter;
+
+  @Inject
+  private RequestExecutors requestExecutors;
+
 
   public List<Bucket> listBuckets() throws RepoException {
     try {
-      sqlService.getReadOnlyConnection();
+      sqlService.getReplicaConnection();
       return sqlService.listBuckets();
     } catch (SQLException e) {
       throw new RepoException(e);
@@ -131,6 +161,8 @@ public class RepoService extends BaseRepoService {
 
       sqlService.transactionCommit();
       rollback = false;
+
+      objectKeyFilter.addBucket(name);
     } catch (SQLException e) {
       throw new RepoException(e);
     } finally {
@@ -212,6 +244,9 @@ public class RepoService extends BaseRepoService {
         }
       }
 
+      objectCache.invalidateBucket(name);
+      objectKeyFilter.removeBucket(name);
+
       sqlReleaseConnection();
       writeLock.unlock();
     }
@@ -255,7 +290,7 @@ public class RepoService extends BaseRepoService {
     try {
       validatePagination(offset, limit);
 
-      sqlService.getReadOnlyConnection();
+      sqlService.getReplicaConnection();
 
       if (bucketName != null && sqlService.getBucket(bucketName) == null) {
         throw new RepoException(RepoException.Type.BucketNotFound);
@@ -271,17 +306,106 @@ public class RepoService extends BaseRepoService {
     return this.addProxyData(repoObjects);
   }
 
-  private List<RepoObject> addProxyData(List<RepoObject> repoObjects) throws RepoException {
+  /**
+   * List objects like {@link #listObjects(String, Integer, Integer, boolean, boolean, String)}, handing each one to
+   * <code>handler</code> while the rows are read from the database. The arguments must have been checked with {@link
+   * #validateListObjects} before the listing is streamed.
+   *
+   * @throws IOException if the handler fails to write an object
+   */
+  public void listObjects(String bucketName, Integer offset, Integer limit, boolean includeDeleted,
+                          boolean includePurged, String tag, final SqlService.RowHandler<RepoObject> handler)
+      throws RepoException, IOException {
+    final boolean reproxy = this.serverSupportsReproxy();
+
+    try {
+      sqlService.getReplicaConnection();
+      sqlService.listObjects(bucketName, offset == null ? 0 : offset, limit == null ? DEFAULT_PAGE_SIZE : limit,
+          includeDeleted, includePurged, tag, new SqlService.RowHandler<RepoObject>() {
+            @Override
+            public void handle(RepoObject repoObject) throws IOException, RepoException {
+              if (reproxy) {
+                repoObject.setReproxyURL(getObjectReproxy(repoObject));
+              }
+              handler.handle(repoObject);
+            }
+          });
+    } catch (SQLException e) {
+      throw new RepoException(e);
+    } finally {
+      sqlReleaseConnection();
+    }
+  }
+
+  /**
+   * Returns the page of the listing that follows the object <code>afterId</code> in id order. The id of its last
+   * object is read right away, so that it can be handed out as the continuation token before the objects are streamed
+   * by {@link ObjectPage#list}. Unlike an offset, the objects of the previous pages are not read. The arguments must
+   * have been checked with {@link #validateListObjects} beforehand.
+   *
+   * @param afterId the id of the last object of the previous page, 0 for the first page
+   */
+  public ObjectPage getObjectPage(String bucketName, int afterId, Integer limit, boolean includeDeleted,
+                                  boolean includePurged, String tag) throws RepoException {
+    ObjectPage page = new ObjectPage(sqlService.chooseReplica(), bucketName, afterId,
+        limit == null ? DEFAULT_PAGE_SIZE : limit, includeDeleted, includePurged, tag);
+
+    try {
+      sqlService.getReplicaConnection(page.replica);
+      page.lastId = sqlService.getObjectPageEnd(bucketName, afterId, page.limit, includeDeleted, includePurged, tag);
+      return page;
+    } catch (SQLException e) {
+      throw new RepoException(e);
+    } finally {
+      sqlReleaseConnection();
+    }
+  }
+
+  /**
+   * Check the arguments of an object listing, so that they can be reported before a listing is streamed.
+   */
+  public void validateListObjects(String bucketName, Integer offset, Integer limit) throws RepoException {
+    if (StringUtil.isEmpty(bucketName)) {
+      throw new RepoException(RepoException.Type.NoBucketEntered);
+    }
+
+    validatePagination(offset == null ? 0 : offset, limit == null ? DEFAULT_PAGE_SIZE : limit);
+
+    try {
+      sqlService.getReplicaConnection();
+
+      if (sqlService.getBucket(bucketName) == null) {
+        throw new RepoException(RepoException.Type.BucketNotFound);
+      }
+    } catch (SQLException e) {
+      throw new RepoException(e);
+    } finally {
+      sqlReleaseConnection();
+    }
+  }
+
+  /**
+   * Resolves the reproxy URLs of the objects returned by {@link #getObjects}, which does not, skipping the null entries
+   * of the lookups that did not match an object.
+   */
+  public List<RepoObject> addProxyData(List<RepoObject> repoObjects) throws RepoException {
     if (repoObjects != null && repoObjects.size() > 0 && this.serverSupportsReproxy()) {
       for (RepoObject repoObject : repoObjects) {
-        repoObject.setReproxyURL(this.getObjectReproxy(repoObject));
+        if (repoObject != null) {
+          repoObject.setReproxyURL(this.getObjectReproxy(repoObject));
+        }
       }
     }
 
     return repoObjects;
   }
 
-  private RepoObject addProxyData(RepoObject repoObject) throws RepoException {
+  /**
+   * Resolves the reproxy URLs of an object returned by {@link #getObject(String, String, ElementFilter)}, which does
+   * not. Resolving them may involve the object store, such as the MogileFS trackers, so it is done apart from the
+   * metadata lookup.
+   */
+  public RepoObject addProxyData(RepoObject repoObject) throws RepoException {
     if (repoObject != null && this.serverSupportsReproxy()) {
       repoObject.setReproxyURL(this.getObjectReproxy(repoObject));
     }
@@ -289,25 +413,60 @@ public class RepoService extends BaseRepoService {
     return repoObject;
   }
 
+  /**
+   * Looks the object up without resolving its reproxy URLs, see {@link #addProxyData(RepoObject)}.
+   */
   public RepoObject getObject(String bucketName, String key, ElementFilter elementFilter) throws RepoException {
+    return getObject(bucketName, key, elementFilter, false);
+  }
+
+  /**
+   * @param forWrite whether the object is looked up by a write of its key, which must see its latest version. Such a
+   *                 lookup reads the primary database, and neither relies on the key filter nor reads or fills the
+   *                 object cache, which may hold what a lagging replica returned.
+   */
+  private RepoObject getObject(String bucketName, String key, ElementFilter elementFilter, boolean forWrite)
+      throws RepoException {
     Lock readLock = this.rwLocks.get(bucketName + key).readLock();
     readLock.lock();
 
     RepoObject repoObject = null;
 
     try {
-      sqlService.getReadOnlyConnection();
-
-      if ((elementFilter == null) || (elementFilter.isEmpty())) {
-        repoObject = sqlService.getObject(bucketName, key);
-      } else {
-        UUID uuid = UUIDFormatter.getUuid(elementFilter.getUuid());
-        repoObject = sqlService.getObject(bucketName, key, elementFilter.getVersion(), uuid, elementFilter.getTag());
+      boolean latest = (elementFilter == null) || (elementFilter.isEmpty());
+      Integer version = latest ? null : elementFilter.getVersion();
+      UUID uuid = latest ? null : UUIDFormatter.getUuid(elementFilter.getUuid());
+      String tag = latest ? null : elementFilter.getTag();
+
+      // the cache is populated under the read lock, so a concurrent write of the same key can not leave a stale entry
+      if (!forWrite) {
+        repoObject = objectCache.get(bucketName, key, version, uuid, tag);
       }
 
-
       if (repoObject == null) {
-        throw new RepoException(RepoException.Type.ObjectNotFound);
+        if (!forWrite && !objectKeyFilter.mightContain(bucketName, key)) {
+          throw new RepoException(RepoException.Type.ObjectNotFound);
+        }
+
+        if (forWrite) {
+          sqlService.getReadOnlyConnection();
+        } else {
+          sqlService.getReplicaConnection();
+        }
+
+        if (latest) {
+          repoObject = sqlService.getObject(bucketName, key);
+        } else {
+          repoObject = sqlService.getObject(bucketName, key, version, uuid, tag);
+        }
+
+        if (repoObject == null) {
+          throw new RepoException(RepoException.Type.ObjectNotFound);
+        }
+
+        if (!forWrite) {
+          objectCache.put(bucketName, key, version, uuid, tag, repoObject);
+        }
       }
     } catch (SQLException e) {
       throw new RepoException(e);
@@ -316,7 +475,158 @@ public class RepoService extends BaseRepoService {
       readLock.unlock();
     }
 
-    return this.addProxyData(repoObject);
+    return repoObject;
+  }
+
+  /**
+   * Resolve many objects of a bucket at once. Each lookup is answered as {@link #getObject} would answer it, but the
+   * lookups that are not cached are resolved together with at most two queries. Like {@link #getObject(String, String,
+   * ElementFilter)}, the reproxy URLs are left to {@link #addProxyData(List)}.
+   *
+   * @param bucketName the bucket of all the objects
+   * @param lookups    the keys to look up, optionally narrowed by version, tag or uuid
+   * @return the objects in the order of the lookups, with null for the lookups that did not match an object
+   * @throws RepoException
+   */
+  public List<RepoObject> getObjects(String bucketName, List<InputObjectLookup> lookups) throws RepoException {
+    if (bucketName == null) {
+      throw new RepoException(RepoException.Type.NoBucketEntered);
+    }
+
+    if (lookups == null || lookups.isEmpty()) {
+      throw new RepoException(RepoException.Type.NoKeyEntered);
+    }
+
+    if (lookups.size() > MAX_BATCH_SIZE) {
+      throw new RepoException(RepoException.Type.TooManyObjectsRequested);
+    }
+
+    List<String> lockNames = new ArrayList<>(lookups.size());
+    List<UUID> uuids = new ArrayList<>(lookups.size());
+
+    for (InputObjectLookup lookup : lookups) {
+      if (lookup == null || StringUtil.isEmpty(lookup.getKey())) {
+        throw new RepoException(RepoException.Type.NoKeyEntered);
+      }
+      lockNames.add(bucketName + lookup.getKey());
+      uuids.add(UUIDFormatter.getUuid(lookup.getUuid()));
+    }
+
+    // bulkGet returns the stripes in a fixed order, so concurrent batches can not deadlock each other
+    List<Lock> readLocks = new ArrayList<>();
+    for (ReadWriteLock rwLock : this.rwLocks.bulkGet(lockNames)) {
+      Lock readLock = rwLock.readLock();
+      readLock.lock();
+      readLocks.add(readLock);
+    }
+
+    RepoObject[] repoObjects = new RepoObject[lookups.size()];
+
+    try {
+      List<Integer> latestMisses = new ArrayList<>();
+      List<Integer> filteredMisses = new ArrayList<>();
+
+      for (int i = 0; i < lookups.size(); i++) {
+        InputObjectLookup lookup = lookups.get(i);
+        repoObjects[i] = objectCache.get(bucketName, lookup.getKey(), lookup.getVersion(), uuids.get(i), lookup.getTag());
+
+        if (repoObjects[i] == null && objectKeyFilter.mightContain(bucketName, lookup.getKey())) {
+          if (lookup.getVersion() == null && uuids.get(i) == null && lookup.getTag() == null) {
+            latestMisses.add(i);
+          } else {
+            filteredMisses.add(i);
+          }
+        }
+      }
+
+      if (latestMisses.isEmpty() && filteredMisses.isEmpty()) {
+        return Arrays.asList(repoObjects);
+      }
+
+      sqlService.getReplicaConnection();
+
+      if (sqlService.getBucket(bucketName) == null) {
+        throw new RepoException(RepoException.Type.BucketNotFound);
+      }
+
+      if (!latestMisses.isEmpty()) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (Integer i : latestMisses) {
+          keys.add(lookups.get(i).getKey());
+        }
+
+        Map<String, RepoObject> latest = getLatestObjects(bucketName, keys);
+
+        for (Integer i : latestMisses) {
+          RepoObject repoObject = latest.get(lookups.get(i).getKey());
+          if (repoObject != null) {
+            repoObjects[i] = new RepoObject(repoObject);
+            objectCache.put(bucketName, repoObject.getKey(), null, null, null, repoObject);
+          }
+        }
+      }
+
+      if (!filteredMisses.isEmpty()) {
+        List<String> keys = new ArrayList<>(filteredMisses.size());
+        List<ElementFilter> filters = new ArrayList<>(filteredMisses.size());
+        for (Integer i : filteredMisses) {
+          InputObjectLookup lookup = lookups.get(i);
+          keys.add(lookup.getKey());
+          filters.add(new ElementFilter(lookup.getVersion(), lookup.getTag(),
+              uuids.get(i) == null ? null : uuids.get(i).toString()));
+        }
+
+        List<RepoObject> candidates = sqlService.getObjects(bucketName, keys, filters);
+
+        for (Integer i : filteredMisses) {
+          InputObjectLookup lookup = lookups.get(i);
+
+          // candidates are newest first, so the first match is the one getObject would have returned
+          for (RepoObject candidate : candidates) {
+            if (matches(candidate, lookup, uuids.get(i))) {
+              if (candidate.getStatus() != Status.DELETED && candidate.getStatus() != Status.PURGED) {
+                repoObjects[i] = new RepoObject(candidate);
+                objectCache.put(bucketName, lookup.getKey(), lookup.getVersion(), uuids.get(i), lookup.getTag(),
+                    candidate);
+              }
+              break;
+            }
+          }
+        }
+      }
+    } catch (SQLException e) {
+      throw new RepoException(e);
+    } finally {
+      sqlReleaseConnection();
+      for (Lock readLock : Lists.reverse(readLocks)) {
+        readLock.unlock();
+      }
+    }
+
+    return Arrays.asList(repoObjects);
+  }
+
+  /**
+   * @return the latest used version of each of the given keys that has one, by key
+   */
+  private Map<String, RepoObject> getLatestObjects(String bucketName, Collection<String> keys)
+      throws SQLException, RepoException {
+    // rows come ordered by key, so the first one of each key is kept should two share a creation date. The database
+    // may compare keys ignoring case, so they are looked up ignoring case as well.
+    Map<String, RepoObject> latest = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    for (RepoObject repoObject : sqlService.getLatestObjects(bucketName, new ArrayList<>(keys))) {
+      if (!latest.containsKey(repoObject.getKey())) {
+        latest.put(repoObject.getKey(), repoObject);
+      }
+    }
+    return latest;
+  }
+
+  private static boolean matches(RepoObject repoObject, InputObjectLookup lookup, UUID uuid) {
+    return repoObject.getKey().equals(lookup.getKey()) &&
+        (lookup.getVersion() == null || lookup.getVersion().equals(repoObject.getVersionNumber())) &&
+        (uuid == null || uuid.equals(repoObject.getUuid())) &&
+        (lookup.getTag() == null || lookup.getTag().equals(repoObject.getTag()));
   }
 
   public List<RepoObject> getObjectVersions(String bucketName, String objectKey) throws RepoException {
@@ -329,7 +639,7 @@ public class RepoService extends BaseRepoService {
 
     List<RepoObject> repoObjects = null;
     try {
-      sqlService.getReadOnlyConnection();
+      sqlService.getReplicaConnection();
       repoObjects = sqlService.listObjectVersions(bucketName, objectKey);
     } catch (SQLException e) {
       throw new RepoException(e);
@@ -342,7 +652,19 @@ public class RepoService extends BaseRepoService {
   }
 
   public URL[] getObjectReproxy(RepoObject repoObject) throws RepoException {
+    return getObjectReproxy(repoObject, false);
+  }
+
+  /**
+   * @param revalidate whether to resolve the URLs again rather than reuse the file paths cached by the object store,
+   *                   for a client whose redirect to the cached paths failed
+   */
+  public URL[] getObjectReproxy(RepoObject repoObject, boolean revalidate) throws RepoException {
     try {
+      if (revalidate) {
+        objectStore.invalidateFilePaths(repoObject);
+      }
+
       return objectStore.getRedirectURLs(repoObject);
     } catch (Exception e) {
       throw new RepoException(e);
@@ -395,6 +717,41 @@ public class RepoService extends BaseRepoService {
     return content;
   }
 
+  /**
+   * @return the local file holding the content of the given object, or null if the object store can not serve it as
+   * a file. See {@link org.plos.repo.service.ObjectStore#getLocalFile(org.plos.repo.models.RepoObject)}.
+   */
+  public File getObjectLocalFile(RepoObject repoObject) {
+    return objectStore.getLocalFile(repoObject);
+  }
+
+  /**
+   * Retrieve <code>length</code> bytes of the content of the given object, starting at <code>offset</code>.
+   *
+   * @throws RepoException if the content of the object is not found or can not be read
+   */
+  public InputStream getObjectInputStream(RepoObject repoObject, long offset, long length) throws RepoException {
+    InputStream content = null;
+    try {
+      content = objectStore.getInputStream(repoObject, offset, length);
+    } catch (Exception e) {
+      log.error("Error retrieving content for object.  Key: {} , bucketName: {} , uuid: {} . Error: {}",
+          repoObject.getKey(),
+          repoObject.getBucketName(),
+          repoObject.getUuid().toString(),
+          e.getMessage());
+      throw new RepoException(e);
+    }
+    if (content == null) {
+      log.error("Error retrieving content for object. Content not found.  Key: {} , bucketName: {} , uuid: {} ",
+          repoObject.getKey(),
+          repoObject.getBucketName(),
+          repoObject.getUuid().toString());
+      throw new RepoException(RepoException.Type.ObjectContentNotFound);
+    }
+    return content;
+  }
+
   /**
    * Mark object as deleted or purged, depending on the <code>purge</code> value.
    *
@@ -487,6 +844,8 @@ public class RepoService extends BaseRepoService {
         sqlRollback("object " + bucketName + ", " + key + ", " + elementFilter);
       }
 
+      objectCache.invalidate(bucketName, key);
+
       sqlReleaseConnection();
       writeLock.unlock();
     }
@@ -505,12 +864,12 @@ public class RepoService extends BaseRepoService {
    */
   private void purgeObjectContentAndDb(RepoObject repoObject, ElementFilter elementFilter) throws RepoException {
     try {
-      try (InputStream content = getObjectInputStream(repoObject)) {
-        if (content == null) {
-          throw new RepoException(RepoException.Type.ObjectNotFound);
-        }
-      } catch (IOException e) {
-        throw new RepoException(e);
+      if (!objectStore.probeObjectExists(repoObject)) {
+        log.error("Error purging object. Content not found.  Key: {} , bucketName: {} , uuid: {} ",
+            repoObject.getKey(),
+            repoObject.getBucketName(),
+            repoObject.getUuid().toString());
+        throw new RepoException(RepoException.Type.ObjectContentNotFound);
       }
 
       UUID uuid = UUIDFormatter.getUuid(elementFilter.getUuid());
@@ -539,18 +898,118 @@ public class RepoService extends BaseRepoService {
     }
   }
 
+  /**
+   * Create an object, or a new version of one, in two phases. The uploaded content is first streamed to the object
+   * store, hashed and saved without holding the write lock of the key or a database connection, so that a slow client
+   * does not keep either busy. The lock and the transaction are then only held for the short insert of the metadata.
+   * <p/>
+   * Content saved by a request that then fails under the lock is left in the store, as content is shared by checksum.
+   * Content that the client only names by its checksum is likewise looked up in the first phase.
+   */
   public RepoObject createObject(CreateMethod method,
                                  InputRepoObject inputRepoObject) throws RepoException {
+    inputRepoObjectValidator.validate(inputRepoObject);
+
+    ObjectStore.UploadInfo uploadInfo = null;
+    RepoObject content = null; // the uploaded or referenced content, once known to be in the object store
+
+    try {
+      InputStream uploadedInputStream = inputRepoObject.getUploadedInputStream();
+
+      if (uploadedInputStream != null) {
+        checkCreateObject(method, inputRepoObject);
+
+        uploadInfo = objectStore.uploadTempObject(new Bucket(inputRepoObject.getBucketName()), uploadedInputStream,
+            inputRepoObject.getUploadedSize());
+
+        try {
+          uploadedInputStream.close();
+        } catch (IOException e) {
+          throw new RepoException(e);
+        }
+
+        content = new RepoObject(inputRepoObject.getKey(), null, inputRepoObject.getBucketName(), Status.USED);
+        setUploadedContent(content, inputRepoObject, uploadInfo);
+
+        if (method == CreateMethod.NEW && content.getSize() == 0) {
+          throw new RepoException(RepoException.Type.ObjectDataEmpty);
+        }
+
+        if (!objectStore.probeObjectExists(content)
+            && !objectStore.saveUploadedObject(new Bucket(inputRepoObject.getBucketName()), uploadInfo, content)) {
+          throw new RepoException("Error saving content to object store");
+        }
+      } else if (inputRepoObject.getChecksum() != null) {
+        checkCreateObject(method, inputRepoObject);
+
+        // the client only sent the checksum, so the content must already be stored in the bucket
+        content = new RepoObject(inputRepoObject.getKey(), null, inputRepoObject.getBucketName(), Status.USED);
+        resolveStoredContent(content, inputRepoObject);
+      }
+
+      return createObject(method, inputRepoObject, content);
+    } finally {
+      if (uploadInfo != null) {
+        objectStore.deleteTempUpload(uploadInfo);
+      }
+    }
+  }
+
+  /**
+   * Checks, without taking the write lock of the key, that the bucket exists and that a new object does not reuse a
+   * cached key, so that most requests bound to fail do not upload their content first. The object is not queried, as
+   * the full checks are made under the lock anyway.
+   */
+  private void checkCreateObject(CreateMethod method, InputRepoObject inputRepoObject) throws RepoException {
+    if (method == CreateMethod.NEW
+        && objectCache.get(inputRepoObject.getBucketName(), inputRepoObject.getKey(), null, null, null) != null) {
+      throw new RepoException(RepoException.Type.CantCreateNewObjectWithUsedKey);
+    }
+
+    try {
+      sqlService.getReadOnlyConnection();
+
+      if (sqlService.getBucket(inputRepoObject.getBucketName()) == null) {
+        throw new RepoException(RepoException.Type.BucketNotFound);
+      }
+    } catch (SQLException e) {
+      throw new RepoException(e);
+    } finally {
+      sqlReleaseConnection();
+    }
+  }
+
+  /**
+   * Sets the content of <code>repoObject</code> to the content already stored in its bucket, reading the references to
+   * it on a read-only connection.
+   */
+  private void resolveStoredContent(RepoObject repoObject, InputRepoObject inputRepoObject) throws RepoException {
+    try {
+      sqlService.getReadOnlyConnection();
+      setStoredContent(repoObject, inputRepoObject);
+    } catch (SQLException e) {
+      throw new RepoException(e);
+    } finally {
+      sqlReleaseConnection();
+    }
+  }
+
+  /**
+   * Inserts the object under the write lock of its key.
+   *
+   * @param content the content already in the object store, or null if the request neither uploaded content nor
+   *                named stored content
+   */
+  private RepoObject createObject(CreateMethod method, InputRepoObject inputRepoObject, RepoObject content)
+      throws RepoException {
     Lock writeLock = this.rwLocks.get(inputRepoObject.getBucketName() + inputRepoObject.getKey()).writeLock();
     writeLock.lock();
 
     RepoObject existingRepoObject;
 
     try {
-      inputRepoObjectValidator.validate(inputRepoObject);
-
       try {
-        existingRepoObject = getObject(inputRepoObject.getBucketName(), inputRepoObject.getKey(), null);
+        existingRepoObject = getObject(inputRepoObject.getBucketName(), inputRepoObject.getKey(), null, true);
       } catch (RepoException e) {
         if (e.getType() == RepoException.Type.ObjectNotFound) {
           existingRepoObject = null;
@@ -571,33 +1030,408 @@ public class RepoService extends BaseRepoService {
           if (existingRepoObject != null) {
             throw new RepoException(RepoException.Type.CantCreateNewObjectWithUsedKey);
           }
-          return createNewObject(inputRepoObject, timestamp, creationDate);
+          return createNewObject(inputRepoObject, content, timestamp, creationDate);
 
         case VERSION:
           if (existingRepoObject == null) {
             throw new RepoException(RepoException.Type.CantCreateVersionWithNoOrig);
           }
-          return updateObject(inputRepoObject, timestamp, existingRepoObject, creationDate);
+          return updateObject(inputRepoObject, content, timestamp, existingRepoObject, creationDate);
 
         case AUTO:
           if (existingRepoObject == null) {
-            return createNewObject(inputRepoObject, timestamp, creationDate);
+            return createNewObject(inputRepoObject, content, timestamp, creationDate);
           } else {
-            return updateObject(inputRepoObject, timestamp, existingRepoObject, creationDate);
+            return updateObject(inputRepoObject, content, timestamp, existingRepoObject, creationDate);
           }
 
         default:
           throw new RepoException(RepoException.Type.InvalidCreationMethod);
       }
     } finally {
+      objectCache.invalidate(inputRepoObject.getBucketName(), inputRepoObject.getKey());
       writeLock.unlock();
     }
   }
 
+  /**
+   * Create many objects of a bucket at once, as an ingest pipeline does for the files of an article. Each entry is
+   * checked and its content stored as {@link #createObject} would, except that the contents are saved in parallel on
+   * the prefetch pool and without holding any lock or database connection. The objects are then inserted along with
+   * their audit rows by batch statements, in a single transaction.
+   * <p/>
+   * An entry that fails is reported in its result and left out of the transaction. A failure of the transaction fails
+   * the whole batch.
+   *
+   * @param bucketName       the bucket of all the objects
+   * @param inputRepoObjects the objects to create, each with its own creation method and a key that appears only once
+   * @return the result of each entry, in the order of the entries
+   * @throws RepoException if the batch is empty or too large, if the bucket does not exist, or if the objects could not
+   *                       be inserted
+   */
+  public List<BatchResult> createObjects(String bucketName, List<InputRepoObject> inputRepoObjects)
+      throws RepoException {
+    if (bucketName == null) {
+      throw new RepoException(RepoException.Type.NoBucketEntered);
+    }
+
+    if (inputRepoObjects == null || inputRepoObjects.isEmpty()) {
+      throw new RepoException(RepoException.Type.NoKeyEntered);
+    }
+
+    if (inputRepoObjects.size() > MAX_BATCH_SIZE) {
+      throw new RepoException(RepoException.Type.TooManyObjectsRequested);
+    }
+
+    List<BatchEntry> entries = new ArrayList<>(inputRepoObjects.size());
+    // keys are compared ignoring case, as the database may compare them
+    Set<String> keys = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    for (InputRepoObject inputRepoObject : inputRepoObjects) {
+      BatchEntry entry = new BatchEntry(inputRepoObject);
+      entries.add(entry);
+
+      try {
+        inputRepoObjectValidator.validate(inputRepoObject);
+
+        if (!keys.add(inputRepoObject.getKey())) {
+          throw new RepoException(RepoException.Type.ObjectKeyRepeated);
+        }
+
+        entry.method = getCreateMethod(inputRepoObject.getCreate());
+
+        entry.creationDate = inputRepoObject.getCreationDateTime() != null ?
+            Timestamp.valueOf(inputRepoObject.getCreationDateTime()) : new Timestamp(new Date().getTime());
+        entry.timestamp = inputRepoObject.getTimestamp() != null ?
+            Timestamp.valueOf(inputRepoObject.getTimestamp()) : entry.creationDate;
+      } catch (RepoException e) {
+        entry.error = e;
+      }
+    }
+
+    try {
+      // entries that can be told to fail from the current state are dropped before their content is stored
+      checkBatch(bucketName, entries);
+
+      storeContents(bucketName, entries);
+
+      insertBatch(bucketName, entries);
+    } finally {
+      for (BatchEntry entry : entries) {
+        IOUtils.closeQuietly(entry.input.getUploadedInputStream());
+
+        if (entry.uploadInfo != null) {
+          objectStore.deleteTempUpload(entry.uploadInfo);
+        }
+      }
+    }
+
+    List<BatchResult> results = new ArrayList<>(entries.size());
+    for (BatchEntry entry : entries) {
+      results.add(entry.error == null ? new BatchResult(entry.repoObject) : new BatchResult(entry.error));
+    }
+    return results;
+  }
+
+  private static CreateMethod getCreateMethod(String create) throws RepoException {
+    if (create == null) {
+      throw new RepoException(RepoException.Type.NoCreationMethodEntered);
+    }
+
+    try {
+      return CreateMethod.valueOf(create.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new RepoException(RepoException.Type.InvalidCreationMethod);
+    }
+  }
+
+  /**
+   * @throws RepoException if <code>method</code> can not create a version of an object whose latest version is
+   *                       <code>existingRepoObject</code>
+   */
+  private static void checkCreateMethod(CreateMethod method, RepoObject existingRepoObject) throws RepoException {
+    if (method == CreateMethod.NEW && existingRepoObject != null) {
+      throw new RepoException(RepoException.Type.CantCreateNewObjectWithUsedKey);
+    }
+
+    if (method == CreateMethod.VERSION && existingRepoObject == null) {
+      throw new RepoException(RepoException.Type.CantCreateVersionWithNoOrig);
+    }
+  }
+
+  /**
+   * Checks the creation method of each entry against the objects that exist, and resolves the content of the entries
+   * that only declare its checksum. The checks are repeated under the locks of the keys when the objects are inserted.
+   */
+  private void checkBatch(String bucketName, List<BatchEntry> entries) throws RepoException {
+    try {
+      sqlService.getReadOnlyConnection();
+
+      Bucket bucket = sqlService.getBucket(bucketName);
+      if (bucket == null) {
+        throw new RepoException(RepoException.Type.BucketNotFound);
+      }
+
+      Map<String, RepoObject> latest = getLatestObjects(bucketName, getKeys(entries));
+
+      for (BatchEntry entry : entries) {
+        if (entry.error != null) {
+          continue;
+        }
+
+        InputRepoObject inputRepoObject = entry.input;
+
+        try {
+          checkCreateMethod(entry.method, latest.get(inputRepoObject.getKey()));
+
+          if (inputRepoObject.getUploadedInputStream() == null && inputRepoObject.getChecksum() != null) {
+            // the client only sent the checksum, so the content must already be stored in the bucket
+            RepoObject content = new RepoObject(inputRepoObject.getKey(), bucket.getBucketId(), bucketName,
+                Status.USED);
+            setStoredContent(content, inputRepoObject);
+            entry.checksum = content.getChecksum();
+            entry.size = content.getSize();
+          }
+        } catch (RepoException e) {
+          entry.error = e;
+        }
+      }
+    } catch (SQLException e) {
+      throw new RepoException(e);
+    } finally {
+      sqlReleaseConnection();
+    }
+  }
+
+  /**
+   * Stores the uploaded content of the entries, in parallel on the prefetch pool. When the pool is full the content is
+   * stored by the request thread itself.
+   */
+  private void storeContents(final String bucketName, List<BatchEntry> entries) throws RepoException {
+    List<BatchEntry> submitted = new ArrayList<>();
+    List<Future<?>> futures = new ArrayList<>();
+    List<BatchEntry> rejected = new ArrayList<>();
+
+    for (final BatchEntry entry : entries) {
+      if (entry.error != null || entry.input.getUploadedInputStream() == null) {
+        continue;
+      }
+
+      try {
+        futures.add(requestExecutors.getPrefetchPool().submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            storeContent(bucketName, entry);
+            return null;
+          }
+        }));
+        submitted.add(entry);
+      } catch (RepoException e) {
+        rejected.add(entry);
+      }
+    }
+
+    for (BatchEntry entry : rejected) {
+      storeContent(bucketName, entry);
+    }
+
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        futures.get(i).get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RepoException(e);
+      } catch (ExecutionException e) {
+        submitted.get(i).error = new RepoException(e);
+      }
+    }
+  }
+
+  private void storeContent(String bucketName, BatchEntry entry) {
+    InputRepoObject inputRepoObject = entry.input;
+
+    try {
+      InputStream content = inputRepoObject.getUploadedInputStream();
+      entry.uploadInfo = objectStore.uploadTempObject(new Bucket(bucketName), content, inputRepoObject.getUploadedSize());
+      content.close();
+
+      RepoObject repoObject = new RepoObject(inputRepoObject.getKey(), null, bucketName, Status.USED);
+      setUploadedContent(repoObject, inputRepoObject, entry.uploadInfo);
+
+      if (!objectStore.probeObjectExists(repoObject)
+          && !objectStore.saveUploadedObject(new Bucket(bucketName), entry.uploadInfo, repoObject)) {
+        throw new RepoException("Error saving content to object store");
+      }
+
+      entry.checksum = repoObject.getChecksum();
+      entry.size = repoObject.getSize();
+    } catch (RepoException e) {
+      entry.error = e;
+    } catch (IOException e) {
+      entry.error = new RepoException(e);
+    }
+  }
+
+  /**
+   * Inserts the objects of the entries that did not fail, and their audit rows, in a single transaction.
+   */
+  private void insertBatch(String bucketName, List<BatchEntry> entries) throws RepoException {
+    List<String> keys = getKeys(entries);
+
+    if (keys.isEmpty()) {
+      return;
+    }
+
+    List<String> lockNames = new ArrayList<>(keys.size());
+    for (String key : keys) {
+      lockNames.add(bucketName + key);
+    }
+
+    // bulkGet returns the stripes in a fixed order, so concurrent batches can not deadlock each other
+    List<Lock> writeLocks = new ArrayList<>();
+    for (ReadWriteLock rwLock : this.rwLocks.bulkGet(lockNames)) {
+      Lock writeLock = rwLock.writeLock();
+      writeLock.lock();
+      writeLocks.add(writeLock);
+    }
+
+    boolean rollback = false;
+
+    try {
+      sqlService.getConnection();
+      rollback = true;
+
+      Bucket bucket = sqlService.getBucket(bucketName);
+      if (bucket == null) {
+        throw new RepoException(RepoException.Type.BucketNotFound);
+      }
+
+      Map<String, RepoObject> latest = getLatestObjects(bucketName, keys);
+      Map<String, Integer> versions = sqlService.getObjectNextAvailableVersions(bucketName, keys);
+
+      List<RepoObject> repoObjects = new ArrayList<>();
+      List<Audit> audits = new ArrayList<>();
+
+      for (BatchEntry entry : entries) {
+        if (entry.error != null) {
+          continue;
+        }
+
+        try {
+          RepoObject existingRepoObject = latest.get(entry.input.getKey());
+          RepoObject repoObject = getBatchObject(bucket, entry, existingRepoObject);
+          repoObject.setVersionNumber(versions.get(repoObject.getKey()));
+
+          repoObjects.add(repoObject);
+          audits.add(new Audit.AuditBuilder(bucketName,
+              existingRepoObject == null ? Operation.CREATE_OBJECT : Operation.UPDATE_OBJECT)
+              .setKey(repoObject.getKey())
+              .setUuid(repoObject.getUuid())
+              .build());
+          entry.repoObject = repoObject;
+        } catch (RepoException e) {
+          entry.error = e;
+        }
+      }
+
+      if (!repoObjects.isEmpty()) {
+        if (!sqlService.insertObjects(repoObjects)) {
+          throw new RepoException("Error saving content to database");
+        }
+
+        if (!auditWriter.write(audits)) {
+          throw new RepoException("Error saving audit operations to database");
+        }
+      }
+
+      sqlService.transactionCommit();
+      rollback = false;
+
+      for (RepoObject repoObject : repoObjects) {
+        objectKeyFilter.put(bucketName, repoObject.getKey());
+      }
+    } catch (SQLException e) {
+      throw new RepoException(e);
+    } finally {
+      if (rollback) {
+        sqlRollback("batch of " + keys.size() + " objects in bucket " + bucketName);
+      }
+
+      sqlReleaseConnection();
+
+      for (String key : keys) {
+        objectCache.invalidate(bucketName, key);
+      }
+
+      for (Lock writeLock : Lists.reverse(writeLocks)) {
+        writeLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Builds the object inserted for an entry of a batch: a new object, or a new version of
+   * <code>existingRepoObject</code> that keeps its content when the entry has none.
+   */
+  private RepoObject getBatchObject(Bucket bucket, BatchEntry entry, RepoObject existingRepoObject)
+      throws RepoException {
+    InputRepoObject inputRepoObject = entry.input;
+    checkCreateMethod(entry.method, existingRepoObject);
+
+    RepoObject repoObject;
+
+    if (existingRepoObject == null) {
+      if (entry.checksum == null) {
+        throw new RepoException(RepoException.Type.NoFileEntered);
+      }
+
+      if (entry.size == 0) {
+        throw new RepoException(RepoException.Type.ObjectDataEmpty);
+      }
+
+      repoObject = new RepoObject(inputRepoObject.getKey(), bucket.getBucketId(), bucket.getBucketName(), Status.USED);
+      repoObject.setDownloadName(inputRepoObject.getDownloadName());
+      repoObject.setContentType(inputRepoObject.getContentType());
+      repoObject.setUserMetadata(inputRepoObject.getUserMetadata());
+      repoObject.setTag(inputRepoObject.getTag());
+      repoObject.setTimestamp(entry.timestamp);
+      repoObject.setCreationDate(entry.creationDate);
+    } else {
+      repoObject = createNewRepoObjectForUpate(inputRepoObject, existingRepoObject, entry.timestamp,
+          entry.creationDate);
+    }
+
+    if (entry.checksum != null) {
+      repoObject.setChecksum(entry.checksum);
+      repoObject.setSize(entry.size);
+    } else {
+      // metadata-only update, the content is the same as the last version of the object
+      repoObject.setChecksum(existingRepoObject.getChecksum());
+      repoObject.setSize(existingRepoObject.getSize());
+    }
+
+    repoObject.setUuid(UUID.randomUUID());
+
+    return repoObject;
+  }
+
+  /**
+   * @return the keys of the entries that did not fail
+   */
+  private static List<String> getKeys(List<BatchEntry> entries) {
+    List<String> keys = new ArrayList<>();
+    for (BatchEntry entry : entries) {
+      if (entry.error == null) {
+        keys.add(entry.input.getKey());
+      }
+    }
+    return keys;
+  }
+
   private RepoObject createNewObject(InputRepoObject inputRepoObject,
+                                     RepoObject content,
                                      Timestamp timestamp,
                                      Timestamp cretationDateTime) throws RepoException {
-    ObjectStore.UploadInfo uploadInfo = null;
     Integer versionNumber;
     Bucket bucket;
 
@@ -619,16 +1453,17 @@ public class RepoService extends BaseRepoService {
         throw new RepoException(RepoException.Type.BucketNotFound);
       }
 
-      InputStream content = inputRepoObject.getUploadedInputStream();
-      uploadInfo = objectStore.uploadTempObject(content);
+      repoObject = new RepoObject(inputRepoObject.getKey(), bucket.getBucketId(),
+          inputRepoObject.getBucketName(), Status.USED);
 
-      try {
-        content.close();
-      } catch (IOException e) {
-        throw new RepoException(e);
+      if (content != null) {
+        repoObject.setChecksum(content.getChecksum());
+        repoObject.setSize(content.getSize());
+      } else {
+        throw new RepoException(RepoException.Type.NoFileEntered);
       }
 
-      if (uploadInfo.getSize() == 0) {
+      if (repoObject.getSize() == 0) {
         throw new RepoException(RepoException.Type.ObjectDataEmpty);
       }
 
@@ -639,37 +1474,16 @@ public class RepoService extends BaseRepoService {
         throw new RepoException(e);
       }
 
-      repoObject = new RepoObject(inputRepoObject.getKey(), bucket.getBucketId(),
-          inputRepoObject.getBucketName(), Status.USED);
       repoObject.setDownloadName(inputRepoObject.getDownloadName());
       repoObject.setContentType(inputRepoObject.getContentType());
       repoObject.setUserMetadata(inputRepoObject.getUserMetadata());
       repoObject.setTag(inputRepoObject.getTag());
-      repoObject.setChecksum(uploadInfo.getChecksum());
       repoObject.setTimestamp(timestamp);
-      repoObject.setSize(uploadInfo.getSize());
       repoObject.setVersionNumber(versionNumber);
       repoObject.setCreationDate(cretationDateTime);
 
       repoObject.setUuid(UUID.randomUUID());
 
-      // determine if the object should be added to the store or not
-      if (objectStore.objectExists(repoObject)) {
-//      if (FileUtils.contentEquals(tempFile, new File(objectStore.getObjectLocationString(bucketName, checksum)))) {
-//        log.info("not adding object to store since content exists");
-//      } else {
-//        log.info("checksum collision!!");
-//        status = HttpStatus.CONFLICT;
-//      }
-
-        // dont bother storing the file since the data already exists in the system
-      } else {
-        if (!objectStore.saveUploadedObject(new Bucket(inputRepoObject.getBucketName()),
-            uploadInfo, repoObject)) {
-          throw new RepoException("Error saving content to object store");
-        }
-      }
-
       // add a record to the DB
 
       if (sqlService.insertObject(repoObject) == 0) {
@@ -683,13 +1497,12 @@ public class RepoService extends BaseRepoService {
 
       sqlService.transactionCommit();
       rollback = false;
+
+      // added once committed, so that a rebuild of the filter that starts meanwhile can not miss the key
+      objectKeyFilter.put(repoObject.getBucketName(), repoObject.getKey());
     } catch (SQLException e) {
       throw new RepoException(e);
     } finally {
-      if (uploadInfo != null) {
-        objectStore.deleteTempUpload(uploadInfo);
-      }
-
       if (rollback) {
         sqlRollback("object " + inputRepoObject.getBucketName() + ", " + inputRepoObject.getKey());
         // TODO: handle objectStore rollback, or not?
@@ -703,10 +1516,10 @@ public class RepoService extends BaseRepoService {
 
   private RepoObject updateObject(
       InputRepoObject inputRepoObject,
+      RepoObject content,
       Timestamp timestamp,
       RepoObject repoObject,
       Timestamp cretationDateTime) throws RepoException {
-    ObjectStore.UploadInfo uploadInfo = null;
     boolean rollback = false;
 
     RepoObject newRepoObject = null;
@@ -721,23 +1534,13 @@ public class RepoService extends BaseRepoService {
         throw new RepoException(RepoException.Type.BucketNotFound);
       }
 
-      InputStream uploadedInputStream = inputRepoObject.getUploadedInputStream();
-
-      if (uploadedInputStream == null) {
+      if (content != null) {
+        newRepoObject.setChecksum(content.getChecksum());
+        newRepoObject.setSize(content.getSize());
+      } else {
         // handle metadata-only update, the content would be the same as the last version of the object
         newRepoObject.setChecksum(repoObject.getChecksum());
         newRepoObject.setSize(repoObject.getSize());
-      } else {
-        // determine if the new object should be added to the store or not
-        uploadInfo = objectStore.uploadTempObject(uploadedInputStream);
-        uploadedInputStream.close();
-        newRepoObject.setChecksum(uploadInfo.getChecksum());
-        newRepoObject.setSize(uploadInfo.getSize());
-        if (!objectStore.objectExists(newRepoObject)) {
-          if (!objectStore.saveUploadedObject(new Bucket(inputRepoObject.getBucketName()), uploadInfo, newRepoObject)) {
-            throw new RepoException("Error saving content to object store");
-          }
-        }
       }
 
       newRepoObject.setUuid(UUID.randomUUID());
@@ -756,13 +1559,11 @@ public class RepoService extends BaseRepoService {
 
       sqlService.transactionCommit();
       rollback = false;
-    } catch (SQLException | IOException e) {
+
+      objectKeyFilter.put(newRepoObject.getBucketName(), newRepoObject.getKey());
+    } catch (SQLException e) {
       throw new RepoException(e);
     } finally {
-      if (uploadInfo != null) {
-        objectStore.deleteTempUpload(uploadInfo);
-      }
-
       if (rollback) {
         sqlRollback("object " + inputRepoObject.getBucketName() + ", " + repoObject.getKey());
         // TODO: handle objectStore rollback, or not?
@@ -774,6 +1575,49 @@ public class RepoService extends BaseRepoService {
     return newRepoObject;
   }
 
+  /**
+   * Sets the content of <code>repoObject</code> to the content already stored in its bucket under the checksum declared
+   * by the client, so that content the repo already holds does not have to be sent again.
+   *
+   * @throws RepoException if no used or deleted object of the bucket refers to content with that checksum, or if the
+   *                       client declared a different size
+   */
+  private void setStoredContent(RepoObject repoObject, InputRepoObject inputRepoObject)
+      throws RepoException, SQLException {
+    repoObject.setChecksum(inputRepoObject.getChecksum().toLowerCase());
+
+    Long size = sqlService.getReferencedContentSize(repoObject.getBucketName(), repoObject.getChecksum());
+
+    if (size == null || !objectStore.probeObjectExists(repoObject)) {
+      throw new RepoException(RepoException.Type.ContentNotStored);
+    }
+
+    if (inputRepoObject.getUploadedSize() != null && !inputRepoObject.getUploadedSize().equals(size)) {
+      throw new RepoException(RepoException.Type.ObjectDataSizeMismatch);
+    }
+
+    repoObject.setSize(size);
+  }
+
+  /**
+   * Sets the content of <code>repoObject</code> to the uploaded content, after checking it against the checksum and
+   * size declared by the client.
+   */
+  private void setUploadedContent(RepoObject repoObject, InputRepoObject inputRepoObject,
+                                  ObjectStore.UploadInfo uploadInfo) throws RepoException {
+    if (inputRepoObject.getChecksum() != null
+        && !inputRepoObject.getChecksum().equalsIgnoreCase(uploadInfo.getChecksum())) {
+      throw new RepoException(RepoException.Type.ObjectDataChecksumMismatch);
+    }
+
+    if (inputRepoObject.getUploadedSize() != null && !inputRepoObject.getUploadedSize().equals(uploadInfo.getSize())) {
+      throw new RepoException(RepoException.Type.ObjectDataSizeMismatch);
+    }
+
+    repoObject.setChecksum(uploadInfo.getChecksum());
+    repoObject.setSize(uploadInfo.getSize());
+  }
+
   /**
    * Create a {@link org.plos.repo.models.RepoObject} to be updated. If any of the properties from
    * <code>inputRepoObject</code> is null, it gets that properties from <code>repoObject</code>
@@ -828,4 +1672,116 @@ public class RepoService extends BaseRepoService {
     return log;
   }
 
+  /**
+   * A page of an object listing that follows a given object, see {@link #getObjectPage}. Its end and its objects are
+   * read from the same database: were the objects read from a replica that lags behind the one that gave the end,
+   * the objects it has not applied yet would be missing from the page while the continuation token skips past them.
+   */
+  public class ObjectPage {
+
+    private final DataSource replica;
+    private final String bucketName;
+    private final int afterId;
+    private final int limit;
+    private final boolean includeDeleted;
+    private final boolean includePurged;
+    private final String tag;
+    private Integer lastId;
+
+    private ObjectPage(DataSource replica, String bucketName, int afterId, int limit, boolean includeDeleted,
+                       boolean includePurged, String tag) {
+      this.replica = replica;
+      this.bucketName = bucketName;
+      this.afterId = afterId;
+      this.limit = limit;
+      this.includeDeleted = includeDeleted;
+      this.includePurged = includePurged;
+      this.tag = tag;
+    }
+
+    /**
+     * @return the id of the last object of the page, or null if the page is the last one
+     */
+    public Integer getLastId() {
+      return lastId;
+    }
+
+    /**
+     * Hands each object of the page to <code>handler</code> while the rows are read from the database.
+     *
+     * @throws IOException if the handler fails to write an object
+     */
+    public void list(final SqlService.RowHandler<RepoObject> handler) throws RepoException, IOException {
+      final boolean reproxy = serverSupportsReproxy();
+
+      try {
+        sqlService.getReplicaConnection(replica);
+        sqlService.listObjectsAfter(bucketName, afterId, lastId, limit, includeDeleted, includePurged, tag,
+            new SqlService.RowHandler<RepoObject>() {
+              @Override
+              public void handle(RepoObject repoObject) throws IOException, RepoException {
+                if (reproxy) {
+                  repoObject.setReproxyURL(getObjectReproxy(repoObject));
+                }
+                handler.handle(repoObject);
+              }
+            });
+      } catch (SQLException e) {
+        throw new RepoException(e);
+      } finally {
+        sqlReleaseConnection();
+      }
+    }
+
+  }
+
+  /**
+   * Result of one entry of a batch of object creations. Exactly one of the created object and the error is set.
+   */
+  public static class BatchResult {
+
+    private final RepoObject repoObject;
+    private final RepoException error;
+
+    private BatchResult(RepoObject repoObject) {
+      this.repoObject = repoObject;
+      this.error = null;
+    }
+
+    private BatchResult(RepoException error) {
+      this.repoObject = null;
+      this.error = error;
+    }
+
+    public RepoObject getRepoObject() {
+      return repoObject;
+    }
+
+    public RepoException getError() {
+      return error;
+    }
+
+  }
+
+  /**
+   * State of one entry of a batch of object creations as it goes through {@link #createObjects}.
+   */
+  private static class BatchEntry {
+
+    private final InputRepoObject input;
+    private CreateMethod method;
+    private Timestamp creationDate;
+    private Timestamp timestamp;
+    private ObjectStore.UploadInfo uploadInfo;
+    private String checksum; // of the stored content, once resolved
+    private Long size;
+    private RepoObject repoObject;
+    private RepoException error;
+
+    private BatchEntry(InputRepoObject input) {
+      this.input = input;
+    }
+
+  }
+
 }
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.plos.repo.models.output.ExecutorStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded thread pools on which the object requests run once they are taken off the container thread. Database work
+ * and object store transfers use separate pools, so that a slow object store backend fills up its own pool without
+ * holding back metadata requests, and the container threads stay free to accept requests.
+ * <p/>
+ * A task that finds its pool and its queue full is rejected right away with {@link RepoException.Type#ServerBusy}
+ * instead of waiting, so that a client learns of the overload without holding a connection.
+ * <p/>
+ * A third pool runs the object store work of a request that deals with many objects, such as opening content ahead of
+ * a collection archive or saving the contents of a batch ingest in parallel. It has no queue, and a caller that is
+ * turned away does the work itself.
+ * <p/>
+ * A task carries the write its request must read, see {@link ReplicaRouter#setReadAfter}, to the thread that runs it.
+ */
+public class RequestExecutors {
+
+  public static final int DEFAULT_SQL_THREADS = 32;
+
+  public static final int DEFAULT_SQL_QUEUE = 512;
+
+  public static final int DEFAULT_STORE_THREADS = 64;
+
+  public static final int DEFAULT_STORE_QUEUE = 128;
+
+  public static final int DEFAULT_PREFETCH_THREADS = 16;
+
+  private static final Logger log = LoggerFactory.getLogger(RequestExecutors.class);
+
+  private final Pool sqlPool;
+
+  private final Pool storePool;
+
+  private final Pool prefetchPool;
+
+  public RequestExecutors() {
+    this(DEFAULT_SQL_THREADS, DEFAULT_SQL_QUEUE, DEFAULT_STORE_THREADS, DEFAULT_STORE_QUEUE);
+  }
+
+  public RequestExecutors(int sqlThreads, int sqlQueue, int storeThreads, int storeQueue) {
+    this(sqlThreads, sqlQueue, storeThreads, storeQueue, DEFAULT_PREFETCH_THREADS);
+  }
+
+  /**
+   * @param sqlThreads      number of threads of the pool that runs database work
+   * @param sqlQueue        number of tasks that may wait for a database thread. 0 rejects a task when all threads are
+   *                        busy.
+   * @param storeThreads    number of threads of the pool that reads and writes object content
+   * @param storeQueue      number of tasks that may wait for an object store thread
+   * @param prefetchThreads number of threads that open or save object content on behalf of requests that deal with
+   *                        many objects
+   */
+  public RequestExecutors(int sqlThreads, int sqlQueue, int storeThreads, int storeQueue, int prefetchThreads) {
+    this.sqlPool = new Pool("repo-sql", sqlThreads, sqlQueue);
+    this.storePool = new Pool("repo-store", storeThreads, storeQueue);
+    this.prefetchPool = new Pool("repo-prefetch", prefetchThreads, 0);
+  }
+
+  /**
+   * Returns the pool for requests that only involve the database.
+   */
+  public Pool getSqlPool() {
+    return sqlPool;
+  }
+
+  /**
+   * Returns the pool for requests that read or write object content.
+   */
+  public Pool getStorePool() {
+    return storePool;
+  }
+
+  /**
+   * Returns the pool that opens or saves object content on behalf of a request that deals with many objects. Since a
+   * request thread may wait on these tasks, they must never run on the pool of the request itself.
+   */
+  public Pool getPrefetchPool() {
+    return prefetchPool;
+  }
+
+  @PreDestroy
+  public void stop() {
+    sqlPool.executor.shutdown();
+    storePool.executor.shutdown();
+    prefetchPool.executor.shutdown();
+  }
+
+  public static class Pool {
+
+    private final String name;
+
+    private final int queueCapacity;
+
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong rejectedCount = new AtomicLong(0);
+
+    private Pool(String name, int threads, int queueCapacity) {
+      this.name = name;
+      this.queueCapacity = queueCapacity;
+
+      BlockingQueue<Runnable> queue = queueCapacity > 0 ?
+          new ArrayBlockingQueue<Runnable>(queueCapacity) : new SynchronousQueue<Runnable>();
+
+      this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue,
+          new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build(),
+          new ThreadPoolExecutor.AbortPolicy());
+      this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs <code>task</code> on a thread of the pool, on behalf of the request served by the calling thread.
+     *
+     * @throws RepoException of type ServerBusy if the pool can not take the task
+     */
+    public void execute(final Runnable task) throws RepoException {
+      final Long readAfter = ReplicaRouter.getReadAfter();
+
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            ReplicaRouter.setReadAfter(readAfter);
+            try {
+              task.run();
+            } finally {
+              ReplicaRouter.setReadAfter(null);
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        throw rejected();
+      }
+    }
+
+    /**
+     * Runs <code>task</code> on a thread of the pool, on behalf of the request served by the calling thread, and
+     * returns its pending result.
+     *
+     * @throws RepoException of type ServerBusy if the pool can not take the task
+     */
+    public <T> Future<T> submit(final Callable<T> task) throws RepoException {
+      final Long readAfter = ReplicaRouter.getReadAfter();
+
+      try {
+        return executor.submit(new Callable<T>() {
+          @Override
+          public T call() throws Exception {
+            ReplicaRouter.setReadAfter(readAfter);
+            try {
+              return task.call();
+            } finally {
+              ReplicaRouter.setReadAfter(null);
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        throw rejected();
+      }
+    }
+
+    private RepoException rejected() {
+      rejectedCount.incrementAndGet();
+      log.debug("Request rejected by the " + name + " pool, " + executor.getActiveCount() + " threads busy");
+      return new RepoException(RepoException.Type.ServerBusy);
+    }
+
+    public ExecutorStatus getStatus() {
+      ExecutorStatus status = new ExecutorStatus();
+      status.threads = executor.getMaximumPoolSize();
+      status.activeCount = executor.getActiveCount();
+      status.queueSize = executor.getQueue().size();
+      status.queueCapacity = queueCapacity;
+      status.completedCount = executor.getCompletedTaskCount();
+      status.rejectedCount = rejectedCount.get();
+      return status;
+    }
+
+  }
+
+}
@@ -23,62 +23,190 @@
 package org.plos.repo.service;
 
 import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.s3.model.CannedAccessControlList;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
 import com.amazonaws.services.s3.model.CreateBucketRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.Region;
-import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.plos.repo.models.Bucket;
 import org.plos.repo.models.RepoObject;
+import org.plos.repo.util.Backoff;
+import org.plos.repo.util.ChecksumGenerator;
+import org.plos.repo.util.ContentHasher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
-import java.security.DigestOutputStream;
-import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class S3StoreService extends ObjectStore {
 
   private static final Logger log = LoggerFactory.getLogger(S3StoreService.class);
 
+  /**
+   * Smallest part size S3 accepts, except for the last part of an upload.
+   */
+  public static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
+  public static final long DEFAULT_MULTIPART_THRESHOLD = 32L * 1024 * 1024;
+
+  public static final long DEFAULT_PART_SIZE = 8L * 1024 * 1024;
+
+  public static final int DEFAULT_UPLOAD_THREADS = 8;
+
+  public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+  public static final long DEFAULT_RETRY_BASE_DELAY_MILLIS = 500;
+
+  public static final long DEFAULT_EXISTS_CACHE_TTL_SECONDS = 300;
+
+  private static final long EXISTS_CACHE_MAX_SIZE = 10000;
+
+  private static final int HTTP_NOT_FOUND = 404;
+
+  private static final int STATUS_TOO_MANY_REQUESTS = 429;
+
+  // error codes with which S3 asks a client to slow down or to repeat a request, whatever their status code
+  private static final Set<String> RETRYABLE_ERROR_CODES = ImmutableSet.of(
+      "SlowDown", "Throttling", "ThrottlingException", "RequestLimitExceeded", "RequestTimeout");
+
+  private static final long RETRY_MAX_DELAY_MILLIS = 30000;
+
   private AmazonS3Client s3Client = null;
 
-  private static final String temp_upload_dir = "/tmp";
+  private final long multipartThreshold;
+
+  private final long partSize;
+
+  private final int maxAttempts;
+
+  private final Backoff backoff;
+
+  // uploads the parts of all the multipart uploads, which bounds the connections they take together. Its threads are
+  // daemons, since the store is looked up from JNDI and is not told when the application stops.
+  private final ExecutorService uploadExecutor;
+
+  // bucket/checksum of the content known to be stored. Stored content never changes, so an entry only goes stale if the
+  // content is purged through another node of a cluster, which the time to live bounds.
+  private final Cache<String, Boolean> existsCache;
 
   // NOTE: our object versions does not make use of S3's versioning system
 
   public S3StoreService(String aws_access_key, String aws_secret_key) {
-    s3Client = new AmazonS3Client(new BasicAWSCredentials(aws_access_key, aws_secret_key));
+    this(aws_access_key, aws_secret_key, DEFAULT_MULTIPART_THRESHOLD, DEFAULT_PART_SIZE, DEFAULT_UPLOAD_THREADS,
+        DEFAULT_MAX_ATTEMPTS, DEFAULT_EXISTS_CACHE_TTL_SECONDS);
+  }
+
+  public S3StoreService(String aws_access_key, String aws_secret_key, long multipartThreshold, long partSize,
+                        int uploadThreads, int maxAttempts, long existsCacheTtlSeconds) {
+    this(new AmazonS3Client(new BasicAWSCredentials(aws_access_key, aws_secret_key)), multipartThreshold, partSize,
+        uploadThreads, maxAttempts, DEFAULT_RETRY_BASE_DELAY_MILLIS, existsCacheTtlSeconds);
+  }
+
+  public S3StoreService(AmazonS3Client s3Client, long multipartThreshold, long partSize, int uploadThreads,
+                        int maxAttempts, long retryBaseDelayMillis) {
+    this(s3Client, multipartThreshold, partSize, uploadThreads, maxAttempts, retryBaseDelayMillis,
+        DEFAULT_EXISTS_CACHE_TTL_SECONDS);
   }
 
+  /**
+   * @param multipartThreshold   size from which content is uploaded in parts. 0 disables multipart uploads.
+   * @param partSize             size of the parts of a multipart upload. S3 rejects parts smaller than {@link
+   *                             #MIN_PART_SIZE}.
+   * @param uploadThreads        number of parts uploaded at the same time, across all uploads
+   * @param maxAttempts          number of times a request is sent before an upload is given up
+   * @param retryBaseDelayMillis upper bound of the delay before the first retry of a request, which doubles with each
+   *                             further retry
+   * @param existsCacheTtlSeconds time for which stored content is known to exist without asking S3. 0 disables the
+   *                              cache.
+   */
+  public S3StoreService(AmazonS3Client s3Client, long multipartThreshold, long partSize, int uploadThreads,
+                        int maxAttempts, long retryBaseDelayMillis, long existsCacheTtlSeconds) {
+    Preconditions.checkArgument(partSize > 0, "partSize must be positive");
+    Preconditions.checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+
+    this.s3Client = s3Client;
+    this.multipartThreshold = multipartThreshold;
+    this.partSize = partSize;
+    this.maxAttempts = maxAttempts;
+    this.backoff = new Backoff(retryBaseDelayMillis, RETRY_MAX_DELAY_MILLIS);
+    this.uploadExecutor = Executors.newFixedThreadPool(uploadThreads,
+        new ThreadFactoryBuilder().setNameFormat("s3-upload-%d").setDaemon(true).build());
+    this.existsCache = CacheBuilder.newBuilder()
+        .expireAfterWrite(existsCacheTtlSeconds, TimeUnit.SECONDS)
+        .maximumSize(existsCacheTtlSeconds > 0 ? EXISTS_CACHE_MAX_SIZE : 0)
+        .build();
+  }
+
+  private static String getExistsCacheKey(String bucketName, String checksum) {
+    return bucketName + "/" + checksum;
+  }
+
+  /**
+   * Checks the metadata of the content with a HEAD request, so that no content is downloaded.
+   */
   @Override
   public boolean objectExists(RepoObject repoObject) {
-    try {
-      S3Object obj = s3Client.getObject(repoObject.getBucketName(), repoObject.getChecksum());
+    String cacheKey = getExistsCacheKey(repoObject.getBucketName(), repoObject.getChecksum());
 
-      if (obj == null) {
-        return false;
-      }
+    return existsCache.getIfPresent(cacheKey) != null || probeObjectExists(repoObject);
+  }
 
-      obj.close();
-      return true;
+  @Override
+  public boolean probeObjectExists(RepoObject repoObject) {
+    String cacheKey = getExistsCacheKey(repoObject.getBucketName(), repoObject.getChecksum());
+    existsCache.invalidate(cacheKey);
+
+    try {
+      s3Client.getObjectMetadata(repoObject.getBucketName(), repoObject.getChecksum());
+    } catch (AmazonServiceException e) {
+      if (e.getStatusCode() != HTTP_NOT_FOUND) {
+        log.error("Error checking if object exists", e);
+      }
+      return false;
     } catch (Exception e) {
+      log.error("Error checking if object exists", e);
       return false;
     }
+
+    existsCache.put(cacheKey, Boolean.TRUE);
+    return true;
+  }
+
+  /**
+   * The digests are saved as metadata of the S3 object.
+   */
+  @Override
+  protected boolean storesDigests() {
+    return true;
   }
 
   @Override
@@ -106,6 +234,17 @@ public class S3StoreService extends ObjectStore {
     }
   }
 
+  @Override
+  public InputStream getInputStream(RepoObject repoObject, long offset, long length) throws RepoException {
+    try {
+      GetObjectRequest request = new GetObjectRequest(repoObject.getBucketName(), repoObject.getChecksum())
+          .withRange(offset, offset + length - 1);
+      return s3Client.getObject(request).getObjectContent();
+    } catch (AmazonClientException e) {
+      throw new RepoException(e);
+    }
+  }
+
   @Override
   public Optional<Boolean> bucketExists(Bucket bucket) {
     return Optional.of(s3Client.doesBucketExist(bucket.getBucketName()));
@@ -147,47 +286,19 @@ public class S3StoreService extends ObjectStore {
    * @throws Exception
    */
   @Override
-  public UploadInfo uploadTempObject(InputStream uploadedInputStream) throws RepoException {
-    final String tempFileLocation = temp_upload_dir + "/" + UUID.randomUUID().toString() + ".tmp";
-
+  public UploadInfo uploadTempObject(Bucket bucket, InputStream uploadedInputStream, Long size) throws RepoException {
     try {
-      FileOutputStream fos = new FileOutputStream(tempFileLocation);
-
-      ReadableByteChannel in = Channels.newChannel(uploadedInputStream);
-      MessageDigest digest = checksumGenerator.getDigestMessage();
-      WritableByteChannel out = Channels.newChannel(new DigestOutputStream(fos, digest));
-      ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+      ContentHasher hasher = newHasher(bucket);
+      File tempFile = uploadSpooler.newTempFile();
+      long finalSize;
 
-      long size = 0;
-
-      while (in.read(buffer) != -1) {
-        buffer.flip();
-        size += out.write(buffer);
-        buffer.clear();
+      try {
+        finalSize = uploadSpooler.copy(uploadedInputStream, tempFile, hasher);
+      } finally {
+        uploadedInputStream.close();
       }
 
-      final String checksum = checksumGenerator.checksumToString(digest.digest());
-      final long finalSize = size;
-
-      out.close();
-      in.close();
-
-      return new UploadInfo() {
-        @Override
-        public Long getSize() {
-          return finalSize;
-        }
-
-        @Override
-        public String getTempLocation() {
-          return tempFileLocation;
-        }
-
-        @Override
-        public String getChecksum() {
-          return checksum;
-        }
-      };
+      return newUploadInfo(tempFile.getPath(), finalSize, hasher);
     } catch (Exception e) {
       throw new RepoException(e);
     }
@@ -195,10 +306,6 @@ public class S3StoreService extends ObjectStore {
 
   @Override
   public boolean saveUploadedObject(Bucket bucket, UploadInfo uploadInfo, RepoObject repoObject) {
-    int retries = 5;
-    int tryCount = 0;
-    int waitSecond = 4;
-
     ObjectMapper m = new ObjectMapper();
     Map<String, java.lang.Object> propsObj = m.convertValue(repoObject, Map.class);
 
@@ -216,33 +323,165 @@ public class S3StoreService extends ObjectStore {
       }
     }
 
+    // the digests the policy of the bucket asks for let clients check the content they read from S3
+    for (Map.Entry<ChecksumGenerator.Algorithm, String> digest : uploadInfo.getDigests().entrySet()) {
+      if (digest.getKey() != ChecksumGenerator.Algorithm.SHA1) {
+        propsStr.put(digest.getKey().getName().toLowerCase().replace("-", ""), digest.getValue());
+      }
+    }
+
     ObjectMetadata objectMetadata = new ObjectMetadata();
-    objectMetadata.setContentLength(uploadInfo.getSize());
     objectMetadata.setUserMetadata(propsStr);
 
     File tempFile = new File(uploadInfo.getTempLocation());
 
-    PutObjectRequest putObjectRequest = new PutObjectRequest(bucket.getBucketName(), uploadInfo.getChecksum(), tempFile);
-    putObjectRequest.withCannedAcl(CannedAccessControlList.PublicRead);
-    putObjectRequest.setMetadata(objectMetadata);
+    try {
+      if (multipartThreshold > 0 && uploadInfo.getSize() >= multipartThreshold) {
+        multipartUpload(bucket.getBucketName(), uploadInfo.getChecksum(), tempFile, uploadInfo.getSize(),
+            objectMetadata);
+      } else {
+        objectMetadata.setContentLength(uploadInfo.getSize());
+
+        final PutObjectRequest putObjectRequest =
+            new PutObjectRequest(bucket.getBucketName(), uploadInfo.getChecksum(), tempFile);
+        putObjectRequest.withCannedAcl(CannedAccessControlList.PublicRead);
+        putObjectRequest.setMetadata(objectMetadata);
+
+        withRetries("putObject", new Callable<Object>() {
+          @Override
+          public Object call() {
+            return s3Client.putObject(putObjectRequest); // TODO: check result and do something about it
+          }
+        });
+      }
+
+      tempFile.delete();
+      existsCache.put(getExistsCacheKey(bucket.getBucketName(), uploadInfo.getChecksum()), Boolean.TRUE);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.error("Interrupted while uploading " + uploadInfo.getChecksum());
+      return false;
+    } catch (Exception e) {
+      log.error("Error uploading " + uploadInfo.getChecksum(), e);
+      return false;
+    }
+  }
 
-    while (tryCount < retries) {
-      try {
-        s3Client.putObject(putObjectRequest); // TODO: check result and do something about it
-        tempFile.delete();
-        return true;
-      } catch (Exception e) {
-        tryCount++;
+  /**
+   * Uploads <code>file</code> in parts of {@link #partSize} bytes, several at a time. A part that fails is retried on
+   * its own. If the upload can not be completed it is aborted, so that S3 does not keep the uploaded parts.
+   */
+  private void multipartUpload(final String bucketName, final String key, final File file, long size,
+                               ObjectMetadata objectMetadata) throws Exception {
+    final InitiateMultipartUploadRequest initiateRequest =
+        new InitiateMultipartUploadRequest(bucketName, key, objectMetadata)
+            .withCannedACL(CannedAccessControlList.PublicRead);
+
+    final String uploadId = withRetries("initiateMultipartUpload", new Callable<String>() {
+      @Override
+      public String call() {
+        return s3Client.initiateMultipartUpload(initiateRequest).getUploadId();
+      }
+    });
 
-        log.error("Error during putObject", e);
+    List<Future<PartETag>> parts = new ArrayList<>();
+
+    try {
+      int partNumber = 1;
+      for (long offset = 0; offset < size; offset += partSize, partNumber++) {
+        final UploadPartRequest partRequest = new UploadPartRequest()
+            .withBucketName(bucketName).withKey(key).withUploadId(uploadId)
+            .withPartNumber(partNumber)
+            .withFile(file).withFileOffset(offset)
+            .withPartSize(Math.min(partSize, size - offset));
+
+        parts.add(uploadExecutor.submit(new Callable<PartETag>() {
+          @Override
+          public PartETag call() throws Exception {
+            return withRetries("uploadPart " + partRequest.getPartNumber(), new Callable<PartETag>() {
+              @Override
+              public PartETag call() {
+                return s3Client.uploadPart(partRequest).getPartETag();
+              }
+            });
+          }
+        }));
+      }
 
+      List<PartETag> partETags = new ArrayList<>(parts.size());
+      for (Future<PartETag> part : parts) {
         try {
-          Thread.sleep(waitSecond * 1000);
-        } catch (Exception e2) {
+          partETags.add(part.get());
+        } catch (ExecutionException e) {
+          throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
         }
       }
+
+      final CompleteMultipartUploadRequest completeRequest =
+          new CompleteMultipartUploadRequest(bucketName, key, uploadId, partETags);
+
+      withRetries("completeMultipartUpload", new Callable<Object>() {
+        @Override
+        public Object call() {
+          return s3Client.completeMultipartUpload(completeRequest);
+        }
+      });
+    } catch (Exception e) {
+      for (Future<PartETag> part : parts) {
+        part.cancel(true);
+      }
+      abortMultipartUpload(bucketName, key, uploadId);
+      throw e;
+    }
+  }
+
+  private void abortMultipartUpload(String bucketName, String key, String uploadId) {
+    try {
+      s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+    } catch (Exception e) {
+      log.error("Error aborting multipart upload " + uploadId + " of " + key, e);
+    }
+  }
+
+  /**
+   * Sends a request until it succeeds or {@link #maxAttempts} attempts failed, waiting for an exponential backoff with
+   * jitter between attempts. Only the failures that a later attempt may not meet are retried, see {@link
+   * #isRetryable}; the others are thrown right away.
+   */
+  private <T> T withRetries(String operation, Callable<T> request) throws Exception {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return request.call();
+      } catch (AmazonClientException e) {
+        if (attempt >= maxAttempts || !isRetryable(e)) {
+          throw e;
+        }
+
+        log.warn("Error during " + operation + ", attempt " + attempt + " of " + maxAttempts, e);
+        backoff.sleep(attempt - 1);
+      }
     }
+  }
 
+  /**
+   * @return whether a request that failed with <code>e</code> may succeed if sent again: S3 answered with a server
+   * error (5xx), or asked the client to slow down or to send the request sooner, or the request did not get an answer
+   * because of an I/O failure. Other client errors (4xx), such as a missing bucket or a denied access, are final.
+   */
+  static boolean isRetryable(AmazonClientException e) {
+    if (e instanceof AmazonServiceException) {
+      AmazonServiceException serviceException = (AmazonServiceException) e;
+
+      return serviceException.getStatusCode() >= 500 || serviceException.getStatusCode() == STATUS_TOO_MANY_REQUESTS
+          || RETRYABLE_ERROR_CODES.contains(serviceException.getErrorCode());
+    }
+
+    for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+      if (cause instanceof IOException) {
+        return true;
+      }
+    }
     return false;
   }
 
@@ -253,6 +492,8 @@ public class S3StoreService extends ObjectStore {
 
   @Override
   public boolean deleteObject(RepoObject repoObject) {
+    existsCache.invalidate(getExistsCacheKey(repoObject.getBucketName(), repoObject.getChecksum()));
+
     try {
       s3Client.deleteObject(repoObject.getBucketName(), repoObject.getChecksum());
       return true;
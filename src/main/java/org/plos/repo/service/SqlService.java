@@ -28,12 +28,14 @@ import org.plos.repo.models.Operation;
 import org.plos.repo.models.RepoCollection;
 import org.plos.repo.models.RepoObject;
 import org.plos.repo.models.Status;
+import org.plos.repo.models.input.ElementFilter;
 import org.plos.repo.util.UUIDFormatter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Required;
 
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -41,7 +43,11 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
 
 public abstract class SqlService {
@@ -52,6 +58,19 @@ public abstract class SqlService {
 
   private static final ThreadLocal<Connection> connectionLocal = new ThreadLocal<>();
 
+  // routes the reads of getReplicaConnection, or null to read from the primary
+  private volatile ReplicaRouter replicaRouter;
+
+  // rows fetched at once by queries whose results are streamed
+  private static final int STREAMING_FETCH_SIZE = 500;
+
+  /**
+   * Receives the rows of a streamed query one at a time, while its result set is open.
+   */
+  public static interface RowHandler<T> {
+    void handle(T row) throws IOException, RepoException;
+  }
+
   private static final String OBJECT_KEY_COLUMN = "OBJKEY";
   private static final String COLLECTION_KEY_COLUMN = "COLLKEY";
   private static final String BUCKET_ID_COLUMN = "BUCKETID";
@@ -82,6 +101,112 @@ public abstract class SqlService {
       + ", c." + TAG_COLUMN + ", c." + VERSION_NUMBER_COLUMN + ", c." + CREATION_DATE_COLUMN
       + ", c." + USER_METADATA_COLUMN + ", c." + UUID_COLUMN;
 
+  private static final String AUDIT_COLUMNS = ID_COLUMN + ", " + BUCKET_NAME_COLUMN + ", " + KEY_VALUE_COLUMN + ", "
+      + OPERATION_COLUMN + ", " + UUID_COLUMN + ", " + TIMESTAMP_COLUMN;
+
+  private static final String BUCKET_COLUMNS = BUCKET_ID_COLUMN + ", " + BUCKET_NAME_COLUMN + ", " + TIMESTAMP_COLUMN
+      + ", " + CREATION_DATE_COLUMN;
+
+  // positions of the columns of the rows read by the mappers, which select the columns above in this order, followed
+  // by the bucket name for objects and collections
+  private static final int OBJECT_KEY_INDEX = 1;
+  private static final int OBJECT_BUCKET_ID_INDEX = 2;
+  private static final int OBJECT_STATUS_INDEX = 3;
+  private static final int OBJECT_ID_INDEX = 4;
+  private static final int OBJECT_CHECKSUM_INDEX = 5;
+  private static final int OBJECT_TIMESTAMP_INDEX = 6;
+  private static final int OBJECT_DOWNLOAD_NAME_INDEX = 7;
+  private static final int OBJECT_CONTENT_TYPE_INDEX = 8;
+  private static final int OBJECT_SIZE_INDEX = 9;
+  private static final int OBJECT_TAG_INDEX = 10;
+  private static final int OBJECT_VERSION_NUMBER_INDEX = 11;
+  private static final int OBJECT_CREATION_DATE_INDEX = 12;
+  private static final int OBJECT_USER_METADATA_INDEX = 13;
+  private static final int OBJECT_UUID_INDEX = 14;
+  private static final int OBJECT_BUCKET_NAME_INDEX = 15;
+
+  private static final int COLLECTION_KEY_INDEX = 1;
+  private static final int COLLECTION_BUCKET_ID_INDEX = 2;
+  private static final int COLLECTION_STATUS_INDEX = 3;
+  private static final int COLLECTION_ID_INDEX = 4;
+  private static final int COLLECTION_TIMESTAMP_INDEX = 5;
+  private static final int COLLECTION_TAG_INDEX = 6;
+  private static final int COLLECTION_VERSION_NUMBER_INDEX = 7;
+  private static final int COLLECTION_CREATION_DATE_INDEX = 8;
+  private static final int COLLECTION_USER_METADATA_INDEX = 9;
+  private static final int COLLECTION_UUID_INDEX = 10;
+  private static final int COLLECTION_BUCKET_NAME_INDEX = 11;
+
+  private static final int AUDIT_ID_INDEX = 1;
+  private static final int AUDIT_BUCKET_NAME_INDEX = 2;
+  private static final int AUDIT_KEY_VALUE_INDEX = 3;
+  private static final int AUDIT_OPERATION_INDEX = 4;
+  private static final int AUDIT_UUID_INDEX = 5;
+  private static final int AUDIT_TIMESTAMP_INDEX = 6;
+
+  private static final int BUCKET_ID_INDEX = 1;
+  private static final int BUCKET_NAME_INDEX = 2;
+  private static final int BUCKET_TIMESTAMP_INDEX = 3;
+  private static final int BUCKET_CREATION_DATE_INDEX = 4;
+
+  // the statements with optional conditions, whose variants are built once
+
+  private static final QueryTemplate MARK_OBJECT = new QueryTemplate(
+      "UPDATE objects SET status=? WHERE objKey=? AND bucketId=?", "",
+      " AND versionNumber=?", " AND uuid = ?", " AND tag=?");
+
+  private static final QueryTemplate GET_OBJECT = new QueryTemplate(
+      "SELECT " + OBJECT_COLUMNS + ", b.BUCKETNAME FROM objects obj, buckets b " +
+          "WHERE obj.bucketId = b.bucketId AND b.bucketName=? AND obj.objKey=?",
+      " ORDER BY obj.creationDate DESC LIMIT 1",
+      " AND versionNumber=?", " AND uuid = ?", " AND tag=?", " AND status=?", " AND status in (?,?)");
+
+  private static final QueryTemplate OBJECT_COUNT = new QueryTemplate(
+      "SELECT COUNT(*) FROM objects a, buckets b WHERE a.bucketId = b.bucketId", "",
+      " AND a.status=?", " AND bucketName=?");
+
+  // the object list filters come first, see setObjectListFilters
+  private static final String[] OBJECT_LIST_FILTERS = {" AND status=?", " AND status in(?,?)", " AND bucketName=?",
+      " AND TAG=?"};
+
+  private static final QueryTemplate LIST_OBJECTS = new QueryTemplate(
+      "SELECT " + OBJECT_COLUMNS + ", b.BUCKETNAME FROM objects as obj, buckets as b WHERE obj.bucketId = b.bucketId",
+      "", concat(OBJECT_LIST_FILTERS, " LIMIT ?", " OFFSET ?"));
+
+  private static final QueryTemplate LIST_OBJECTS_AFTER = new QueryTemplate(
+      "SELECT " + OBJECT_COLUMNS + ", b.BUCKETNAME FROM objects as obj, buckets as b WHERE obj.bucketId = b.bucketId",
+      " AND obj.id > ? ORDER BY obj.id LIMIT ?", concat(OBJECT_LIST_FILTERS, " AND obj.id <= ?"));
+
+  private static final QueryTemplate OBJECT_PAGE_END = new QueryTemplate(
+      "SELECT obj.id FROM objects as obj, buckets as b WHERE obj.bucketId = b.bucketId",
+      " AND obj.id > ? ORDER BY obj.id LIMIT 1 OFFSET ?", OBJECT_LIST_FILTERS);
+
+  private static final QueryTemplate LIST_COLLECTIONS = new QueryTemplate(
+      "SELECT " + COLLECTION_COLUMNS + ", b.BUCKETNAME FROM collections c, buckets b WHERE c.bucketId = b.bucketId", "",
+      " AND status=?", " AND bucketName=?", " AND TAG=?", " AND c.id > ? ORDER BY c.id", " LIMIT ?", " OFFSET ?");
+
+  private static final QueryTemplate GET_COLLECTION = new QueryTemplate(
+      "SELECT " + COLLECTION_COLUMNS + ", b.BUCKETNAME FROM collections c, buckets b " +
+          "WHERE c.bucketId = b.bucketId AND b.bucketName=? AND collKey=? ",
+      " ORDER BY c.creationDate DESC LIMIT 1",
+      " AND versionNumber=?", " AND uuid= ?", " AND tag=?");
+
+  private static final QueryTemplate MARK_COLLECTION_DELETED = new QueryTemplate(
+      "UPDATE collections SET status=? WHERE collKey=? AND bucketId=?", "",
+      " AND versionNumber=?", " AND uuid= ?", " AND tag=?");
+
+  private static final QueryTemplate LIST_AUDIT = QueryTemplate.where("SELECT " + AUDIT_COLUMNS + " FROM audit", "",
+      "bucketName = ?", "keyValue = ?", "operation = ?", "uuid = ?", "timestamp >= ?");
+
+  private static final String INSERT_OBJECT = "INSERT INTO objects (objKey, checksum, timestamp, bucketId, contentType, " +
+      "downloadName, size, tag, versionNumber, status, creationDate, userMetadata, uuid) " +
+      "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
+  private static final String INSERT_AUDIT = "INSERT INTO audit (bucketName, keyValue, operation, uuid) VALUES (?,?,?,?)";
+
+  private static final String INSERT_OUTBOX_AUDIT =
+      "INSERT INTO auditOutbox (bucketName, keyValue, operation, uuid) VALUES (?,?,?,?)";
+
   @Required
   public void setDataSource(DataSource dataSource) throws SQLException {
     this.dataSource = dataSource;
@@ -90,51 +215,72 @@ public abstract class SqlService {
 
   public abstract void postDbInit() throws SQLException;
 
+  public void setReplicaRouter(ReplicaRouter replicaRouter) {
+    this.replicaRouter = replicaRouter;
+  }
+
+  /**
+   * Measures how far a replica is behind its primary.
+   *
+   * @param connection a connection to the replica
+   * @return the replication lag in milliseconds, or null if the replica is not replicating
+   * @throws SQLException
+   */
+  public abstract Long getReplicationLagMillis(Connection connection) throws SQLException;
+
+  private static String[] concat(String[] first, String... second) {
+    String[] all = Arrays.copyOf(first, first.length + second.length);
+    System.arraycopy(second, 0, all, first.length, second.length);
+    return all;
+  }
+
   private static RepoObject mapObjectRow(ResultSet rs) throws SQLException, RepoException {
-    RepoObject repoObject = new RepoObject(rs.getString(OBJECT_KEY_COLUMN), rs.getInt(BUCKET_ID_COLUMN),
-        rs.getString(BUCKET_NAME_COLUMN), Status.STATUS_VALUES.get(rs.getInt(STATUS_COLUMN)));
-    repoObject.setId(rs.getInt(ID_COLUMN));
-    repoObject.setChecksum(rs.getString(CHECKSUM_COLUMN));
-    repoObject.setTimestamp(rs.getTimestamp(TIMESTAMP_COLUMN));
-    repoObject.setDownloadName(rs.getString(DOWNLOAD_NAME_COLUMN));
-    repoObject.setContentType(rs.getString(CONTENT_TYPE_COLUMN));
-    repoObject.setSize(rs.getLong(SIZE_COLUMN));
-    repoObject.setTag(rs.getString(TAG_COLUMN));
-    repoObject.setVersionNumber(rs.getInt(VERSION_NUMBER_COLUMN));
-    repoObject.setCreationDate(rs.getTimestamp(CREATION_DATE_COLUMN));
-    repoObject.setUserMetadata(rs.getString(USER_METADATA_COLUMN));
-    repoObject.setUuid(UUIDFormatter.getUuid(rs.getString(UUID_COLUMN)));
+    RepoObject repoObject = new RepoObject(rs.getString(OBJECT_KEY_INDEX), rs.getInt(OBJECT_BUCKET_ID_INDEX),
+        rs.getString(OBJECT_BUCKET_NAME_INDEX), Status.STATUS_VALUES.get(rs.getInt(OBJECT_STATUS_INDEX)));
+    repoObject.setId(rs.getInt(OBJECT_ID_INDEX));
+    repoObject.setChecksum(rs.getString(OBJECT_CHECKSUM_INDEX));
+    repoObject.setTimestamp(rs.getTimestamp(OBJECT_TIMESTAMP_INDEX));
+    repoObject.setDownloadName(rs.getString(OBJECT_DOWNLOAD_NAME_INDEX));
+    repoObject.setContentType(rs.getString(OBJECT_CONTENT_TYPE_INDEX));
+    repoObject.setSize(rs.getLong(OBJECT_SIZE_INDEX));
+    repoObject.setTag(rs.getString(OBJECT_TAG_INDEX));
+    repoObject.setVersionNumber(rs.getInt(OBJECT_VERSION_NUMBER_INDEX));
+    repoObject.setCreationDate(rs.getTimestamp(OBJECT_CREATION_DATE_INDEX));
+    repoObject.setUserMetadata(rs.getString(OBJECT_USER_METADATA_INDEX));
+    repoObject.setUuid(UUIDFormatter.getUuid(rs.getString(OBJECT_UUID_INDEX)));
 
     return repoObject;
   }
 
   private static RepoCollection mapCollectionRow(ResultSet rs) throws SQLException, RepoException {
-    RepoCollection collection = new RepoCollection(rs.getString(COLLECTION_KEY_COLUMN), rs.getInt(BUCKET_ID_COLUMN),
-        rs.getString(BUCKET_NAME_COLUMN), Status.STATUS_VALUES.get(rs.getInt(STATUS_COLUMN)));
-    collection.setId(rs.getInt(ID_COLUMN));
-    collection.setTimestamp(rs.getTimestamp(TIMESTAMP_COLUMN));
-    collection.setVersionNumber(rs.getInt(VERSION_NUMBER_COLUMN));
-    collection.setTag(rs.getString(TAG_COLUMN));
-    collection.setCreationDate(rs.getTimestamp(CREATION_DATE_COLUMN));
-    collection.setUserMetadata(rs.getString(USER_METADATA_COLUMN));
-    collection.setUuid(UUIDFormatter.getUuid(rs.getString(UUID_COLUMN)));
+    RepoCollection collection = new RepoCollection(rs.getString(COLLECTION_KEY_INDEX),
+        rs.getInt(COLLECTION_BUCKET_ID_INDEX), rs.getString(COLLECTION_BUCKET_NAME_INDEX),
+        Status.STATUS_VALUES.get(rs.getInt(COLLECTION_STATUS_INDEX)));
+    collection.setId(rs.getInt(COLLECTION_ID_INDEX));
+    collection.setTimestamp(rs.getTimestamp(COLLECTION_TIMESTAMP_INDEX));
+    collection.setVersionNumber(rs.getInt(COLLECTION_VERSION_NUMBER_INDEX));
+    collection.setTag(rs.getString(COLLECTION_TAG_INDEX));
+    collection.setCreationDate(rs.getTimestamp(COLLECTION_CREATION_DATE_INDEX));
+    collection.setUserMetadata(rs.getString(COLLECTION_USER_METADATA_INDEX));
+    collection.setUuid(UUIDFormatter.getUuid(rs.getString(COLLECTION_UUID_INDEX)));
     return collection;
   }
 
   private static Audit mapAuditRow(ResultSet rs) throws SQLException, RepoException {
-    return new Audit.AuditBuilder(rs.getString("BUCKETNAME"), Operation.OPERATION_VALUES.get(rs.getString("OPERATION")))
-        .setKey(rs.getString("KEYVALUE"))
-        .setUuid(UUIDFormatter.getUuid(rs.getString(UUID_COLUMN)))
-        .setId(rs.getInt("ID"))
-        .setTimestamp(rs.getTimestamp("TIMESTAMP"))
+    return new Audit.AuditBuilder(rs.getString(AUDIT_BUCKET_NAME_INDEX),
+        Operation.OPERATION_VALUES.get(rs.getString(AUDIT_OPERATION_INDEX)))
+        .setKey(rs.getString(AUDIT_KEY_VALUE_INDEX))
+        .setUuid(UUIDFormatter.getUuid(rs.getString(AUDIT_UUID_INDEX)))
+        .setId(rs.getInt(AUDIT_ID_INDEX))
+        .setTimestamp(rs.getTimestamp(AUDIT_TIMESTAMP_INDEX))
         .build();
   }
 
   private static Bucket mapBucketRow(ResultSet rs) throws SQLException {
-    return new Bucket(rs.getInt(BUCKET_ID_COLUMN),
-        rs.getString(BUCKET_NAME_COLUMN),
-        rs.getTimestamp(TIMESTAMP_COLUMN),
-        rs.getTimestamp(CREATION_DATE_COLUMN));
+    return new Bucket(rs.getInt(BUCKET_ID_INDEX),
+        rs.getString(BUCKET_NAME_INDEX),
+        rs.getTimestamp(BUCKET_TIMESTAMP_INDEX),
+        rs.getTimestamp(BUCKET_CREATION_DATE_INDEX));
   }
 
   /**
@@ -161,6 +307,53 @@ public abstract class SqlService {
     connectionLocal.set(dbConnection);
   }
 
+  /**
+   * Set a read-only connection in the ThreadLocal, like {@link #getReadOnlyConnection()}, to one of the replicas chosen
+   * by the {@link ReplicaRouter}, or to the primary if no replica can be read from. The reads made with it may not see
+   * the latest writes, so it must not be used to check a write.
+   *
+   * @throws SQLException
+   */
+  public void getReplicaConnection() throws SQLException {
+    getReplicaConnection(chooseReplica());
+  }
+
+  /**
+   * @return the replica the next read-only connection should use, as chosen by the {@link ReplicaRouter}, or null for
+   * the primary. Reads that must agree with each other pass it to {@link #getReplicaConnection(DataSource)}.
+   */
+  public DataSource chooseReplica() {
+    ReplicaRouter router = replicaRouter;
+    return router == null ? null : router.choose();
+  }
+
+  /**
+   * Set a read-only connection in the ThreadLocal, like {@link #getReplicaConnection()}, to <code>replica</code>, or to
+   * the primary if it is null or can not be reached. Since the primary is never behind a replica, a read that falls
+   * back to it still sees everything an earlier read of the replica saw.
+   *
+   * @param replica a replica returned by {@link #chooseReplica()}, or null
+   * @throws SQLException
+   */
+  public void getReplicaConnection(DataSource replica) throws SQLException {
+    ReplicaRouter router = replicaRouter;
+
+    if (replica != null && router != null) {
+      try {
+        Connection dbConnection = replica.getConnection();
+        dbConnection.setAutoCommit(true);
+        dbConnection.setReadOnly(true);
+        connectionLocal.set(dbConnection);
+        return;
+      } catch (SQLException e) {
+        log.warn("Reading from the primary, the replica connection failed", e);
+        router.failed(replica, e);
+      }
+    }
+
+    getReadOnlyConnection();
+  }
+
   public void releaseConnection() throws SQLException {
     Connection dbConnection = connectionLocal.get();
 
@@ -181,7 +374,8 @@ public abstract class SqlService {
   }
 
   public Bucket getBucket(String bucketName) throws SQLException {
-    try (PreparedStatement p = connectionLocal.get().prepareStatement("SELECT * FROM buckets WHERE bucketName=?")) {
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(
+        "SELECT " + BUCKET_COLUMNS + " FROM buckets WHERE bucketName=?")) {
       p.setString(1, bucketName);
 
       try (ResultSet result = p.executeQuery()) {
@@ -217,20 +411,9 @@ public abstract class SqlService {
       return 0;
     }
 
-    StringBuilder query = new StringBuilder();
-    query.append("UPDATE objects SET status=? WHERE objKey=? AND bucketId=?");
-
-    if (version != null) {
-      query.append(" AND versionNumber=?");
-    }
-    if (uuid != null) {
-      query.append(" AND uuid = ?");
-    }
-    if (tag != null) {
-      query.append(" AND tag=?");
-    }
+    String query = MARK_OBJECT.get(version != null, uuid != null, tag != null);
 
-    try (PreparedStatement p = connectionLocal.get().prepareStatement(query.toString())) {
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(query)) {
       p.setInt(1, status.getValue());
       p.setString(2, key);
       p.setInt(3, bucket.getBucketId());
@@ -250,33 +433,140 @@ public abstract class SqlService {
     }
   }
 
-  private Integer getNextAvailableVersionNumber(String bucketName, String key, String tableName, String keyName) throws SQLException {
-    String query = "SELECT versionNumber FROM  "
-        + tableName
-        + " a, buckets b WHERE a.bucketId = b.bucketId AND b.bucketName=? AND "
-        + keyName
-        + "=? ORDER BY versionNumber DESC LIMIT 1";
+  /**
+   * Reserve the next version number of each of the given keys from the version counters of their table. The counter
+   * of a key is bumped in place, so that the number is found without sorting the versions of the key, and the row lock
+   * taken by the bump makes concurrent writers of the key wait for each other until the transaction ends. A rolled back
+   * transaction gives its numbers back. A key without a counter, because it is new or was never backfilled, gets one
+   * that starts after its highest version.
+   * <p/>
+   * The database may compare keys ignoring their case, as MySQL does by default, so the rows it returns are matched
+   * to the given keys ignoring case as well.
+   *
+   * @return the reserved version number of each key, 0 for a key that was never used, looked up ignoring case
+   */
+  private Map<String, Integer> reserveVersionNumbers(String bucketName, List<String> keys, String tableName,
+                                                     String keyName, String counterTableName) throws SQLException {
+    Map<String, Integer> versions = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
 
-    try (PreparedStatement p = connectionLocal.get().prepareStatement(query)) {
-      p.setString(1, bucketName);
-      p.setString(2, key);
+    if (keys.isEmpty()) {
+      return versions;
+    }
+
+    Bucket bucket = getBucket(bucketName);
+
+    if (bucket == null) {
+      for (String key : keys) {
+        versions.put(key, 0);
+      }
+      return versions;
+    }
+
+    try (PreparedStatement p = connectionLocal.get().prepareStatement("UPDATE " + counterTableName
+        + " SET nextVersion = nextVersion + 1 WHERE bucketId=? AND " + keyName + "=?")) {
+      for (String key : keys) {
+        p.setInt(1, bucket.getBucketId());
+        p.setString(2, key);
+        p.addBatch();
+      }
+      p.executeBatch();
+    }
+
+    try (PreparedStatement p = connectionLocal.get().prepareStatement("SELECT " + keyName + ", nextVersion FROM "
+        + counterTableName + " WHERE bucketId=? AND " + keyName + " IN (" + getParameterList(keys.size()) + ")")) {
+      int i = 1;
+      p.setInt(i++, bucket.getBucketId());
+      for (String key : keys) {
+        p.setString(i++, key);
+      }
 
       try (ResultSet result = p.executeQuery()) {
-        if (result.next()) {
-          return result.getInt("versionNumber") + 1;
-        } else {
-          return 0;
+        while (result.next()) {
+          versions.put(result.getString(1), result.getInt(2) - 1);
+        }
+      }
+    }
+
+    List<String> newKeys = new ArrayList<>();
+    for (String key : keys) {
+      if (!versions.containsKey(key)) {
+        newKeys.add(key);
+      }
+    }
+
+    if (newKeys.isEmpty()) {
+      return versions;
+    }
+
+    // the highest version is found through the keyVersion unique index
+    try (PreparedStatement p = connectionLocal.get().prepareStatement("SELECT " + keyName + ", MAX(versionNumber) FROM "
+        + tableName + " WHERE bucketId=? AND " + keyName + " IN (" + getParameterList(newKeys.size()) + ") GROUP BY "
+        + keyName)) {
+      int i = 1;
+      p.setInt(i++, bucket.getBucketId());
+      for (String key : newKeys) {
+        p.setString(i++, key);
+      }
+
+      try (ResultSet result = p.executeQuery()) {
+        while (result.next()) {
+          versions.put(result.getString(1), result.getInt(2) + 1);
         }
       }
     }
+
+    // should another node create the counter of a key meanwhile, its primary key fails the transaction
+    try (PreparedStatement p = connectionLocal.get().prepareStatement("INSERT INTO " + counterTableName
+        + " (bucketId, " + keyName + ", nextVersion) VALUES (?,?,?)")) {
+      for (String key : newKeys) {
+        if (!versions.containsKey(key)) {
+          versions.put(key, 0);
+        }
+
+        p.setInt(1, bucket.getBucketId());
+        p.setString(2, key);
+        p.setInt(3, versions.get(key) + 1);
+        p.addBatch();
+      }
+      p.executeBatch();
+    }
+
+    return versions;
+  }
+
+  private static String getParameterList(int count) {
+    StringBuilder parameters = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      parameters.append(i == 0 ? "?" : ",?");
+    }
+    return parameters.toString();
   }
 
+  /**
+   * Reserve the next version number of a collection key. See {@link #reserveVersionNumbers}.
+   */
   public Integer getCollectionNextAvailableVersion(String bucketName, String key) throws SQLException {
-    return getNextAvailableVersionNumber(bucketName, key, "collections", "collKey");
+    return reserveVersionNumbers(bucketName, Collections.singletonList(key), "collections", "collKey",
+        "collectionVersionCounters").get(key);
   }
 
+  /**
+   * Reserve the next version number of an object key. See {@link #reserveVersionNumbers}.
+   */
   public Integer getObjectNextAvailableVersion(String bucketName, String key) throws SQLException {
-    return getNextAvailableVersionNumber(bucketName, key, "objects", "objKey");
+    return reserveVersionNumbers(bucketName, Collections.singletonList(key), "objects", "objKey",
+        "objectVersionCounters").get(key);
+  }
+
+  /**
+   * Reserve the next version number of each of the given object keys with a few batch statements. See
+   * {@link #reserveVersionNumbers}.
+   *
+   * @return the next version number of each key; keys that were never used are mapped to 0
+   */
+  public Map<String, Integer> getObjectNextAvailableVersions(String bucketName, List<String> keys)
+      throws SQLException {
+    return reserveVersionNumbers(bucketName, keys, "objects", "objKey", "objectVersionCounters");
   }
 
   public RepoObject getObject(String bucketName, String key) throws SQLException, RepoException {
@@ -305,23 +595,9 @@ public abstract class SqlService {
   }
 
   public RepoObject getObject(String bucketName, String key, Integer version, UUID uuid, String tag) throws SQLException, RepoException {
-    StringBuilder query = new StringBuilder();
-    query.append("SELECT ").append(OBJECT_COLUMNS).append(", b.BUCKETNAME FROM objects obj, buckets b ")
-        .append("WHERE obj.bucketId = b.bucketId AND b.bucketName=? AND obj.objKey=?");
+    String query = GET_OBJECT.get(version != null, uuid != null, tag != null, false, false);
 
-    if (version != null) {
-      query.append(" AND versionNumber=?");
-    }
-    if (uuid != null) {
-      query.append(" AND uuid = ?");
-    }
-    if (tag != null) {
-      query.append(" AND tag=?");
-    }
-
-    query.append(" ORDER BY obj.creationDate DESC LIMIT 1");
-
-    try (PreparedStatement p = connectionLocal.get().prepareStatement(query.toString())) {
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(query)) {
       p.setString(1, bucketName);
       p.setString(2, key);
 
@@ -353,32 +629,151 @@ public abstract class SqlService {
     }
   }
 
-  public RepoObject getObject(String bucketName, String key, Integer version, UUID uuid,
-                              String tag, boolean searchInDeleted, boolean searchInPurged) throws SQLException, RepoException {
+  /**
+   * The fetch size of the queries whose results are streamed. Drivers that only stream results on request override
+   * it.
+   */
+  protected int getStreamingFetchSize() {
+    return STREAMING_FETCH_SIZE;
+  }
+
+  /**
+   * List the distinct keys of the bucket that have at least one used version.
+   */
+  public List<String> listObjectKeys(String bucketName) throws SQLException {
+    List<String> keys = new ArrayList<>();
+
+    try (PreparedStatement p = connectionLocal.get().prepareStatement("SELECT DISTINCT obj.objKey FROM objects obj, " +
+        "buckets b WHERE obj.bucketId = b.bucketId AND b.bucketName=? AND obj.status=?")) {
+      p.setString(1, bucketName);
+      p.setInt(2, Status.USED.getValue());
+
+      try (ResultSet result = p.executeQuery()) {
+        while (result.next()) {
+          keys.add(result.getString(1));
+        }
+      }
+    }
+
+    return keys;
+  }
+
+  /**
+   * Fetch the latest used version of each of the given keys with a single query.
+   *
+   * @return the objects found, ordered by key; keys with no used version are left out
+   */
+  public List<RepoObject> getLatestObjects(String bucketName, List<String> keys) throws SQLException, RepoException {
+    List<RepoObject> repoObjects = new ArrayList<>();
+
+    if (keys.isEmpty()) {
+      return repoObjects;
+    }
+
     StringBuilder query = new StringBuilder();
     query.append("SELECT ").append(OBJECT_COLUMNS).append(", b.BUCKETNAME FROM objects obj, buckets b ")
-        .append("WHERE obj.bucketId = b.bucketId AND b.bucketName=? AND obj.objKey=?");
+        .append("WHERE obj.bucketId = b.bucketId AND b.bucketName=? AND obj.status=? AND obj.objKey IN (");
 
-    if (version != null) {
-      query.append(" AND versionNumber=?");
-    }
-    if (uuid != null) {
-      query.append(" AND uuid = ?");
+    for (int i = 0; i < keys.size(); i++) {
+      query.append(i == 0 ? "?" : ",?");
     }
-    if (tag != null) {
-      query.append(" AND tag=?");
+
+    query.append(") AND obj.creationDate = (SELECT MAX(o2.creationDate) FROM objects o2 ")
+        .append("WHERE o2.bucketId = obj.bucketId AND o2.objKey = obj.objKey AND o2.status=?) ")
+        .append("ORDER BY obj.objKey, obj.id DESC");
+
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(query.toString())) {
+      int i = 1;
+      p.setString(i++, bucketName);
+      p.setInt(i++, Status.USED.getValue());
+      for (String key : keys) {
+        p.setString(i++, key);
+      }
+      p.setInt(i, Status.USED.getValue());
+
+      try (ResultSet result = p.executeQuery()) {
+        while (result.next()) {
+          repoObjects.add(mapObjectRow(result));
+        }
+      }
     }
-    if (!searchInDeleted && !searchInPurged) {
-      query.append(" AND status=?");
+
+    return repoObjects;
+  }
+
+  /**
+   * Fetch, with a single query, every version that matches at least one of the given lookups. The lookup at index
+   * <code>i</code> is <code>keys.get(i)</code> narrowed by the non null fields of <code>filters.get(i)</code>. Deleted
+   * and purged versions are returned as well, so the caller can tell whether the latest match is still in use.
+   *
+   * @return the matching versions of all lookups, newest first
+   */
+  public List<RepoObject> getObjects(String bucketName, List<String> keys, List<ElementFilter> filters)
+      throws SQLException, RepoException {
+    List<RepoObject> repoObjects = new ArrayList<>();
+
+    if (keys.isEmpty()) {
+      return repoObjects;
     }
-    if ((!searchInDeleted && searchInPurged) || (searchInDeleted && !searchInPurged)) {
-      query.append(" AND status in (?,?)");
+
+    StringBuilder query = new StringBuilder();
+    query.append("SELECT ").append(OBJECT_COLUMNS).append(", b.BUCKETNAME FROM objects obj, buckets b ")
+        .append("WHERE obj.bucketId = b.bucketId AND b.bucketName=? AND (");
+
+    for (int i = 0; i < keys.size(); i++) {
+      ElementFilter filter = filters.get(i);
+
+      query.append(i == 0 ? "(" : " OR (").append("obj.objKey=?");
+      if (filter.getVersion() != null) {
+        query.append(" AND obj.versionNumber=?");
+      }
+      if (filter.getUuid() != null) {
+        query.append(" AND obj.uuid=?");
+      }
+      if (filter.getTag() != null) {
+        query.append(" AND obj.tag=?");
+      }
+      query.append(")");
     }
 
-    query.append(" ORDER BY obj.creationDate DESC LIMIT 1");
+    query.append(") ORDER BY obj.creationDate DESC");
 
     try (PreparedStatement p = connectionLocal.get().prepareStatement(query.toString())) {
       p.setString(1, bucketName);
+
+      int i = 2;
+      for (int j = 0; j < keys.size(); j++) {
+        ElementFilter filter = filters.get(j);
+
+        p.setString(i++, keys.get(j));
+        if (filter.getVersion() != null) {
+          p.setInt(i++, filter.getVersion());
+        }
+        if (filter.getUuid() != null) {
+          p.setString(i++, UUIDFormatter.getUuid(filter.getUuid()).toString());
+        }
+        if (filter.getTag() != null) {
+          p.setString(i++, filter.getTag());
+        }
+      }
+
+      try (ResultSet result = p.executeQuery()) {
+        while (result.next()) {
+          repoObjects.add(mapObjectRow(result));
+        }
+      }
+    }
+
+    return repoObjects;
+  }
+
+  public RepoObject getObject(String bucketName, String key, Integer version, UUID uuid,
+                              String tag, boolean searchInDeleted, boolean searchInPurged) throws SQLException, RepoException {
+    String query = GET_OBJECT.get(version != null, uuid != null, tag != null,
+        !searchInDeleted && !searchInPurged, searchInDeleted != searchInPurged);
+
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(query)) {
+      p.setString(1, bucketName);
       p.setString(2, key);
 
       int i = 3;
@@ -415,37 +810,63 @@ public abstract class SqlService {
   public int insertObject(RepoObject repoObject) throws SQLException {
     // TODO: return object or objectid from this function?
 
-    try (PreparedStatement p = connectionLocal.get().prepareStatement("INSERT INTO objects (objKey, checksum, timestamp, bucketId, contentType, downloadName, size, " +
-        "tag, versionNumber, status, creationDate, userMetadata, uuid) " +
-        "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?)")) {
-      p.setString(1, repoObject.getKey());
-      p.setString(2, repoObject.getChecksum());
-      p.setTimestamp(3, repoObject.getTimestamp());
-      p.setInt(4, repoObject.getBucketId());
-      p.setString(5, repoObject.getContentType());
-      p.setString(6, repoObject.getDownloadName());
-      p.setLong(7, repoObject.getSize());
-      p.setString(8, repoObject.getTag());
-      p.setInt(9, repoObject.getVersionNumber());
-      p.setInt(10, repoObject.getStatus().getValue());
-      p.setTimestamp(11, repoObject.getTimestamp());
-      p.setString(12, repoObject.getUserMetadata());
-      p.setString(13, repoObject.getUuid().toString());
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(INSERT_OBJECT)) {
+      setObjectParameters(p, repoObject);
 
       return p.executeUpdate();
     }
   }
 
-  public Integer objectCount(boolean includeDeleted, String bucketName) throws SQLException {
-    StringBuilder q = new StringBuilder("SELECT COUNT(*) FROM objects a, buckets b WHERE a.bucketId = b.bucketId");
-    if (!includeDeleted) {
-      q.append(" AND a.status=?");
+  /**
+   * Insert the given objects with a single batch statement.
+   *
+   * @return true if every object was inserted
+   * @throws SQLException
+   */
+  public boolean insertObjects(List<RepoObject> repoObjects) throws SQLException {
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(INSERT_OBJECT)) {
+      for (RepoObject repoObject : repoObjects) {
+        setObjectParameters(p, repoObject);
+        p.addBatch();
+      }
+
+      return isBatchApplied(p.executeBatch());
     }
-    if (bucketName != null) {
-      q.append(" AND bucketName=?");
+  }
+
+  private static void setObjectParameters(PreparedStatement p, RepoObject repoObject) throws SQLException {
+    p.setString(1, repoObject.getKey());
+    p.setString(2, repoObject.getChecksum());
+    p.setTimestamp(3, repoObject.getTimestamp());
+    p.setInt(4, repoObject.getBucketId());
+    p.setString(5, repoObject.getContentType());
+    p.setString(6, repoObject.getDownloadName());
+    p.setLong(7, repoObject.getSize());
+    p.setString(8, repoObject.getTag());
+    p.setInt(9, repoObject.getVersionNumber());
+    p.setInt(10, repoObject.getStatus().getValue());
+    p.setTimestamp(11, repoObject.getTimestamp());
+    p.setString(12, repoObject.getUserMetadata());
+    p.setString(13, repoObject.getUuid().toString());
+  }
+
+  /**
+   * @return true unless a statement of the batch failed or changed no row. Drivers that do not count the rows of a
+   * batch statement report {@link Statement#SUCCESS_NO_INFO} instead.
+   */
+  private static boolean isBatchApplied(int[] updateCounts) {
+    for (int updateCount : updateCounts) {
+      if (updateCount == 0 || updateCount == Statement.EXECUTE_FAILED) {
+        return false;
+      }
     }
+    return true;
+  }
+
+  public Integer objectCount(boolean includeDeleted, String bucketName) throws SQLException {
+    String q = OBJECT_COUNT.get(!includeDeleted, bucketName != null);
 
-    try (PreparedStatement p = connectionLocal.get().prepareStatement(q.toString())) {
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(q)) {
       int index = 0;
       if (!includeDeleted) {
         p.setInt(++index, Status.USED.getValue());
@@ -484,7 +905,7 @@ public abstract class SqlService {
   public List<Bucket> listBuckets() throws SQLException {
     List<Bucket> buckets = new ArrayList<>();
 
-    try (PreparedStatement p = connectionLocal.get().prepareStatement("SELECT * FROM buckets")) {
+    try (PreparedStatement p = connectionLocal.get().prepareStatement("SELECT " + BUCKET_COLUMNS + " FROM buckets")) {
       try (ResultSet result = p.executeQuery()) {
         while (result.next()) {
           Bucket bucket = mapBucketRow(result);
@@ -512,61 +933,126 @@ public abstract class SqlService {
   }
 
   public List<RepoObject> listObjects(String bucketName, Integer offset, Integer limit, boolean includeDeleted, boolean includePurge, String tag) throws SQLException, RepoException {
-    List<RepoObject> repoObjects = new ArrayList<>();
+    final List<RepoObject> repoObjects = new ArrayList<>();
 
-    StringBuilder q = new StringBuilder();
-    q.append("SELECT ").append(OBJECT_COLUMNS).append(", b.BUCKETNAME FROM objects as obj, buckets as b ")
-        .append("WHERE obj.bucketId = b.bucketId");
-
-    if (!includeDeleted && !includePurge) {
-      q.append(" AND status=?");
-    }
-    if ((includeDeleted && !includePurge) || (!includeDeleted && includePurge)) {
-      q.append(" AND status in(?,?)");
-    }
-    if (bucketName != null) {
-      q.append(" AND bucketName=?");
-    }
-    if (tag != null) {
-      q.append(" AND TAG=?");
-    }
-    if (limit != null) {
-      q.append(" LIMIT ").append(limit);
-    }
-    if (offset != null) {
-      q.append(" OFFSET ").append(offset);
+    try {
+      listObjects(bucketName, offset, limit, includeDeleted, includePurge, tag, new RowHandler<RepoObject>() {
+        @Override
+        public void handle(RepoObject row) {
+          repoObjects.add(row);
+        }
+      });
+    } catch (IOException e) {
+      throw new RepoException(e);
     }
-    try (PreparedStatement p = connectionLocal.get().prepareStatement(q.toString())) {
-      int i = 1;
 
-      if (!includeDeleted && !includePurge) {
-        p.setInt(i++, Status.USED.getValue());
-      }
-      if (includeDeleted && !includePurge) {
-        p.setInt(i++, Status.USED.getValue());
-        p.setInt(i++, Status.DELETED.getValue());
+    return repoObjects;
+  }
+
+  /**
+   * Same as {@link #listObjects(String, Integer, Integer, boolean, boolean, String)}, but hands each object to
+   * <code>handler</code> as it is read, so that the result is never held in memory.
+   */
+  public void listObjects(String bucketName, Integer offset, Integer limit, boolean includeDeleted,
+                          boolean includePurge, String tag, RowHandler<RepoObject> handler)
+      throws SQLException, IOException, RepoException {
+    String q = LIST_OBJECTS.get(!includeDeleted && !includePurge, includeDeleted != includePurge, bucketName != null,
+        tag != null, limit != null, offset != null);
+
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(q)) {
+      int i = setObjectListFilters(p, 1, bucketName, includeDeleted, includePurge, tag);
+      if (limit != null) {
+        p.setInt(i++, limit);
       }
-      if (!includeDeleted && includePurge) {
-        p.setInt(i++, Status.USED.getValue());
-        p.setInt(i++, Status.PURGED.getValue());
+      if (offset != null) {
+        p.setInt(i++, offset);
       }
 
-      if (bucketName != null) {
-        p.setString(i++, bucketName);
+      p.setFetchSize(getStreamingFetchSize());
+
+      try (ResultSet result = p.executeQuery()) {
+        while (result.next()) {
+          handler.handle(mapObjectRow(result));
+        }
       }
+    }
+  }
 
-      if (tag != null) {
-        p.setString(i++, tag);
+  /**
+   * Lists the objects that follow the object <code>afterId</code> in id order, reading them from the index instead of
+   * skipping the rows of the previous pages.
+   *
+   * @param afterId the id of the last object of the previous page, 0 for the first page
+   * @param lastId  if not null, the id of the last object of the page as found by {@link #getObjectPageEnd}. It keeps
+   *                the page from running into the next one if objects are deleted in the meantime.
+   */
+  public void listObjectsAfter(String bucketName, int afterId, Integer lastId, int limit, boolean includeDeleted,
+                               boolean includePurge, String tag, RowHandler<RepoObject> handler)
+      throws SQLException, IOException, RepoException {
+    String q = LIST_OBJECTS_AFTER.get(!includeDeleted && !includePurge, includeDeleted != includePurge,
+        bucketName != null, tag != null, lastId != null);
+
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(q)) {
+      int i = setObjectListFilters(p, 1, bucketName, includeDeleted, includePurge, tag);
+      if (lastId != null) {
+        p.setInt(i++, lastId);
       }
+      p.setInt(i++, afterId);
+      p.setInt(i++, limit);
+
+      p.setFetchSize(getStreamingFetchSize());
 
       try (ResultSet result = p.executeQuery()) {
         while (result.next()) {
-          repoObjects.add(mapObjectRow(result));
+          handler.handle(mapObjectRow(result));
         }
       }
+    }
+  }
 
-      return repoObjects;
+  /**
+   * Returns the id of the last object of a full page of <code>limit</code> objects following the object
+   * <code>afterId</code>, or null if fewer objects are left. Only the ids of the page are read.
+   */
+  public Integer getObjectPageEnd(String bucketName, int afterId, int limit, boolean includeDeleted,
+                                  boolean includePurge, String tag) throws SQLException {
+    String q = OBJECT_PAGE_END.get(!includeDeleted && !includePurge, includeDeleted != includePurge,
+        bucketName != null, tag != null);
+
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(q)) {
+      int i = setObjectListFilters(p, 1, bucketName, includeDeleted, includePurge, tag);
+      p.setInt(i++, afterId);
+      p.setInt(i++, limit - 1);
+
+      try (ResultSet result = p.executeQuery()) {
+        return result.next() ? result.getInt(1) : null;
+      }
+    }
+  }
+
+  private static int setObjectListFilters(PreparedStatement p, int i, String bucketName, boolean includeDeleted,
+                                          boolean includePurge, String tag) throws SQLException {
+    if (!includeDeleted && !includePurge) {
+      p.setInt(i++, Status.USED.getValue());
     }
+    if (includeDeleted && !includePurge) {
+      p.setInt(i++, Status.USED.getValue());
+      p.setInt(i++, Status.DELETED.getValue());
+    }
+    if (!includeDeleted && includePurge) {
+      p.setInt(i++, Status.USED.getValue());
+      p.setInt(i++, Status.PURGED.getValue());
+    }
+
+    if (bucketName != null) {
+      p.setString(i++, bucketName);
+    }
+
+    if (tag != null) {
+      p.setString(i++, tag);
+    }
+
+    return i;
   }
 
   public List<RepoObject> listObjects(Timestamp timestamp) throws SQLException, RepoException {
@@ -603,19 +1089,8 @@ public abstract class SqlService {
     List<RepoCollection> repoCollections = new ArrayList<>();
 
     try (PreparedStatement p = connectionLocal.get().prepareStatement(
-        getCollectionMetadataQuery(bucketName, offset, limit, includeDeleted, tag))) {
-      int i = 1;
-      if (!includeDeleted) {
-        p.setInt(i++, Status.USED.getValue());
-      }
-
-      if (bucketName != null) {
-        p.setString(i++, bucketName);
-      }
-
-      if (tag != null) {
-        p.setString(i++, tag);
-      }
+        getCollectionMetadataQuery(bucketName, offset, limit, includeDeleted, tag, null))) {
+      setCollectionListParameters(p, bucketName, offset, limit, includeDeleted, tag, null);
 
       try (ResultSet result = p.executeQuery()) {
         while (result.next()) {
@@ -643,19 +1118,8 @@ public abstract class SqlService {
   public List<RepoCollection> listCollectionsMetaData(String bucketName, Integer offset, Integer limit, Boolean includeDeleted, String tag) throws SQLException, RepoException {
     List<RepoCollection> repoCollections = new ArrayList<>();
 
-    try (PreparedStatement p = connectionLocal.get().prepareStatement(getCollectionMetadataQuery(bucketName, offset, limit, includeDeleted, tag))) {
-      int i = 1;
-      if (!includeDeleted) {
-        p.setInt(i++, Status.USED.getValue());
-      }
-
-      if (bucketName != null) {
-        p.setString(i++, bucketName);
-      }
-
-      if (tag != null) {
-        p.setString(i++, tag);
-      }
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(getCollectionMetadataQuery(bucketName, offset, limit, includeDeleted, tag, null))) {
+      setCollectionListParameters(p, bucketName, offset, limit, includeDeleted, tag, null);
 
       try (ResultSet result = p.executeQuery()) {
         while (result.next()) {
@@ -668,28 +1132,68 @@ public abstract class SqlService {
     }
   }
 
-  private String getCollectionMetadataQuery(String bucketName, Integer offset, Integer limit, boolean includeDeleted, String tag) {
-    StringBuilder q = new StringBuilder();
-    q.append("SELECT ").append(COLLECTION_COLUMNS).append(", b.BUCKETNAME ")
-        .append("FROM collections c, buckets b WHERE c.bucketId = b.bucketId");
+  /**
+   * Returns a list of collections meta data for the given bucket name <code>bucketName</code>, following the
+   * collection <code>afterId</code> in id order. Unlike an offset, the rows of the previous pages are not read.
+   *
+   * @param bucketName     a single String representing the bucket name where the collection is stored
+   * @param afterId        the id of the last collection of the previous page, 0 for the first page
+   * @param limit          an Integer used to determine the limit of the response
+   * @param includeDeleted a boolean used to define is the response will include delete collections or not
+   * @param tag            a single String used to filter the collections regarding the tag property
+   * @return a list of {@link org.plos.repo.models.RepoCollection}
+   * @throws SQLException
+   */
+  public List<RepoCollection> listCollectionsMetaDataAfter(String bucketName, int afterId, int limit, boolean includeDeleted, String tag) throws SQLException, RepoException {
+    List<RepoCollection> repoCollections = new ArrayList<>();
+
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(getCollectionMetadataQuery(bucketName, null, limit, includeDeleted, tag, afterId))) {
+      setCollectionListParameters(p, bucketName, null, limit, includeDeleted, tag, afterId);
 
+      try (ResultSet result = p.executeQuery()) {
+        while (result.next()) {
+          repoCollections.add(mapCollectionRow(result));
+        }
+      }
+
+      return repoCollections;
+    }
+  }
+
+  /**
+   * Sets the parameters of a collection list query, starting at the first one.
+   *
+   * @return the index of the next parameter
+   */
+  private static int setCollectionListParameters(PreparedStatement p, String bucketName, Integer offset,
+                                                 Integer limit, boolean includeDeleted, String tag, Integer afterId)
+      throws SQLException {
+    int i = 1;
     if (!includeDeleted) {
-      q.append(" AND status=?");
+      p.setInt(i++, Status.USED.getValue());
     }
     if (bucketName != null) {
-      q.append(" AND bucketName=?");
+      p.setString(i++, bucketName);
     }
     if (tag != null) {
-      q.append(" AND TAG=?");
+      p.setString(i++, tag);
+    }
+    if (afterId != null) {
+      p.setInt(i++, afterId);
     }
     if (limit != null) {
-      q.append(" LIMIT ").append(limit);
+      p.setInt(i++, limit);
     }
     if (offset != null) {
-      q.append(" OFFSET ").append(offset);
+      p.setInt(i++, offset);
     }
+    return i;
+  }
 
-    return q.toString();
+  private static String getCollectionMetadataQuery(String bucketName, Integer offset, Integer limit,
+                                                   boolean includeDeleted, String tag, Integer afterId) {
+    return LIST_COLLECTIONS.get(!includeDeleted, bucketName != null, tag != null, afterId != null, limit != null,
+        offset != null);
   }
 
   public List<RepoCollection> listCollections(Timestamp timestamp) throws SQLException, RepoException {
@@ -719,7 +1223,7 @@ public abstract class SqlService {
   private List<RepoObject> listCollectionObjects(Integer id) throws SQLException, RepoException {
     List<RepoObject> repoObjects = new ArrayList<>();
 
-    String q = " SELECT " + OBJECT_COLUMNS + ", b.*\n"
+    String q = " SELECT " + OBJECT_COLUMNS + ", b.BUCKETNAME\n"
         + "FROM objects obj, collectionObject co, buckets b\n"
         + "WHERE co.collectionId = ?\n"
         + "AND co.objectId = obj.id\n"
@@ -790,23 +1294,9 @@ public abstract class SqlService {
    * @throws SQLException
    */
   public RepoCollection getCollection(String bucketName, String key, Integer version, String tag, UUID uuid) throws SQLException, RepoException {
-    StringBuilder query = new StringBuilder();
-    query.append("SELECT ").append(COLLECTION_COLUMNS).append(", b.BUCKETNAME FROM collections c, buckets b ")
-        .append("WHERE c.bucketId = b.bucketId AND b.bucketName=? AND collKey=? ");
-
-    if (version != null) {
-      query.append(" AND versionNumber=?");
-    }
-    if (uuid != null) {
-      query.append(" AND uuid= ?");
-    }
-    if (tag != null) {
-      query.append(" AND tag=?");
-    }
+    String query = GET_COLLECTION.get(version != null, uuid != null, tag != null);
 
-    query.append(" ORDER BY c.creationDate DESC LIMIT 1");
-
-    try (PreparedStatement p = connectionLocal.get().prepareStatement(query.toString())) {
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(query)) {
       p.setString(1, bucketName);
       p.setString(2, key);
 
@@ -888,20 +1378,9 @@ public abstract class SqlService {
       return 0;
     }
 
-    StringBuilder query = new StringBuilder();
-    query.append("UPDATE collections SET status=? WHERE collKey=? AND bucketId=?");
-
-    if (versionNumber != null) {
-      query.append(" AND versionNumber=?");
-    }
-    if (uuid != null) {
-      query.append(" AND uuid= ?");
-    }
-    if (tag != null) {
-      query.append(" AND tag=?");
-    }
+    String query = MARK_COLLECTION_DELETED.get(versionNumber != null, uuid != null, tag != null);
 
-    try (PreparedStatement p = connectionLocal.get().prepareStatement(query.toString())) {
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(query)) {
       p.setInt(1, Status.DELETED.getValue());
       p.setString(2, key);
       p.setInt(3, bucket.getBucketId());
@@ -1016,6 +1495,33 @@ public abstract class SqlService {
     }
   }
 
+  /**
+   * Returns the size of the content with the given checksum, if a used or deleted object of the bucket refers to it.
+   *
+   * @param bucketName the bucket the content is stored in
+   * @param checksum   the checksum of the content
+   * @return the size of the content, or null if no used or deleted object of the bucket refers to it
+   * @throws SQLException
+   */
+  public Long getReferencedContentSize(String bucketName, String checksum) throws SQLException {
+    String q = "SELECT a.size FROM objects a, buckets b WHERE a.bucketId = b.bucketId"
+        + " AND a.status IN (?,?)"
+        + " AND bucketName=?"
+        + " AND checksum=?"
+        + " LIMIT 1";
+
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(q)) {
+      p.setInt(1, Status.USED.getValue());
+      p.setInt(2, Status.DELETED.getValue());
+      p.setString(3, bucketName);
+      p.setString(4, checksum);
+
+      try (ResultSet result = p.executeQuery()) {
+        return result.next() ? result.getLong(1) : null;
+      }
+    }
+  }
+
   public int removeBucketContent(String bucketName) throws SQLException {
     int bucketId;
     try (PreparedStatement p = connectionLocal.get().prepareStatement("SELECT bucketId FROM buckets WHERE bucketName=?")) {
@@ -1048,6 +1554,16 @@ public abstract class SqlService {
       p.executeUpdate();
     }
 
+    try (PreparedStatement p = connectionLocal.get().prepareStatement("DELETE FROM objectVersionCounters WHERE bucketId=?")) {
+      p.setInt(1, bucketId);
+      p.executeUpdate();
+    }
+
+    try (PreparedStatement p = connectionLocal.get().prepareStatement("DELETE FROM collectionVersionCounters WHERE bucketId=?")) {
+      p.setInt(1, bucketId);
+      p.executeUpdate();
+    }
+
     try (PreparedStatement p = connectionLocal.get().prepareStatement("DELETE FROM buckets WHERE bucketId=?")) {
       p.setInt(1, bucketId);
       return p.executeUpdate();
@@ -1062,18 +1578,114 @@ public abstract class SqlService {
    * @throws SQLException
    */
   public boolean insertAudit(Audit audit) throws SQLException {
-    try (PreparedStatement p = connectionLocal.get().prepareStatement("INSERT INTO audit (bucketName, keyValue, operation, uuid) VALUES (?,?,?,?)")) {
-      p.setString(1, audit.getBucket());
-      //The key could be NULL if the operation is about bucket
-      p.setString(2, audit.getKey() == null ? "" : audit.getKey());
-      p.setString(3, audit.getOperation().getValue());
-      //The versionChecksum could be NULL if the operation is about bucket
-      p.setString(4, audit.getUuid() == null ? "" : audit.getUuid().toString());
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(INSERT_AUDIT)) {
+      setAuditParameters(p, audit);
 
       return p.executeUpdate() > 0;
     }
   }
 
+  /**
+   * Insert the given audit rows with a single batch statement.
+   *
+   * @return true if every audit row was inserted
+   * @throws SQLException
+   */
+  public boolean insertAudits(List<Audit> audits) throws SQLException {
+    return insertAudits(INSERT_AUDIT, audits);
+  }
+
+  /**
+   * Insert the given audit rows into the outbox, from which {@link #moveOutboxAudits} moves them to the audit table.
+   *
+   * @return true if every audit row was inserted
+   * @throws SQLException
+   */
+  public boolean insertOutboxAudits(List<Audit> audits) throws SQLException {
+    return insertAudits(INSERT_OUTBOX_AUDIT, audits);
+  }
+
+  private boolean insertAudits(String query, List<Audit> audits) throws SQLException {
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(query)) {
+      for (Audit audit : audits) {
+        setAuditParameters(p, audit);
+        p.addBatch();
+      }
+
+      return isBatchApplied(p.executeBatch());
+    }
+  }
+
+  /**
+   * Move the oldest rows of the audit outbox to the audit table, in the order of their ids and keeping the time of
+   * their operation. A row that another writer deleted meanwhile is not inserted again, so a row is moved exactly
+   * once even if several nodes move rows at the same time.
+   *
+   * @param limit the maximum number of rows to move
+   * @return the number of rows read from the outbox, which is less than <code>limit</code> once it is empty
+   * @throws SQLException
+   */
+  public int moveOutboxAudits(int limit) throws SQLException, RepoException {
+    List<Audit> audits = new ArrayList<>();
+
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(
+        "SELECT " + AUDIT_COLUMNS + " FROM auditOutbox ORDER BY id LIMIT ?")) {
+      p.setInt(1, limit);
+
+      try (ResultSet result = p.executeQuery()) {
+        while (result.next()) {
+          audits.add(mapAuditRow(result));
+        }
+      }
+    }
+
+    if (audits.isEmpty()) {
+      return 0;
+    }
+
+    int[] deleted;
+
+    try (PreparedStatement p = connectionLocal.get().prepareStatement("DELETE FROM auditOutbox WHERE id = ?")) {
+      for (Audit audit : audits) {
+        p.setInt(1, audit.getId());
+        p.addBatch();
+      }
+
+      deleted = p.executeBatch();
+    }
+
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(
+        "INSERT INTO audit (bucketName, keyValue, operation, uuid, timestamp) VALUES (?,?,?,?,?)")) {
+      boolean empty = true;
+
+      for (int i = 0; i < audits.size(); i++) {
+        if (deleted[i] == 0) {
+          continue;
+        }
+
+        setAuditParameters(p, audits.get(i));
+        p.setTimestamp(5, audits.get(i).getTimestamp());
+        p.addBatch();
+        empty = false;
+      }
+
+      if (!empty) {
+        p.executeBatch();
+      }
+    }
+
+    return audits.size();
+  }
+
+  private static void setAuditParameters(PreparedStatement p, Audit audit) throws SQLException {
+    p.setString(1, audit.getBucket());
+    //The key could be NULL if the operation is about bucket
+    p.setString(2, audit.getKey() == null ? "" : audit.getKey());
+    p.setString(3, audit.getOperation().getValue());
+    //The versionChecksum could be NULL if the operation is about bucket
+    p.setString(4, audit.getUuid() == null ? "" : audit.getUuid().toString());
+  }
+
   /**
    * List the audit table
    *
@@ -1086,35 +1698,10 @@ public abstract class SqlService {
    */
   public List<Audit> listAudit(String bucket, String key, String uuid, Operation operation, Timestamp timestamp) throws SQLException, RepoException {
     List<Audit> repoAudit = new ArrayList<>();
-    boolean filter = false;
 
-    StringBuilder query = new StringBuilder("SELECT * FROM audit ");
+    String query = LIST_AUDIT.get(bucket != null, key != null, operation != null, uuid != null, timestamp != null);
 
-    if (bucket != null) {
-      filter = true;
-      query.append(" WHERE bucketName = ? ");
-    }
-    if (key != null) {
-      filter = true;
-      query.append((filter ? " AND " : " WHERE "));
-      query.append(" keyValue = ? ");
-    }
-    if (operation != null) {
-      filter = true;
-      query.append((filter ? " AND " : " WHERE "));
-      query.append(" operation = ? ");
-    }
-    if (uuid != null) {
-      filter = true;
-      query.append((filter ? " AND " : " WHERE "));
-      query.append(" uuid = ? ");
-    }
-    if (timestamp != null) {
-      query.append((filter ? " AND " : " WHERE "));
-      query.append(" timestamp >= ? ");
-    }
-
-    try (PreparedStatement p = connectionLocal.get().prepareStatement(query.toString())) {
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(query)) {
       int i = 1;
 
       if (bucket != null) {
@@ -1156,8 +1743,38 @@ public abstract class SqlService {
   public List<Audit> listAuditRecords(Integer offset, Integer limit) throws SQLException, RepoException {
     List<Audit> auditRecords = new ArrayList<>();
 
-    String query = "SELECT * FROM audit a ORDER BY a.id LIMIT " + limit + " OFFSET " + offset;
+    String query = "SELECT " + AUDIT_COLUMNS + " FROM audit a ORDER BY a.id LIMIT ? OFFSET ?";
     try (PreparedStatement p = connectionLocal.get().prepareStatement(query)) {
+      p.setInt(1, limit);
+      p.setInt(2, offset);
+
+      try (ResultSet result = p.executeQuery()) {
+        while (result.next()) {
+          auditRecords.add(mapAuditRow(result));
+        }
+
+        return auditRecords;
+      }
+    }
+  }
+
+  /**
+   * List the audit records that follow the record <code>afterId</code>, ordered by id. Unlike an offset, the rows of
+   * the previous pages are not read.
+   *
+   * @param afterId the id of the last audit record of the previous page, 0 for the first page
+   * @param limit   an Integer used to determine the limit of the response
+   * @return a list of {@link org.plos.repo.models.Audit}
+   * @throws SQLException
+   */
+  public List<Audit> listAuditRecordsAfter(int afterId, int limit) throws SQLException, RepoException {
+    List<Audit> auditRecords = new ArrayList<>();
+
+    String query = "SELECT " + AUDIT_COLUMNS + " FROM audit a WHERE a.id > ? ORDER BY a.id LIMIT ?";
+    try (PreparedStatement p = connectionLocal.get().prepareStatement(query)) {
+      p.setInt(1, afterId);
+      p.setInt(2, limit);
+
       try (ResultSet result = p.executeQuery()) {
         while (result.next()) {
           auditRecords.add(mapAuditRow(result));
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with full jitter. The delay before retry <code>n</code> (counting from 0) is drawn uniformly
+ * between 0 and <code>min(maxDelay, baseDelay * 2^n)</code>, so that clients which failed together do not retry
+ * together.
+ */
+public class Backoff {
+
+  private final long baseDelayMillis;
+  private final long maxDelayMillis;
+
+  public Backoff(long baseDelayMillis, long maxDelayMillis) {
+    this.baseDelayMillis = baseDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+  }
+
+  /**
+   * Returns the upper bound of the delay before the given retry.
+   */
+  public long getMaxDelayMillis(int retry) {
+    if (retry >= 62 || baseDelayMillis << retry >>> retry != baseDelayMillis) {
+      return maxDelayMillis;
+    }
+    return Math.min(maxDelayMillis, baseDelayMillis << retry);
+  }
+
+  /**
+   * Returns a random delay before the given retry.
+   */
+  public long getDelayMillis(int retry) {
+    long bound = getMaxDelayMillis(retry);
+    return bound > 0 ? ThreadLocalRandom.current().nextLong(bound + 1) : 0;
+  }
+
+  /**
+   * Sleeps for a random delay before the given retry.
+   */
+  public void sleep(int retry) throws InterruptedException {
+    Thread.sleep(getDelayMillis(retry));
+  }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.plos.repo.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Pool of direct byte buffers of a fixed size, so that uploads write to files through native memory without
+ * allocating a large buffer per request. When the pool is empty a new buffer is allocated; a released buffer is only
+ * kept if the pool has room for it, which bounds the native memory held between requests.
+ * <p/>
+ * The number of buffers in use is bounded as well, so that a burst of uploads cannot exhaust the native memory; once
+ * the bound is reached no buffer is handed out until one is released.
+ */
+public class BufferPool {
+
+  private final int bufferSize;
+
+  private final BlockingQueue<ByteBuffer> buffers;
+
+  private final Semaphore available;
+
+  /**
+   * @param bufferSize size of each buffer, in bytes
+   * @param maxPooled  number of released buffers kept for reuse
+   * @param maxInUse   number of buffers handed out at once
+   */
+  public BufferPool(int bufferSize, int maxPooled, int maxInUse) {
+    this.bufferSize = bufferSize;
+    this.buffers = new ArrayBlockingQueue<>(Math.max(1, maxPooled));
+    this.available = new Semaphore(Math.max(1, maxInUse));
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * @return a cleared buffer, which must be given back with {@link #release}, or null if as many buffers as allowed are
+   * in use
+   */
+  public ByteBuffer acquire() {
+    if (!available.tryAcquire()) {
+      return null;
+    }
+
+    ByteBuffer buffer = buffers.poll();
+
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    buffer.clear();
+    return buffer;
+  }
+
+  public void release(ByteBuffer buffer) {
+    buffers.offer(buffer);
+    available.release();
+  }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An inclusive range of bytes of an object, as requested through an HTTP <code>Range</code> header (RFC 7233).
+ */
+public class ByteRange {
+
+  private static final String BYTES_UNIT = "bytes=";
+
+  private final long first;
+  private final long last;
+
+  public ByteRange(long first, long last) {
+    this.first = first;
+    this.last = last;
+  }
+
+  public long getFirst() {
+    return first;
+  }
+
+  public long getLast() {
+    return last;
+  }
+
+  public long getLength() {
+    return last - first + 1;
+  }
+
+  /**
+   * @return the value of the <code>Content-Range</code> header for this range of an object of the given size
+   */
+  public String toContentRange(long size) {
+    return "bytes " + first + "-" + last + "/" + size;
+  }
+
+  /**
+   * Parse the value of a <code>Range</code> header against an object of the given size. Overlapping and adjacent
+   * ranges are merged, and the result is sorted by position.
+   *
+   * @param header the header value, for example <code>bytes=0-499,-500</code>
+   * @param size   the size of the object in bytes
+   * @return the satisfiable ranges, which is empty if none of them is satisfiable; or null if the header is not a valid
+   * byte range set, in which case it must be ignored
+   */
+  public static List<ByteRange> parse(String header, long size) {
+    if (header == null || !header.trim().startsWith(BYTES_UNIT)) {
+      return null;
+    }
+
+    List<ByteRange> ranges = new ArrayList<>();
+
+    for (String spec : header.trim().substring(BYTES_UNIT.length()).split(",")) {
+      spec = spec.trim();
+      int dash = spec.indexOf('-');
+
+      if (dash < 0) {
+        return null;
+      }
+
+      String firstStr = spec.substring(0, dash).trim();
+      String lastStr = spec.substring(dash + 1).trim();
+
+      long first;
+      long last;
+
+      try {
+        if (firstStr.isEmpty()) {
+          // suffix range, the last n bytes
+          long suffixLength = Long.parseLong(lastStr);
+          if (suffixLength < 0) {
+            return null;
+          }
+          first = Math.max(0, size - suffixLength);
+          last = size - 1;
+          if (suffixLength == 0) {
+            continue;
+          }
+        } else {
+          first = Long.parseLong(firstStr);
+          last = lastStr.isEmpty() ? size - 1 : Math.min(Long.parseLong(lastStr), size - 1);
+          if (first < 0 || (!lastStr.isEmpty() && Long.parseLong(lastStr) < first)) {
+            return null;
+          }
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+
+      if (first < size) {
+        ranges.add(new ByteRange(first, last));
+      }
+    }
+
+    return merge(ranges);
+  }
+
+  private static List<ByteRange> merge(List<ByteRange> ranges) {
+    if (ranges.size() < 2) {
+      return ranges;
+    }
+
+    Collections.sort(ranges, new Comparator<ByteRange>() {
+      @Override
+      public int compare(ByteRange r1, ByteRange r2) {
+        return Long.compare(r1.first, r2.first);
+      }
+    });
+
+    List<ByteRange> merged = new ArrayList<>();
+    ByteRange current = ranges.get(0);
+
+    for (ByteRange range : ranges.subList(1, ranges.size())) {
+      if (range.first <= current.last + 1) {
+        current = new ByteRange(current.first, Math.max(current.last, range.last));
+      } else {
+        merged.add(current);
+        current = range;
+      }
+    }
+
+    merged.add(current);
+    return merged;
+  }
+
+}
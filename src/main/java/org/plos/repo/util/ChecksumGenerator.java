@@ -29,16 +29,135 @@ import org.plos.repo.service.RepoException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * Checksum generator.
+ * Checksum generator. Content is addressed by its SHA-1 checksum; a bucket may also ask for the SHA-256 and CRC-32C
+ * digests of its content, which are computed in the same pass by a {@link ContentHasher}.
  */
 public class ChecksumGenerator {
 
+  public enum Algorithm {
+    SHA1("SHA-1"), SHA256("SHA-256"), CRC32C("CRC32C");
+
+    private final String name;
+
+    Algorithm(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public static Algorithm forName(String name) {
+      for (Algorithm algorithm : values()) {
+        if (algorithm.name.equalsIgnoreCase(name.trim())) {
+          return algorithm;
+        }
+      }
+      throw new IllegalArgumentException("Unknown digest algorithm: " + name);
+    }
+  }
+
   private static final String DIGEST_ALGORITHM = "SHA-1";
 
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  // bucket name that sets the policy of the buckets that are not listed
+  private static final String ANY_BUCKET = "*";
+
+  private final MessageDigest sha1Prototype;
+
+  private final MessageDigest sha256Prototype;
+
+  private final Map<String, Set<Algorithm>> bucketAlgorithms;
+
   public ChecksumGenerator() {
+    this("");
+  }
+
+  /**
+   * @param digestPolicy the additional digests computed for the content of each bucket, as a list of
+   *                     <code>bucket:algorithm,...</code> entries separated by semicolons. The bucket <code>*</code>
+   *                     stands for the buckets that are not listed. For example:
+   *                     <code>figures:SHA-256,CRC32C;*:CRC32C</code>. SHA-1 is always computed.
+   */
+  public ChecksumGenerator(String digestPolicy) {
+    this.sha1Prototype = newMessageDigest(DIGEST_ALGORITHM);
+    this.sha256Prototype = newMessageDigest(Algorithm.SHA256.getName());
+    this.bucketAlgorithms = parseDigestPolicy(digestPolicy);
+  }
+
+  private static Map<String, Set<Algorithm>> parseDigestPolicy(String digestPolicy) {
+    Map<String, Set<Algorithm>> policy = new HashMap<>();
+
+    for (String entry : digestPolicy.split(";")) {
+      if (entry.trim().isEmpty()) {
+        continue;
+      }
+
+      int separator = entry.indexOf(':');
+      if (separator < 0) {
+        throw new IllegalArgumentException("Digest policy entry without bucket: " + entry);
+      }
+
+      Set<Algorithm> algorithms = EnumSet.of(Algorithm.SHA1);
+      for (String name : entry.substring(separator + 1).split(",")) {
+        if (!name.trim().isEmpty()) {
+          algorithms.add(Algorithm.forName(name));
+        }
+      }
+
+      policy.put(entry.substring(0, separator).trim(), algorithms);
+    }
+
+    return policy;
+  }
+
+  private static MessageDigest newMessageDigest(String algorithm) {
+    try {
+      return MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @param bucketName the bucket of the content, or null for the default policy
+   * @return the digests computed for the content of the bucket, which always include SHA-1
+   */
+  public Set<Algorithm> getAlgorithms(String bucketName) {
+    Set<Algorithm> algorithms = bucketName == null ? null : bucketAlgorithms.get(bucketName);
+
+    if (algorithms == null) {
+      algorithms = bucketAlgorithms.get(ANY_BUCKET);
+    }
+
+    return algorithms == null ? EnumSet.of(Algorithm.SHA1) : Collections.unmodifiableSet(algorithms);
+  }
+
+  /**
+   * @param bucketName the bucket of the content, or null for the default policy
+   * @return a hasher of the digests of the content of the bucket
+   */
+  public ContentHasher newHasher(String bucketName) throws RepoException {
+    Set<Algorithm> algorithms = getAlgorithms(bucketName);
+
+    return new ContentHasher(getDigestMessage(),
+        algorithms.contains(Algorithm.SHA256) ? cloneDigest(sha256Prototype) : null,
+        algorithms.contains(Algorithm.CRC32C) ? new Crc32c() : null);
+  }
+
+  /**
+   * @return a hasher of the SHA-1 checksum only, whatever the bucket policies
+   */
+  public ContentHasher newChecksumHasher() throws RepoException {
+    return new ContentHasher(getDigestMessage(), null, null);
   }
 
   public String generateVersionChecksum(RepoCollection repoCollection, List<String> objectsChecksum) throws RepoException {
@@ -83,23 +202,37 @@ public class ChecksumGenerator {
   }
 
   public MessageDigest getDigestMessage() throws RepoException {
+    return cloneDigest(sha1Prototype);
+  }
+
+  /**
+   * Copies a prototype digest, which skips the provider lookup of {@link MessageDigest#getInstance}.
+   */
+  private static MessageDigest cloneDigest(MessageDigest prototype) throws RepoException {
     try {
-      MessageDigest messageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
-      messageDigest.reset();
-      return messageDigest;
-    } catch (NoSuchAlgorithmException e) {
-      throw new RepoException(e);
+      return (MessageDigest) prototype.clone();
+    } catch (CloneNotSupportedException e) {
+      try {
+        return MessageDigest.getInstance(prototype.getAlgorithm());
+      } catch (NoSuchAlgorithmException e1) {
+        throw new RepoException(e1);
+      }
     }
   }
 
   public String checksumToString(byte[] checksum) {
-    StringBuilder sb = new StringBuilder();
+    return toHex(checksum);
+  }
+
+  static String toHex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
 
-    for (byte b : checksum) {
-      sb.append(Integer.toHexString((b & 0xFF) | 0x100).substring(1, 3));
+    for (int i = 0; i < bytes.length; i++) {
+      chars[2 * i] = HEX_DIGITS[(bytes[i] >>> 4) & 0x0F];
+      chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0x0F];
     }
 
-    return sb.toString();
+    return new String(chars);
   }
 
   private byte[] digest(String message) throws RepoException {
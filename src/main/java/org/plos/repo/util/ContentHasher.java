@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.plos.repo.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Computes in a single pass over the content its SHA-1 checksum, which addresses the content in the object stores,
+ * and the additional digests asked for by the policy of its bucket. Created by {@link ChecksumGenerator#newHasher}.
+ * <p/>
+ * The digests are computed when they are first asked for; the content can not be updated afterwards.
+ */
+public class ContentHasher {
+
+  private final MessageDigest sha1;
+
+  private final MessageDigest sha256; // null unless asked for
+
+  private final Crc32c crc32c; // null unless asked for
+
+  private long size = 0;
+
+  private Map<ChecksumGenerator.Algorithm, String> digests;
+
+  ContentHasher(MessageDigest sha1, MessageDigest sha256, Crc32c crc32c) {
+    this.sha1 = sha1;
+    this.sha256 = sha256;
+    this.crc32c = crc32c;
+  }
+
+  public void update(byte[] bytes) {
+    update(bytes, 0, bytes.length);
+  }
+
+  public void update(byte[] bytes, int offset, int length) {
+    if (digests != null) {
+      throw new IllegalStateException("The digests have already been computed");
+    }
+
+    sha1.update(bytes, offset, length);
+
+    if (sha256 != null) {
+      sha256.update(bytes, offset, length);
+    }
+
+    if (crc32c != null) {
+      crc32c.update(bytes, offset, length);
+    }
+
+    size += length;
+  }
+
+  /**
+   * @return the number of bytes hashed
+   */
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * @return the SHA-1 checksum of the content, in hexadecimal
+   */
+  public String getChecksum() {
+    return getDigests().get(ChecksumGenerator.Algorithm.SHA1);
+  }
+
+  /**
+   * @return the digests of the content in hexadecimal, including the SHA-1 checksum
+   */
+  public Map<ChecksumGenerator.Algorithm, String> getDigests() {
+    if (digests == null) {
+      Map<ChecksumGenerator.Algorithm, String> result = new EnumMap<>(ChecksumGenerator.Algorithm.class);
+      result.put(ChecksumGenerator.Algorithm.SHA1, ChecksumGenerator.toHex(sha1.digest()));
+
+      if (sha256 != null) {
+        result.put(ChecksumGenerator.Algorithm.SHA256, ChecksumGenerator.toHex(sha256.digest()));
+      }
+
+      if (crc32c != null) {
+        int value = (int) crc32c.getValue();
+        result.put(ChecksumGenerator.Algorithm.CRC32C, ChecksumGenerator.toHex(
+            new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value}));
+      }
+
+      digests = Collections.unmodifiableMap(result);
+    }
+
+    return digests;
+  }
+
+  /**
+   * @return a stream that hashes the bytes read from <code>input</code>
+   */
+  public InputStream wrap(InputStream input) {
+    return new FilterInputStream(input) {
+      @Override
+      public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+          update(new byte[]{(byte) b}, 0, 1);
+        }
+        return b;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+          update(b, off, n);
+        }
+        return n;
+      }
+
+      @Override
+      public long skip(long n) throws IOException {
+        // skipped bytes would be missing from the digests
+        byte[] skipped = new byte[(int) Math.min(n, 8192)];
+        int read = read(skipped, 0, skipped.length);
+        return Math.max(read, 0);
+      }
+
+      @Override
+      public boolean markSupported() {
+        return false;
+      }
+    };
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.plos.repo.util;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum, the variant used by iSCSI, ext4 and cloud object stores to check content in transit.
+ * The JDK only provides it from Java 9, so this is a table driven implementation that consumes eight bytes per step
+ * ("slicing-by-8").
+ */
+public class Crc32c implements Checksum {
+
+  private static final int POLYNOMIAL = 0x82F63B78; // reversed 0x1EDC6F41
+
+  private static final int[][] TABLES = new int[8][256];
+
+  static {
+    for (int n = 0; n < 256; n++) {
+      int crc = n;
+      for (int k = 0; k < 8; k++) {
+        crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+      }
+      TABLES[0][n] = crc;
+    }
+
+    for (int n = 0; n < 256; n++) {
+      for (int t = 1; t < 8; t++) {
+        TABLES[t][n] = (TABLES[t - 1][n] >>> 8) ^ TABLES[0][TABLES[t - 1][n] & 0xFF];
+      }
+    }
+  }
+
+  private int crc = 0xFFFFFFFF;
+
+  @Override
+  public void update(int b) {
+    crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+  }
+
+  @Override
+  public void update(byte[] b, int off, int len) {
+    int c = crc;
+    int end = off + len;
+
+    int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+    int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+
+    while (end - off >= 8) {
+      int lo = c ^ ((b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24);
+      int hi = (b[off + 4] & 0xFF) | (b[off + 5] & 0xFF) << 8 | (b[off + 6] & 0xFF) << 16 | (b[off + 7] & 0xFF) << 24;
+
+      c = t7[lo & 0xFF] ^ t6[(lo >>> 8) & 0xFF] ^ t5[(lo >>> 16) & 0xFF] ^ t4[lo >>> 24]
+          ^ t3[hi & 0xFF] ^ t2[(hi >>> 8) & 0xFF] ^ t1[(hi >>> 16) & 0xFF] ^ t0[hi >>> 24];
+      off += 8;
+    }
+
+    while (off < end) {
+      c = (c >>> 8) ^ t0[(c ^ b[off++]) & 0xFF];
+    }
+
+    crc = c;
+  }
+
+  @Override
+  public long getValue() {
+    return (~crc) & 0xFFFFFFFFL;
+  }
+
+  @Override
+  public void reset() {
+    crc = 0xFFFFFFFF;
+  }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import org.hsqldb.lib.StringUtil;
+import org.plos.repo.service.RepoException;
+
+/**
+ * Opaque continuation token of a keyset paginated listing. The token carries the id of the last row returned, so
+ * that the next page is read from the index with <code>id &gt; ?</code> instead of skipping <code>offset</code> rows.
+ */
+public class ListCursor {
+
+  private static final String PREFIX = "id:";
+
+  private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
+
+  /**
+   * Returns the token of the page that follows the row identified by <code>id</code>.
+   *
+   * @param id the id of the last row of a page
+   * @return a single String to be passed back as the <code>after</code> parameter
+   */
+  public static String encode(Integer id) {
+    return ENCODING.encode((PREFIX + id).getBytes(Charsets.UTF_8));
+  }
+
+  /**
+   * Returns the row id carried by <code>cursor</code>, or null if no cursor was given.
+   *
+   * @param cursor a token returned by {@link #encode(Integer)}
+   * @return the id of the last row of the previous page
+   * @throws RepoException if the token was not produced by {@link #encode(Integer)}
+   */
+  public static Integer decode(String cursor) throws RepoException {
+    if (StringUtil.isEmpty(cursor)) {
+      return null;
+    }
+
+    try {
+      String value = new String(ENCODING.decode(cursor), Charsets.UTF_8);
+
+      if (value.startsWith(PREFIX)) {
+        int id = Integer.parseInt(value.substring(PREFIX.length()));
+        if (id >= 0) {
+          return id;
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      // not base64 or not a number, reported below
+    }
+
+    throw new RepoException(RepoException.Type.InvalidCursor);
+  }
+
+}
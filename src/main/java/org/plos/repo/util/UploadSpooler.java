@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Spools uploaded content for the object stores, hashing it on the way. Content is copied through direct buffers taken
+ * from a shared pool, so that an upload does not allocate a large buffer of its own and a file channel writes the
+ * buffer without another copy.
+ * <p/>
+ * Content that fits in a buffer is kept in it; larger content is spooled to a file of the spool directory, which should
+ * be on the same filesystem as the data of the store so that the file is not copied across devices. When all the
+ * buffers the pool may hand out are in use, content is written straight to its file in chunks of the heap instead.
+ */
+public class UploadSpooler {
+
+  private static final Logger log = LoggerFactory.getLogger(UploadSpooler.class);
+
+  public static final int DEFAULT_BUFFER_BYTES = 1024 * 1024;
+
+  public static final int DEFAULT_POOLED_BUFFERS = 16;
+
+  public static final int DEFAULT_MAX_BUFFERS = 64;
+
+  // content is read from the client in chunks of this size, and gathered in the pooled buffers
+  private static final int READ_CHUNK_SIZE = 64 * 1024;
+
+  private final File directory;
+
+  private final BufferPool bufferPool;
+
+  private final int chunkSize;
+
+  public UploadSpooler() {
+    this(null, DEFAULT_BUFFER_BYTES, DEFAULT_POOLED_BUFFERS, DEFAULT_MAX_BUFFERS);
+  }
+
+  /**
+   * @param directory        the directory of the spool files, or null for the default temporary directory
+   * @param bufferBytes      size of the pooled buffers, which is also the size of the largest content kept in memory
+   * @param maxPooledBuffers number of released buffers kept for reuse
+   * @param maxBuffers       number of buffers in use at once, which bounds the native memory of the uploads
+   */
+  public UploadSpooler(File directory, int bufferBytes, int maxPooledBuffers, int maxBuffers) {
+    this.directory = directory;
+    this.bufferPool = new BufferPool(bufferBytes, maxPooledBuffers, maxBuffers);
+    this.chunkSize = Math.min(READ_CHUNK_SIZE, bufferBytes);
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * @return a new empty file of the spool directory
+   */
+  public File newTempFile() throws IOException {
+    return File.createTempFile("repo-upload-", ".tmp", directory);
+  }
+
+  /**
+   * Copies <code>input</code> to <code>file</code>, hashing it on the way. The file is deleted if the copy fails.
+   *
+   * @return the number of bytes copied
+   */
+  public long copy(InputStream input, File file, ContentHasher hasher) throws IOException {
+    ByteBuffer buffer = bufferPool.acquire();
+    boolean complete = false;
+
+    try {
+      long size;
+      try (FileOutputStream output = new FileOutputStream(file)) {
+        if (buffer == null) {
+          size = transfer(input, output, hasher, new byte[chunkSize]);
+        } else {
+          size = transfer(input, output.getChannel(), hasher, buffer, new byte[chunkSize]);
+        }
+      }
+      complete = true;
+      return size;
+    } finally {
+      if (buffer != null) {
+        bufferPool.release(buffer);
+      }
+      if (!complete) {
+        delete(file);
+      }
+    }
+  }
+
+  /**
+   * Reads <code>input</code> into a spool, hashing it on the way. The spool must be closed to give back its buffer or
+   * delete its file.
+   *
+   * @return the spooled content
+   */
+  public Spool spool(InputStream input, ContentHasher hasher) throws IOException {
+    ByteBuffer buffer = bufferPool.acquire();
+
+    if (buffer == null) {
+      File file = newTempFile();
+      return new Spool(null, file, copy(input, file, hasher));
+    }
+
+    byte[] chunk = new byte[chunkSize];
+    boolean inMemory = false;
+
+    try {
+      int n;
+      while ((n = input.read(chunk)) != -1) {
+        hasher.update(chunk, 0, n);
+
+        if (buffer.remaining() < n) {
+          return spoolToFile(input, hasher, buffer, chunk, n);
+        }
+        buffer.put(chunk, 0, n);
+      }
+
+      buffer.flip();
+      inMemory = true;
+      return new Spool(buffer, null, buffer.limit());
+    } finally {
+      if (!inMemory) {
+        bufferPool.release(buffer);
+      }
+    }
+  }
+
+  /**
+   * Writes the content gathered in <code>buffer</code>, the <code>n</code> bytes of <code>chunk</code> which did not fit
+   * in it and the rest of <code>input</code> to a new spool file.
+   */
+  private Spool spoolToFile(InputStream input, ContentHasher hasher, ByteBuffer buffer, byte[] chunk, int n)
+      throws IOException {
+    File file = newTempFile();
+    boolean complete = false;
+
+    try {
+      long size = buffer.position() + n;
+      try (FileOutputStream output = new FileOutputStream(file)) {
+        FileChannel channel = output.getChannel();
+        write(buffer, channel);
+        buffer.put(chunk, 0, n);
+        size += transfer(input, channel, hasher, buffer, chunk);
+      }
+      complete = true;
+      return new Spool(null, file, size);
+    } finally {
+      if (!complete) {
+        delete(file);
+      }
+    }
+  }
+
+  /**
+   * Copies <code>input</code> to <code>output</code> after the content already in <code>buffer</code>, which is
+   * written whenever the next chunk does not fit in it.
+   *
+   * @return the number of bytes read from <code>input</code>
+   */
+  private static long transfer(InputStream input, WritableByteChannel output, ContentHasher hasher,
+                               ByteBuffer buffer, byte[] chunk) throws IOException {
+    long size = 0;
+
+    int n;
+    while ((n = input.read(chunk)) != -1) {
+      hasher.update(chunk, 0, n);
+      size += n;
+
+      if (buffer.remaining() < n) {
+        write(buffer, output);
+      }
+      buffer.put(chunk, 0, n);
+    }
+
+    write(buffer, output);
+    return size;
+  }
+
+  /**
+   * Copies <code>input</code> to <code>output</code> through <code>chunk</code>, when no pooled buffer is available.
+   *
+   * @return the number of bytes read from <code>input</code>
+   */
+  private static long transfer(InputStream input, OutputStream output, ContentHasher hasher, byte[] chunk)
+      throws IOException {
+    long size = 0;
+
+    int n;
+    while ((n = input.read(chunk)) != -1) {
+      hasher.update(chunk, 0, n);
+      output.write(chunk, 0, n);
+      size += n;
+    }
+
+    return size;
+  }
+
+  private static void write(ByteBuffer buffer, WritableByteChannel output) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      output.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  private static void delete(File file) {
+    if (file.exists() && !file.delete()) {
+      log.warn("Could not delete the upload spool file " + file);
+    }
+  }
+
+  /**
+   * Content spooled to a pooled buffer or to a file.
+   */
+  public class Spool implements Closeable {
+
+    private ByteBuffer buffer;
+
+    private File file;
+
+    private final long size;
+
+    private Spool(ByteBuffer buffer, File file, long size) {
+      this.buffer = buffer;
+      this.file = file;
+      this.size = size;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public boolean isInMemory() {
+      return buffer != null;
+    }
+
+    /**
+     * @return a new stream of the spooled content, which must not be read after the spool is closed
+     */
+    public InputStream openStream() throws IOException {
+      if (buffer == null && file == null) {
+        throw new IllegalStateException("The spool is closed");
+      }
+
+      return (file != null) ? new FileInputStream(file) : new ByteBufferInputStream(buffer.duplicate());
+    }
+
+    /**
+     * Gives back the buffer or deletes the file of the spool.
+     */
+    @Override
+    public void close() {
+      if (buffer != null) {
+        bufferPool.release(buffer);
+        buffer = null;
+      }
+      if (file != null) {
+        delete(file);
+        file = null;
+      }
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer content;
+
+    private ByteBufferInputStream(ByteBuffer content) {
+      this.content = content;
+    }
+
+    @Override
+    public int read() {
+      return content.hasRemaining() ? content.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!content.hasRemaining()) {
+        return -1;
+      }
+
+      int n = Math.min(len, content.remaining());
+      content.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return content.remaining();
+    }
+  }
+
+}
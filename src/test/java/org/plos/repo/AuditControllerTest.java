@@ -30,6 +30,7 @@ import org.junit.Test;
 import org.plos.repo.models.Operation;
 import org.plos.repo.models.input.InputCollection;
 import org.plos.repo.models.input.InputObject;
+import org.plos.repo.rest.ObjectController;
 
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Form;
@@ -42,6 +43,7 @@ import java.util.Iterator;
 
 import static junit.framework.TestCase.assertNotNull;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class AuditControllerTest extends RepoBaseJerseyTest {
 
@@ -97,6 +99,40 @@ public class AuditControllerTest extends RepoBaseJerseyTest {
 
   }
 
+  @Test
+  public void getAuditRecordsAfterCursorTest() {
+
+    createElementsToAudit();
+
+    // the first three records, with the token of the next page
+    Response response = target("/audit")
+        .queryParam("limit", 3)
+        .request(MediaType.APPLICATION_JSON_TYPE)
+        .get();
+    assertEquals(response.getStatus(), Response.Status.OK.getStatusCode());
+    assertEquals(3, gson.fromJson(response.readEntity(String.class), JsonElement.class).getAsJsonArray().size());
+
+    String cursor = response.getHeaderString(ObjectController.NEXT_CURSOR_HEADER);
+    assertNotNull(cursor);
+
+    // the rest of the records, same as with offset=3
+    response = target("/audit")
+        .queryParam("limit", 3)
+        .queryParam("after", cursor)
+        .request(MediaType.APPLICATION_JSON_TYPE)
+        .get();
+    assertEquals(response.getStatus(), Response.Status.OK.getStatusCode());
+    assertNull(response.getHeaderString(ObjectController.NEXT_CURSOR_HEADER));
+
+    JsonArray responseObj = gson.fromJson(response.readEntity(String.class), JsonElement.class).getAsJsonArray();
+    assertEquals(2, responseObj.size());
+
+    Iterator<JsonElement> iterator = responseObj.iterator();
+    assertEquals(Operation.CREATE_COLLECTION.getValue(), iterator.next().getAsJsonObject().get("operation").getAsString());
+    assertEquals(Operation.DELETE_COLLECTION.getValue(), iterator.next().getAsJsonObject().get("operation").getAsString());
+
+  }
+
   private void createElementsToAudit() {
 
     // create bucket
@@ -28,22 +28,36 @@ import org.joda.time.format.DateTimeFormatter;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.plos.repo.models.RepoObject;
 import org.plos.repo.models.input.ElementFilter;
+import org.plos.repo.models.input.InputObjectLookup;
 import org.plos.repo.service.RepoService;
 import org.springframework.beans.factory.config.SingletonBeanRegistry;
 
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import java.io.ByteArrayInputStream;
 import java.net.URL;
 import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class CachingHeadersTest extends RepoBaseJerseyTest {
@@ -149,15 +163,6 @@ public class CachingHeadersTest extends RepoBaseJerseyTest {
     when(mockRepoService.serverSupportsReproxy())
         .thenReturn(true);
 
-    URL[] urls = new URL[]{
-        new URL("http", "192.168.1.1", "/dev1/123456.fid"),
-        new URL("http", "192.168.1.1", "/dev5/123666.fid"),
-        new URL("http", "192.168.1.3", "/dev5/789012.fid")
-    };
-
-    when(mockRepoService.getObjectReproxy(isA(RepoObject.class)))
-        .thenReturn(urls);
-
     registerObjectInSpring(mockRepoService);
 
     Response response = target("/objects/" + BUCKET_NAME)
@@ -168,16 +173,37 @@ public class CachingHeadersTest extends RepoBaseJerseyTest {
         .get();
 
     assertEquals(Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+    assertNotNull(response.getHeaderString("Last-Modified"));
+    assertEquals("\"checksum\"", response.getHeaderString("ETag"));
 
-    assertNotNull(response.getHeaderString("X-Reproxy-Cache-For"));
+    // revalidation must not touch the object store
+    verify(mockRepoService, never()).getObjectReproxy(any(RepoObject.class));
+    verify(mockRepoService, never()).getObjectReproxy(any(RepoObject.class), anyBoolean());
+  }
 
-    String[] reproxyUrls = response.getHeaderString("X-Reproxy-URL").split(" ");
-    assertEquals(3, reproxyUrls.length);
+  @Test
+  public void testReadWithMatchingIfNoneMatchHeaderWithReproxyHeaders() throws Exception {
+    when(mockRepoService.getObject(anyString(), anyString(), any(ElementFilter.class)))
+        .thenReturn(getObject(modifiedSinceDateTime));
 
-    // do sanity check on urls
-    for (String url : reproxyUrls) {
-      assertTrue(url.matches("^http://192.*fid$"));
-    }
+    when(mockRepoService.serverSupportsReproxy())
+        .thenReturn(true);
+
+    registerObjectInSpring(mockRepoService);
+
+    Response response = target("/objects/" + BUCKET_NAME)
+        .queryParam("key", KEY_NAME).queryParam("version", "0")
+        .request()
+        .header("If-None-Match", "\"checksum\"")
+        .header("Cache-Control", "no-cache")
+        .header("X-Proxy-Capabilities", REPROXY_HEADER_FILE)
+        .get();
+
+    assertEquals(Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+    assertEquals("\"checksum\"", response.getHeaderString("ETag"));
+
+    verify(mockRepoService, never()).getObjectReproxy(any(RepoObject.class));
+    verify(mockRepoService, never()).getObjectReproxy(any(RepoObject.class), anyBoolean());
   }
 
   @Test
@@ -194,7 +220,7 @@ public class CachingHeadersTest extends RepoBaseJerseyTest {
         new URL("http", "192.168.1.3", "/dev5/789012.fid")
     };
 
-    when(mockRepoService.getObjectReproxy(isA(RepoObject.class)))
+    when(mockRepoService.getObjectReproxy(isA(RepoObject.class), eq(false)))
         .thenReturn(urls);
 
     registerObjectInSpring(mockRepoService);
@@ -219,6 +245,85 @@ public class CachingHeadersTest extends RepoBaseJerseyTest {
     }
   }
 
+  @Test
+  public void testReadWithMatchingIfNoneMatchHeader() throws Exception {
+    when(mockRepoService.getObject(anyString(), anyString(), any(ElementFilter.class)))
+        .thenReturn(getObject(modifiedSinceDateTime));
+
+    registerObjectInSpring(mockRepoService);
+
+    Response response = target("/objects/" + BUCKET_NAME)
+        .queryParam("key", KEY_NAME).queryParam("version", "0")
+        .request()
+        .header("If-None-Match", "\"other\", W/\"checksum\"")
+        .get();
+
+    assertEquals(Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+    assertEquals("\"checksum\"", response.getHeaderString("ETag"));
+
+    // revalidation must not touch the object store
+    verify(mockRepoService, never()).getObjectInputStream(any(RepoObject.class));
+  }
+
+  @Test
+  public void testReadWithNonMatchingIfNoneMatchHeader() throws Exception {
+    when(mockRepoService.getObject(anyString(), anyString(), any(ElementFilter.class)))
+        .thenReturn(getObject(modifiedSinceDateTime));
+    when(mockRepoService.getObjectInputStream(any(RepoObject.class)))
+        .thenReturn(new ByteArrayInputStream(new byte[]{1}));
+
+    registerObjectInSpring(mockRepoService);
+
+    // If-None-Match takes precedence over If-Modified-Since
+    Response response = target("/objects/" + BUCKET_NAME)
+        .queryParam("key", KEY_NAME).queryParam("version", "0")
+        .request()
+        .header("If-None-Match", "\"other\"")
+        .header("If-Modified-Since", RFC1123_DATE_TIME_FORMATTER.print(modifiedSinceDateTime))
+        .get();
+
+    assertEquals(Status.OK.getStatusCode(), response.getStatus());
+    assertEquals("\"checksum\"", response.getHeaderString("ETag"));
+  }
+
+  @Test
+  public void testReadMetadataWithIfNoneMatchHeader() throws Exception {
+    RepoObject repoObject = getObject(modifiedSinceDateTime);
+    repoObject.setUuid(UUID.randomUUID());
+
+    when(mockRepoService.getObject(anyString(), anyString(), any(ElementFilter.class)))
+        .thenReturn(repoObject);
+    when(mockRepoService.addProxyData(repoObject)).thenReturn(repoObject);
+
+    registerObjectInSpring(mockRepoService);
+
+    Response response = target("/objects/meta/" + BUCKET_NAME)
+        .queryParam("key", KEY_NAME).queryParam("version", "0")
+        .request()
+        .get();
+
+    assertEquals(Status.OK.getStatusCode(), response.getStatus());
+    String entityTag = response.getHeaderString("ETag");
+    assertEquals("\"checksum-" + repoObject.getUuid() + "\"", entityTag);
+
+    response = target("/objects/meta/" + BUCKET_NAME)
+        .queryParam("key", KEY_NAME).queryParam("version", "0")
+        .request()
+        .header("If-None-Match", entityTag)
+        .get();
+
+    assertEquals(Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+
+    // the content entity tag does not validate the metadata
+    response = target("/objects/meta/" + BUCKET_NAME)
+        .queryParam("key", KEY_NAME).queryParam("version", "0")
+        .request()
+        .header("If-None-Match", "\"checksum\"")
+        .get();
+
+    assertEquals(Status.OK.getStatusCode(), response.getStatus());
+  }
+
   private void registerObjectInSpring(RepoService mock) {
     // do some magic to replace registered repoService singleton with mocked version.
     SingletonBeanRegistry beanRegistry = context.getBeanFactory();
@@ -226,6 +331,32 @@ public class CachingHeadersTest extends RepoBaseJerseyTest {
     beanRegistry.registerSingleton(REPO_SVC_BEAN_NAME, mock);
   }
 
+  @Test
+  public void testReadMetadataBatchResolvesReproxyUrls() throws Exception {
+    final RepoObject repoObject = getObject(modifiedSinceDateTime);
+    final List<RepoObject> repoObjects = Arrays.asList(repoObject, null);
+    final URL reproxyUrl = new URL("http://localhost/reproxy");
+
+    when(mockRepoService.getObjects(eq(BUCKET_NAME), anyListOf(InputObjectLookup.class))).thenReturn(repoObjects);
+    when(mockRepoService.addProxyData(repoObjects)).thenAnswer(new Answer<List<RepoObject>>() {
+      @Override
+      public List<RepoObject> answer(InvocationOnMock invocation) {
+        repoObject.setReproxyURL(new URL[]{reproxyUrl});
+        return repoObjects;
+      }
+    });
+
+    registerObjectInSpring(mockRepoService);
+
+    Response response = target("/objects/meta/" + BUCKET_NAME + "/batch")
+        .request(MediaType.APPLICATION_JSON_TYPE)
+        .post(Entity.json("{\"objects\":[{\"key\":\"" + KEY_NAME + "\"},{\"key\":\"missing\"}]}"));
+
+    assertEquals(Status.OK.getStatusCode(), response.getStatus());
+    assertTrue(response.readEntity(String.class).contains(reproxyUrl.toString()));
+    verify(mockRepoService).addProxyData(repoObjects);
+  }
+
   private RepoObject getObject(DateTime datetime) {
     RepoObject repoObject = new RepoObject(KEY_NAME, 1, BUCKET_NAME, org.plos.repo.models.Status.USED);
     repoObject.setId(1);
@@ -26,6 +26,7 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import org.glassfish.jersey.media.multipart.FormDataMultiPart;
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import org.plos.repo.models.input.InputCollection;
 import org.plos.repo.models.input.InputObject;
@@ -35,10 +36,17 @@ import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Form;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import static junit.framework.TestCase.assertNotNull;
 import static org.junit.Assert.assertEquals;
@@ -569,6 +577,44 @@ public class CollectionControllerTest extends RepoBaseJerseyTest {
   }
 
 
+  @Test
+  public void getCollectionArchive() throws IOException {
+    generateCollectionData();
+
+    Response response = target("/collections/" + bucketName + "/archive")
+        .queryParam("key", "collection1")
+        .queryParam("tag", "FINAL")
+        .request()
+        .get();
+    assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+    assertEquals("application/zip", response.getHeaderString("Content-Type"));
+    assertEquals("attachment; filename=collection1.zip", response.getHeaderString("Content-Disposition"));
+
+    Map<String, String> entries = new TreeMap<>();
+    try (ZipInputStream zip = new ZipInputStream(response.readEntity(InputStream.class))) {
+      for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+        entries.put(entry.getName(), IOUtils.toString(zip, StandardCharsets.UTF_8.name()));
+      }
+    }
+
+    assertEquals(2, entries.size());
+    assertEquals(testData1, entries.get(objectName1));
+    assertEquals(testData1, entries.get(objectName2));
+  }
+
+  @Test
+  public void getCollectionArchiveNotFound() {
+    generateBuckets(bucketName);
+
+    assertRepoError(target("/collections/" + bucketName + "/archive")
+            .queryParam("key", "collection1")
+            .request()
+            .accept(MediaType.APPLICATION_JSON_TYPE)
+            .get(),
+        Response.Status.NOT_FOUND, RepoException.Type.CollectionNotFound
+    );
+  }
+
   @Test
   public void getCollectionNoKey() {
     assertRepoError(target("/collections/" + bucketName)
@@ -33,6 +33,7 @@ import org.plos.repo.service.RepoException;
 import org.plos.repo.service.RepoInfoService;
 import org.plos.repo.service.RepoService;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -109,10 +110,26 @@ public class ObjectControllerMockDependenciesTest {
 
     when(repoService.listObjects(BUCKET, OFFSET, LIMIT, true, false, TAG)).thenReturn(repoObjects);
 
-    Response objectsResponse = objectController.listObjects(BUCKET, OFFSET, LIMIT, true, false, TAG);
+    Response objectsResponse = objectController.listObjects(BUCKET, OFFSET, LIMIT, true, false, TAG, null);
 
     assertNotNull(objectsResponse);
     assertEquals(objectsResponse.getStatus(), Response.Status.OK.getStatusCode());
   }
 
+  @Test
+  public void serverBusyIsRetriable() {
+    Response response = ObjectController.handleError(new RepoException(RepoException.Type.ServerBusy));
+
+    assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), response.getStatus());
+    assertEquals("1", response.getHeaderString(HttpHeaders.RETRY_AFTER));
+  }
+
+  @Test
+  public void busyBucketIsRetriable() {
+    Response response = ObjectController.handleError(new RepoException(RepoException.Type.TooManyRequests));
+
+    assertEquals(429, response.getStatus());
+    assertEquals("1", response.getHeaderString(HttpHeaders.RETRY_AFTER));
+  }
+
 }
@@ -29,9 +29,15 @@ import junit.framework.TestCase;
 import org.apache.commons.io.IOUtils;
 import org.glassfish.jersey.media.multipart.FormDataMultiPart;
 import org.junit.Test;
+import org.plos.repo.models.input.InputBatchLookup;
+import org.plos.repo.models.input.InputObjectLookup;
+import org.plos.repo.rest.ObjectController;
+import org.plos.repo.rest.WriteTimeFilter;
 import org.plos.repo.service.RepoException;
+import org.plos.repo.service.RepoService;
 
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Form;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -40,10 +46,17 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * ObjectController test. Real implementations of dependencies (services, daos, validatores) are being used. The only
@@ -75,6 +88,32 @@ public class ObjectControllerTest extends RepoBaseJerseyTest {
     );
   }
 
+  @Test
+  public void writesHandOutTheirTime() throws Exception {
+    createBucket(bucketName, CREATION_DATE_TIME);
+
+    long before = System.currentTimeMillis();
+    Response response = target("/objects").request()
+        .accept(MediaType.APPLICATION_JSON_TYPE)
+        .post(Entity.entity(new FormDataMultiPart()
+                .field("bucketName", bucketName).field("create", "new")
+                .field("key", "object1")
+                .field("file", testData1, MediaType.TEXT_PLAIN_TYPE),
+            MediaType.MULTIPART_FORM_DATA));
+    assertEquals(Response.Status.CREATED.getStatusCode(), response.getStatus());
+
+    String writeTime = response.getHeaderString(WriteTimeFilter.WRITE_TIME_HEADER);
+    assertNotNull(writeTime);
+    assertTrue(Long.parseLong(writeTime) >= before);
+
+    // a read that follows the write names it, and is not answered with a time of its own
+    response = target("/objects/" + bucketName).queryParam("key", "object1").request()
+        .header(WriteTimeFilter.WRITE_TIME_HEADER, writeTime).get();
+    assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+    assertEquals(testData1, response.readEntity(String.class));
+    assertNull(response.getHeaderString(WriteTimeFilter.WRITE_TIME_HEADER));
+  }
+
   @Test
   public void createWithNoKey() {
     assertRepoError(target("/objects").request()
@@ -190,6 +229,88 @@ public class ObjectControllerTest extends RepoBaseJerseyTest {
         Response.Status.BAD_REQUEST, RepoException.Type.CantCreateVersionWithNoOrig);
   }
 
+  @Test
+  public void createWithStoredChecksum() {
+    createBucket(bucketName, CREATION_DATE_TIME);
+
+    Response response = target("/objects").request()
+        .accept(MediaType.APPLICATION_JSON_TYPE)
+        .post(Entity.entity(new FormDataMultiPart()
+                .field("bucketName", bucketName).field("create", "new")
+                .field("key", "object1").field("contentType", "text/plain")
+                .field("file", testData1, MediaType.TEXT_PLAIN_TYPE),
+            MediaType.MULTIPART_FORM_DATA));
+    assertEquals(Response.Status.CREATED.getStatusCode(), response.getStatus());
+    String checksum = gson.fromJson(response.readEntity(String.class), JsonElement.class).getAsJsonObject()
+        .get("checksum").getAsString();
+
+    // no file is sent, the content of object1 is referenced by its checksum
+    response = target("/objects").request()
+        .accept(MediaType.APPLICATION_JSON_TYPE)
+        .post(Entity.entity(new FormDataMultiPart()
+                .field("bucketName", bucketName).field("create", "new")
+                .field("key", "object2").field("contentType", "text/plain")
+                .field("checksum", checksum.toUpperCase())
+                .field("size", String.valueOf(testData1.length())),
+            MediaType.MULTIPART_FORM_DATA));
+    assertEquals(Response.Status.CREATED.getStatusCode(), response.getStatus());
+    JsonObject responseObj = gson.fromJson(response.readEntity(String.class), JsonElement.class).getAsJsonObject();
+    assertEquals(checksum, responseObj.get("checksum").getAsString());
+    assertEquals(testData1.length(), responseObj.get("size").getAsLong());
+
+    response = target("/objects/" + bucketName).queryParam("key", "object2").request().get();
+    assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+    assertEquals(testData1, response.readEntity(String.class));
+
+    // a new version may reference it as well
+    assertEquals(Response.Status.CREATED.getStatusCode(), target("/objects").request()
+        .accept(MediaType.APPLICATION_JSON_TYPE)
+        .post(Entity.entity(new FormDataMultiPart()
+                .field("bucketName", bucketName).field("create", "version")
+                .field("key", "object2").field("checksum", checksum),
+            MediaType.MULTIPART_FORM_DATA)).getStatus());
+
+    assertRepoError(target("/objects").request()
+            .accept(MediaType.APPLICATION_JSON_TYPE)
+            .post(Entity.entity(new FormDataMultiPart()
+                    .field("bucketName", bucketName).field("create", "new")
+                    .field("key", "object3").field("checksum", checksum)
+                    .field("size", String.valueOf(testData1.length() + 1)),
+                MediaType.MULTIPART_FORM_DATA)),
+        Response.Status.BAD_REQUEST, RepoException.Type.ObjectDataSizeMismatch);
+  }
+
+  @Test
+  public void createWithUnknownChecksum() {
+    createBucket(bucketName, CREATION_DATE_TIME);
+
+    assertRepoError(target("/objects").request()
+            .accept(MediaType.APPLICATION_JSON_TYPE)
+            .post(Entity.entity(new FormDataMultiPart()
+                    .field("bucketName", bucketName).field("create", "new")
+                    .field("key", "object1").field("checksum", "0123456789012345678901234567890123456789"),
+                MediaType.MULTIPART_FORM_DATA)),
+        Response.Status.NOT_FOUND, RepoException.Type.ContentNotStored);
+  }
+
+  @Test
+  public void createWithWrongChecksum() {
+    createBucket(bucketName, CREATION_DATE_TIME);
+
+    assertRepoError(target("/objects").request()
+            .accept(MediaType.APPLICATION_JSON_TYPE)
+            .post(Entity.entity(new FormDataMultiPart()
+                    .field("bucketName", bucketName).field("create", "new")
+                    .field("key", "object1").field("checksum", "0123456789012345678901234567890123456789")
+                    .field("file", testData1, MediaType.TEXT_PLAIN_TYPE),
+                MediaType.MULTIPART_FORM_DATA)),
+        Response.Status.BAD_REQUEST, RepoException.Type.ObjectDataChecksumMismatch);
+
+    assertRepoError(target("/objects/" + bucketName).queryParam("key", "object1")
+            .request().accept(MediaType.APPLICATION_JSON_TYPE).get(),
+        Response.Status.NOT_FOUND, RepoException.Type.ObjectNotFound);
+  }
+
   @Test
   public void createWithInvalidCreateMethod() {
     createBucket(bucketName, CREATION_DATE_TIME);
@@ -715,4 +836,383 @@ public class ObjectControllerTest extends RepoBaseJerseyTest {
     assertEquals(USER_METADATA, responseObj.get("userMetadata").getAsString());
   }
 
+  @Test
+  public void readObjectRanges() throws Exception {
+    createBucket(bucketName, CREATION_DATE_TIME);
+
+    Response response = target("/objects").request()
+        .post(Entity.entity(new FormDataMultiPart()
+                .field("bucketName", bucketName).field("create", "new")
+                .field("key", "object1").field("contentType", "text/plain")
+                .field("file", testData1, MediaType.TEXT_PLAIN_TYPE),
+            MediaType.MULTIPART_FORM_DATA
+        ));
+    assertEquals(Response.Status.CREATED.getStatusCode(), response.getStatus());
+
+    // single range
+    response = target("/objects/" + bucketName).queryParam("key", "object1").request()
+        .header("Range", "bytes=5-8").get();
+    assertEquals(Response.Status.PARTIAL_CONTENT.getStatusCode(), response.getStatus());
+    assertEquals("bytes 5-8/" + testData1.length(), response.getHeaderString("Content-Range"));
+    assertEquals("data", response.readEntity(String.class));
+
+    // suffix range
+    response = target("/objects/" + bucketName).queryParam("key", "object1").request()
+        .header("Range", "bytes=-5").get();
+    assertEquals(Response.Status.PARTIAL_CONTENT.getStatusCode(), response.getStatus());
+    assertEquals("here.", response.readEntity(String.class));
+
+    // multiple ranges
+    response = target("/objects/" + bucketName).queryParam("key", "object1").request()
+        .header("Range", "bytes=0-3,10-12").get();
+    assertEquals(Response.Status.PARTIAL_CONTENT.getStatusCode(), response.getStatus());
+    assertTrue(response.getHeaderString("Content-Type").startsWith("multipart/byteranges; boundary="));
+    String body = response.readEntity(String.class);
+    assertTrue(body.contains("Content-Range: bytes 0-3/" + testData1.length() + "\r\n\r\ntest\r\n"));
+    assertTrue(body.contains("Content-Range: bytes 10-12/" + testData1.length() + "\r\n\r\none\r\n"));
+
+    // unsatisfiable range
+    response = target("/objects/" + bucketName).queryParam("key", "object1").request()
+        .header("Range", "bytes=100-200").get();
+    assertEquals(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE.getStatusCode(), response.getStatus());
+    assertEquals("bytes */" + testData1.length(), response.getHeaderString("Content-Range"));
+
+    // a stale If-Range validator returns the whole object
+    response = target("/objects/" + bucketName).queryParam("key", "object1").request()
+        .header("Range", "bytes=5-8").header("If-Range", "Mon, 01 Jan 2001 00:00:00 GMT").get();
+    assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+    assertEquals("bytes", response.getHeaderString("Accept-Ranges"));
+    assertEquals(testData1, response.readEntity(String.class));
+
+    // a current If-Range entity tag returns the range
+    String entityTag = response.getHeaderString("ETag");
+    response = target("/objects/" + bucketName).queryParam("key", "object1").request()
+        .header("Range", "bytes=5-8").header("If-Range", entityTag).get();
+    assertEquals(Response.Status.PARTIAL_CONTENT.getStatusCode(), response.getStatus());
+    assertEquals("data", response.readEntity(String.class));
+  }
+
+  @Test
+  public void readMetadataBatch() throws Exception {
+    createBucket(bucketName, CREATION_DATE_TIME);
+
+    assertEquals(target("/objects").request()
+            .post(Entity.entity(new FormDataMultiPart()
+                    .field("bucketName", bucketName).field("create", "new")
+                    .field("key", "object1").field("contentType", "text/plain")
+                    .field("timestamp", "2012-09-08 11:00:00").field("tag", "DRAFT")
+                    .field("file", testData1, MediaType.TEXT_PLAIN_TYPE),
+                MediaType.MULTIPART_FORM_DATA
+            )).getStatus(),
+        Response.Status.CREATED.getStatusCode());
+
+    assertEquals(target("/objects").request()
+            .post(Entity.entity(new FormDataMultiPart()
+                    .field("bucketName", bucketName).field("create", "version")
+                    .field("key", "object1").field("contentType", "text/plain")
+                    .field("timestamp", "2012-09-08 12:00:00").field("tag", "FINAL")
+                    .field("file", testData2, MediaType.TEXT_PLAIN_TYPE),
+                MediaType.MULTIPART_FORM_DATA
+            )).getStatus(),
+        Response.Status.CREATED.getStatusCode());
+
+    assertEquals(target("/objects").request()
+            .post(Entity.entity(new FormDataMultiPart()
+                    .field("bucketName", bucketName).field("create", "new")
+                    .field("key", "object2").field("contentType", "text/plain")
+                    .field("file", testData1, MediaType.TEXT_PLAIN_TYPE),
+                MediaType.MULTIPART_FORM_DATA
+            )).getStatus(),
+        Response.Status.CREATED.getStatusCode());
+
+    InputBatchLookup batchLookup = new InputBatchLookup(Arrays.asList(
+        new InputObjectLookup("object2", null, null, null),
+        new InputObjectLookup("missing", null, null, null),
+        new InputObjectLookup("object1", null, null, null),
+        new InputObjectLookup("object1", null, "DRAFT", null),
+        new InputObjectLookup("object1", 1, null, null),
+        new InputObjectLookup("object1", null, null, UUID.randomUUID().toString())
+    ));
+
+    Response response = target("/objects/meta/" + bucketName + "/batch").request(MediaType.APPLICATION_JSON_TYPE)
+        .post(Entity.entity(batchLookup, MediaType.APPLICATION_JSON_TYPE));
+    assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+
+    JsonArray results = gson.fromJson(response.readEntity(String.class), JsonElement.class).getAsJsonArray();
+    assertEquals(6, results.size());
+
+    String[] keys = {"object2", "missing", "object1", "object1", "object1", "object1"};
+    Integer[] versions = {0, null, 1, 0, 1, null};
+    for (int i = 0; i < keys.length; i++) {
+      JsonObject result = results.get(i).getAsJsonObject();
+      assertEquals(keys[i], result.get("key").getAsString());
+
+      if (versions[i] == null) {
+        assertTrue(result.get("object") == null);
+        assertEquals(RepoException.Type.ObjectNotFound.getValue(),
+            result.get("error").getAsJsonObject().get("repoErrorCode").getAsInt());
+      } else {
+        assertTrue(result.get("error") == null);
+        assertEquals(versions[i].intValue(), result.get("object").getAsJsonObject().get("versionNumber").getAsInt());
+      }
+    }
+
+    // served again, partly from the cache
+    response = target("/objects/meta/" + bucketName + "/batch").request(MediaType.APPLICATION_JSON_TYPE)
+        .post(Entity.entity(batchLookup, MediaType.APPLICATION_JSON_TYPE));
+    assertEquals(6, gson.fromJson(response.readEntity(String.class), JsonElement.class).getAsJsonArray().size());
+
+    assertRepoError(target("/objects/meta/" + bucketName + "/batch").request(MediaType.APPLICATION_JSON_TYPE)
+            .post(Entity.entity(new InputBatchLookup(Arrays.asList(new InputObjectLookup(null, 1, null, null))),
+                MediaType.APPLICATION_JSON_TYPE)),
+        Response.Status.BAD_REQUEST, RepoException.Type.NoKeyEntered);
+
+    assertRepoError(target("/objects/meta/" + bucketName + "/batch").request(MediaType.APPLICATION_JSON_TYPE)
+            .post(Entity.entity(new InputBatchLookup(Arrays.asList(new InputObjectLookup("object1", null, null, "bad"))),
+                MediaType.APPLICATION_JSON_TYPE)),
+        Response.Status.BAD_REQUEST, RepoException.Type.InvalidUuid);
+
+    assertRepoError(target("/objects/meta/" + bucketName + "/batch").request(MediaType.APPLICATION_JSON_TYPE)
+            .post(Entity.entity(new InputBatchLookup(Collections.nCopies(RepoService.MAX_BATCH_SIZE + 1,
+                new InputObjectLookup("object1", null, null, null))), MediaType.APPLICATION_JSON_TYPE)),
+        Response.Status.BAD_REQUEST, RepoException.Type.TooManyObjectsRequested);
+
+    assertRepoError(target("/objects/meta/nobucket/batch").request(MediaType.APPLICATION_JSON_TYPE)
+            .post(Entity.entity(batchLookup, MediaType.APPLICATION_JSON_TYPE)),
+        Response.Status.NOT_FOUND, RepoException.Type.BucketNotFound);
+  }
+
+  @Test
+  public void createBatchRepeatedKeyIgnoresCase() throws Exception {
+    createBucket(bucketName, CREATION_DATE_TIME);
+
+    // the database may compare keys ignoring their case, so these are the same key
+    String objects = "{\"objects\": [" +
+        "{\"key\": \"object1\", \"create\": \"new\", \"file\": \"file1\"}, " +
+        "{\"key\": \"OBJECT1\", \"create\": \"new\", \"file\": \"file1\"}]}";
+
+    Response response = target("/objects/batch/" + bucketName).request()
+        .accept(MediaType.APPLICATION_JSON_TYPE)
+        .post(Entity.entity(new FormDataMultiPart()
+                .field("objects", objects, MediaType.APPLICATION_JSON_TYPE)
+                .field("file1", testData1, MediaType.TEXT_PLAIN_TYPE),
+            MediaType.MULTIPART_FORM_DATA));
+    assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+
+    JsonArray results = gson.fromJson(response.readEntity(String.class), JsonElement.class).getAsJsonArray();
+    assertEquals(2, results.size());
+    assertNotNull(results.get(0).getAsJsonObject().get("object"));
+    assertEquals(RepoException.Type.ObjectKeyRepeated.getValue(),
+        results.get(1).getAsJsonObject().get("error").getAsJsonObject().get("repoErrorCode").getAsInt());
+  }
+
+  @Test
+  public void createBatch() throws Exception {
+    createBucket(bucketName, CREATION_DATE_TIME);
+
+    String objects = "{\"objects\": [" +
+        "{\"key\": \"object1\", \"create\": \"new\", \"contentType\": \"text/plain\", \"file\": \"file1\"}, " +
+        "{\"key\": \"object2\", \"create\": \"auto\", \"tag\": \"DRAFT\", \"file\": \"file2\"}, " +
+        "{\"key\": \"object1\", \"create\": \"new\", \"file\": \"file2\"}, " +
+        "{\"key\": \"object3\", \"create\": \"version\", \"file\": \"file2\"}, " +
+        "{\"key\": \"object4\", \"create\": \"new\"}]}";
+
+    Response response = target("/objects/batch/" + bucketName).request()
+        .accept(MediaType.APPLICATION_JSON_TYPE)
+        .post(Entity.entity(new FormDataMultiPart()
+                .field("objects", objects, MediaType.APPLICATION_JSON_TYPE)
+                .field("file1", testData1, MediaType.TEXT_PLAIN_TYPE)
+                .field("file2", testData2, MediaType.TEXT_PLAIN_TYPE),
+            MediaType.MULTIPART_FORM_DATA));
+    assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+
+    JsonArray results = gson.fromJson(response.readEntity(String.class), JsonElement.class).getAsJsonArray();
+    assertEquals(5, results.size());
+
+    JsonObject object1 = results.get(0).getAsJsonObject().get("object").getAsJsonObject();
+    assertEquals("object1", object1.get("key").getAsString());
+    assertEquals("text/plain", object1.get("contentType").getAsString());
+    assertEquals(testData1.length(), object1.get("size").getAsLong());
+    assertEquals("DRAFT", results.get(1).getAsJsonObject().get("object").getAsJsonObject().get("tag").getAsString());
+
+    RepoException.Type[] errors = {null, null, RepoException.Type.ObjectKeyRepeated,
+        RepoException.Type.CantCreateVersionWithNoOrig, RepoException.Type.NoFileEntered};
+    for (int i = 2; i < errors.length; i++) {
+      JsonObject result = results.get(i).getAsJsonObject();
+      assertNull(result.get("object"));
+      assertEquals(errors[i].getValue(), result.get("error").getAsJsonObject().get("repoErrorCode").getAsInt());
+    }
+
+    response = target("/objects/" + bucketName).queryParam("key", "object2").request().get();
+    assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+    assertEquals(testData2, response.readEntity(String.class));
+
+    // new versions that keep or reference stored content, and a new object
+    objects = "{\"objects\": [" +
+        "{\"key\": \"object1\", \"create\": \"version\", \"tag\": \"FINAL\"}, " +
+        "{\"key\": \"object2\", \"create\": \"auto\", \"checksum\": \"" +
+        object1.get("checksum").getAsString() + "\"}, " +
+        "{\"key\": \"object3\", \"create\": \"new\", \"file\": \"file3\"}]}";
+
+    response = target("/objects/batch/" + bucketName).request()
+        .accept(MediaType.APPLICATION_JSON_TYPE)
+        .post(Entity.entity(new FormDataMultiPart()
+                .field("objects", objects, MediaType.TEXT_PLAIN_TYPE)
+                .field("file3", testData1, MediaType.TEXT_PLAIN_TYPE),
+            MediaType.MULTIPART_FORM_DATA));
+    assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+
+    results = gson.fromJson(response.readEntity(String.class), JsonElement.class).getAsJsonArray();
+    for (int i = 0; i < 3; i++) {
+      assertNull(results.get(i).getAsJsonObject().get("error"));
+    }
+
+    JsonObject version = results.get(0).getAsJsonObject().get("object").getAsJsonObject();
+    assertEquals(1, version.get("versionNumber").getAsInt());
+    assertEquals("FINAL", version.get("tag").getAsString());
+    assertEquals("text/plain", version.get("contentType").getAsString());
+    assertEquals(object1.get("checksum").getAsString(), version.get("checksum").getAsString());
+
+    response = target("/objects/" + bucketName).queryParam("key", "object2").request().get();
+    assertEquals(testData1, response.readEntity(String.class));
+
+    // the bucket and each created object are audited
+    sqlService.getReadOnlyConnection();
+    try {
+      assertEquals(6, sqlService.listAudit(bucketName, null, null, null, null).size());
+    } finally {
+      sqlService.releaseConnection();
+    }
+  }
+
+  @Test
+  public void createBatchErrors() throws Exception {
+    String objects = "{\"objects\": [{\"key\": \"object1\", \"create\": \"new\", \"file\": \"file1\"}]}";
+
+    assertRepoError(target("/objects/batch/" + bucketName).request()
+            .accept(MediaType.APPLICATION_JSON_TYPE)
+            .post(Entity.entity(new FormDataMultiPart()
+                    .field("objects", objects, MediaType.APPLICATION_JSON_TYPE)
+                    .field("file1", testData1, MediaType.TEXT_PLAIN_TYPE),
+                MediaType.MULTIPART_FORM_DATA)),
+        Response.Status.NOT_FOUND, RepoException.Type.BucketNotFound);
+
+    createBucket(bucketName, CREATION_DATE_TIME);
+
+    assertRepoError(target("/objects/batch/" + bucketName).request()
+            .accept(MediaType.APPLICATION_JSON_TYPE)
+            .post(Entity.entity(new FormDataMultiPart()
+                    .field("file1", testData1, MediaType.TEXT_PLAIN_TYPE),
+                MediaType.MULTIPART_FORM_DATA)),
+        Response.Status.BAD_REQUEST, RepoException.Type.NoKeyEntered);
+
+    assertRepoError(target("/objects/batch/" + bucketName).request()
+            .accept(MediaType.APPLICATION_JSON_TYPE)
+            .post(Entity.entity(new FormDataMultiPart()
+                    .field("objects", "{\"objects\": [}", MediaType.APPLICATION_JSON_TYPE),
+                MediaType.MULTIPART_FORM_DATA)),
+        Response.Status.BAD_REQUEST, RepoException.Type.InvalidBatch);
+  }
+
+  @Test
+  public void listObjectsStreamed() throws Exception {
+    createBucket(bucketName, CREATION_DATE_TIME);
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(target("/objects").request()
+              .post(Entity.entity(new FormDataMultiPart()
+                      .field("bucketName", bucketName).field("create", "new")
+                      .field("key", "object" + i).field("contentType", "text/plain").field("tag", "tag" + i)
+                      .field("userMetadata", "{\"index\": " + i + "}")
+                      .field("file", testData1, MediaType.TEXT_PLAIN_TYPE),
+                  MediaType.MULTIPART_FORM_DATA
+              )).getStatus(),
+          Response.Status.CREATED.getStatusCode());
+    }
+
+    Response response = target("/objects").queryParam("bucketName", bucketName)
+        .request(MediaType.APPLICATION_JSON_TYPE).get();
+    assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+    assertTrue(response.getMediaType().isCompatible(MediaType.APPLICATION_JSON_TYPE));
+
+    JsonArray objects = gson.fromJson(response.readEntity(String.class), JsonElement.class).getAsJsonArray();
+    assertEquals(3, objects.size());
+
+    // each streamed entry is marshalled like the metadata of a single object
+    for (JsonElement object : objects) {
+      String key = object.getAsJsonObject().get("key").getAsString();
+      JsonElement metadata = gson.fromJson(target("/objects/meta/" + bucketName).queryParam("key", key)
+          .request(MediaType.APPLICATION_JSON_TYPE).get(String.class), JsonElement.class);
+      assertEquals(metadata, object);
+    }
+
+    response = target("/objects").queryParam("bucketName", bucketName).queryParam("limit", "1")
+        .request(MediaType.APPLICATION_JSON_TYPE).get();
+    assertEquals(1, gson.fromJson(response.readEntity(String.class), JsonElement.class).getAsJsonArray().size());
+
+    response = target("/objects").queryParam("bucketName", "nobucket").request(MediaType.APPLICATION_JSON_TYPE).get();
+    assertRepoError(response, Response.Status.NOT_FOUND, RepoException.Type.BucketNotFound);
+  }
+
+  @Test
+  public void listObjectsAfterCursor() throws Exception {
+    createBucket(bucketName, CREATION_DATE_TIME);
+
+    for (int i = 0; i < 5; i++) {
+      assertEquals(target("/objects").request()
+              .post(Entity.entity(new FormDataMultiPart()
+                      .field("bucketName", bucketName).field("create", "new")
+                      .field("key", "object" + i).field("contentType", "text/plain")
+                      .field("file", testData1, MediaType.TEXT_PLAIN_TYPE),
+                  MediaType.MULTIPART_FORM_DATA
+              )).getStatus(),
+          Response.Status.CREATED.getStatusCode());
+    }
+
+    // follow the continuation tokens two objects at a time
+    List<String> keys = new ArrayList<>();
+    String cursor = null;
+    int pages = 0;
+    do {
+      WebTarget page = target("/objects").queryParam("bucketName", bucketName).queryParam("limit", "2");
+      if (cursor != null) {
+        page = page.queryParam("after", cursor);
+      }
+      Response response = page.request(MediaType.APPLICATION_JSON_TYPE).get();
+      assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+      cursor = response.getHeaderString(ObjectController.NEXT_CURSOR_HEADER);
+
+      for (JsonElement object : gson.fromJson(response.readEntity(String.class), JsonElement.class).getAsJsonArray()) {
+        keys.add(object.getAsJsonObject().get("key").getAsString());
+      }
+      pages++;
+    } while (cursor != null);
+
+    assertEquals(3, pages);
+    assertEquals(Arrays.asList("object0", "object1", "object2", "object3", "object4"), keys);
+
+    // the last page is full, so its token leads to an empty page
+    Response response = target("/objects").queryParam("bucketName", bucketName).queryParam("limit", "5")
+        .request(MediaType.APPLICATION_JSON_TYPE).get();
+    cursor = response.getHeaderString(ObjectController.NEXT_CURSOR_HEADER);
+    assertNotNull(cursor);
+    response = target("/objects").queryParam("bucketName", bucketName).queryParam("after", cursor)
+        .request(MediaType.APPLICATION_JSON_TYPE).get();
+    assertEquals(0, gson.fromJson(response.readEntity(String.class), JsonElement.class).getAsJsonArray().size());
+    assertNull(response.getHeaderString(ObjectController.NEXT_CURSOR_HEADER));
+
+    // offset pagination is left as it was
+    response = target("/objects").queryParam("bucketName", bucketName).queryParam("offset", "1")
+        .request(MediaType.APPLICATION_JSON_TYPE).get();
+    assertEquals(4, gson.fromJson(response.readEntity(String.class), JsonElement.class).getAsJsonArray().size());
+    assertNull(response.getHeaderString(ObjectController.NEXT_CURSOR_HEADER));
+
+    assertRepoError(target("/objects").queryParam("bucketName", bucketName).queryParam("after", "not-a-cursor")
+        .request(MediaType.APPLICATION_JSON_TYPE).get(), Response.Status.BAD_REQUEST, RepoException.Type.InvalidCursor);
+
+    assertRepoError(target("/objects").queryParam("bucketName", bucketName).queryParam("after", cursor)
+            .queryParam("offset", "1").request(MediaType.APPLICATION_JSON_TYPE).get(),
+        Response.Status.BAD_REQUEST, RepoException.Type.InvalidOffset);
+  }
+
 }
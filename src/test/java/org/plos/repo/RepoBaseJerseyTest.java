@@ -33,7 +33,9 @@ import org.junit.AfterClass;
 import org.junit.Before;
 import org.plos.repo.models.Bucket;
 import org.plos.repo.models.RepoObject;
+import org.plos.repo.service.ObjectKeyFilter;
 import org.plos.repo.service.ObjectStore;
+import org.plos.repo.service.RepoObjectCache;
 import org.plos.repo.service.RepoException;
 import org.plos.repo.service.SqlService;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
@@ -55,6 +57,10 @@ public abstract class RepoBaseJerseyTest extends JerseyTest{
 
   protected DataSource dataSource;
 
+  protected RepoObjectCache objectCache;
+
+  protected ObjectKeyFilter objectKeyFilter;
+
   protected Gson gson = new Gson();
 
   protected static AnnotationConfigApplicationContext context;
@@ -64,6 +70,8 @@ public abstract class RepoBaseJerseyTest extends JerseyTest{
     sqlService = context.getBean(SqlService.class);
     objectStore = context.getBean(ObjectStore.class);
     dataSource = context.getBean(DataSource.class);
+    objectCache = context.getBean(RepoObjectCache.class);
+    objectKeyFilter = context.getBean(ObjectKeyFilter.class);
   }
 
   protected void assertRepoError(Response response, Response.Status httpStatus, RepoException.Type repoError) {
@@ -117,9 +125,16 @@ public abstract class RepoBaseJerseyTest extends JerseyTest{
       st.executeUpdate("delete from collectionObject");
       st.executeUpdate("delete from collections");
       st.executeUpdate("delete from objects");
+      st.executeUpdate("delete from objectVersionCounters");
+      st.executeUpdate("delete from collectionVersionCounters");
       st.executeUpdate("delete from buckets");
       st.executeUpdate("delete from audit");
+      st.executeUpdate("delete from auditOutbox");
     }
+
+    // the rows were removed behind the services' back
+    objectCache.invalidateAll();
+    objectKeyFilter.clear();
   }
 
 }
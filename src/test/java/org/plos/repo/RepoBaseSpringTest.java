@@ -26,7 +26,9 @@ import org.junit.Before;
 import org.junit.runner.RunWith;
 import org.plos.repo.models.Bucket;
 import org.plos.repo.models.RepoObject;
+import org.plos.repo.service.ObjectKeyFilter;
 import org.plos.repo.service.ObjectStore;
+import org.plos.repo.service.RepoObjectCache;
 import org.plos.repo.service.RepoService;
 import org.plos.repo.service.SqlService;
 import org.springframework.test.context.ContextConfiguration;
@@ -54,6 +56,12 @@ public abstract class RepoBaseSpringTest {
   @Inject
   protected DataSource dataSource;
 
+  @Inject
+  protected RepoObjectCache objectCache;
+
+  @Inject
+  protected ObjectKeyFilter objectKeyFilter;
+
   /**
    * Clean de data base before to run each test
    * @throws Exception
@@ -77,8 +85,15 @@ public abstract class RepoBaseSpringTest {
       st.executeUpdate("delete from collectionObject");
       st.executeUpdate("delete from collections");
       st.executeUpdate("delete from objects");
+      st.executeUpdate("delete from objectVersionCounters");
+      st.executeUpdate("delete from collectionVersionCounters");
       st.executeUpdate("delete from buckets");
       st.executeUpdate("delete from audit");
+      st.executeUpdate("delete from auditOutbox");
     }
+
+    // the rows were removed behind the services' back
+    objectCache.invalidateAll();
+    objectKeyFilter.clear();
   }
 }
@@ -37,6 +37,7 @@ import org.plos.repo.models.RepoObject;
 import org.plos.repo.models.Status;
 import org.plos.repo.models.input.ElementFilter;
 import org.plos.repo.models.input.InputRepoObject;
+import org.plos.repo.service.AuditWriter;
 import org.plos.repo.service.BaseRepoService;
 import org.plos.repo.service.ObjectStore;
 import org.plos.repo.service.RepoException;
@@ -45,6 +46,9 @@ import org.plos.repo.service.SqlService;
 
 import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.Calendar;
 import java.util.Date;
@@ -71,6 +75,14 @@ public class RepoServiceSpringTest extends RepoBaseSpringTest {
     Field sqlServiceField = BaseRepoService.class.getDeclaredField("sqlService");
     sqlServiceField.setAccessible(true);
     sqlServiceField.set(repoService, sqlService);
+
+    Field objectCacheField = RepoService.class.getDeclaredField("objectCache");
+    objectCacheField.setAccessible(true);
+    objectCacheField.set(repoService, objectCache);
+
+    Field objectKeyFilterField = RepoService.class.getDeclaredField("objectKeyFilter");
+    objectKeyFilterField.setAccessible(true);
+    objectKeyFilterField.set(repoService, objectKeyFilter);
   }
 
   @Test
@@ -859,6 +871,136 @@ public class RepoServiceSpringTest extends RepoBaseSpringTest {
     Assert.assertEquals(repoObject.getUuid(), resultRepoObject.getUuid());
   }
 
+  @Test
+  public void getObjectServedFromCacheTest() throws Exception {
+    repoService.createBucket(bucket1.getBucketName(), CREATION_DATE_TIME_STRING);
+    repoService.createObject(RepoService.CreateMethod.NEW, createInputRepoObject());
+
+    SqlService spySqlService = Mockito.spy(sqlService);
+
+    Field sqlServiceField = BaseRepoService.class.getDeclaredField("sqlService");
+    sqlServiceField.setAccessible(true);
+    sqlServiceField.set(repoService, spySqlService);
+
+    RepoObject repoObject1 = repoService.getObject(bucket1.getBucketName(), KEY, null);
+    RepoObject repoObject2 = repoService.getObject(bucket1.getBucketName(), KEY, null);
+
+    Assert.assertEquals(repoObject1.getUuid(), repoObject2.getUuid());
+    Mockito.verify(spySqlService, Mockito.times(1)).getObject(bucket1.getBucketName(), KEY);
+
+    // a new version must evict the cached latest version
+    Timestamp laterCreationDateTime = new Timestamp(CREATION_DATE_TIME.getTime() + 1000);
+    InputRepoObject inputRepoObject = createInputRepoObject();
+    inputRepoObject.setUploadedInputStream(IOUtils.toInputStream("data2"));
+    inputRepoObject.setCreationDateTime(laterCreationDateTime.toString());
+    inputRepoObject.setTimestamp(laterCreationDateTime.toString());
+    repoService.createObject(RepoService.CreateMethod.VERSION, inputRepoObject);
+
+    RepoObject repoObject3 = repoService.getObject(bucket1.getBucketName(), KEY, null);
+    Assert.assertEquals(new Integer(1), repoObject3.getVersionNumber());
+  }
+
+  @Test
+  public void getMissingObjectRejectedByKeyFilterTest() throws Exception {
+    repoService.createBucket(bucket1.getBucketName(), CREATION_DATE_TIME_STRING);
+    repoService.createObject(RepoService.CreateMethod.NEW, createInputRepoObject());
+
+    SqlService spySqlService = Mockito.spy(sqlService);
+
+    Field sqlServiceField = BaseRepoService.class.getDeclaredField("sqlService");
+    sqlServiceField.setAccessible(true);
+    sqlServiceField.set(repoService, spySqlService);
+
+    objectCache.invalidateAll();
+    Assert.assertNotNull(repoService.getObject(bucket1.getBucketName(), KEY, null));
+
+    try {
+      repoService.getObject(bucket1.getBucketName(), "missingKey", null);
+      Assert.fail();
+    } catch (RepoException e) {
+      Assert.assertEquals(RepoException.Type.ObjectNotFound, e.getType());
+    }
+
+    Mockito.verify(spySqlService, Mockito.times(1)).getObject(bucket1.getBucketName(), KEY);
+    Mockito.verify(spySqlService, Mockito.never()).getObject(bucket1.getBucketName(), "missingKey");
+  }
+
+  @Test
+  public void versionNumbersFromCounters() throws Exception {
+    repoService.createBucket(bucket1.getBucketName(), CREATION_DATE_TIME_STRING);
+    repoService.createObject(RepoService.CreateMethod.NEW, createInputRepoObject());
+    repoService.createObject(RepoService.CreateMethod.VERSION, createInputRepoObject());
+
+    // a rolled back transaction gives its version number back
+    sqlService.getConnection();
+    Assert.assertEquals(2, sqlService.getObjectNextAvailableVersion(bucket1.getBucketName(), KEY).intValue());
+    sqlService.transactionRollback();
+    sqlService.releaseConnection();
+
+    // a key whose counter is missing, as before the backfill, continues after its highest version
+    try (Connection connection = dataSource.getConnection();
+         Statement st = connection.createStatement()) {
+      st.executeUpdate("delete from objectVersionCounters");
+    }
+
+    Assert.assertEquals(2, repoService.createObject(RepoService.CreateMethod.VERSION, createInputRepoObject())
+        .getVersionNumber().intValue());
+    Assert.assertEquals(3, repoService.createObject(RepoService.CreateMethod.VERSION, createInputRepoObject())
+        .getVersionNumber().intValue());
+
+    sqlService.getConnection();
+    Assert.assertEquals(0, sqlService.getObjectNextAvailableVersion(bucket1.getBucketName(), "newKey").intValue());
+    sqlService.transactionRollback();
+    sqlService.releaseConnection();
+  }
+
+  @Test
+  public void asynchronousAudits() throws Exception {
+    AuditWriter auditWriter = new AuditWriter(60000, 2);
+
+    Field writerSqlServiceField = AuditWriter.class.getDeclaredField("sqlService");
+    writerSqlServiceField.setAccessible(true);
+    writerSqlServiceField.set(auditWriter, sqlService);
+
+    Field auditWriterField = BaseRepoService.class.getDeclaredField("auditWriter");
+    auditWriterField.setAccessible(true);
+    Object synchronousWriter = auditWriterField.get(repoService);
+    auditWriterField.set(repoService, auditWriter);
+
+    try {
+      repoService.createBucket(bucket1.getBucketName(), CREATION_DATE_TIME_STRING);
+      repoService.createObject(RepoService.CreateMethod.NEW, createInputRepoObject());
+      repoService.createObject(RepoService.CreateMethod.VERSION, createInputRepoObject());
+
+      // the rows wait in the outbox until it is moved
+      sqlService.getReadOnlyConnection();
+      Assert.assertEquals(0, sqlService.listAudit(bucket1.getBucketName(), null, null, null, null).size());
+      sqlService.releaseConnection();
+
+      auditWriter.flush();
+
+      sqlService.getReadOnlyConnection();
+      List<Audit> audits = sqlService.listAuditRecords(0, 10);
+      sqlService.releaseConnection();
+
+      Assert.assertEquals(3, audits.size());
+      Assert.assertEquals(Operation.CREATE_BUCKET, audits.get(0).getOperation());
+      Assert.assertEquals(Operation.CREATE_OBJECT, audits.get(1).getOperation());
+      Assert.assertEquals(Operation.UPDATE_OBJECT, audits.get(2).getOperation());
+      Assert.assertEquals(KEY, audits.get(2).getKey());
+      Assert.assertNotNull(audits.get(2).getUuid());
+
+      try (Connection connection = dataSource.getConnection();
+           Statement st = connection.createStatement();
+           ResultSet result = st.executeQuery("select count(*) from auditOutbox")) {
+        result.next();
+        Assert.assertEquals(0, result.getInt(1));
+      }
+    } finally {
+      auditWriterField.set(repoService, synchronousWriter);
+    }
+  }
+
   private InputRepoObject createInputRepoObject() {
     InputRepoObject inputRepoObject = new InputRepoObject();
     inputRepoObject.setKey(KEY);
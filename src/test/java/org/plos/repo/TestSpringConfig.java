@@ -26,16 +26,23 @@ import org.hsqldb.jdbc.JDBCDataSource;
 import org.plos.repo.models.validator.InputCollectionValidator;
 import org.plos.repo.models.validator.InputRepoObjectValidator;
 import org.plos.repo.models.validator.TimestampInputValidator;
+import org.plos.repo.service.AdmissionController;
 import org.plos.repo.service.AuditRepoService;
+import org.plos.repo.service.AuditWriter;
 import org.plos.repo.service.CollectionRepoService;
 import org.plos.repo.service.HsqlService;
 import org.plos.repo.service.InMemoryFileStoreService;
+import org.plos.repo.service.ObjectKeyFilter;
 import org.plos.repo.service.ObjectStore;
 import org.plos.repo.service.RepoInfoService;
+import org.plos.repo.service.RepoObjectCache;
+import org.plos.repo.service.ReplicaRouter;
 import org.plos.repo.service.RepoService;
+import org.plos.repo.service.RequestExecutors;
 import org.plos.repo.service.ScriptRunner;
 import org.plos.repo.service.SqlService;
 import org.plos.repo.util.ChecksumGenerator;
+import org.plos.repo.util.UploadSpooler;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.ClassPathResource;
@@ -62,6 +69,37 @@ public class TestSpringConfig {
     return new RepoService();
   }
 
+  @Bean
+  public RepoObjectCache repoObjectCache() {
+    return new RepoObjectCache();
+  }
+
+  @Bean
+  public ObjectKeyFilter objectKeyFilter() {
+    return new ObjectKeyFilter();
+  }
+
+  @Bean
+  public RequestExecutors requestExecutors() {
+    return new RequestExecutors();
+  }
+
+  @Bean
+  public AdmissionController admissionController() {
+    return new AdmissionController();
+  }
+
+  @Bean
+  public ReplicaRouter replicaRouter() {
+    return new ReplicaRouter();
+  }
+
+  @Bean
+  public AuditWriter auditWriter() {
+    // the tests read the audit table right after each operation
+    return new AuditWriter(0, AuditWriter.DEFAULT_BATCH_SIZE);
+  }
+
   @Bean
   public CollectionRepoService collectionRepoService() {
     return new CollectionRepoService();
@@ -90,6 +128,11 @@ public class TestSpringConfig {
     return new ChecksumGenerator();
   }
 
+  @Bean
+  public UploadSpooler uploadSpooler() {
+    return new UploadSpooler();
+  }
+
   @Bean
   public ObjectStore objectStore() throws Exception {
     return new InMemoryFileStoreService();
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.benchmark;
+
+import org.apache.commons.io.IOUtils;
+import org.plos.repo.rest.FileChannelOutput;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+
+/**
+ * Compares the throughput of the ways a file system object can be sent to a client over a loopback socket:
+ * <ul>
+ * <li>stream: copying a {@link FileInputStream} through a heap buffer, as Jersey does for an InputStream entity</li>
+ * <li>channel: {@link FileChannelOutput} writing to a response stream, the fallback when sendfile is not available</li>
+ * <li>sendfile: {@link FileChannel#transferTo} straight to the socket, as the container does with sendfile</li>
+ * </ul>
+ * Run it from the test classpath: <code>java org.plos.repo.benchmark.DownloadBenchmark [fileSizeMB] [iterations]</code>
+ */
+public class DownloadBenchmark {
+
+  private interface Sender {
+    void send(File file, SocketChannel socket) throws Exception;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int fileSizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+    File file = createFile(fileSizeMB);
+
+    try (ServerSocketChannel server = ServerSocketChannel.open()) {
+      server.bind(new InetSocketAddress("localhost", 0));
+      startDrain(server);
+
+      try (SocketChannel socket = SocketChannel.open(server.getLocalAddress())) {
+        final OutputStream socketOutput = Channels.newOutputStream(socket);
+
+        Sender stream = new Sender() {
+          @Override
+          public void send(File file, SocketChannel socket) throws Exception {
+            try (InputStream in = new FileInputStream(file)) {
+              IOUtils.copyLarge(in, socketOutput, new byte[8192]);
+            }
+          }
+        };
+
+        Sender channel = new Sender() {
+          @Override
+          public void send(File file, SocketChannel socket) throws Exception {
+            new FileChannelOutput(file, 0, file.length()).write(socketOutput);
+          }
+        };
+
+        Sender sendfile = new Sender() {
+          @Override
+          public void send(File file, SocketChannel socket) throws Exception {
+            try (FileInputStream in = new FileInputStream(file)) {
+              FileChannel fileChannel = in.getChannel();
+              long position = 0;
+              while (position < file.length()) {
+                position += fileChannel.transferTo(position, file.length() - position, socket);
+              }
+            }
+          }
+        };
+
+        // warm up, then measure
+        for (int round = 0; round < 2; round++) {
+          boolean report = round == 1;
+          run("stream", stream, file, socket, iterations, report);
+          run("channel", channel, file, socket, iterations, report);
+          run("sendfile", sendfile, file, socket, iterations, report);
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static void run(String name, Sender sender, File file, SocketChannel socket, int iterations, boolean report)
+      throws Exception {
+    long start = System.nanoTime();
+
+    for (int i = 0; i < iterations; i++) {
+      sender.send(file, socket);
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    if (report) {
+      double megabytes = (double) file.length() * iterations / (1024 * 1024);
+      System.out.println(String.format("%-10s %10.1f MB/s", name, megabytes / seconds));
+    }
+  }
+
+  private static File createFile(int sizeMB) throws Exception {
+    File file = File.createTempFile("download-benchmark", ".dat");
+    byte[] block = new byte[1024 * 1024];
+    new Random(0).nextBytes(block);
+
+    try (OutputStream out = new FileOutputStream(file)) {
+      for (int i = 0; i < sizeMB; i++) {
+        out.write(block);
+      }
+    }
+
+    return file;
+  }
+
+  private static void startDrain(final ServerSocketChannel server) {
+    Thread drain = new Thread() {
+      @Override
+      public void run() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+        try (SocketChannel client = server.accept()) {
+          while (client.read(buffer) >= 0) {
+            buffer.clear();
+          }
+        } catch (Exception e) {
+          // the benchmark has ended
+        }
+      }
+    };
+    drain.setDaemon(true);
+    drain.start();
+  }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.plos.repo.benchmark;
+
+import org.plos.repo.util.ChecksumGenerator;
+import org.plos.repo.util.ContentHasher;
+import org.plos.repo.util.UploadSpooler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+
+/**
+ * Compares the throughput of hashing an upload while it is written to a temporary file:
+ * <ul>
+ * <li>stream: a {@link DigestOutputStream} behind a channel, with a heap buffer allocated per upload, as the stores
+ * used to do</li>
+ * <li>sha1, sha1+crc32c, sha1+sha256+crc32c: the {@link ContentHasher} of {@link UploadSpooler#copy}, with the
+ * digests of each policy computed in the same pass</li>
+ * </ul>
+ * Run it from the test classpath: <code>java org.plos.repo.benchmark.HashBenchmark [sizeMB] [iterations]</code>
+ */
+public class HashBenchmark {
+
+  private static final String BUCKET_NAME = "benchmark";
+
+  private interface Upload {
+    void copy(InputStream input, File file) throws Exception;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final long sizeMB = args.length > 0 ? Long.parseLong(args[0]) : 2048;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+    final byte[] block = new byte[1024 * 1024];
+    new Random(1).nextBytes(block);
+
+    File file = File.createTempFile("hash-benchmark", ".tmp");
+    file.deleteOnExit();
+
+    final ChecksumGenerator sha1 = new ChecksumGenerator();
+    final ChecksumGenerator crc32c = new ChecksumGenerator("*:CRC32C");
+    final ChecksumGenerator all = new ChecksumGenerator("*:SHA-256,CRC32C");
+
+    Upload stream = new Upload() {
+      @Override
+      public void copy(InputStream input, File file) throws Exception {
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+          MessageDigest digest = MessageDigest.getInstance("SHA-1");
+          ReadableByteChannel in = Channels.newChannel(input);
+          WritableByteChannel out = Channels.newChannel(new DigestOutputStream(fos, digest));
+          ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+
+          while (in.read(buffer) != -1) {
+            buffer.flip();
+            out.write(buffer);
+            buffer.clear();
+          }
+
+          sha1.checksumToString(digest.digest());
+        }
+      }
+    };
+
+    System.out.println(String.format("%d MB uploads, best of %d", sizeMB, iterations));
+    System.out.println(String.format("%-20s %10s", "", "MB/s"));
+
+    // warm up, then measure
+    for (int round = 0; round < 2; round++) {
+      long mb = round == 0 ? Math.min(sizeMB, 256) : sizeMB;
+      int times = round == 0 ? 1 : iterations;
+
+      report(round, "stream", time(stream, block, mb, file, times), mb);
+      report(round, "sha1", time(engine(sha1), block, mb, file, times), mb);
+      report(round, "sha1+crc32c", time(engine(crc32c), block, mb, file, times), mb);
+      report(round, "sha1+sha256+crc32c", time(engine(all), block, mb, file, times), mb);
+    }
+  }
+
+  private static Upload engine(final ChecksumGenerator checksumGenerator) {
+    final UploadSpooler uploadSpooler = new UploadSpooler();
+
+    return new Upload() {
+      @Override
+      public void copy(InputStream input, File file) throws Exception {
+        ContentHasher hasher = checksumGenerator.newHasher(BUCKET_NAME);
+        uploadSpooler.copy(input, file, hasher);
+        hasher.getDigests();
+      }
+    };
+  }
+
+  private static void report(int round, String name, double seconds, long mb) {
+    if (round == 1) {
+      System.out.println(String.format("%-20s %10.1f", name, mb / seconds));
+    }
+  }
+
+  private static double time(Upload upload, byte[] block, long mb, File file, int iterations) throws Exception {
+    double best = Double.MAX_VALUE;
+
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      upload.copy(new RepeatingInputStream(block, mb), file);
+      best = Math.min(best, (System.nanoTime() - start) / 1e9);
+    }
+
+    return best;
+  }
+
+  /**
+   * A client sending <code>blocks</code> copies of a block, as fast as it is read.
+   */
+  private static class RepeatingInputStream extends InputStream {
+
+    private final byte[] block;
+    private long remaining;
+    private int position = 0;
+
+    private RepeatingInputStream(byte[] block, long blocks) {
+      this.block = block;
+      this.remaining = blocks * block.length;
+    }
+
+    @Override
+    public int read() {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (remaining == 0) {
+        return -1;
+      }
+
+      int n = (int) Math.min(Math.min(len, block.length - position), remaining);
+      System.arraycopy(block, position, b, off, n);
+      position = (position + n) % block.length;
+      remaining -= n;
+      return n;
+    }
+  }
+}
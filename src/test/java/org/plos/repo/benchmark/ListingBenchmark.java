@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.benchmark;
+
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.plos.repo.models.Bucket;
+import org.plos.repo.models.RepoObject;
+import org.plos.repo.models.Status;
+import org.plos.repo.service.HsqlService;
+import org.plos.repo.service.ScriptRunner;
+import org.plos.repo.service.SqlService;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * Compares the latency of reading a page of an object listing at increasing depths:
+ * <ul>
+ * <li>offset: <code>LIMIT n OFFSET m</code>, where the database reads and discards the <code>m</code> rows before the
+ * page</li>
+ * <li>keyset: <code>id &gt; ? ORDER BY id LIMIT n</code>, the query behind the <code>after=</code> continuation
+ * token, plus the lookup of the end of the page that produces the next token</li>
+ * </ul>
+ * It runs against an in-memory HSQL database created from <code>setup.hsql</code>.
+ * Run it from the test classpath: <code>java org.plos.repo.benchmark.ListingBenchmark [objects] [pageSize] [iterations]</code>
+ */
+public class ListingBenchmark {
+
+  private static final String BUCKET_NAME = "benchmark";
+
+  public static void main(String[] args) throws Exception {
+    int objects = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    int pageSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+    JDBCDataSource ds = new JDBCDataSource();
+    ds.setUrl("jdbc:hsqldb:mem:listing-benchmark;shutdown=true;sql.syntax_mys=true");
+    ds.setUser("");
+    ds.setPassword("");
+
+    // the in-memory database lives as long as this connection is open
+    try (Connection connection = ds.getConnection()) {
+      ScriptRunner scriptRunner = new ScriptRunner(connection, false, true);
+      scriptRunner.setLogWriter(null);
+      scriptRunner.runScript(new BufferedReader(new InputStreamReader(
+          new ClassPathResource("setup.hsql").getInputStream(), "UTF-8")));
+      connection.setAutoCommit(true);
+
+      SqlService sqlService = new HsqlService();
+      sqlService.setDataSource(ds);
+
+      populate(sqlService, ds, objects);
+
+      System.out.println(String.format("%d objects, pages of %d, mean of %d reads", objects, pageSize, iterations));
+      System.out.println(String.format("%10s %12s %12s", "depth", "offset ms", "keyset ms"));
+
+      int[] depths = {0, objects / 10, objects / 2, objects - pageSize};
+
+      // warm up, then measure
+      for (int round = 0; round < 2; round++) {
+        for (int depth : depths) {
+          double offsetMillis = timeOffset(sqlService, depth, pageSize, iterations);
+          double keysetMillis = timeKeyset(sqlService, idAtDepth(ds, depth), pageSize, iterations);
+
+          if (round == 1) {
+            System.out.println(String.format("%10d %12.2f %12.2f", depth, offsetMillis, keysetMillis));
+          }
+        }
+      }
+    }
+  }
+
+  private static double timeOffset(SqlService sqlService, int offset, int pageSize, int iterations) throws Exception {
+    long start = System.nanoTime();
+
+    for (int i = 0; i < iterations; i++) {
+      sqlService.getReadOnlyConnection();
+      try {
+        sqlService.listObjects(BUCKET_NAME, offset, pageSize, false, false, null, new DiscardingHandler());
+      } finally {
+        sqlService.releaseConnection();
+      }
+    }
+
+    return (System.nanoTime() - start) / 1e6 / iterations;
+  }
+
+  private static double timeKeyset(SqlService sqlService, int afterId, int pageSize, int iterations) throws Exception {
+    long start = System.nanoTime();
+
+    for (int i = 0; i < iterations; i++) {
+      sqlService.getReadOnlyConnection();
+      try {
+        Integer lastId = sqlService.getObjectPageEnd(BUCKET_NAME, afterId, pageSize, false, false, null);
+        sqlService.listObjectsAfter(BUCKET_NAME, afterId, lastId, pageSize, false, false, null, new DiscardingHandler());
+      } finally {
+        sqlService.releaseConnection();
+      }
+    }
+
+    return (System.nanoTime() - start) / 1e6 / iterations;
+  }
+
+  /**
+   * Returns the id of the object just before the given depth, i.e. what the continuation token of the previous page
+   * would hold.
+   */
+  private static int idAtDepth(JDBCDataSource ds, int depth) throws Exception {
+    if (depth == 0) {
+      return 0;
+    }
+
+    try (Connection connection = ds.getConnection();
+         PreparedStatement p = connection.prepareStatement("SELECT id FROM objects ORDER BY id LIMIT 1 OFFSET ?")) {
+      p.setInt(1, depth - 1);
+      try (ResultSet result = p.executeQuery()) {
+        result.next();
+        return result.getInt(1);
+      }
+    }
+  }
+
+  private static void populate(SqlService sqlService, JDBCDataSource ds, int objects) throws Exception {
+    Timestamp now = new Timestamp(System.currentTimeMillis());
+
+    sqlService.getConnection();
+    try {
+      sqlService.insertBucket(new Bucket(BUCKET_NAME), now);
+      sqlService.transactionCommit();
+    } finally {
+      sqlService.releaseConnection();
+    }
+
+    int bucketId;
+    try (Connection connection = ds.getConnection();
+         PreparedStatement p = connection.prepareStatement("SELECT bucketId FROM buckets WHERE bucketName = ?")) {
+      p.setString(1, BUCKET_NAME);
+      try (ResultSet result = p.executeQuery()) {
+        result.next();
+        bucketId = result.getInt(1);
+      }
+    }
+
+    try (Connection connection = ds.getConnection();
+         PreparedStatement p = connection.prepareStatement("INSERT INTO objects (bucketId, objkey, checksum, " +
+             "timestamp, contentType, size, status, versionNumber, creationDate, uuid) " +
+             "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+      connection.setAutoCommit(false);
+
+      for (int i = 0; i < objects; i++) {
+        p.setInt(1, bucketId);
+        p.setString(2, "object" + i);
+        p.setString(3, "checksum" + i);
+        p.setTimestamp(4, now);
+        p.setString(5, "text/plain");
+        p.setInt(6, 100);
+        p.setInt(7, Status.USED.getValue());
+        p.setInt(8, 0);
+        p.setTimestamp(9, now);
+        p.setString(10, UUID.randomUUID().toString());
+        p.addBatch();
+
+        if (i % 1000 == 999) {
+          p.executeBatch();
+        }
+      }
+
+      if (objects % 1000 != 0) {
+        p.executeBatch();
+      }
+      connection.commit();
+    }
+  }
+
+  /**
+   * Reads each row like a streamed listing does, without writing it anywhere.
+   */
+  private static class DiscardingHandler implements SqlService.RowHandler<RepoObject> {
+    @Override
+    public void handle(RepoObject row) {
+    }
+  }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.benchmark;
+
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.plos.repo.models.Bucket;
+import org.plos.repo.models.RepoObject;
+import org.plos.repo.models.Status;
+import org.plos.repo.service.HsqlService;
+import org.plos.repo.service.ScriptRunner;
+import org.plos.repo.service.SqlService;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * Measures the time per call of the metadata queries of {@link SqlService} whose text depends on their filters, and
+ * of the row mapping of their results. It runs against an in-memory HSQL database, so that the time of a call is
+ * mostly spent building the statement text, preparing it and mapping the rows rather than on the network.
+ * <p/>
+ * The same source runs against the query layer before and after the statement texts were precomputed, since it only
+ * uses the public methods of the service.
+ * Run it from the test classpath: <code>java org.plos.repo.benchmark.SqlBenchmark [objects] [calls] [rounds]</code>
+ */
+public class SqlBenchmark {
+
+  private static final String BUCKET_NAME = "benchmark";
+
+  private interface Call {
+    void run(int i) throws Exception;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final int objects = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int calls = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    JDBCDataSource ds = new JDBCDataSource();
+    ds.setUrl("jdbc:hsqldb:mem:plosrepo-sql-benchmark;sql.syntax_mys=true");
+    ds.setUser("");
+    ds.setPassword("");
+
+    try (Connection connection = ds.getConnection()) {
+      ScriptRunner scriptRunner = new ScriptRunner(connection, false, true);
+      scriptRunner.runScript(new InputStreamReader(new ClassPathResource("setup.hsql").getInputStream(),
+          StandardCharsets.UTF_8));
+    }
+
+    final SqlService sqlService = new HsqlService();
+    sqlService.setDataSource(ds);
+
+    Timestamp now = new Timestamp(System.currentTimeMillis());
+    sqlService.getConnection();
+    sqlService.insertBucket(new Bucket(BUCKET_NAME), now);
+    int bucketId = sqlService.getBucket(BUCKET_NAME).getBucketId();
+
+    for (int i = 0; i < objects; i++) {
+      RepoObject repoObject = new RepoObject("key" + i, bucketId, BUCKET_NAME, Status.USED);
+      repoObject.setChecksum("0123456789abcdef0123456789abcdef01234567");
+      repoObject.setTimestamp(now);
+      repoObject.setCreationDate(now);
+      repoObject.setContentType("text/plain");
+      repoObject.setDownloadName("key" + i + ".txt");
+      repoObject.setSize(1024L);
+      repoObject.setTag(i % 2 == 0 ? "even" : "odd");
+      repoObject.setVersionNumber(0);
+      repoObject.setUuid(UUID.randomUUID());
+      sqlService.insertObject(repoObject);
+    }
+    sqlService.transactionCommit();
+
+    Call getObject = new Call() {
+      @Override
+      public void run(int i) throws Exception {
+        sqlService.getObject(BUCKET_NAME, "key" + (i % objects), 0, null, null);
+      }
+    };
+    Call getObjectWithDeleted = new Call() {
+      @Override
+      public void run(int i) throws Exception {
+        sqlService.getObject(BUCKET_NAME, "key" + (i % objects), null, null, "even", true, false);
+      }
+    };
+    Call listObjects = new Call() {
+      @Override
+      public void run(int i) throws Exception {
+        sqlService.listObjects(BUCKET_NAME, i % (objects - 10), 10, false, false, null);
+      }
+    };
+    Call objectCount = new Call() {
+      @Override
+      public void run(int i) throws Exception {
+        sqlService.objectCount(false, BUCKET_NAME);
+      }
+    };
+
+    System.out.println(String.format("%d objects, %d calls, best of %d rounds", objects, calls, rounds));
+    System.out.println(String.format("%-24s %12s", "", "us/call"));
+
+    try {
+      // warm up, then measure
+      for (int round = 0; round < 2; round++) {
+        int times = round == 0 ? 1 : rounds;
+        int count = round == 0 ? Math.min(calls, 2000) : calls;
+
+        report(round, "getObject", time(getObject, count, times));
+        report(round, "getObject(deleted, tag)", time(getObjectWithDeleted, count, times));
+        report(round, "listObjects(10)", time(listObjects, count, times));
+        report(round, "objectCount", time(objectCount, count, times));
+      }
+    } finally {
+      sqlService.releaseConnection();
+    }
+  }
+
+  private static void report(int round, String name, double micros) {
+    if (round == 1) {
+      System.out.println(String.format("%-24s %12.2f", name, micros));
+    }
+  }
+
+  private static double time(Call call, int count, int rounds) throws Exception {
+    double best = Double.MAX_VALUE;
+
+    for (int round = 0; round < rounds; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+        call.run(i);
+      }
+      best = Math.min(best, (System.nanoTime() - start) / 1e3 / count);
+    }
+
+    return best;
+  }
+
+}
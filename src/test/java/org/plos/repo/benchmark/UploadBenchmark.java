@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.plos.repo.benchmark;
+
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.plos.repo.TestSpringConfig;
+import org.plos.repo.models.input.InputRepoObject;
+import org.plos.repo.service.RepoService;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long object creation keeps database connections busy while clients upload slowly. Each client sends
+ * its content in small chunks with a pause between them, and the data source records how many connections are open at
+ * once and for how long each one is held.
+ * <p/>
+ * Since the content is staged before the transaction starts, the time a connection is held per request should stay
+ * close to the time of the metadata insert, whatever the upload time. When the content was uploaded inside the
+ * transaction, each request held its connection for at least the upload time, and the peak equaled the number of
+ * clients.
+ * <p/>
+ * It runs against the in-memory HSQL database and object store of the tests.
+ * Run it from the test classpath:
+ * <code>java org.plos.repo.benchmark.UploadBenchmark [clients] [uploadsPerClient] [sizeKB] [chunkDelayMs]</code>
+ */
+public class UploadBenchmark {
+
+  private static final String BUCKET_NAME = "benchmark";
+
+  private static final int CHUNK_SIZE = 16 * 1024;
+
+  private static final AtomicInteger openConnections = new AtomicInteger();
+  private static final AtomicInteger peakConnections = new AtomicInteger();
+  private static final AtomicLong connectionNanos = new AtomicLong();
+
+  @Configuration
+  public static class BenchmarkConfig extends TestSpringConfig {
+
+    @Bean
+    @Override
+    public DataSource dataSource() {
+      JDBCDataSource ds = new JDBCDataSource();
+      ds.setUrl("jdbc:hsqldb:mem:upload-benchmark;shutdown=true;sql.syntax_mys=true");
+      ds.setUser("");
+      ds.setPassword("");
+      return new TrackingDataSource(ds);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    final int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+    final int uploadsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    final int sizeKB = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+    final int chunkDelayMs = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+    AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(BenchmarkConfig.class);
+
+    try {
+      final RepoService repoService = context.getBean(RepoService.class);
+      repoService.createBucket(BUCKET_NAME, null);
+
+      // the connection that created the schema stays open to keep the in-memory database alive
+      openConnections.set(0);
+      peakConnections.set(0);
+      connectionNanos.set(0);
+
+      final AtomicLong uploadNanos = new AtomicLong();
+      ExecutorService executor = Executors.newFixedThreadPool(clients);
+      List<Future<Void>> futures = new ArrayList<>();
+      long start = System.nanoTime();
+
+      for (int c = 0; c < clients; c++) {
+        final int client = c;
+
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int i = 0; i < uploadsPerClient; i++) {
+              InputRepoObject inputRepoObject = new InputRepoObject();
+              inputRepoObject.setBucketName(BUCKET_NAME);
+              inputRepoObject.setKey("client" + client + "-object" + i);
+              inputRepoObject.setContentType("application/octet-stream");
+              inputRepoObject.setUploadedInputStream(
+                  new SlowInputStream(sizeKB * 1024, client * uploadsPerClient + i, chunkDelayMs));
+
+              long requestStart = System.nanoTime();
+              repoService.createObject(RepoService.CreateMethod.NEW, inputRepoObject);
+              uploadNanos.addAndGet(System.nanoTime() - requestStart);
+            }
+            return null;
+          }
+        }));
+      }
+
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+
+      long wallNanos = System.nanoTime() - start;
+      executor.shutdown();
+
+      int requests = clients * uploadsPerClient;
+      System.out.println(String.format("%d clients, %d uploads each of %d KB, %d ms between chunks of %d KB",
+          clients, uploadsPerClient, sizeKB, chunkDelayMs, CHUNK_SIZE / 1024));
+      System.out.println(String.format("%-32s %10.1f", "wall time ms", wallNanos / 1e6));
+      System.out.println(String.format("%-32s %10.1f", "mean request ms", uploadNanos.get() / 1e6 / requests));
+      System.out.println(String.format("%-32s %10.2f", "mean connection held ms/request",
+          connectionNanos.get() / 1e6 / requests));
+      System.out.println(String.format("%-32s %10.2f", "mean connections open",
+          (double) connectionNanos.get() / wallNanos));
+      System.out.println(String.format("%-32s %10d", "peak connections open", peakConnections.get()));
+    } finally {
+      context.close();
+    }
+  }
+
+  /**
+   * Records the number of open connections, and the time each one stays open.
+   */
+  private static class TrackingDataSource extends DelegatingDataSource {
+
+    private TrackingDataSource(DataSource dataSource) {
+      super(dataSource);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      return track(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+      return track(super.getConnection(username, password));
+    }
+
+    private Connection track(final Connection connection) {
+      final long opened = System.nanoTime();
+      int open = openConnections.incrementAndGet();
+
+      int peak;
+      while (open > (peak = peakConnections.get()) && !peakConnections.compareAndSet(peak, open)) {
+        // retry until the peak is at least this count
+      }
+
+      return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+          new InvocationHandler() {
+            private boolean closed = false;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+              if (method.getName().equals("close") && !closed) {
+                closed = true;
+                openConnections.decrementAndGet();
+                connectionNanos.addAndGet(System.nanoTime() - opened);
+              }
+
+              try {
+                return method.invoke(connection, args);
+              } catch (InvocationTargetException e) {
+                throw e.getCause();
+              }
+            }
+          });
+    }
+  }
+
+  /**
+   * Content sent by a slow client, in chunks with a pause before each one.
+   */
+  private static class SlowInputStream extends InputStream {
+
+    private final int delayMs;
+    private final byte value;
+    private int remaining;
+    private int chunkRemaining = 0;
+
+    private SlowInputStream(int size, int seed, int delayMs) {
+      this.remaining = size;
+      this.value = (byte) seed;
+      this.delayMs = delayMs;
+    }
+
+    @Override
+    public int read() {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (remaining == 0) {
+        return -1;
+      }
+
+      if (chunkRemaining == 0) {
+        try {
+          Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        chunkRemaining = Math.min(CHUNK_SIZE, remaining);
+      }
+
+      int n = Math.min(len, chunkRemaining);
+      for (int i = 0; i < n; i++) {
+        b[off + i] = (byte) (value + remaining - i);
+      }
+
+      remaining -= n;
+      chunkRemaining -= n;
+      return n;
+    }
+  }
+}
@@ -101,6 +101,18 @@ public class InputRepoObjectValidatorTest {
     }
   }
 
+  @Test
+  public void validateInvalidChecksumTest() throws RepoException {
+    mockInputCollectionCalls(inputObjects);
+    when(inputRepoObject.getChecksum()).thenReturn("sads123dsadas456");
+    try {
+      inputRepoObjectValidator.validate(inputRepoObject);
+      fail(FAIL_MSG);
+    } catch (RepoException re) {
+      assertEquals(re.getType(), RepoException.Type.InvalidChecksum);
+    }
+  }
+
   private void mockInputCollectionCalls(List<InputObject> objects) throws RepoException {
     when(inputRepoObject.getKey()).thenReturn(VALID_KEY);
     when(inputRepoObject.getBucketName()).thenReturn(VALID_BUCKET_NAME);
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.rest;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+public class FileChannelOutputTest {
+
+  private static final String DATA = "0123456789abcdefghij";
+
+  private File file;
+
+  @Before
+  public void setup() throws Exception {
+    file = File.createTempFile("repo", ".dat");
+    FileUtils.writeStringToFile(file, DATA, "US-ASCII");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void writeWholeFile() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new FileChannelOutput(file, 0, DATA.length()).write(output);
+    assertEquals(DATA, output.toString("US-ASCII"));
+  }
+
+  @Test
+  public void writeRegion() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new FileChannelOutput(file, 10, 6).write(output);
+    assertEquals("abcdef", output.toString("US-ASCII"));
+  }
+
+  @Test(expected = EOFException.class)
+  public void writePastEndOfFile() throws Exception {
+    new FileChannelOutput(file, 10, 20).write(new ByteArrayOutputStream());
+  }
+
+}
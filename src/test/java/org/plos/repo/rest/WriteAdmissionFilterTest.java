@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.plos.repo.rest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.plos.repo.models.output.AdmissionStatus;
+import org.plos.repo.service.AdmissionController;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.core.PathSegment;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class WriteAdmissionFilterTest {
+
+  private static final long UNKNOWN_LENGTH_BYTES = 100;
+
+  @InjectMocks
+  private WriteAdmissionFilter filter;
+
+  @Spy
+  private AdmissionController admissionController = new AdmissionController(1, 0, 0, 0, 0, UNKNOWN_LENGTH_BYTES);
+
+  @Before
+  public void setUp() {
+    filter = new WriteAdmissionFilter();
+    initMocks(this);
+  }
+
+  @Test
+  public void writeIsRejectedBeforeItsBodyIsRead() throws Exception {
+    AdmissionController.Permit permit = admissionController.admit("bucket1", 0);
+
+    ContainerRequestContext request = mockRequest("POST", 10, "objects");
+    filter.filter(request);
+
+    ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+    verify(request).abortWith(response.capture());
+    assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), response.getValue().getStatus());
+    verify(request, never()).getEntityStream();
+    verify(request, never()).setProperty(anyString(), any());
+
+    permit.close();
+  }
+
+  @Test
+  public void unknownLengthIsCharged() throws Exception {
+    ContainerRequestContext request = mockRequest("POST", -1, "objects", "");
+    filter.filter(request);
+
+    AdmissionStatus status = admissionController.getStatus();
+    assertEquals(1, status.activeWrites);
+    assertEquals(UNKNOWN_LENGTH_BYTES, status.activeBytes);
+    assertEquals(0, status.activeBuckets);
+
+    filter.filter(request, mock(ContainerResponseContext.class));
+    assertEquals(0, admissionController.getStatus().activeWrites);
+    assertEquals(0, admissionController.getStatus().activeBytes);
+  }
+
+  @Test
+  public void batchIsAdmittedToItsBucket() throws Exception {
+    ContainerRequestContext request = mockRequest("POST", 10, "objects", "batch", "bucket1");
+    filter.filter(request);
+
+    AdmissionStatus status = admissionController.getStatus();
+    assertEquals(10, status.activeBytes);
+    assertEquals(1, status.activeBuckets);
+
+    filter.filter(request, mock(ContainerResponseContext.class));
+    assertEquals(0, admissionController.getStatus().activeBuckets);
+  }
+
+  @Test
+  public void otherRequestsAreNotAdmitted() throws Exception {
+    filter.filter(mockRequest("GET", -1, "objects"));
+    filter.filter(mockRequest("POST", -1, "buckets"));
+    filter.filter(mockRequest("POST", -1, "objects", "meta", "bucket1"));
+
+    assertEquals(0, admissionController.getStatus().admittedCount);
+  }
+
+  private static ContainerRequestContext mockRequest(String method, int length, String... path) {
+    List<PathSegment> segments = new ArrayList<>();
+    for (String name : path) {
+      PathSegment segment = mock(PathSegment.class);
+      when(segment.getPath()).thenReturn(name);
+      segments.add(segment);
+    }
+
+    UriInfo uriInfo = mock(UriInfo.class);
+    when(uriInfo.getPathSegments()).thenReturn(segments);
+
+    ContainerRequestContext request = mock(ContainerRequestContext.class);
+    when(request.getMethod()).thenReturn(method);
+    when(request.getLength()).thenReturn(length);
+    when(request.getUriInfo()).thenReturn(uriInfo);
+
+    // the properties of the request are kept in a map
+    final Map<String, Object> properties = new HashMap<>();
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        properties.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+        return null;
+      }
+    }).when(request).setProperty(anyString(), any());
+    when(request.getProperty(anyString())).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) {
+        return properties.get(invocation.getArguments()[0]);
+      }
+    });
+
+    return request;
+  }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+import org.junit.Test;
+import org.plos.repo.models.output.AdmissionStatus;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class AdmissionControllerTest {
+
+  private static final String BUCKET1 = "bucket1";
+  private static final String BUCKET2 = "bucket2";
+
+  @Test
+  public void busyBucketIsThrottled() throws Exception {
+    AdmissionController admissionController = new AdmissionController(10, 0, 1, 0, 0);
+
+    AdmissionController.Permit permit = admissionController.admit(BUCKET1, 0);
+    assertRejected(admissionController, BUCKET1, 0, RepoException.Type.TooManyRequests);
+
+    // the other buckets are not held back
+    admissionController.admit(BUCKET2, 0).close();
+
+    permit.close();
+    admissionController.admit(BUCKET1, 0).close();
+
+    AdmissionStatus status = admissionController.getStatus();
+    assertEquals(3, status.admittedCount);
+    assertEquals(1, status.throttledCount);
+    assertEquals(0, status.rejectedCount);
+    assertEquals(0, status.activeWrites);
+    assertEquals(0, status.activeBuckets);
+  }
+
+  @Test
+  public void busyServerRejects() throws Exception {
+    AdmissionController admissionController = new AdmissionController(2, 0, 2, 0, 0);
+
+    admissionController.admit(BUCKET1, 0);
+    admissionController.admit(BUCKET2, 0);
+    assertRejected(admissionController, BUCKET1, 0, RepoException.Type.ServerBusy);
+
+    AdmissionStatus status = admissionController.getStatus();
+    assertEquals(2, status.activeWrites);
+    assertEquals(2, status.activeBuckets);
+    assertEquals(1, status.rejectedCount);
+    assertEquals(0, status.throttledCount);
+  }
+
+  @Test
+  public void writeIsAdmittedToItsBucketOnceItIsKnown() throws Exception {
+    AdmissionController admissionController = new AdmissionController(10, 0, 1, 0, 0);
+
+    AdmissionController.Permit permit1 = admissionController.admit(null, 0);
+    AdmissionController.Permit permit2 = admissionController.admit(null, 0);
+    assertEquals(0, admissionController.getStatus().activeBuckets);
+
+    permit1.admitTo(BUCKET1);
+    try {
+      permit2.admitTo(BUCKET1);
+      fail("Write to a full bucket was admitted");
+    } catch (RepoException e) {
+      assertEquals(RepoException.Type.TooManyRequests, e.getType());
+    }
+    permit2.close();
+
+    permit1.close();
+    AdmissionStatus status = admissionController.getStatus();
+    assertEquals(0, status.activeWrites);
+    assertEquals(0, status.activeBuckets);
+    assertEquals(2, status.admittedCount);
+  }
+
+  @Test
+  public void uploadBytesAreLimited() throws Exception {
+    AdmissionController admissionController = new AdmissionController(10, 100, 10, 60, 0);
+
+    AdmissionController.Permit permit = admissionController.admit(BUCKET1, 50);
+    assertRejected(admissionController, BUCKET1, 20, RepoException.Type.TooManyRequests);
+    AdmissionController.Permit other = admissionController.admit(BUCKET2, 50);
+    assertRejected(admissionController, BUCKET2, 1, RepoException.Type.ServerBusy);
+    assertEquals(100, admissionController.getStatus().activeBytes);
+
+    permit.close();
+    other.close();
+
+    // a write larger than the limits is let through once nothing else holds bytes
+    admissionController.admit(BUCKET1, 500).close();
+    assertEquals(0, admissionController.getStatus().activeBytes);
+  }
+
+  @Test
+  public void queuedWriteIsAdmittedWhenRoomIsReleased() throws Exception {
+    final AdmissionController admissionController = new AdmissionController(1, 0, 1, 0, 10000);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      AdmissionController.Permit permit = admissionController.admit(BUCKET1, 0);
+
+      Future<AdmissionController.Permit> queued = executor.submit(new Callable<AdmissionController.Permit>() {
+        @Override
+        public AdmissionController.Permit call() throws Exception {
+          return admissionController.admit(BUCKET1, 0);
+        }
+      });
+
+      while (admissionController.getStatus().queueSize == 0) {
+        Thread.sleep(10);
+      }
+      assertFalse(queued.isDone());
+
+      permit.close();
+      queued.get(5, TimeUnit.SECONDS).close();
+
+      AdmissionStatus status = admissionController.getStatus();
+      assertEquals(0, status.queueSize);
+      assertEquals(1, status.maxQueueSize);
+      assertEquals(1, status.queuedCount);
+      assertEquals(2, status.admittedCount);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void queuedWriteIsRejectedAtTheDeadline() throws Exception {
+    AdmissionController admissionController = new AdmissionController(1, 0, 0, 0, 50);
+
+    admissionController.admit(BUCKET1, 0);
+    assertRejected(admissionController, BUCKET2, 0, RepoException.Type.ServerBusy);
+
+    AdmissionStatus status = admissionController.getStatus();
+    assertEquals(0, status.queueSize);
+    assertEquals(1, status.queuedCount);
+    assertEquals(1, status.rejectedCount);
+  }
+
+  private static void assertRejected(AdmissionController admissionController, String bucketName, long bytes,
+                                     RepoException.Type type) {
+    try {
+      admissionController.admit(bucketName, bytes);
+      fail("Expected the write to be rejected");
+    } catch (RepoException e) {
+      assertEquals(type, e.getType());
+    }
+  }
+
+}
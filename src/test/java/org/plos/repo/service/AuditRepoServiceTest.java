@@ -56,6 +56,9 @@ public class AuditRepoServiceTest {
   @Mock
   private SqlService sqlService;
 
+  @Mock
+  private AuditWriter auditWriter;
+
   @Mock
   private List<Audit> expectedAuditRecords;
 
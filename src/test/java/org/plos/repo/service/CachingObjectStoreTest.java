@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.plos.repo.models.Bucket;
+import org.plos.repo.models.RepoObject;
+import org.plos.repo.models.Status;
+
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class CachingObjectStoreTest {
+
+  private static final String BUCKET_NAME = "bucket";
+  private static final String CONTENT = "cached content";
+
+  @Mock
+  private ObjectStore delegate;
+
+  private CachingObjectStore objectStore;
+
+  private RepoObject repoObject;
+
+  @Before
+  public void setUp() throws Exception {
+    initMocks(this);
+    objectStore = new CachingObjectStore(delegate, 1024, 100);
+
+    repoObject = new RepoObject("key", 1, BUCKET_NAME, Status.USED);
+    repoObject.setChecksum("checksum");
+    repoObject.setSize((long) CONTENT.length());
+
+    when(delegate.getInputStream(any(RepoObject.class))).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) {
+        return new ByteArrayInputStream(CONTENT.getBytes());
+      }
+    });
+  }
+
+  @Test
+  public void contentIsCached() throws Exception {
+    assertEquals(CONTENT, IOUtils.toString(objectStore.getInputStream(repoObject)));
+    assertEquals(CONTENT, IOUtils.toString(objectStore.getInputStream(repoObject)));
+    assertEquals("content", IOUtils.toString(objectStore.getInputStream(repoObject, 7, 100)));
+
+    verify(delegate, times(1)).getInputStream(repoObject);
+    assertEquals(1, objectStore.getStatus().size);
+    assertEquals(2, objectStore.getStatus().hitCount);
+  }
+
+  @Test
+  public void largeContentIsNotCached() throws Exception {
+    objectStore = new CachingObjectStore(delegate, 1024, 4);
+
+    assertEquals(CONTENT, IOUtils.toString(objectStore.getInputStream(repoObject)));
+    assertEquals(CONTENT, IOUtils.toString(objectStore.getInputStream(repoObject)));
+
+    verify(delegate, times(2)).getInputStream(repoObject);
+    assertEquals(0, objectStore.getStatus().size);
+  }
+
+  @Test
+  public void contentOfUnexpectedLengthIsNotCached() throws Exception {
+    repoObject.setSize(4L);
+    assertEquals(CONTENT, IOUtils.toString(objectStore.getInputStream(repoObject)));
+
+    repoObject.setSize(100L);
+    assertEquals(CONTENT, IOUtils.toString(objectStore.getInputStream(repoObject)));
+
+    assertEquals(0, objectStore.getStatus().size);
+  }
+
+  @Test
+  public void purgedContentIsRemoved() throws Exception {
+    objectStore.getInputStream(repoObject).close();
+    objectStore.deleteObject(repoObject);
+    assertEquals(0, objectStore.getStatus().size);
+
+    objectStore.getInputStream(repoObject).close();
+    objectStore.deleteBucket(new Bucket(BUCKET_NAME));
+    assertEquals(0, objectStore.getStatus().size);
+
+    verify(delegate, times(2)).getInputStream(repoObject);
+  }
+
+  @Test
+  public void probeDropsContentMissingFromTheStore() throws Exception {
+    objectStore.getInputStream(repoObject).close();
+    assertTrue(objectStore.objectExists(repoObject));
+
+    // purged through another node
+    assertFalse(objectStore.probeObjectExists(repoObject));
+    assertFalse(objectStore.objectExists(repoObject));
+  }
+
+  @Test
+  public void missingContent() throws Exception {
+    when(delegate.getInputStream(repoObject)).thenReturn(null);
+    assertNull(objectStore.getInputStream(repoObject));
+  }
+
+}
@@ -90,7 +90,7 @@ public class CollectionRepoServiceTest {
 
   @Test
   public void testListCollectionsHappyPath() throws RepoException, SQLException {
-    doNothing().when(sqlService).getReadOnlyConnection();
+    doNothing().when(sqlService).getReplicaConnection();
     when(sqlService.getBucket(VALID_BUCKET)).thenReturn(bucket);
 
     when(sqlService.listCollectionsMetaData(VALID_BUCKET, VALID_OFFSET, VALID_LIMIT, true, VALID_TAG)).thenReturn(repoCollections);
@@ -100,14 +100,14 @@ public class CollectionRepoServiceTest {
     assertNotNull(response);
     assertEquals(response, repoCollections);
 
-    verify(sqlService).getReadOnlyConnection();
+    verify(sqlService).getReplicaConnection();
     verify(sqlService).getBucket(VALID_BUCKET);
     verify(sqlService).listCollectionsMetaData(VALID_BUCKET, VALID_OFFSET, VALID_LIMIT, true, VALID_TAG);
   }
 
   @Test
   public void testListCollectionsInvalidBucket() throws RepoException, SQLException {
-    doNothing().when(sqlService).getReadOnlyConnection();
+    doNothing().when(sqlService).getReplicaConnection();
     when(sqlService.getBucket(INVALID_BUCKET)).thenReturn(null);
 
     List<RepoCollection> response = null;
@@ -117,14 +117,14 @@ public class CollectionRepoServiceTest {
     } catch (RepoException re) {
       assertNull(response);
       assertEquals(re.getType(), RepoException.Type.BucketNotFound);
-      verify(sqlService).getReadOnlyConnection();
+      verify(sqlService).getReplicaConnection();
       verify(sqlService).getBucket(INVALID_BUCKET);
     }
   }
 
   @Test
   public void testListCollectionsRepoServiceThrowsExc() throws RepoException, SQLException {
-    doNothing().when(sqlService).getReadOnlyConnection();
+    doNothing().when(sqlService).getReplicaConnection();
     when(sqlService.getBucket(VALID_BUCKET)).thenReturn(bucket);
 
     when(sqlService.listCollectionsMetaData(VALID_BUCKET, VALID_OFFSET, VALID_LIMIT, true, VALID_TAG)).thenThrow(SQL_EXCEP);
@@ -137,7 +137,7 @@ public class CollectionRepoServiceTest {
     } catch (RepoException re) {
       assertNull(response);
       assertEquals(re.getCause(), SQL_EXCEP);
-      verify(sqlService).getReadOnlyConnection();
+      verify(sqlService).getReplicaConnection();
       verify(sqlService).getBucket(VALID_BUCKET);
       verify(sqlService).listCollectionsMetaData(VALID_BUCKET, VALID_OFFSET, VALID_LIMIT, true, VALID_TAG);
     }
@@ -145,7 +145,7 @@ public class CollectionRepoServiceTest {
 
   @Test
   public void testGetCollectionHappyPath() throws RepoException, SQLException {
-    doNothing().when(sqlService).getReadOnlyConnection();
+    doNothing().when(sqlService).getReplicaConnection();
 
     RepoCollection expRepoCollection = new RepoCollection();
     when(sqlService.getCollection(VALID_BUCKET, VALID_COLLECTION_KEY, VALID_VERSION, VALID_TAG, null)).thenReturn(expRepoCollection);
@@ -155,13 +155,13 @@ public class CollectionRepoServiceTest {
     assertNotNull(repoCollectionResp);
     assertEquals(repoCollectionResp, expRepoCollection);
 
-    verify(sqlService, times(1)).getReadOnlyConnection();
+    verify(sqlService, times(1)).getReplicaConnection();
     verify(sqlService).getCollection(VALID_BUCKET, VALID_COLLECTION_KEY, VALID_VERSION, VALID_TAG, null);
   }
 
   @Test
   public void testGetCollectionVersionHappyPath() throws RepoException, SQLException {
-    doNothing().when(sqlService).getReadOnlyConnection();
+    doNothing().when(sqlService).getReplicaConnection();
 
     List<RepoCollection> expRepoCollections = new ArrayList<>();
     RepoCollection coll1 = mock(RepoCollection.class);
@@ -175,13 +175,13 @@ public class CollectionRepoServiceTest {
     assertNotNull(collectionsResp);
     assertEquals(2, collectionsResp.size());
 
-    verify(sqlService).getReadOnlyConnection();
+    verify(sqlService).getReplicaConnection();
     verify(sqlService).listCollectionVersions(VALID_BUCKET, VALID_COLLECTION_KEY);
   }
 
   @Test
   public void testGetCollectionVersionNoKey() throws RepoException, SQLException {
-    doNothing().when(sqlService).getReadOnlyConnection();
+    doNothing().when(sqlService).getReplicaConnection();
 
     List<RepoCollection> collectionsResp = null;
     try {
@@ -190,13 +190,13 @@ public class CollectionRepoServiceTest {
     } catch (RepoException e) {
       assertEquals(RepoException.Type.NoCollectionKeyEntered, e.getType());
       assertNull(collectionsResp);
-      verify(sqlService).getReadOnlyConnection();
+      verify(sqlService).getReplicaConnection();
     }
   }
 
   @Test
   public void testGetCollectionVersionNoBucket() throws RepoException, SQLException {
-    doNothing().when(sqlService).getReadOnlyConnection();
+    doNothing().when(sqlService).getReplicaConnection();
 
     List<RepoCollection> collectionsResp = null;
     try {
@@ -205,7 +205,7 @@ public class CollectionRepoServiceTest {
     } catch (RepoException e) {
       assertEquals(RepoException.Type.NoBucketEntered, e.getType());
       assertNull(collectionsResp);
-      verify(sqlService).getReadOnlyConnection();
+      verify(sqlService).getReplicaConnection();
     }
   }
 
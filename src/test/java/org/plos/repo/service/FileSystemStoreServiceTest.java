@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.plos.repo.models.Bucket;
+import org.plos.repo.models.RepoObject;
+import org.plos.repo.models.Status;
+import org.plos.repo.util.ChecksumGenerator;
+import org.plos.repo.util.UploadSpooler;
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileSystemStoreServiceTest {
+
+  private static final String BUCKET_NAME = "bucket";
+  private static final String DATA = "0123456789abcdefghij";
+
+  private File dataDirectory;
+
+  @Before
+  public void setup() throws Exception {
+    dataDirectory = Files.createTempDirectory("repo").toFile();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(dataDirectory);
+  }
+
+  @Test
+  public void readRangeAndLocalFile() throws Exception {
+    FileSystemStoreService objectStore = createStore(true);
+    RepoObject repoObject = saveObject(objectStore);
+
+    try (InputStream content = objectStore.getInputStream(repoObject, 10, 6)) {
+      assertEquals("abcdef", IOUtils.toString(content));
+    }
+
+    File file = objectStore.getLocalFile(repoObject);
+    assertTrue(file.isFile());
+    assertEquals(DATA.length(), file.length());
+
+    // content that is not stored has no local file
+    repoObject.setChecksum("0000000000000000000000000000000000000000");
+    assertNull(objectStore.getLocalFile(repoObject));
+    assertNull(objectStore.getInputStream(repoObject, 0, 1));
+  }
+
+  @Test
+  public void zeroCopyDisabled() throws Exception {
+    FileSystemStoreService objectStore = createStore(false);
+    RepoObject repoObject = saveObject(objectStore);
+
+    assertNull(objectStore.getLocalFile(repoObject));
+  }
+
+  private FileSystemStoreService createStore(boolean zeroCopy) throws Exception {
+    FileSystemStoreService objectStore = new FileSystemStoreService(dataDirectory.getAbsolutePath(), null, zeroCopy);
+
+    Field checksumGeneratorField = ObjectStore.class.getDeclaredField("checksumGenerator");
+    checksumGeneratorField.setAccessible(true);
+    checksumGeneratorField.set(objectStore, new ChecksumGenerator());
+
+    Field uploadSpoolerField = ObjectStore.class.getDeclaredField("uploadSpooler");
+    uploadSpoolerField.setAccessible(true);
+    uploadSpoolerField.set(objectStore, new UploadSpooler());
+
+    objectStore.createBucket(new Bucket(BUCKET_NAME));
+    return objectStore;
+  }
+
+  private RepoObject saveObject(FileSystemStoreService objectStore) throws Exception {
+    ObjectStore.UploadInfo uploadInfo = objectStore.uploadTempObject(IOUtils.toInputStream(DATA));
+
+    RepoObject repoObject = new RepoObject("key", 1, BUCKET_NAME, Status.USED);
+    repoObject.setChecksum(uploadInfo.getChecksum());
+    repoObject.setSize(uploadInfo.getSize());
+
+    assertTrue(objectStore.saveUploadedObject(new Bucket(BUCKET_NAME), uploadInfo, repoObject));
+    return repoObject;
+  }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+import com.guba.mogilefs.MogileFS;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.plos.repo.models.RepoObject;
+import org.plos.repo.models.Status;
+import org.plos.repo.util.ChecksumGenerator;
+import org.plos.repo.util.UploadSpooler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MogileStoreServiceTest {
+
+  private static final String BUCKET_NAME = "bucket";
+  private static final String CHECKSUM = "cbcc2ff6a0894e6e7f9a1a6a6a36b68fb36aa151";
+  private static final String LOCATION = CHECKSUM + "-" + BUCKET_NAME;
+  private static final byte[] DATA = "test data one goes\nhere.".getBytes(StandardCharsets.UTF_8);
+  private static final String[] PATHS = new String[]{"http://192.168.1.1/dev1/123456.fid", "http://192.168.1.2/dev5/123666.fid"};
+
+  @Mock
+  private MogileFS mfs;
+
+  private RepoObject repoObject;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+
+    repoObject = new RepoObject("key", 1, BUCKET_NAME, Status.USED);
+    repoObject.setChecksum(CHECKSUM);
+  }
+
+  @Test
+  public void filePathsAreCached() throws Exception {
+    when(mfs.getPaths(LOCATION, true)).thenReturn(PATHS);
+    MogileStoreService objectStore = new MogileStoreService(mfs, 60, 100);
+
+    assertArrayEquals(PATHS, objectStore.getFilePaths(repoObject));
+    assertArrayEquals(PATHS, objectStore.getFilePaths(repoObject));
+
+    verify(mfs, times(1)).getPaths(LOCATION, true);
+  }
+
+  @Test
+  public void filePathsCacheDisabled() throws Exception {
+    when(mfs.getPaths(LOCATION, true)).thenReturn(PATHS);
+    MogileStoreService objectStore = new MogileStoreService(mfs, 0, 100);
+
+    objectStore.getFilePaths(repoObject);
+    objectStore.getFilePaths(repoObject);
+
+    verify(mfs, times(2)).getPaths(LOCATION, true);
+  }
+
+  @Test
+  public void deleteInvalidatesFilePaths() throws Exception {
+    when(mfs.getPaths(LOCATION, true)).thenReturn(PATHS);
+    MogileStoreService objectStore = new MogileStoreService(mfs, 60, 100);
+
+    objectStore.getFilePaths(repoObject);
+    objectStore.deleteObject(repoObject);
+    objectStore.getFilePaths(repoObject);
+
+    verify(mfs, times(2)).getPaths(LOCATION, true);
+  }
+
+  @Test
+  public void missingDataInvalidatesFilePaths() throws Exception {
+    when(mfs.getPaths(LOCATION, true)).thenReturn(PATHS, null, PATHS);
+    MogileStoreService objectStore = new MogileStoreService(mfs, 60, 100);
+
+    assertEquals(2, objectStore.getRedirectURLs(repoObject).length);
+
+    // the cached paths are dropped by the invalidation below, so the missing data is noticed
+    objectStore.invalidateFilePaths(repoObject);
+    URL[] urls = objectStore.getRedirectURLs(repoObject);
+    assertEquals(0, urls.length);
+    assertEquals(Status.MISSING_DATA, repoObject.getStatus());
+
+    assertEquals(2, objectStore.getRedirectURLs(repoObject).length);
+    verify(mfs, times(3)).getPaths(LOCATION, true);
+  }
+
+  @Test
+  public void failedReadInvalidatesFilePaths() throws Exception {
+    when(mfs.getPaths(LOCATION, true)).thenReturn(PATHS);
+    when(mfs.getFileStream(LOCATION)).thenThrow(new RuntimeException("no file"));
+    MogileStoreService objectStore = new MogileStoreService(mfs, 60, 100);
+
+    objectStore.getFilePaths(repoObject);
+
+    try {
+      objectStore.getInputStream(repoObject);
+      fail();
+    } catch (RepoException e) {
+      // expected
+    }
+
+    objectStore.getFilePaths(repoObject);
+
+    verify(mfs, times(2)).getPaths(LOCATION, true);
+  }
+
+  @Test
+  public void objectExistsChecksPathsOnly() throws Exception {
+    when(mfs.getPaths(LOCATION, true)).thenReturn(PATHS);
+    MogileStoreService objectStore = new MogileStoreService(mfs, 60, 100);
+
+    assertTrue(objectStore.objectExists(repoObject));
+    assertTrue(objectStore.objectExists(repoObject));
+
+    verify(mfs, times(1)).getPaths(LOCATION, true);
+    verify(mfs, never()).getFileStream(anyString());
+  }
+
+  @Test
+  public void probeAsksTheTrackers() throws Exception {
+    when(mfs.getPaths(LOCATION, true)).thenReturn(PATHS, (String[]) null);
+    MogileStoreService objectStore = new MogileStoreService(mfs, 60, 100);
+
+    assertTrue(objectStore.objectExists(repoObject));
+    assertFalse(objectStore.probeObjectExists(repoObject));
+
+    verify(mfs, times(2)).getPaths(LOCATION, true);
+  }
+
+  @Test
+  public void objectExistsMissingFile() throws Exception {
+    when(mfs.getPaths(LOCATION, true)).thenReturn(null, new String[0]);
+    MogileStoreService objectStore = new MogileStoreService(mfs, 60, 100);
+
+    assertFalse(objectStore.objectExists(repoObject));
+    assertFalse(objectStore.objectExists(repoObject));
+
+    verify(mfs, times(2)).getPaths(LOCATION, true);
+  }
+
+  @Test
+  public void uploadOfKnownSizeIsStreamed() throws Exception {
+    ByteArrayOutputStream stored = new ByteArrayOutputStream();
+    when(mfs.newFile(anyString(), eq(MogileStoreService.mogileFileClass), eq((long) DATA.length))).thenReturn(stored);
+    MogileStoreService objectStore = newObjectStore();
+
+    ObjectStore.UploadInfo uploadInfo = objectStore.uploadTempObject(new ByteArrayInputStream(DATA), (long) DATA.length);
+
+    assertArrayEquals(DATA, stored.toByteArray());
+    assertEquals(DATA.length, uploadInfo.getSize().longValue());
+    assertEquals(checksum(objectStore), uploadInfo.getChecksum());
+    verify(mfs).newFile(uploadInfo.getTempLocation(), MogileStoreService.mogileFileClass, DATA.length);
+  }
+
+  @Test
+  public void uploadOfUnknownSizeIsSpooled() throws Exception {
+    ByteArrayOutputStream stored = new ByteArrayOutputStream();
+    when(mfs.newFile(anyString(), eq(MogileStoreService.mogileFileClass), anyLong())).thenReturn(stored);
+    MogileStoreService objectStore = newObjectStore();
+
+    ObjectStore.UploadInfo uploadInfo = objectStore.uploadTempObject(new ByteArrayInputStream(DATA));
+
+    assertArrayEquals(DATA, stored.toByteArray());
+    assertEquals(DATA.length, uploadInfo.getSize().longValue());
+    assertEquals(checksum(objectStore), uploadInfo.getChecksum());
+    verify(mfs).newFile(uploadInfo.getTempLocation(), MogileStoreService.mogileFileClass, DATA.length);
+  }
+
+  @Test
+  public void uploadShorterThanDeclaredIsDeleted() throws Exception {
+    when(mfs.newFile(anyString(), eq(MogileStoreService.mogileFileClass), anyLong()))
+        .thenReturn(new ByteArrayOutputStream());
+    MogileStoreService objectStore = newObjectStore();
+
+    try {
+      objectStore.uploadTempObject(new ByteArrayInputStream(DATA), DATA.length + 1L);
+      fail("Expected a RepoException");
+    } catch (RepoException e) {
+      assertEquals(RepoException.Type.ObjectDataSizeMismatch, e.getType());
+    }
+
+    verify(mfs).delete(anyString());
+  }
+
+  @Test
+  public void uploadLongerThanDeclaredIsDeleted() throws Exception {
+    when(mfs.newFile(anyString(), eq(MogileStoreService.mogileFileClass), anyLong()))
+        .thenReturn(new ByteArrayOutputStream());
+    MogileStoreService objectStore = newObjectStore();
+
+    try {
+      objectStore.uploadTempObject(new ByteArrayInputStream(DATA), DATA.length - 1L);
+      fail("Expected a RepoException");
+    } catch (RepoException e) {
+      assertEquals(RepoException.Type.ObjectDataSizeMismatch, e.getType());
+    }
+
+    verify(mfs).delete(anyString());
+  }
+
+  private MogileStoreService newObjectStore() {
+    MogileStoreService objectStore = new MogileStoreService(mfs, 60, 100);
+    objectStore.checksumGenerator = new ChecksumGenerator();
+    objectStore.uploadSpooler = new UploadSpooler();
+    return objectStore;
+  }
+
+  private static String checksum(ObjectStore objectStore) throws RepoException {
+    return objectStore.checksumGenerator.checksumToString(objectStore.checksumGenerator.getDigestMessage().digest(DATA));
+  }
+
+}
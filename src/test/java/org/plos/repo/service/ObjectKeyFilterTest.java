@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.plos.repo.models.Bucket;
+import org.plos.repo.models.output.KeyFilterStatus;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class ObjectKeyFilterTest {
+
+  private static final String BUCKET_NAME = "bucket";
+
+  @InjectMocks
+  private ObjectKeyFilter objectKeyFilter = new ObjectKeyFilter(0, ObjectKeyFilter.DEFAULT_FALSE_POSITIVE_RATE);
+
+  @Mock
+  private SqlService sqlService;
+
+  @Before
+  public void setUp() throws Exception {
+    initMocks(this);
+    when(sqlService.listBuckets()).thenReturn(Arrays.asList(new Bucket(BUCKET_NAME)));
+  }
+
+  @Test
+  public void unknownBucketMightContainAnyKey() {
+    assertTrue(objectKeyFilter.mightContain(BUCKET_NAME, "key"));
+    assertEquals(0, objectKeyFilter.getStatus().rejectedCount);
+  }
+
+  @Test
+  public void rebuildRejectsMissingKeys() throws Exception {
+    when(sqlService.listObjectKeys(BUCKET_NAME)).thenReturn(Arrays.asList("key1", "key2"));
+
+    objectKeyFilter.rebuildAll();
+
+    assertTrue(objectKeyFilter.mightContain(BUCKET_NAME, "key1"));
+    assertTrue(objectKeyFilter.mightContain(BUCKET_NAME, "key2"));
+    assertFalse(objectKeyFilter.mightContain(BUCKET_NAME, "missing"));
+
+    objectKeyFilter.put(BUCKET_NAME, "missing");
+    assertTrue(objectKeyFilter.mightContain(BUCKET_NAME, "missing"));
+
+    KeyFilterStatus status = objectKeyFilter.getStatus();
+    assertEquals(1, status.bucketCount);
+    assertEquals(1, status.rejectedCount);
+    assertTrue(status.sizeBytes > 0);
+    assertTrue(status.falsePositiveRate < ObjectKeyFilter.DEFAULT_FALSE_POSITIVE_RATE);
+  }
+
+  @Test
+  public void keysCommittedDuringRebuildAreKept() throws Exception {
+    objectKeyFilter.rebuild(BUCKET_NAME);
+
+    when(sqlService.listObjectKeys(BUCKET_NAME)).thenAnswer(new Answer<List<String>>() {
+      @Override
+      public List<String> answer(InvocationOnMock invocation) {
+        // a key committed after the keys have been read
+        objectKeyFilter.put(BUCKET_NAME, "key2");
+        return Arrays.asList("key1");
+      }
+    });
+
+    objectKeyFilter.rebuild(BUCKET_NAME);
+
+    assertTrue(objectKeyFilter.mightContain(BUCKET_NAME, "key1"));
+    assertTrue(objectKeyFilter.mightContain(BUCKET_NAME, "key2"));
+  }
+
+  @Test
+  public void removedBucketMightContainAnyKey() throws Exception {
+    objectKeyFilter.addBucket(BUCKET_NAME);
+    objectKeyFilter.rebuild(BUCKET_NAME);
+    assertFalse(objectKeyFilter.mightContain(BUCKET_NAME, "key"));
+
+    objectKeyFilter.removeBucket(BUCKET_NAME);
+    assertTrue(objectKeyFilter.mightContain(BUCKET_NAME, "key"));
+  }
+
+}
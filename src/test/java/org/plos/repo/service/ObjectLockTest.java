@@ -100,6 +100,15 @@ public class ObjectLockTest extends RepoBaseSpringTest {
     osSqlServiceField.setAccessible(true);
     osSqlServiceField.set(repoService, spySqlService);
 
+    // these tests count the lookups that reach the database
+    Field osObjectCacheField = RepoService.class.getDeclaredField("objectCache");
+    osObjectCacheField.setAccessible(true);
+    osObjectCacheField.set(repoService, new RepoObjectCache(0, 0));
+
+    Field osObjectKeyFilterField = RepoService.class.getDeclaredField("objectKeyFilter");
+    osObjectKeyFilterField.setAccessible(true);
+    osObjectKeyFilterField.set(repoService, new ObjectKeyFilter(0, ObjectKeyFilter.DEFAULT_FALSE_POSITIVE_RATE));
+
     this.startGate = new CountDownLatch(1);  // make all thread starts at the same time. Since all threads are going to be waiting on startGate, once all thread are created, we perform a startGate.countDown()
   }
 
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class QueryTemplateTest {
+
+  @Test
+  public void conditionsAreAppendedInOrder() {
+    QueryTemplate template = new QueryTemplate("SELECT * FROM t WHERE a = ?", " ORDER BY id", " AND b = ?", " AND c = ?");
+
+    assertEquals("SELECT * FROM t WHERE a = ? ORDER BY id", template.get(false, false));
+    assertEquals("SELECT * FROM t WHERE a = ? AND b = ? ORDER BY id", template.get(true, false));
+    assertEquals("SELECT * FROM t WHERE a = ? AND c = ? ORDER BY id", template.get(false, true));
+    assertEquals("SELECT * FROM t WHERE a = ? AND b = ? AND c = ? ORDER BY id", template.get(true, true));
+  }
+
+  @Test
+  public void variantsAreBuiltOnce() {
+    QueryTemplate template = new QueryTemplate("SELECT * FROM t", "", " WHERE b = ?");
+
+    assertSame(template.get(true), template.get(true));
+  }
+
+  @Test
+  public void whereClauseIsLeftOutWithoutPredicates() {
+    QueryTemplate template = QueryTemplate.where("SELECT * FROM t", " LIMIT ?", "a = ?", "b = ?");
+
+    assertEquals("SELECT * FROM t LIMIT ?", template.get(false, false));
+    assertEquals("SELECT * FROM t WHERE b = ? LIMIT ?", template.get(false, true));
+    assertEquals("SELECT * FROM t WHERE a = ? AND b = ? LIMIT ?", template.get(true, true));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void conditionCountMustMatch() {
+    new QueryTemplate("SELECT * FROM t", "", " WHERE b = ?").get();
+  }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.internal.util.reflection.Whitebox;
+import org.plos.repo.models.output.ReplicaStatus;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class ReplicaRouterTest {
+
+  private static final long MAX_LAG_MILLIS = 5000;
+
+  @Mock
+  private SqlService sqlService;
+
+  @Mock
+  private DataSource replica1;
+
+  @Mock
+  private DataSource replica2;
+
+  @Before
+  public void setUp() throws Exception {
+    initMocks(this);
+    when(replica1.getConnection()).thenReturn(mock(Connection.class));
+    when(replica2.getConnection()).thenReturn(mock(Connection.class));
+    when(sqlService.getReplicationLagMillis(any(Connection.class))).thenReturn(0L);
+  }
+
+  private ReplicaRouter newRouter(boolean readYourWrites) {
+    Map<String, DataSource> replicas = new LinkedHashMap<>();
+    replicas.put("replica1", replica1);
+    replicas.put("replica2", replica2);
+
+    ReplicaRouter router = new ReplicaRouter(replicas, MAX_LAG_MILLIS, ReplicaRouter.DEFAULT_CHECK_MILLIS,
+        readYourWrites);
+    Whitebox.setInternalState(router, "sqlService", sqlService);
+    return router;
+  }
+
+  @Test
+  public void withoutReplicasReadsGoToThePrimary() {
+    assertNull(new ReplicaRouter().choose());
+  }
+
+  @Test
+  public void readsAreSpreadOverTheCheckedReplicas() {
+    ReplicaRouter router = newRouter(false);
+
+    assertNull(router.choose());
+
+    router.check();
+
+    DataSource first = router.choose();
+    DataSource second = router.choose();
+
+    assertNotSame(first, second);
+    assertSame(first, router.choose());
+
+    ReplicaStatus status = router.getStatus();
+    assertEquals(2, status.healthyReplicas);
+    assertEquals(3, status.replicaReads);
+    assertEquals(1, status.primaryReads);
+  }
+
+  @Test
+  public void laggingReplicaIsLeftOut() throws Exception {
+    when(sqlService.getReplicationLagMillis(any(Connection.class))).thenReturn(0L, MAX_LAG_MILLIS + 1);
+    ReplicaRouter router = newRouter(false);
+
+    router.check();
+
+    assertSame(replica1, router.choose());
+    assertSame(replica1, router.choose());
+    assertEquals(MAX_LAG_MILLIS + 1, router.getStatus().worstLagMillis);
+  }
+
+  @Test
+  public void stoppedReplicationIsLeftOut() throws Exception {
+    when(sqlService.getReplicationLagMillis(any(Connection.class))).thenReturn(null);
+    ReplicaRouter router = newRouter(false);
+
+    router.check();
+
+    assertNull(router.choose());
+    assertEquals(2, router.getStatus().failedChecks);
+  }
+
+  @Test
+  public void failedReplicaIsLeftOutUntilItsNextCheck() throws Exception {
+    ReplicaRouter router = newRouter(false);
+    router.check();
+
+    router.failed(replica1, new SQLException("connection refused"));
+
+    assertSame(replica2, router.choose());
+    assertSame(replica2, router.choose());
+
+    router.check();
+
+    assertEquals(2, router.getStatus().eligibleReplicas);
+  }
+
+  @After
+  public void tearDown() {
+    ReplicaRouter.setReadAfter(null);
+  }
+
+  @Test
+  public void readsFollowingAWriteGoToThePrimaryUntilTheReplicasCatchUp() throws Exception {
+    ReplicaRouter router = newRouter(true);
+    Thread.sleep(2);
+    router.check();
+
+    assertSame(replica1, router.choose());
+
+    ReplicaRouter.setReadAfter(System.currentTimeMillis());
+
+    assertNull(router.choose());
+
+    Thread.sleep(2);
+    router.check();
+
+    assertSame(replica1, router.choose());
+  }
+
+  @Test
+  public void readsThatNameNoWriteAreNotHeldBack() throws Exception {
+    ReplicaRouter router = newRouter(true);
+    router.check();
+
+    // another request names a write that no replica has applied yet
+    ReplicaRouter.setReadAfter(System.currentTimeMillis() + 1000);
+    assertNull(router.choose());
+
+    ReplicaRouter.setReadAfter(null);
+    assertNotNull(router.choose());
+  }
+
+  @Test
+  public void writeTimeIsIgnoredWithoutReadYourWrites() throws Exception {
+    ReplicaRouter router = newRouter(false);
+    router.check();
+
+    ReplicaRouter.setReadAfter(System.currentTimeMillis() + 1000);
+    assertNotNull(router.choose());
+  }
+
+}
@@ -27,6 +27,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.internal.util.reflection.Whitebox;
 import org.plos.repo.models.output.ServiceStatus;
 
@@ -54,9 +55,24 @@ public class RepoInfoServiceTest {
   @Mock
   private RepoService repoService;
 
+  @Mock
+  private RepoObjectCache objectCache;
+
+  @Mock
+  private ObjectKeyFilter objectKeyFilter;
+
   @Mock
   private List<org.plos.repo.models.Bucket> buckets;
 
+  @Spy
+  private RequestExecutors requestExecutors = new RequestExecutors(1, 0, 1, 0);
+
+  @Spy
+  private AdmissionController admissionController = new AdmissionController();
+
+  @Spy
+  private ReplicaRouter replicaRouter = new ReplicaRouter();
+
   @Before
   public void setUp() {
     repoInfoService = new RepoInfoService();
@@ -77,6 +93,12 @@ public class RepoInfoServiceTest {
     assertNotNull(status.serviceStarted);
     assertNotNull(status.readsSinceStart);
     assertNotNull(status.writesSinceStart);
+    assertEquals(0, status.sqlExecutor.rejectedCount);
+    assertEquals(0, status.storeExecutor.rejectedCount);
+    assertEquals(0, status.prefetchExecutor.rejectedCount);
+    assertEquals(0, status.writeAdmission.queueSize);
+    assertEquals(0, status.writeAdmission.rejectedCount);
+    assertEquals(0, status.replicas.replicas);
 
     verify(repoService).listBuckets();
   }
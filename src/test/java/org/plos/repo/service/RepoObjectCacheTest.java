@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.plos.repo.models.RepoObject;
+import org.plos.repo.models.Status;
+import org.plos.repo.models.output.CacheStatus;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+public class RepoObjectCacheTest {
+
+  private static final String BUCKET_NAME = "bucket";
+  private static final String KEY = "key";
+
+  private RepoObjectCache objectCache;
+
+  @Before
+  public void setUp() {
+    objectCache = new RepoObjectCache();
+  }
+
+  @Test
+  public void getReturnsCopyTest() {
+    RepoObject repoObject = createRepoObject(KEY, 0);
+    objectCache.put(BUCKET_NAME, KEY, null, null, null, repoObject);
+
+    // mutating the original or a returned object must not affect the cache
+    repoObject.setStatus(Status.DELETED);
+    RepoObject cached = objectCache.get(BUCKET_NAME, KEY, null, null, null);
+    cached.setStatus(Status.PURGED);
+
+    RepoObject cachedAgain = objectCache.get(BUCKET_NAME, KEY, null, null, null);
+    assertNotSame(cached, cachedAgain);
+    assertEquals(Status.USED, cachedAgain.getStatus());
+    assertEquals(repoObject.getUuid(), cachedAgain.getUuid());
+  }
+
+  @Test
+  public void filtersAreCachedSeparatelyTest() {
+    RepoObject version0 = createRepoObject(KEY, 0);
+    RepoObject version1 = createRepoObject(KEY, 1);
+    objectCache.put(BUCKET_NAME, KEY, null, null, null, version1);
+    objectCache.put(BUCKET_NAME, KEY, 0, null, null, version0);
+
+    assertEquals(Integer.valueOf(1), objectCache.get(BUCKET_NAME, KEY, null, null, null).getVersionNumber());
+    assertEquals(Integer.valueOf(0), objectCache.get(BUCKET_NAME, KEY, 0, null, null).getVersionNumber());
+    assertNull(objectCache.get(BUCKET_NAME, KEY, null, version0.getUuid(), null));
+    assertNull(objectCache.get(BUCKET_NAME, KEY, null, null, "DRAFT"));
+  }
+
+  @Test
+  public void invalidateTest() {
+    objectCache.put(BUCKET_NAME, KEY, null, null, null, createRepoObject(KEY, 0));
+    objectCache.put(BUCKET_NAME, KEY, 0, null, null, createRepoObject(KEY, 0));
+    objectCache.put(BUCKET_NAME, "key2", null, null, null, createRepoObject("key2", 0));
+
+    objectCache.invalidate(BUCKET_NAME, KEY);
+
+    assertNull(objectCache.get(BUCKET_NAME, KEY, null, null, null));
+    assertNull(objectCache.get(BUCKET_NAME, KEY, 0, null, null));
+    assertEquals("key2", objectCache.get(BUCKET_NAME, "key2", null, null, null).getKey());
+  }
+
+  @Test
+  public void invalidateBucketTest() {
+    objectCache.put(BUCKET_NAME, KEY, null, null, null, createRepoObject(KEY, 0));
+    objectCache.put("bucket2", KEY, null, null, null, createRepoObject(KEY, 0));
+
+    objectCache.invalidateBucket(BUCKET_NAME);
+
+    assertNull(objectCache.get(BUCKET_NAME, KEY, null, null, null));
+    assertEquals(KEY, objectCache.get("bucket2", KEY, null, null, null).getKey());
+  }
+
+  @Test
+  public void disabledCacheTest() {
+    objectCache = new RepoObjectCache(0, 0);
+    objectCache.put(BUCKET_NAME, KEY, null, null, null, createRepoObject(KEY, 0));
+
+    assertNull(objectCache.get(BUCKET_NAME, KEY, null, null, null));
+    assertEquals(0, objectCache.getStatus().size);
+  }
+
+  @Test
+  public void statusTest() {
+    objectCache.put(BUCKET_NAME, KEY, null, null, null, createRepoObject(KEY, 0));
+    objectCache.get(BUCKET_NAME, KEY, null, null, null);
+    objectCache.get(BUCKET_NAME, KEY, null, null, null);
+    objectCache.get(BUCKET_NAME, "missing", null, null, null);
+
+    CacheStatus status = objectCache.getStatus();
+    assertEquals(1, status.size);
+    assertEquals(RepoObjectCache.DEFAULT_MAX_BYTES, status.maxWeight);
+    assertEquals(2, status.hitCount);
+    assertEquals(1, status.missCount);
+  }
+
+  private RepoObject createRepoObject(String key, int versionNumber) {
+    RepoObject repoObject = new RepoObject(key, 1, BUCKET_NAME, Status.USED);
+    repoObject.setVersionNumber(versionNumber);
+    repoObject.setUuid(UUID.randomUUID());
+    repoObject.setChecksum("checksum" + versionNumber);
+    return repoObject;
+  }
+
+}
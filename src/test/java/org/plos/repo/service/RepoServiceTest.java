@@ -26,24 +26,36 @@ package org.plos.repo.service;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.plos.repo.TestSpringConfig;
+import org.plos.repo.models.Audit;
 import org.plos.repo.models.Bucket;
 import org.plos.repo.models.RepoObject;
+import org.plos.repo.models.input.InputRepoObject;
+import org.plos.repo.models.validator.InputRepoObjectValidator;
 import org.plos.repo.models.validator.TimestampInputValidator;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import javax.sql.DataSource;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -72,6 +84,18 @@ public class RepoServiceTest {
   @Mock
   private Bucket bucket;
 
+  @Mock
+  private InputRepoObjectValidator inputRepoObjectValidator;
+
+  @Mock
+  private RepoObjectCache objectCache;
+
+  @Mock
+  private ObjectKeyFilter objectKeyFilter;
+
+  @Mock
+  private AuditWriter auditWriter;
+
   @Before
   public void setUp() {
     repoService = new RepoService();
@@ -80,7 +104,7 @@ public class RepoServiceTest {
 
   @Test
   public void testListObjectsHappyPath() throws RepoException, SQLException, MalformedURLException {
-    doNothing().when(sqlService).getReadOnlyConnection();
+    doNothing().when(sqlService).getReplicaConnection();
     when(sqlService.getBucket(VALID_BUCKET)).thenReturn(bucket);
 
     List<RepoObject> repoObjects = new ArrayList<>();
@@ -106,7 +130,7 @@ public class RepoServiceTest {
     assertNotNull(response.get(0));
     assertNotNull(response.get(0).getReproxyURL());
 
-    verify(sqlService).getReadOnlyConnection();
+    verify(sqlService).getReplicaConnection();
     verify(sqlService).getBucket(VALID_BUCKET);
     verify(sqlService).listObjects(VALID_BUCKET, VALID_OFFSET, VALID_LIMIT, true, true, VALID_TAG);
     verify(objectStore).hasXReproxy();
@@ -114,4 +138,50 @@ public class RepoServiceTest {
     verify(sqlService).releaseConnection();
   }
 
+  @Test
+  public void objectPageIsReadFromOneReplica() throws Exception {
+    DataSource replica = mock(DataSource.class);
+    when(sqlService.chooseReplica()).thenReturn(replica);
+    when(sqlService.getObjectPageEnd(VALID_BUCKET, 0, VALID_LIMIT, false, false, null)).thenReturn(7);
+
+    RepoService.ObjectPage page = repoService.getObjectPage(VALID_BUCKET, 0, VALID_LIMIT, false, false, null);
+    assertEquals(Integer.valueOf(7), page.getLastId());
+
+    @SuppressWarnings("unchecked")
+    SqlService.RowHandler<RepoObject> handler = mock(SqlService.RowHandler.class);
+    page.list(handler);
+
+    verify(sqlService, times(1)).chooseReplica();
+    verify(sqlService, times(2)).getReplicaConnection(replica);
+    verify(sqlService).listObjectsAfter(eq(VALID_BUCKET), eq(0), eq(7), eq(VALID_LIMIT), eq(false), eq(false),
+        isNull(String.class), Matchers.<SqlService.RowHandler<RepoObject>>any());
+    verify(sqlService, times(2)).releaseConnection();
+  }
+
+  @Test
+  public void storedContentIsResolvedBeforeTheTransaction() throws Exception {
+    InputRepoObject inputRepoObject = new InputRepoObject();
+    inputRepoObject.setBucketName(VALID_BUCKET);
+    inputRepoObject.setKey("key");
+    inputRepoObject.setChecksum("ABCDEF");
+
+    when(sqlService.getBucket(VALID_BUCKET)).thenReturn(bucket);
+    when(sqlService.getReferencedContentSize(VALID_BUCKET, "abcdef")).thenReturn(5L);
+    when(objectStore.probeObjectExists(any(RepoObject.class))).thenReturn(true);
+    when(sqlService.insertObject(any(RepoObject.class))).thenReturn(1);
+    when(auditWriter.write(any(Audit.class))).thenReturn(true);
+
+    RepoObject repoObject = repoService.createObject(RepoService.CreateMethod.NEW, inputRepoObject);
+    assertEquals("abcdef", repoObject.getChecksum());
+    assertEquals(Long.valueOf(5), repoObject.getSize());
+
+    // the content is looked up on a read-only connection, not in the transaction that inserts the object
+    InOrder inOrder = inOrder(sqlService, objectStore);
+    inOrder.verify(sqlService).getReferencedContentSize(VALID_BUCKET, "abcdef");
+    inOrder.verify(objectStore).probeObjectExists(any(RepoObject.class));
+    inOrder.verify(sqlService).getConnection();
+    inOrder.verify(sqlService).insertObject(any(RepoObject.class));
+    verify(objectStore, times(1)).probeObjectExists(any(RepoObject.class));
+  }
+
 }
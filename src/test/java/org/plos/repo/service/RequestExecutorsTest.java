@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.plos.repo.models.output.ExecutorStatus;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestExecutorsTest {
+
+  private RequestExecutors requestExecutors = new RequestExecutors(1, 1, 1, 0);
+
+  @After
+  public void tearDown() {
+    requestExecutors.stop();
+  }
+
+  @Test
+  public void fullPoolRejectsRightAway() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    requestExecutors.getStorePool().execute(block(started, release));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    // the store pool has no queue, so a second transfer is turned away
+    try {
+      requestExecutors.getStorePool().execute(block(new CountDownLatch(1), release));
+      fail("Expected the store pool to be full");
+    } catch (RepoException e) {
+      assertEquals(RepoException.Type.ServerBusy, e.getType());
+    }
+
+    // while the database pool, which is separate, still takes work
+    CountDownLatch sqlStarted = new CountDownLatch(1);
+    requestExecutors.getSqlPool().execute(block(sqlStarted, new CountDownLatch(0)));
+    assertTrue(sqlStarted.await(5, TimeUnit.SECONDS));
+
+    ExecutorStatus status = requestExecutors.getStorePool().getStatus();
+    assertEquals(1, status.threads);
+    assertEquals(1, status.activeCount);
+    assertEquals(0, status.queueCapacity);
+    assertEquals(1, status.rejectedCount);
+    assertEquals(0, requestExecutors.getSqlPool().getStatus().rejectedCount);
+
+    release.countDown();
+  }
+
+  @Test
+  public void queuedTasksWaitForAThread() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch queuedStarted = new CountDownLatch(1);
+
+    requestExecutors.getSqlPool().execute(block(started, release));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    requestExecutors.getSqlPool().execute(block(queuedStarted, new CountDownLatch(0)));
+    assertEquals(1, requestExecutors.getSqlPool().getStatus().queueSize);
+
+    try {
+      requestExecutors.getSqlPool().execute(block(new CountDownLatch(1), release));
+      fail("Expected the database pool queue to be full");
+    } catch (RepoException e) {
+      assertEquals(RepoException.Type.ServerBusy, e.getType());
+    }
+
+    release.countDown();
+    assertTrue(queuedStarted.await(5, TimeUnit.SECONDS));
+  }
+
+  private static Runnable block(final CountDownLatch started, final CountDownLatch release) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+  }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.service;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.plos.repo.models.Bucket;
+import org.plos.repo.models.RepoObject;
+import org.plos.repo.models.Status;
+import org.plos.repo.util.ChecksumGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class S3StoreServiceTest {
+
+  private static final String BUCKET_NAME = "bucket";
+  private static final String CHECKSUM = "cbcc2ff6a0894e6e7f9a1a6a6a36b68fb36aa151";
+  private static final String UPLOAD_ID = "upload";
+
+  @Mock
+  private AmazonS3Client s3Client;
+
+  private File tempFile;
+
+  private ObjectStore.UploadInfo uploadInfo;
+
+  private RepoObject repoObject;
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+
+    tempFile = File.createTempFile("s3test", ".tmp");
+    FileUtils.writeStringToFile(tempFile, "0123456789abcdefghij01234");
+
+    uploadInfo = new ObjectStore.UploadInfo() {
+      @Override
+      public Long getSize() {
+        return tempFile.length();
+      }
+
+      @Override
+      public String getTempLocation() {
+        return tempFile.getPath();
+      }
+
+      @Override
+      public String getChecksum() {
+        return CHECKSUM;
+      }
+
+      @Override
+      public Map<ChecksumGenerator.Algorithm, String> getDigests() {
+        return Collections.singletonMap(ChecksumGenerator.Algorithm.SHA1, CHECKSUM);
+      }
+    };
+
+    repoObject = new RepoObject("key", 1, BUCKET_NAME, Status.USED);
+
+    InitiateMultipartUploadResult initiateResult = new InitiateMultipartUploadResult();
+    initiateResult.setUploadId(UPLOAD_ID);
+    when(s3Client.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenReturn(initiateResult);
+  }
+
+  @After
+  public void tearDown() {
+    tempFile.delete();
+  }
+
+  @Test
+  public void smallObjectIsPut() {
+    S3StoreService objectStore = new S3StoreService(s3Client, 100, 10, 2, 3, 1);
+
+    assertTrue(objectStore.saveUploadedObject(new Bucket(BUCKET_NAME), uploadInfo, repoObject));
+
+    verify(s3Client).putObject(any(PutObjectRequest.class));
+    verify(s3Client, never()).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+  }
+
+  @Test
+  public void largeObjectIsUploadedInParts() {
+    when(s3Client.uploadPart(any(UploadPartRequest.class))).thenAnswer(new PartAnswer(0));
+    S3StoreService objectStore = new S3StoreService(s3Client, 20, 10, 2, 3, 1);
+    long size = uploadInfo.getSize();
+
+    assertTrue(objectStore.saveUploadedObject(new Bucket(BUCKET_NAME), uploadInfo, repoObject));
+
+    ArgumentCaptor<UploadPartRequest> parts = ArgumentCaptor.forClass(UploadPartRequest.class);
+    verify(s3Client, times(3)).uploadPart(parts.capture());
+    long uploaded = 0;
+    for (UploadPartRequest part : parts.getAllValues()) {
+      assertEquals(UPLOAD_ID, part.getUploadId());
+      assertEquals((part.getPartNumber() - 1) * 10L, part.getFileOffset());
+      uploaded += part.getPartSize();
+    }
+    assertEquals(size, uploaded);
+
+    ArgumentCaptor<CompleteMultipartUploadRequest> complete = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+    verify(s3Client).completeMultipartUpload(complete.capture());
+    assertEquals(3, complete.getValue().getPartETags().size());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i + 1, complete.getValue().getPartETags().get(i).getPartNumber());
+    }
+    verify(s3Client, never()).putObject(any(PutObjectRequest.class));
+  }
+
+  @Test
+  public void failedPartIsRetried() {
+    when(s3Client.uploadPart(any(UploadPartRequest.class))).thenAnswer(new PartAnswer(2));
+    S3StoreService objectStore = new S3StoreService(s3Client, 20, 10, 2, 3, 1);
+
+    assertTrue(objectStore.saveUploadedObject(new Bucket(BUCKET_NAME), uploadInfo, repoObject));
+
+    verify(s3Client, times(5)).uploadPart(any(UploadPartRequest.class));
+    verify(s3Client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    verify(s3Client, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+  }
+
+  @Test
+  public void failedUploadIsAborted() {
+    when(s3Client.uploadPart(any(UploadPartRequest.class))).thenThrow(new AmazonClientException("failed"));
+    S3StoreService objectStore = new S3StoreService(s3Client, 20, 10, 2, 3, 1);
+
+    assertFalse(objectStore.saveUploadedObject(new Bucket(BUCKET_NAME), uploadInfo, repoObject));
+
+    verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+  }
+
+  @Test
+  public void clientErrorIsNotRetried() {
+    AmazonServiceException forbidden = new AmazonServiceException("forbidden");
+    forbidden.setStatusCode(403);
+    forbidden.setErrorCode("AccessDenied");
+    when(s3Client.putObject(any(PutObjectRequest.class))).thenThrow(forbidden);
+    S3StoreService objectStore = new S3StoreService(s3Client, 100, 10, 2, 3, 1);
+
+    assertFalse(objectStore.saveUploadedObject(new Bucket(BUCKET_NAME), uploadInfo, repoObject));
+
+    verify(s3Client, times(1)).putObject(any(PutObjectRequest.class));
+  }
+
+  @Test
+  public void retryableFailures() {
+    assertTrue(S3StoreService.isRetryable(serviceException(500, "InternalError")));
+    assertTrue(S3StoreService.isRetryable(serviceException(503, "SlowDown")));
+    assertTrue(S3StoreService.isRetryable(serviceException(429, null)));
+    assertTrue(S3StoreService.isRetryable(serviceException(400, "RequestTimeout")));
+    assertTrue(S3StoreService.isRetryable(new AmazonClientException("Unable to execute HTTP request",
+        new IOException("Connection reset"))));
+
+    assertFalse(S3StoreService.isRetryable(serviceException(400, "InvalidArgument")));
+    assertFalse(S3StoreService.isRetryable(serviceException(403, "AccessDenied")));
+    assertFalse(S3StoreService.isRetryable(serviceException(404, "NoSuchBucket")));
+    assertFalse(S3StoreService.isRetryable(new AmazonClientException("Unable to calculate MD5 hash")));
+  }
+
+  @Test
+  public void objectExistsChecksMetadataOnly() {
+    when(s3Client.getObjectMetadata(BUCKET_NAME, CHECKSUM)).thenReturn(new ObjectMetadata());
+    S3StoreService objectStore = new S3StoreService(s3Client, 20, 10, 2, 3, 1, 60);
+    repoObject.setChecksum(CHECKSUM);
+
+    assertTrue(objectStore.objectExists(repoObject));
+    assertTrue(objectStore.objectExists(repoObject));
+
+    verify(s3Client, times(1)).getObjectMetadata(BUCKET_NAME, CHECKSUM);
+    verify(s3Client, never()).getObject(BUCKET_NAME, CHECKSUM);
+  }
+
+  @Test
+  public void objectExistsMissingContentIsNotCached() {
+    AmazonServiceException notFound = new AmazonServiceException("not found");
+    notFound.setStatusCode(404);
+    when(s3Client.getObjectMetadata(BUCKET_NAME, CHECKSUM)).thenThrow(notFound);
+    S3StoreService objectStore = new S3StoreService(s3Client, 20, 10, 2, 3, 1, 60);
+    repoObject.setChecksum(CHECKSUM);
+
+    assertFalse(objectStore.objectExists(repoObject));
+    assertFalse(objectStore.objectExists(repoObject));
+
+    verify(s3Client, times(2)).getObjectMetadata(BUCKET_NAME, CHECKSUM);
+  }
+
+  @Test
+  public void probeBypassesObjectExistsCache() {
+    AmazonServiceException notFound = new AmazonServiceException("not found");
+    notFound.setStatusCode(404);
+    when(s3Client.getObjectMetadata(BUCKET_NAME, CHECKSUM)).thenReturn(new ObjectMetadata()).thenThrow(notFound);
+    S3StoreService objectStore = new S3StoreService(s3Client, 20, 10, 2, 3, 1, 60);
+    repoObject.setChecksum(CHECKSUM);
+
+    assertTrue(objectStore.objectExists(repoObject));
+
+    // purged through another node
+    assertFalse(objectStore.probeObjectExists(repoObject));
+    assertFalse(objectStore.objectExists(repoObject));
+
+    verify(s3Client, times(3)).getObjectMetadata(BUCKET_NAME, CHECKSUM);
+  }
+
+  @Test
+  public void deleteInvalidatesObjectExists() {
+    when(s3Client.getObjectMetadata(BUCKET_NAME, CHECKSUM)).thenReturn(new ObjectMetadata());
+    S3StoreService objectStore = new S3StoreService(s3Client, 20, 10, 2, 3, 1, 60);
+    repoObject.setChecksum(CHECKSUM);
+
+    assertTrue(objectStore.objectExists(repoObject));
+    assertTrue(objectStore.deleteObject(repoObject));
+    assertTrue(objectStore.objectExists(repoObject));
+
+    verify(s3Client, times(2)).getObjectMetadata(BUCKET_NAME, CHECKSUM);
+  }
+
+  /**
+   * Answers part uploads, failing the given number of attempts first.
+   */
+  private static AmazonServiceException serviceException(int statusCode, String errorCode) {
+    AmazonServiceException e = new AmazonServiceException("failed");
+    e.setStatusCode(statusCode);
+    e.setErrorCode(errorCode);
+    return e;
+  }
+
+  private static class PartAnswer implements Answer<UploadPartResult> {
+
+    private final AtomicInteger failures;
+
+    private PartAnswer(int failures) {
+      this.failures = new AtomicInteger(failures);
+    }
+
+    @Override
+    public UploadPartResult answer(InvocationOnMock invocation) {
+      if (failures.getAndDecrement() > 0) {
+        throw new AmazonClientException("failed", new IOException("Connection reset"));
+      }
+
+      UploadPartRequest request = (UploadPartRequest) invocation.getArguments()[0];
+      UploadPartResult result = new UploadPartResult();
+      result.setPartNumber(request.getPartNumber());
+      result.setETag("etag" + request.getPartNumber());
+      return result;
+    }
+
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.plos.repo.service;
+
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.plos.repo.models.Bucket;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Sql service test, against a database that compares keys ignoring their case like MySQL does by default
+ */
+public class SqlServiceTest {
+
+  private static final String BUCKET_NAME = "bucket";
+
+  private Connection keepAlive;
+
+  private SqlService sqlService;
+
+  @Before
+  public void setup() throws Exception {
+    JDBCDataSource ds = new JDBCDataSource();
+    ds.setUrl("jdbc:hsqldb:mem:plosrepo-ignorecase;shutdown=true;sql.syntax_mys=true;sql.ignore_case=true");
+    ds.setUser("");
+    ds.setPassword("");
+
+    // the in-memory database lives as long as this connection is open
+    keepAlive = ds.getConnection();
+    ScriptRunner scriptRunner = new ScriptRunner(keepAlive, false, true);
+    scriptRunner.setLogWriter(null);
+    scriptRunner.runScript(new BufferedReader(new InputStreamReader(
+        new ClassPathResource("setup.hsql").getInputStream(), "UTF-8")));
+
+    sqlService = new HsqlService();
+    sqlService.setDataSource(ds);
+
+    sqlService.getConnection();
+    sqlService.insertBucket(new Bucket(BUCKET_NAME), new Timestamp(System.currentTimeMillis()));
+    sqlService.transactionCommit();
+    sqlService.releaseConnection();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    keepAlive.close();
+  }
+
+  @Test
+  public void versionNumbersOfKeysThatDifferInCase() throws Exception {
+    assertEquals(Integer.valueOf(0), reserve("foo", "bar").get("foo"));
+
+    Map<String, Integer> versions = reserve("Foo", "bar", "baz");
+
+    assertEquals(Integer.valueOf(1), versions.get("Foo"));
+    assertEquals(Integer.valueOf(1), versions.get("bar"));
+    assertEquals(Integer.valueOf(0), versions.get("baz"));
+  }
+
+  private Map<String, Integer> reserve(String... keys) throws Exception {
+    sqlService.getConnection();
+    try {
+      Map<String, Integer> versions = sqlService.getObjectNextAvailableVersions(BUCKET_NAME, Arrays.asList(keys));
+      sqlService.transactionCommit();
+      return versions;
+    } finally {
+      sqlService.releaseConnection();
+    }
+  }
+
+}
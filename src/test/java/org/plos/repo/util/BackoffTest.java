@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BackoffTest {
+
+  @Test
+  public void delayDoublesUpToMaximum() {
+    Backoff backoff = new Backoff(100, 1000);
+
+    assertEquals(100, backoff.getMaxDelayMillis(0));
+    assertEquals(200, backoff.getMaxDelayMillis(1));
+    assertEquals(800, backoff.getMaxDelayMillis(3));
+    assertEquals(1000, backoff.getMaxDelayMillis(4));
+    assertEquals(1000, backoff.getMaxDelayMillis(100));
+  }
+
+  @Test
+  public void delayIsWithinBounds() {
+    Backoff backoff = new Backoff(100, 1000);
+
+    for (int retry = 0; retry < 10; retry++) {
+      for (int i = 0; i < 100; i++) {
+        long delay = backoff.getDelayMillis(retry);
+        assertTrue(delay >= 0 && delay <= backoff.getMaxDelayMillis(retry));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.util;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ByteRangeTest {
+
+  @Test
+  public void parseRanges() {
+    List<ByteRange> ranges = ByteRange.parse("bytes=0-99", 1000);
+    assertEquals(1, ranges.size());
+    assertEquals(0, ranges.get(0).getFirst());
+    assertEquals(99, ranges.get(0).getLast());
+    assertEquals(100, ranges.get(0).getLength());
+    assertEquals("bytes 0-99/1000", ranges.get(0).toContentRange(1000));
+
+    // open ended and suffix ranges
+    ranges = ByteRange.parse("bytes=900-", 1000);
+    assertEquals(900, ranges.get(0).getFirst());
+    assertEquals(999, ranges.get(0).getLast());
+
+    ranges = ByteRange.parse("bytes=-100", 1000);
+    assertEquals(900, ranges.get(0).getFirst());
+    assertEquals(999, ranges.get(0).getLast());
+
+    ranges = ByteRange.parse("bytes=-2000", 1000);
+    assertEquals(0, ranges.get(0).getFirst());
+
+    // the last byte is clipped to the size of the object
+    ranges = ByteRange.parse("bytes=500-5000", 1000);
+    assertEquals(999, ranges.get(0).getLast());
+  }
+
+  @Test
+  public void mergeRanges() {
+    List<ByteRange> ranges = ByteRange.parse("bytes=500-599, 0-99, 50-149, 150-199", 1000);
+    assertEquals(2, ranges.size());
+    assertEquals(0, ranges.get(0).getFirst());
+    assertEquals(199, ranges.get(0).getLast());
+    assertEquals(500, ranges.get(1).getFirst());
+    assertEquals(599, ranges.get(1).getLast());
+  }
+
+  @Test
+  public void unsatisfiableRanges() {
+    assertTrue(ByteRange.parse("bytes=1000-1099", 1000).isEmpty());
+    assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+
+    // satisfiable ranges are kept
+    assertEquals(1, ByteRange.parse("bytes=1000-1099,0-0", 1000).size());
+  }
+
+  @Test
+  public void invalidRanges() {
+    assertNull(ByteRange.parse(null, 1000));
+    assertNull(ByteRange.parse("items=0-99", 1000));
+    assertNull(ByteRange.parse("bytes=99-0", 1000));
+    assertNull(ByteRange.parse("bytes=abc", 1000));
+    assertNull(ByteRange.parse("bytes=a-b", 1000));
+  }
+
+}
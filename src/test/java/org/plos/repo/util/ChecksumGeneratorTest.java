@@ -29,10 +29,13 @@ import org.plos.repo.models.RepoCollection;
 import org.plos.repo.models.RepoObject;
 import org.plos.repo.service.RepoException;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
@@ -57,6 +60,8 @@ public class ChecksumGeneratorTest {
   private static final String DOWNLOAD_NAME = "draft_object";
   private static final String CONTENT_TYPE1 = "image/jpg";
   private static final String COLLECTION_KEY = "collection";
+  // the check value input of the CRC catalogues
+  private static final byte[] CHECK_DATA = "123456789".getBytes(StandardCharsets.US_ASCII);
 
   private ChecksumGenerator checksumGenerator;
 
@@ -147,6 +152,50 @@ public class ChecksumGeneratorTest {
     verifyObjectCalls(repoObject2, 2, 2, 1);
   }
 
+  @Test
+  public void hexChecksum() throws RepoException {
+    assertEquals("00010fa0ff", checksumGenerator.checksumToString(new byte[]{0, 1, 15, (byte) 0xa0, (byte) 0xff}));
+    assertEquals("f7c3bc1d808e04732adf679965ccc34ca7ae3441",
+        checksumGenerator.checksumToString(checksumGenerator.getDigestMessage().digest(CHECK_DATA)));
+  }
+
+  @Test
+  public void digestsOfBucketPolicy() throws RepoException {
+    checksumGenerator = new ChecksumGenerator("figures: SHA-256, CRC32C ; *:CRC32C");
+
+    ContentHasher hasher = checksumGenerator.newHasher("figures");
+    hasher.update(CHECK_DATA, 0, 4);
+    hasher.update(CHECK_DATA, 4, CHECK_DATA.length - 4);
+
+    Map<ChecksumGenerator.Algorithm, String> digests = hasher.getDigests();
+    assertEquals(3, digests.size());
+    assertEquals("f7c3bc1d808e04732adf679965ccc34ca7ae3441", hasher.getChecksum());
+    assertEquals("15e2b0d3c33891ebb0f1ef609ec419420c20e320ce94c65fbc8c3312448eb225",
+        digests.get(ChecksumGenerator.Algorithm.SHA256));
+    assertEquals("e3069283", digests.get(ChecksumGenerator.Algorithm.CRC32C));
+    assertEquals(CHECK_DATA.length, hasher.getSize());
+
+    assertEquals(EnumSet.of(ChecksumGenerator.Algorithm.SHA1, ChecksumGenerator.Algorithm.CRC32C),
+        checksumGenerator.getAlgorithms("other"));
+    assertEquals(EnumSet.of(ChecksumGenerator.Algorithm.SHA1), new ChecksumGenerator().getAlgorithms("figures"));
+  }
+
+  @Test
+  public void checksumHasherIgnoresBucketPolicy() throws RepoException {
+    checksumGenerator = new ChecksumGenerator("*: SHA-256, CRC32C");
+
+    ContentHasher hasher = checksumGenerator.newChecksumHasher();
+    hasher.update(CHECK_DATA, 0, CHECK_DATA.length);
+
+    assertEquals(1, hasher.getDigests().size());
+    assertEquals("f7c3bc1d808e04732adf679965ccc34ca7ae3441", hasher.getChecksum());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownAlgorithm() {
+    new ChecksumGenerator("figures:MD5");
+  }
+
   private void mockObjectCalls(RepoObject repoObject, String key, Timestamp timestamp, String tag, String contentType, String downloadName, String checksum) {
     when(repoObject.getKey()).thenReturn(key);
     when(repoObject.getCreationDate()).thenReturn(timestamp);
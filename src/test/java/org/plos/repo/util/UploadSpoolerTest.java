@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2017 Public Library of Science
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.plos.repo.util;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upload spooler test
+ */
+public class UploadSpoolerTest {
+
+  private static final int BUFFER_BYTES = 1024;
+
+  private File spoolDirectory;
+
+  private ChecksumGenerator checksumGenerator;
+
+  private UploadSpooler uploadSpooler;
+
+  @Before
+  public void setup() throws Exception {
+    spoolDirectory = Files.createTempDirectory("spool").toFile();
+    checksumGenerator = new ChecksumGenerator();
+    uploadSpooler = new UploadSpooler(spoolDirectory, BUFFER_BYTES, 2, 2);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(spoolDirectory);
+  }
+
+  @Test
+  public void copyInChunks() throws Exception {
+    // larger than the pooled buffer, so that it is written several times
+    byte[] data = randomData(3 * BUFFER_BYTES + 17);
+    File file = uploadSpooler.newTempFile();
+
+    ContentHasher hasher = checksumGenerator.newHasher(null);
+    long size = uploadSpooler.copy(new ByteArrayInputStream(data), file, hasher);
+
+    assertEquals(spoolDirectory, file.getParentFile());
+    assertEquals(data.length, size);
+    assertArrayEquals(data, FileUtils.readFileToByteArray(file));
+    assertEquals(checksum(data), hasher.getChecksum());
+
+    ContentHasher streamHasher = checksumGenerator.newHasher(null);
+    IOUtils.copy(streamHasher.wrap(new ByteArrayInputStream(data)), new ByteArrayOutputStream());
+    assertEquals(hasher.getChecksum(), streamHasher.getChecksum());
+  }
+
+  @Test
+  public void smallContentIsSpooledInMemory() throws Exception {
+    byte[] data = randomData(BUFFER_BYTES);
+    ContentHasher hasher = checksumGenerator.newHasher(null);
+
+    try (UploadSpooler.Spool spool = uploadSpooler.spool(new ByteArrayInputStream(data), hasher)) {
+      assertTrue(spool.isInMemory());
+      assertEquals(data.length, spool.getSize());
+      assertEquals(0, spoolDirectory.list().length);
+
+      // the content can be read more than once
+      for (int i = 0; i < 2; i++) {
+        try (InputStream content = spool.openStream()) {
+          assertArrayEquals(data, IOUtils.toByteArray(content));
+        }
+      }
+    }
+
+    assertEquals(checksum(data), hasher.getChecksum());
+  }
+
+  @Test
+  public void largeContentIsSpooledToFile() throws Exception {
+    byte[] data = randomData(2 * BUFFER_BYTES + 1);
+    ContentHasher hasher = checksumGenerator.newHasher(null);
+
+    try (UploadSpooler.Spool spool = uploadSpooler.spool(new ByteArrayInputStream(data), hasher)) {
+      assertFalse(spool.isInMemory());
+      assertEquals(data.length, spool.getSize());
+      assertEquals(1, spoolDirectory.list().length);
+
+      try (InputStream content = spool.openStream()) {
+        assertArrayEquals(data, IOUtils.toByteArray(content));
+      }
+    }
+
+    assertEquals(checksum(data), hasher.getChecksum());
+    assertEquals(0, spoolDirectory.list().length);
+  }
+
+  @Test
+  public void contentIsSpooledToFileWhenNoBufferIsLeft() throws Exception {
+    byte[] data = randomData(BUFFER_BYTES);
+
+    try (UploadSpooler.Spool first = spool(data);
+         UploadSpooler.Spool second = spool(data)) {
+      assertTrue(first.isInMemory());
+      assertTrue(second.isInMemory());
+
+      ContentHasher hasher = checksumGenerator.newHasher(null);
+      try (UploadSpooler.Spool spool = uploadSpooler.spool(new ByteArrayInputStream(data), hasher)) {
+        assertFalse(spool.isInMemory());
+        assertEquals(data.length, spool.getSize());
+
+        try (InputStream content = spool.openStream()) {
+          assertArrayEquals(data, IOUtils.toByteArray(content));
+        }
+      }
+      assertEquals(checksum(data), hasher.getChecksum());
+
+      File file = uploadSpooler.newTempFile();
+      long size = uploadSpooler.copy(new ByteArrayInputStream(data), file, checksumGenerator.newHasher(null));
+      assertEquals(data.length, size);
+      assertArrayEquals(data, FileUtils.readFileToByteArray(file));
+    }
+
+    // the buffers are handed out again once released
+    try (UploadSpooler.Spool spool = spool(data)) {
+      assertTrue(spool.isInMemory());
+    }
+  }
+
+  private UploadSpooler.Spool spool(byte[] data) throws Exception {
+    return uploadSpooler.spool(new ByteArrayInputStream(data), checksumGenerator.newHasher(null));
+  }
+
+  private String checksum(byte[] data) throws Exception {
+    return checksumGenerator.checksumToString(checksumGenerator.getDigestMessage().digest(data));
+  }
+
+  private static byte[] randomData(int size) {
+    byte[] data = new byte[size];
+    new Random(1).nextBytes(data);
+    return data;
+  }
+
+}